@@ -0,0 +1,52 @@
+package wip.VF2.benchmark;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.graph.Graph;
+import wip.VF2.runner.App;
+
+/**
+ * Locates and loads the benchmark workloads in the data directory (data/graphDB by default)
+ */
+final class BenchmarkData {
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Resolve a data file, failing with a readable message if it is missing
+	 * @param dataDir	Data directory
+	 * @param file		File name, e.g. Q4.my or mygraphdb.data
+	 * @return			Path of the file
+	 * @throws FileNotFoundException
+	 */
+	static Path resolve(String dataDir, String file) throws FileNotFoundException {
+		Path path = Paths.get(dataDir, file);
+		if (!Files.isRegularFile(path)) {
+			throw new FileNotFoundException(path.toAbsolutePath() + " not found, set the data directory with -p dataDir=<dir>");
+		}
+		return path;
+	}
+
+	/**
+	 * Load a graph file and freeze the graphs for matching
+	 * @param dataDir		Data directory
+	 * @param file			File name
+	 * @param namePrefix	The prefix of the names of graphs
+	 * @return				Graph Set
+	 * @throws FileNotFoundException
+	 */
+	static ArrayList<CompactGraph> load(String dataDir, String file, String namePrefix) throws FileNotFoundException {
+		ArrayList<Graph> graphSet = App.loadGraphSetFromFile(resolve(dataDir, file), namePrefix);
+		ArrayList<CompactGraph> compactSet = new ArrayList<CompactGraph>(graphSet.size());
+		for (Graph graph : graphSet) {
+			compactSet.add(graph.freeze());
+		}
+		return compactSet;
+	}
+}
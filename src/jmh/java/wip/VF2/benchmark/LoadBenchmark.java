@@ -0,0 +1,61 @@
+package wip.VF2.benchmark;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.graph.Graph;
+import wip.VF2.io.GraphReader;
+import wip.VF2.runner.App;
+
+/**
+ * Parsing the text graph files, with App.loadGraphSetFromFile (Scanner, Node/Edge objects)
+ * and with the byte-level GraphReader (CompactGraphs)
+ * The target database is included with -p file=mygraphdb.data
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+	@Param("data/graphDB")
+	public String dataDir;
+
+	@Param({"Q4.my", "Q8.my", "Q12.my", "Q16.my", "Q20.my", "Q24.my"})
+	public String file;
+
+	private Path path;
+
+	@Setup
+	public void setup() throws FileNotFoundException {
+		path = BenchmarkData.resolve(dataDir, file);
+	}
+
+	@Benchmark
+	public ArrayList<Graph> loadGraphSetFromFile() throws FileNotFoundException {
+		return App.loadGraphSetFromFile(path, "Graph ");
+	}
+
+	@Benchmark
+	public ArrayList<CompactGraph> graphReader() throws IOException {
+		return GraphReader.readAll(path, "Graph ");
+	}
+}
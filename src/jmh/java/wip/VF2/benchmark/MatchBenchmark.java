@@ -0,0 +1,132 @@
+package wip.VF2.benchmark;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import wip.VF2.core.MatchingOrder;
+import wip.VF2.core.VF2;
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.index.GraphIndex;
+
+/**
+ * Matching the bundled query files (Q4.my ... Q24.my) against a target file, Q24.my unless -p targets is given
+ *
+ * matchGraphPair cycles through representative pairs: for each of the first PAIR_QUERIES queries,
+ * the first target that contains it and the first target that passes the index filter but does not.
+ * matchGraphSetWithQuery cycles through the queries, one query against the whole indexed target set per operation.
+ * matchQueryFile runs the whole query file, as App does.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchBenchmark {
+
+	private static final int PAIR_QUERIES = 100;
+
+	@Param("data/graphDB")
+	public String dataDir;
+
+	@Param("Q24.my")	// bundled, -p targets=mygraphdb.data for the full database
+	public String targets;
+
+	@Param({"Q4.my", "Q8.my", "Q12.my", "Q16.my", "Q20.my", "Q24.my"})
+	public String queries;
+
+	private final VF2 vf2 = new VF2();
+
+	private GraphIndex index;
+	private List<CompactGraph> querySet;
+	private MatchingOrder[] orders;			// matching order of each query
+	private CompactGraph[] pairTargets;		// representative pairs
+	private CompactGraph[] pairQueries;
+	private MatchingOrder[] pairOrders;
+
+	private int nextPair = 0;
+	private int nextQuery = 0;
+
+	@Setup
+	public void setup() throws FileNotFoundException {
+		index = new GraphIndex(BenchmarkData.load(dataDir, targets, "Graph "));
+		querySet = BenchmarkData.load(dataDir, queries, "Query ");
+		orders = new MatchingOrder[querySet.size()];
+		for (int i = 0 ; i < orders.length ; i++) {
+			orders[i] = new MatchingOrder(querySet.get(i), index);
+		}
+
+		ArrayList<Integer> pairs = new ArrayList<Integer>();	// (target, query) index pairs, flattened
+		List<CompactGraph> targetSet = index.getGraphSet();
+		for (int q = 0 ; q < Math.min(PAIR_QUERIES, querySet.size()) ; q++) {
+			List<CompactGraph> candidates = index.filter(querySet.get(q));
+			boolean foundMatch = false, foundMismatch = false;
+			for (CompactGraph target : candidates) {
+				boolean matched = vf2.matchGraphPair(target, querySet.get(q), orders[q]).matched;
+				if ((matched && !foundMatch) || (!matched && !foundMismatch)) {
+					pairs.add(targetSet.indexOf(target));
+					pairs.add(q);
+				}
+				foundMatch |= matched;
+				foundMismatch |= !matched;
+				if (foundMatch && foundMismatch) {
+					break;
+				}
+			}
+		}
+		int pairCount = pairs.size() / 2;
+		if (pairCount == 0) {
+			throw new IllegalStateException("no query of " + queries + " passes the index filter of " + targets);
+		}
+		pairTargets = new CompactGraph[pairCount];
+		pairQueries = new CompactGraph[pairCount];
+		pairOrders = new MatchingOrder[pairCount];
+		for (int i = 0 ; i < pairCount ; i++) {
+			pairTargets[i] = targetSet.get(pairs.get(2 * i));
+			pairQueries[i] = querySet.get(pairs.get(2 * i + 1));
+			pairOrders[i] = orders[pairs.get(2 * i + 1)];
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public boolean matchGraphPair() {
+		int i = nextPair;
+		nextPair = (i + 1) % pairTargets.length;
+		return vf2.matchGraphPair(pairTargets[i], pairQueries[i], pairOrders[i]).matched;
+	}
+
+	@Benchmark
+	@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int matchGraphSetWithQuery() {
+		int i = nextQuery;
+		nextQuery = (i + 1) % querySet.size();
+		return vf2.matchGraphSetWithQuery(index.filter(querySet.get(i)), querySet.get(i), orders[i]).size();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 3)
+	public void matchQueryFile(Blackhole blackhole) {
+		for (CompactGraph queryGraph : querySet) {
+			blackhole.consume(vf2.matchGraphSetWithQuery(index, queryGraph));
+		}
+	}
+}
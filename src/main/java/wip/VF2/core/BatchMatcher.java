@@ -0,0 +1,424 @@
+package wip.VF2.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.index.GraphIndex;
+import wip.VF2.index.GraphSummary;
+
+/**
+ * Matches a whole query set against the target graph set in one pass over the targets.
+ *
+ * The queries are merged into a trie over their matching orders: a trie node stands for one more
+ * query node, identified by its label and its edges to the query nodes of the earlier positions.
+ * Queries whose first k positions induce the same labeled graph share the first k trie nodes,
+ * so a partial mapping of that prefix is found once per target and extended for all of them.
+ * Each target graph is visited once per batch, and the search below a trie node stops as soon as
+ * every query under it has been matched in the current target (or filtered out by the index).
+ *
+ * The feasibility rules used are the ones that hold for every query under a trie node: the labels
+ * and the edges to the mapped positions, and degree and signature bounds taken as the minimum
+ * over those queries. The look-ahead rules of VF2 depend on the whole query and are not applied.
+ * Search budgets and metrics (see VF2) are not applied to a batch.
+ */
+public class BatchMatcher {
+
+	private final MatchingMode mode;
+	private final GraphIndex index;
+	private final ArrayList<CompactGraph> querySet = new ArrayList<CompactGraph>();
+	private final ArrayList<MatchingOrder> orders = new ArrayList<MatchingOrder>();
+	private final GraphSummary[] summaries;
+	private final int[][] pathCandidates;	// target graphs of each query left by the path index, null: not restricted
+	private final Node[][] paths;	// trie nodes of each query by position, the root first
+	private final Node root = new Node(0, -1, null, -1, -1);
+	private int nodeCount = 1;
+	private int positionCount = 0;
+	private int maxQuerySize = 0;
+
+	// statistics of the last match()
+	private long states = 0;
+	private long checkedPairs = 0;
+
+	/**
+	 * Build the trie of a query set
+	 * @param querySet	Query graphs
+	 * @param index		Index over the target graph set, filtering the targets of each query and providing the label frequencies
+	 * @param mode		The matching semantics
+	 */
+	public BatchMatcher(List<CompactGraph> querySet, GraphIndex index, MatchingMode mode) {
+		this.mode = mode;
+		this.index = index;
+		this.summaries = new GraphSummary[querySet.size()];
+		this.paths = new Node[querySet.size()][];
+		this.pathCandidates = new int[querySet.size()][];
+		for (int q = 0 ; q < querySet.size() ; q++) {
+			CompactGraph queryGraph = querySet.get(q).prepare();
+			MatchingOrder order = new MatchingOrder(queryGraph, index);
+			this.querySet.add(queryGraph);
+			orders.add(order);
+			summaries[q] = new GraphSummary(queryGraph);
+			pathCandidates[q] = index.pathCandidates(queryGraph);
+			paths[q] = insert(queryGraph, order);
+			paths[q][paths[q].length - 1].ending.add(q);
+			positionCount += queryGraph.nodeCount();
+			maxQuerySize = Math.max(maxQuerySize, queryGraph.nodeCount());
+		}
+	}
+
+	// add the positions of a query to the trie, return the nodes on its path
+	private Node[] insert(CompactGraph queryGraph, MatchingOrder order) {
+		int n = queryGraph.nodeCount();
+		Node[] path = new Node[n + 1];
+		path[0] = root;
+		Node node = root;
+		for (int k = 0 ; k < n ; k++) {
+			int v = order.nodeAt(k);
+			int[] key = key(queryGraph, order, v, k);
+			Node child = null;
+			for (Node candidate : node.children) {
+				if (Arrays.equals(candidate.key, key)) {
+					child = candidate;
+					break;
+				}
+			}
+			if (child == null) {
+				child = new Node(nodeCount++, k, key, queryGraph.label(v), queryGraph.edgeLabel(v, v));
+				node.children.add(child);
+			}
+			// bounds that hold for every query through this node
+			child.minOutDegree = Math.min(child.minOutDegree, queryGraph.outDegree(v));
+			child.minInDegree = Math.min(child.minInDegree, queryGraph.inDegree(v));
+			child.signature &= queryGraph.signature(v);
+			path[k + 1] = child;
+			node = child;
+		}
+		return path;
+	}
+
+	// label, self loop and the edges to earlier positions of the query node at position k, as (position, direction, label) sorted
+	private static int[] key(CompactGraph queryGraph, MatchingOrder order, int v, int k) {
+		int[] edges = new int[3 * (queryGraph.outDegree(v) + queryGraph.inDegree(v))];
+		int size = 0;
+		for (int i = queryGraph.outBegin(v) ; i < queryGraph.outEnd(v) ; i++) {
+			int p = order.positionOf(queryGraph.outNeighbor(i));
+			if (p < k) {
+				edges[size++] = p;
+				edges[size++] = Node.OUT;
+				edges[size++] = queryGraph.outLabel(i);
+			}
+		}
+		for (int i = queryGraph.inBegin(v) ; i < queryGraph.inEnd(v) ; i++) {
+			int p = order.positionOf(queryGraph.inNeighbor(i));
+			if (p < k) {
+				edges[size++] = p;
+				edges[size++] = Node.IN;
+				edges[size++] = queryGraph.inLabel(i);
+			}
+		}
+		// insertion sort of the triples by position, then direction
+		for (int i = 3 ; i < size ; i += 3) {
+			for (int j = i ; j > 0 && (edges[j - 3] > edges[j] || (edges[j - 3] == edges[j] && edges[j - 2] > edges[j + 1])) ; j -= 3) {
+				for (int x = 0 ; x < 3 ; x++) {
+					int tmp = edges[j - 3 + x];
+					edges[j - 3 + x] = edges[j + x];
+					edges[j + x] = tmp;
+				}
+			}
+		}
+		int[] key = new int[size + 2];
+		key[0] = queryGraph.label(v);
+		key[1] = queryGraph.edgeLabel(v, v);
+		System.arraycopy(edges, 0, key, 2, size);
+		return key;
+	}
+
+	/**
+	 * Match every query against every target graph of the index that passes its filter
+	 * @return	For each query in the order of the query set, the States of its matches in the order of the target set
+	 */
+	public ArrayList<ArrayList<State>> match() {
+		ArrayList<ArrayList<State>> results = new ArrayList<ArrayList<State>>(querySet.size());
+		for (int q = 0 ; q < querySet.size() ; q++) {
+			results.add(new ArrayList<State>());
+		}
+		Search search = new Search(index.getMaxNodeCount());
+		List<CompactGraph> targetSet = index.getGraphSet();
+		states = 0;
+		checkedPairs = 0;
+		for (int i = 0 ; i < targetSet.size() ; i++) {
+			search.run(i, targetSet, results);
+		}
+		return results;
+	}
+
+	public int getQueryCount() {
+		return querySet.size();
+	}
+
+	/**
+	 * @return	Number of trie nodes, excluding the root; compare with getPositionCount() for the sharing
+	 */
+	public int getTrieSize() {
+		return nodeCount - 1;
+	}
+
+	/**
+	 * @return	Total node count of the queries, i.e. the trie size without any sharing
+	 */
+	public int getPositionCount() {
+		return positionCount;
+	}
+
+	/**
+	 * @return	Number of states expanded by the last match()
+	 */
+	public long getStateCount() {
+		return states;
+	}
+
+	/**
+	 * Print the trie and search statistics to console
+	 */
+	public void printStatistics() {
+		System.out.println("Query batch: " + querySet.size() + " queries, " + positionCount + " positions in "
+				+ getTrieSize() + " trie nodes, " + checkedPairs + " pairs searched, " + states + " states");
+	}
+
+	/**
+	 * One position of the trie
+	 */
+	private static class Node {
+
+		static final int OUT = 0;	// edge from this position to the earlier one
+		static final int IN = 1;	// edge from the earlier position to this one
+
+		final int id;
+		final int position;		// position in the matching order of the query node it stands for
+		final int[] key;		// label, self loop label and edges to the earlier positions, see key()
+		final int label;
+		final int selfLoop;		// label of the self loop, -1 if none
+		final int[] outTo;		// label of the edge to each earlier position, -1 if none
+		final int[] inFrom;		// label of the edge from each earlier position, -1 if none
+		final int edgeCount;	// edges to earlier positions, both directions
+
+		int minOutDegree = Integer.MAX_VALUE;
+		int minInDegree = Integer.MAX_VALUE;
+		long signature = -1L;
+
+		final ArrayList<Node> children = new ArrayList<Node>(2);
+		final ArrayList<Integer> ending = new ArrayList<Integer>(1);	// queries whose last position this is
+
+		Node(int id, int position, int[] key, int label, int selfLoop) {
+			this.id = id;
+			this.position = position;
+			this.key = key;
+			this.label = label;
+			this.selfLoop = selfLoop;
+			int p = Math.max(position, 0);
+			this.outTo = new int[p];
+			this.inFrom = new int[p];
+			Arrays.fill(outTo, -1);
+			Arrays.fill(inFrom, -1);
+			this.edgeCount = key == null ? 0 : (key.length - 2) / 3;
+			for (int i = 2 ; key != null && i < key.length ; i += 3) {
+				if (key[i + 1] == OUT) {
+					outTo[key[i]] = key[i + 2];
+				} else {
+					inFrom[key[i]] = key[i + 2];
+				}
+			}
+		}
+	}
+
+	/**
+	 * The search of the trie over one target graph at a time, with its scratch arrays
+	 */
+	private class Search {
+
+		private final int[] mapping = new int[maxQuerySize];	// target node of each mapped position
+		private int[] positionOf;								// position of each target node, -1 if unmapped
+		private final int[] live = new int[nodeCount];			// unmatched active queries under each trie node
+		private final boolean[] active = new boolean[querySet.size()];
+		private final int[] activeQueries = new int[querySet.size()];
+		private final int[] nextCandidate = new int[querySet.size()];	// position in pathCandidates, the targets come in order
+		private CompactGraph target;
+		private ArrayList<ArrayList<State>> results;
+
+		Search(int targetCapacity) {
+			positionOf = new int[targetCapacity];
+			Arrays.fill(positionOf, -1);
+		}
+
+		void run(int targetIndex, List<CompactGraph> targetSet, ArrayList<ArrayList<State>> results) {
+			GraphSummary summary = index.getSummary(targetIndex);
+			int activeCount = 0;
+			for (int q = 0 ; q < summaries.length ; q++) {
+				if (pathCandidates[q] != null) {
+					int[] candidates = pathCandidates[q];
+					while (nextCandidate[q] < candidates.length && candidates[nextCandidate[q]] < targetIndex) {
+						nextCandidate[q]++;
+					}
+					if (nextCandidate[q] == candidates.length || candidates[nextCandidate[q]] != targetIndex) {
+						continue;
+					}
+				}
+				active[q] = index.passes(targetIndex, summaries[q])
+						&& (mode != MatchingMode.ISOMORPHISM || (summary.nodeCount == summaries[q].nodeCount && summary.edgeCount == summaries[q].edgeCount));
+				if (active[q]) {
+					activeQueries[activeCount++] = q;
+					for (Node node : paths[q]) {
+						live[node.id]++;
+					}
+				}
+			}
+			if (activeCount == 0) {
+				return;
+			}
+			checkedPairs += activeCount;
+
+			target = targetSet.get(targetIndex).prepare();
+			if (positionOf.length < target.nodeCount()) {
+				positionOf = new int[target.nodeCount()];
+				Arrays.fill(positionOf, -1);
+			}
+			this.results = results;
+			search(root);
+
+			// the queries left unmatched restore the counters to zero
+			for (int i = 0 ; i < activeCount ; i++) {
+				int q = activeQueries[i];
+				if (active[q]) {
+					active[q] = false;
+					for (Node node : paths[q]) {
+						live[node.id]--;
+					}
+				}
+			}
+			target = null;
+		}
+
+		// extend the mapping of the positions up to node, for every query under it
+		private void search(Node node) {
+			states++;
+			for (int i = 0 ; i < node.ending.size() ; i++) {
+				int q = node.ending.get(i);
+				if (active[q]) {
+					found(q);
+				}
+			}
+			for (int c = 0 ; c < node.children.size() && live[node.id] > 0 ; c++) {
+				Node child = node.children.get(c);
+				if (live[child.id] == 0) {
+					continue;
+				}
+				int p = child.position;
+				if (child.edgeCount == 0) {
+					// first position of a component: any target node
+					for (int t = 0 ; t < target.nodeCount() && live[child.id] > 0 ; t++) {
+						tryMap(child, p, t);
+					}
+				} else {
+					// neighbors of the mapped position with the fewest of them
+					int anchor = -1;
+					boolean anchorOut = false;	// anchor -> new node is an edge of the target
+					int best = Integer.MAX_VALUE;
+					for (int e = 2 ; e < child.key.length ; e += 3) {
+						int m = mapping[child.key[e]];
+						boolean out = child.key[e + 1] == Node.IN;
+						int degree = out ? target.outDegree(m) : target.inDegree(m);
+						if (degree < best) {
+							best = degree;
+							anchor = m;
+							anchorOut = out;
+						}
+					}
+					if (anchorOut) {
+						for (int i = target.outBegin(anchor) ; i < target.outEnd(anchor) && live[child.id] > 0 ; i++) {
+							tryMap(child, p, target.outNeighbor(i));
+						}
+					} else {
+						for (int i = target.inBegin(anchor) ; i < target.inEnd(anchor) && live[child.id] > 0 ; i++) {
+							tryMap(child, p, target.inNeighbor(i));
+						}
+					}
+				}
+			}
+		}
+
+		private void tryMap(Node child, int p, int t) {
+			if (positionOf[t] != -1 || !feasible(child, t)) {
+				return;
+			}
+			mapping[p] = t;
+			positionOf[t] = p;
+			search(child);
+			positionOf[t] = -1;
+		}
+
+		private boolean feasible(Node child, int t) {
+			if (target.label(t) != child.label
+					|| target.outDegree(t) < child.minOutDegree || target.inDegree(t) < child.minInDegree
+					|| (child.signature & ~target.signature(t)) != 0) {
+				return false;
+			}
+			if (mode == MatchingMode.MONOMORPHISM) {
+				// only the edges of the query have to be there
+				if (child.selfLoop != -1 && target.edgeLabel(t, t) != child.selfLoop) {
+					return false;
+				}
+				for (int e = 2 ; e < child.key.length ; e += 3) {
+					int m = mapping[child.key[e]];
+					int label = child.key[e + 1] == Node.OUT ? target.edgeLabel(t, m) : target.edgeLabel(m, t);
+					if (label != child.key[e + 2]) {
+						return false;
+					}
+				}
+				return true;
+			}
+			// induced: the edges between t and the mapped nodes are exactly those of the query
+			if (target.edgeLabel(t, t) != child.selfLoop) {
+				return false;
+			}
+			int edges = 0;
+			for (int i = target.outBegin(t) ; i < target.outEnd(t) ; i++) {
+				int p = positionOf[target.outNeighbor(i)];
+				if (p != -1) {
+					if (child.outTo[p] != target.outLabel(i)) {
+						return false;
+					}
+					edges++;
+				}
+			}
+			for (int i = target.inBegin(t) ; i < target.inEnd(t) ; i++) {
+				int p = positionOf[target.inNeighbor(i)];
+				if (p != -1) {
+					if (child.inFrom[p] != target.inLabel(i)) {
+						return false;
+					}
+					edges++;
+				}
+			}
+			return edges == child.edgeCount;
+		}
+
+		// query q is matched by the current mapping, record it and stop searching for it in this target
+		private void found(int q) {
+			CompactGraph queryGraph = querySet.get(q);
+			MatchingOrder order = orders.get(q);
+			int[] queryMapping = new int[queryGraph.nodeCount()];
+			for (int k = 0 ; k < queryMapping.length ; k++) {
+				queryMapping[order.nodeAt(k)] = mapping[k];
+			}
+			State state = State.ofMapping(target, queryGraph, queryMapping);
+			state.order = order;
+			results.get(q).add(state);
+
+			active[q] = false;
+			for (Node node : paths[q]) {
+				live[node.id]--;
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package wip.VF2.core;
+
+/**
+ * Lazily generates the candidate pairs of one level of the search tree.
+ * The query node is chosen once per level in reset(), from the State's MatchingOrder if it has one;
+ * target nodes are then pulled one at a time from the chosen set, without building a list or boxing.
+ * If the State has candidate domains, only the target nodes in the domain of the query node are pulled.
+ * State keeps one cursor per depth, so a search reuses the same cursors throughout.
+ */
+public class CandidateCursor {
+
+	private int queryNodeIndex = -1;	// the query node extended at this level
+	private IntBitSet targetSet;		// the set the candidate target nodes are taken from
+	private IntBitSet domain;			// candidate target nodes of the query node, null if there are no domains
+	private int next = 0;				// position to continue the target set iteration from
+
+	/**
+	 * Choose the query node and the target node set for the current state
+	 * @param state	VF2 State
+	 */
+	public void reset(State state) {
+		if (state.order != null) {
+			// Extend the next query node of the matching order
+			// Its match must be in T1out (T1in) if it is in T2out (T2in)
+			queryNodeIndex = state.order.nodeAt(state.depth);
+			if (state.inT2out(queryNodeIndex)) {
+				targetSet = state.T1out;
+			} else if (state.inT2in(queryNodeIndex)) {
+				targetSet = state.T1in;
+			} else {
+				targetSet = state.unmapped1;
+			}
+		} else if (!state.T1out.isEmpty() && !state.T2out.isEmpty()) {
+			// Without a matching order:
+			// Since every node should be matched in query graph
+			// Therefore we can only extend one node of query graph (with biggest id)
+			// instead of generate the whole Cartesian product of the target and query
+			// Generate candidates from T1out and T2out if they are not empty
+			queryNodeIndex = state.T2out.last();
+			targetSet = state.T1out;
+		} else if (!state.T1in.isEmpty() && !state.T2in.isEmpty()) {
+			// Generate candidates from T1in and T2in if they are not empty
+			queryNodeIndex = state.T2in.last();
+			targetSet = state.T1in;
+		} else {
+			// Generate from all unmapped nodes
+			queryNodeIndex = state.unmapped2.last();
+			targetSet = state.unmapped1;
+		}
+		domain = state.domainsReady ? state.domains[queryNodeIndex] : null;
+		next = 0;
+	}
+
+	/**
+	 * @return	The query node of the candidate pairs at this level
+	 */
+	public int queryNode() {
+		return queryNodeIndex;
+	}
+
+	/**
+	 * Get the target node of the next candidate pair
+	 * The state must be the same as at reset() whenever this is called, i.e. backtracked
+	 * @return	Target node index, or -1 if the candidates are exhausted
+	 */
+	public int nextTarget() {
+		int targetNodeIndex = domain == null ? targetSet.nextSetBit(next) : targetSet.nextSetBit(next, domain);
+		next = targetNodeIndex + 1;
+		if (targetNodeIndex < 0)
+			next = targetSet.capacity();
+		return targetNodeIndex;
+	}
+}
@@ -0,0 +1,121 @@
+package wip.VF2.core;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Candidate domains of the query nodes, computed once per pair before the search (GraphQL / CFL style).
+ *
+ * The domain of query node q is the set of target nodes q may map to. It starts with the target nodes
+ * of the same label that pass the neighborhood rule (degrees, signatures), and is then refined to arc
+ * consistency: a target node t stays in the domain of q only if every edge of q has an edge of the
+ * same direction and label at t, leading to a node in the domain of the neighbor.
+ * Removing t may remove the support of other pairs, so the refinement repeats until nothing changes.
+ *
+ * The domains are kept in the State and reused across pairs; the search only reads them,
+ * so the States copied for parallel subtrees share them. They are only computed for queries of at least
+ * MIN_QUERY_SIZE nodes (see paysOff()); the search of a smaller query checks compatible() per candidate.
+ */
+class CandidateDomains {
+
+	// domains are computed for queries of at least this many nodes; the search of a smaller query checks each
+	// target node about as often as computing the domains would, so it checks the neighborhood rule instead
+	static final int MIN_QUERY_SIZE = 3;
+
+	private CandidateDomains() {
+	}
+
+	/**
+	 * @param query	Query graph
+	 * @return		Whether computing the domains pays off for the query
+	 */
+	static boolean paysOff(CompactGraph query) {
+		return query.nodeCount() >= MIN_QUERY_SIZE;
+	}
+
+	/**
+	 * Compute the domains of the query nodes into a reset State
+	 * @param state	VF2 State at depth 0
+	 * @return		False if a domain is empty, i.e. the query graph cannot match the target graph
+	 */
+	static boolean compute(State state) {
+		CompactGraph target = state.targetGraph;
+		CompactGraph query = state.queryGraph;
+		int targetSize = target.nodeCount();
+		int querySize = query.nodeCount();
+		IntBitSet[] domains = state.allocateDomains();
+
+		for (int q = 0 ; q < querySize ; q++) {
+			IntBitSet domain = domains[q];
+			domain.clear();
+			for (int t = 0 ; t < targetSize ; t++) {
+				if (target.label(t) == query.label(q) && compatible(target, t, query, q)) {
+					domain.add(t);
+				}
+			}
+			if (domain.isEmpty()) {
+				return false;
+			}
+		}
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int q = 0 ; q < querySize ; q++) {
+				IntBitSet domain = domains[q];
+				for (int t = domain.nextSetBit(0) ; t >= 0 ; t = domain.nextSetBit(t + 1)) {
+					if (!supported(target, t, query, q, domains)) {
+						domain.remove(t);
+						changed = true;
+					}
+				}
+				if (domain.isEmpty()) {
+					return false;
+				}
+			}
+		}
+		state.domainsReady = true;
+		return true;
+	}
+
+	/**
+	 * Check in O(1) whether the neighborhood of a target node can hold the neighborhood of a query node:
+	 * at least the same in/out degree, and every label around the query node also around the target node
+	 * (compared by the signatures, if both graphs are prepared)
+	 * @return	Compatible or not
+	 */
+	static boolean compatible(CompactGraph target, int targetNode, CompactGraph query, int queryNode) {
+		if (target.outDegree(targetNode) < query.outDegree(queryNode)
+				|| target.inDegree(targetNode) < query.inDegree(queryNode)) {
+			return false;
+		}
+		return !target.isPrepared() || !query.isPrepared()
+				|| (query.signature(queryNode) & ~target.signature(targetNode)) == 0;
+	}
+
+	// every edge of q has a counterpart at t that leads into the domain of the neighbor
+	private static boolean supported(CompactGraph target, int t, CompactGraph query, int q, IntBitSet[] domains) {
+		for (int i = query.outBegin(q) ; i < query.outEnd(q) ; i++) {
+			IntBitSet neighborDomain = domains[query.outNeighbor(i)];
+			int label = query.outLabel(i);
+			boolean found = false;
+			for (int j = target.outBegin(t) ; j < target.outEnd(t) && !found ; j++) {
+				found = target.outLabel(j) == label && neighborDomain.contains(target.outNeighbor(j));
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		for (int i = query.inBegin(q) ; i < query.inEnd(q) ; i++) {
+			IntBitSet neighborDomain = domains[query.inNeighbor(i)];
+			int label = query.inLabel(i);
+			boolean found = false;
+			for (int j = target.inBegin(t) ; j < target.inEnd(t) && !found ; j++) {
+				found = target.inLabel(j) == label && neighborDomain.contains(target.inNeighbor(j));
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
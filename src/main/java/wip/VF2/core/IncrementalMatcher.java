@@ -0,0 +1,527 @@
+package wip.VF2.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.graph.Graph;
+
+/**
+ * Reports the embeddings of registered query graphs that appear and disappear while the edges of one
+ * target graph are inserted and deleted.
+ *
+ * An update only changes the edge (source, target), so the only embeddings it can create or destroy are
+ * those that map some query node pair (u, w) onto (source, target) where the query edge u -> w has the old
+ * or the new label of the target edge (or is missing, for induced semantics). For each such pair the search
+ * starts with u and w already mapped and extends the mapping along the query edges, taking the candidates
+ * from the neighbors of the mapped target nodes, so it stays in the neighborhood of the update instead of
+ * matching the whole target again. Embeddings found in the graph before the update are reported as expired,
+ * those found in the graph after it as added. Every embedding is found from exactly one pair, since the
+ * mapping is injective.
+ *
+ * Registering a query does not report its existing embeddings, VF2.matchAll() enumerates those.
+ * The target is kept as sorted neighbor rows per node that are edited in place, so applying an update costs
+ * the degrees of its end nodes; the expired embeddings are searched before the edit, the added ones after.
+ * An IncrementalMatcher is not thread safe.
+ */
+public class IncrementalMatcher {
+
+	/**
+	 * Receives the embeddings an update creates and destroys
+	 * A mapping holds the target graph node of each query graph node and belongs to the receiver
+	 */
+	public interface Listener {
+
+		void added(int query, int[] mapping);
+
+		void expired(int query, int[] mapping);
+	}
+
+	private final MatchingMode mode;
+	private final ArrayList<CompactGraph> querySet = new ArrayList<CompactGraph>();
+	private final Rows graph;		// the target with all updates so far
+	private CompactGraph target;	// graph frozen by getTarget(), null after an update
+	private final int[] queryNodeOf;	// query node mapped to each target node, -1 if unmapped
+
+	// the current search
+	private CompactGraph queryGraph;
+	private int[] order = new int[0];		// query nodes in the order they are mapped, the seeds first
+	private int[] positionOf = new int[0];	// position of each query node in order, -1 while it is not placed
+	private int[] mapping = new int[0];		// target node of each query node, -1 if unmapped
+	private int seedCount;
+	private final int[] seeds = new int[2];	// target nodes of the first positions
+	private int queryIndex;
+	private boolean adding;
+	private Listener listener;
+
+	// statistics
+	private long updates = 0;
+	private long states = 0;
+	private long addedCount = 0;
+	private long expiredCount = 0;
+
+	/**
+	 * Create a matcher
+	 * @param target	The target graph, as it is before the first update
+	 * @param mode		The matching semantics
+	 */
+	public IncrementalMatcher(Graph target, MatchingMode mode) {
+		this(target.freeze(), mode);
+	}
+
+	/**
+	 * Create a matcher
+	 * @param target	The target graph, as it is before the first update
+	 * @param mode		The matching semantics
+	 */
+	public IncrementalMatcher(CompactGraph target, MatchingMode mode) {
+		this.graph = new Rows(target);
+		this.target = target;
+		this.mode = mode;
+		this.queryNodeOf = new int[target.nodeCount()];
+		Arrays.fill(queryNodeOf, -1);
+	}
+
+	/**
+	 * Watch a query graph from the next update on
+	 * @param queryGraph	The query graph
+	 * @return				Its index, passed to the Listener
+	 */
+	public int register(CompactGraph queryGraph) {
+		querySet.add(queryGraph);
+		return querySet.size() - 1;
+	}
+
+	public int register(Graph queryGraph) {
+		return register(queryGraph.freeze());
+	}
+
+	/**
+	 * @return	The target graph with all updates so far, built again after an update
+	 */
+	public CompactGraph getTarget() {
+		if (target == null) {
+			target = graph.freeze();
+		}
+		return target;
+	}
+
+	public MatchingMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Insert an edge into the target graph, or change the label of an existing one
+	 * @param source	Source node id
+	 * @param target	Target node id
+	 * @param label		Edge label, not negative
+	 * @param listener	Receives the embeddings the change creates and destroys
+	 */
+	public void addEdge(int source, int target, int label, Listener listener) {
+		if (label < 0) {
+			throw new IllegalArgumentException("negative edge label " + label);
+		}
+		update(source, target, label, listener);
+	}
+
+	/**
+	 * Delete an edge of the target graph, nothing changes if there is no such edge
+	 * @param source	Source node id
+	 * @param target	Target node id
+	 * @param listener	Receives the embeddings the change creates and destroys
+	 */
+	public void removeEdge(int source, int target, Listener listener) {
+		update(source, target, -1, listener);
+	}
+
+	// set the edge (source, targetNode) to label, -1 removes it
+	private void update(int source, int targetNode, int label, Listener listener) {
+		int n = graph.nodeCount();
+		if (source < 0 || source >= n || targetNode < 0 || targetNode >= n) {
+			throw new IllegalArgumentException("no edge (" + source + ", " + targetNode + ") in a graph of " + n + " nodes");
+		}
+		int oldLabel = graph.edgeLabel(source, targetNode);
+		updates++;
+		if (oldLabel == label) {
+			return;
+		}
+
+		this.listener = listener;
+		searchAll(source, targetNode, oldLabel, false);
+		graph.set(source, targetNode, label);
+		target = null;
+		searchAll(source, targetNode, label, true);
+		this.listener = null;
+	}
+
+	// report the embeddings of every query that map a query edge with this label (or none) onto (source, targetNode)
+	private void searchAll(int source, int targetNode, int label, boolean adding) {
+		for (int q = 0 ; q < querySet.size() ; q++) {
+			CompactGraph query = querySet.get(q);
+			for (int u = 0 ; u < query.nodeCount() ; u++) {
+				if (query.label(u) != graph.label(source)) {
+					continue;
+				}
+				for (int w = 0 ; w < query.nodeCount() ; w++) {
+					if (query.label(w) != graph.label(targetNode) || (u == w) != (source == targetNode)) {
+						continue;
+					}
+					// a missing query edge only constrains the target edge under induced semantics
+					int edge = query.edgeLabel(u, w);
+					if (edge == -1 && mode == MatchingMode.MONOMORPHISM) {
+						continue;
+					}
+					if (edge == label) {
+						search(q, u, w, source, targetNode, adding);
+					}
+				}
+			}
+		}
+	}
+
+	// report the embeddings of query q in the target that map u to source and w to targetNode
+	private void search(int q, int u, int w, int source, int targetNode, boolean adding) {
+		CompactGraph query = querySet.get(q);
+		if (mode == MatchingMode.ISOMORPHISM && (graph.nodeCount() != query.nodeCount() || graph.edgeCount() != query.edgeCount())) {
+			return;
+		}
+		this.queryGraph = query;
+		this.queryIndex = q;
+		this.adding = adding;
+		int n = query.nodeCount();
+		if (order.length < n) {
+			order = new int[n];
+			positionOf = new int[n];
+			mapping = new int[n];
+		}
+		Arrays.fill(mapping, 0, n, -1);
+		seeds[0] = source;
+		seeds[1] = targetNode;
+		seedCount = u == w ? 1 : 2;
+		orderFrom(u, w);
+		extend(0);
+		queryGraph = null;
+	}
+
+	// breadth first over the query edges in both directions from u and w, then from the other components
+	private void orderFrom(int u, int w) {
+		int n = queryGraph.nodeCount();
+		Arrays.fill(positionOf, 0, n, -1);
+		int size = 0;
+		order[size] = u;
+		positionOf[u] = size++;
+		if (w != u) {
+			order[size] = w;
+			positionOf[w] = size++;
+		}
+		int next = 0;
+		int start = 0;
+		while (size < n) {
+			if (next == size) {
+				while (positionOf[start] != -1) {
+					start++;
+				}
+				order[size] = start;
+				positionOf[start] = size++;
+			}
+			int v = order[next++];
+			for (int i = queryGraph.outBegin(v) ; i < queryGraph.outEnd(v) ; i++) {
+				int y = queryGraph.outNeighbor(i);
+				if (positionOf[y] == -1) {
+					order[size] = y;
+					positionOf[y] = size++;
+				}
+			}
+			for (int i = queryGraph.inBegin(v) ; i < queryGraph.inEnd(v) ; i++) {
+				int y = queryGraph.inNeighbor(i);
+				if (positionOf[y] == -1) {
+					order[size] = y;
+					positionOf[y] = size++;
+				}
+			}
+		}
+	}
+
+	// map the query node at position k and the ones after it
+	private void extend(int k) {
+		states++;
+		if (k == queryGraph.nodeCount()) {
+			found();
+			return;
+		}
+		int x = order[k];
+		if (k < seedCount) {
+			tryMap(x, seeds[k], k);
+			return;
+		}
+		// neighbors of the mapped query neighbor whose target node has the fewest of them
+		int anchor = -1;
+		boolean anchorOut = false;	// anchor -> candidate is an edge of the target
+		int best = Integer.MAX_VALUE;
+		for (int i = queryGraph.inBegin(x) ; i < queryGraph.inEnd(x) ; i++) {
+			int m = mapping[queryGraph.inNeighbor(i)];
+			if (m != -1 && graph.outDegree(m) < best) {
+				best = graph.outDegree(m);
+				anchor = m;
+				anchorOut = true;
+			}
+		}
+		for (int i = queryGraph.outBegin(x) ; i < queryGraph.outEnd(x) ; i++) {
+			int m = mapping[queryGraph.outNeighbor(i)];
+			if (m != -1 && graph.inDegree(m) < best) {
+				best = graph.inDegree(m);
+				anchor = m;
+				anchorOut = false;
+			}
+		}
+		if (anchor == -1) {
+			// first node of another component: any target node
+			for (int t = 0 ; t < graph.nodeCount() ; t++) {
+				tryMap(x, t, k);
+			}
+		} else if (anchorOut) {
+			for (int i = 0 ; i < graph.outDegree(anchor) ; i++) {
+				tryMap(x, graph.outNeighbors[anchor][i], k);
+			}
+		} else {
+			for (int i = 0 ; i < graph.inDegree(anchor) ; i++) {
+				tryMap(x, graph.inNeighbors[anchor][i], k);
+			}
+		}
+	}
+
+	private void tryMap(int x, int t, int k) {
+		if (queryNodeOf[t] != -1 || !feasible(x, t)) {
+			return;
+		}
+		mapping[x] = t;
+		queryNodeOf[t] = x;
+		extend(k + 1);
+		queryNodeOf[t] = -1;
+		mapping[x] = -1;
+	}
+
+	private boolean feasible(int x, int t) {
+		if (graph.label(t) != queryGraph.label(x)
+				|| graph.outDegree(t) < queryGraph.outDegree(x) || graph.inDegree(t) < queryGraph.inDegree(x)) {
+			return false;
+		}
+		int selfLoop = queryGraph.edgeLabel(x, x);
+		if (mode == MatchingMode.MONOMORPHISM ? selfLoop != -1 && graph.edgeLabel(t, t) != selfLoop : graph.edgeLabel(t, t) != selfLoop) {
+			return false;
+		}
+		// the query edges to the mapped nodes have to be there
+		int edges = 0;
+		for (int i = queryGraph.outBegin(x) ; i < queryGraph.outEnd(x) ; i++) {
+			int m = mapping[queryGraph.outNeighbor(i)];
+			if (m != -1) {
+				if (graph.edgeLabel(t, m) != queryGraph.outLabel(i)) {
+					return false;
+				}
+				edges++;
+			}
+		}
+		for (int i = queryGraph.inBegin(x) ; i < queryGraph.inEnd(x) ; i++) {
+			int m = mapping[queryGraph.inNeighbor(i)];
+			if (m != -1) {
+				if (graph.edgeLabel(m, t) != queryGraph.inLabel(i)) {
+					return false;
+				}
+				edges++;
+			}
+		}
+		if (mode == MatchingMode.MONOMORPHISM) {
+			return true;
+		}
+		// induced: and no other edges between t and the mapped nodes
+		int targetEdges = 0;
+		for (int i = 0 ; i < graph.outDegree(t) ; i++) {
+			if (queryNodeOf[graph.outNeighbors[t][i]] != -1) {
+				targetEdges++;
+			}
+		}
+		for (int i = 0 ; i < graph.inDegree(t) ; i++) {
+			if (queryNodeOf[graph.inNeighbors[t][i]] != -1) {
+				targetEdges++;
+			}
+		}
+		return targetEdges == edges;
+	}
+
+	private void found() {
+		int[] embedding = Arrays.copyOf(mapping, queryGraph.nodeCount());
+		if (adding) {
+			addedCount++;
+			listener.added(queryIndex, embedding);
+		} else {
+			expiredCount++;
+			listener.expired(queryIndex, embedding);
+		}
+	}
+
+	/**
+	 * @return	Number of updates applied
+	 */
+	public long getUpdateCount() {
+		return updates;
+	}
+
+	/**
+	 * @return	Number of search states expanded by all updates
+	 */
+	public long getStateCount() {
+		return states;
+	}
+
+	public long getAddedCount() {
+		return addedCount;
+	}
+
+	public long getExpiredCount() {
+		return expiredCount;
+	}
+
+	/**
+	 * Print the statistics of all updates
+	 */
+	public void printStatistics() {
+		System.out.println("Incremental: " + updates + " updates of " + querySet.size() + " queries, "
+				+ states + " states, " + addedCount + " embeddings added, " + expiredCount + " expired");
+	}
+
+	/**
+	 * A graph as one sorted neighbor row per node and direction, with room to insert into
+	 */
+	private static class Rows {
+
+		private final String name;
+		private final int[] labels;
+		final int[][] outNeighbors;	// sorted within the first outDegree entries
+		final int[][] outLabels;
+		final int[][] inNeighbors;
+		final int[][] inLabels;
+		private final int[] outDegrees;
+		private final int[] inDegrees;
+		private int edgeCount;
+
+		Rows(CompactGraph graph) {
+			int n = graph.nodeCount();
+			name = graph.name;
+			labels = new int[n];
+			outNeighbors = new int[n][];
+			outLabels = new int[n][];
+			inNeighbors = new int[n][];
+			inLabels = new int[n][];
+			outDegrees = new int[n];
+			inDegrees = new int[n];
+			edgeCount = graph.edgeCount();
+			for (int v = 0 ; v < n ; v++) {
+				labels[v] = graph.label(v);
+				outDegrees[v] = graph.outDegree(v);
+				outNeighbors[v] = new int[outDegrees[v]];
+				outLabels[v] = new int[outDegrees[v]];
+				for (int i = 0 ; i < outDegrees[v] ; i++) {
+					outNeighbors[v][i] = graph.outNeighbor(graph.outBegin(v) + i);
+					outLabels[v][i] = graph.outLabel(graph.outBegin(v) + i);
+				}
+				inDegrees[v] = graph.inDegree(v);
+				inNeighbors[v] = new int[inDegrees[v]];
+				inLabels[v] = new int[inDegrees[v]];
+				for (int i = 0 ; i < inDegrees[v] ; i++) {
+					inNeighbors[v][i] = graph.inNeighbor(graph.inBegin(v) + i);
+					inLabels[v][i] = graph.inLabel(graph.inBegin(v) + i);
+				}
+			}
+		}
+
+		int nodeCount() {
+			return labels.length;
+		}
+
+		int edgeCount() {
+			return edgeCount;
+		}
+
+		int label(int node) {
+			return labels[node];
+		}
+
+		int outDegree(int node) {
+			return outDegrees[node];
+		}
+
+		int inDegree(int node) {
+			return inDegrees[node];
+		}
+
+		int edgeLabel(int source, int target) {
+			int i = Arrays.binarySearch(outNeighbors[source], 0, outDegrees[source], target);
+			return i < 0 ? -1 : outLabels[source][i];
+		}
+
+		// set the edge (source, target) to label, -1 removes it
+		void set(int source, int target, int label) {
+			int i = Arrays.binarySearch(outNeighbors[source], 0, outDegrees[source], target);
+			int j = Arrays.binarySearch(inNeighbors[target], 0, inDegrees[target], source);
+			if (label == -1) {
+				if (i >= 0) {
+					outDegrees[source] = remove(outNeighbors[source], outLabels[source], outDegrees[source], i);
+					inDegrees[target] = remove(inNeighbors[target], inLabels[target], inDegrees[target], j);
+					edgeCount--;
+				}
+			} else if (i >= 0) {
+				outLabels[source][i] = label;
+				inLabels[target][j] = label;
+			} else {
+				if (outDegrees[source] == outNeighbors[source].length) {
+					outNeighbors[source] = Arrays.copyOf(outNeighbors[source], Math.max(4, 2 * outDegrees[source]));
+					outLabels[source] = Arrays.copyOf(outLabels[source], outNeighbors[source].length);
+				}
+				if (inDegrees[target] == inNeighbors[target].length) {
+					inNeighbors[target] = Arrays.copyOf(inNeighbors[target], Math.max(4, 2 * inDegrees[target]));
+					inLabels[target] = Arrays.copyOf(inLabels[target], inNeighbors[target].length);
+				}
+				outDegrees[source] = insert(outNeighbors[source], outLabels[source], outDegrees[source], -i - 1, target, label);
+				inDegrees[target] = insert(inNeighbors[target], inLabels[target], inDegrees[target], -j - 1, source, label);
+				edgeCount++;
+			}
+		}
+
+		private static int insert(int[] neighbors, int[] labels, int degree, int i, int neighbor, int label) {
+			System.arraycopy(neighbors, i, neighbors, i + 1, degree - i);
+			System.arraycopy(labels, i, labels, i + 1, degree - i);
+			neighbors[i] = neighbor;
+			labels[i] = label;
+			return degree + 1;
+		}
+
+		private static int remove(int[] neighbors, int[] labels, int degree, int i) {
+			System.arraycopy(neighbors, i + 1, neighbors, i, degree - i - 1);
+			System.arraycopy(labels, i + 1, labels, i, degree - i - 1);
+			return degree - 1;
+		}
+
+		// copy into CSR arrays
+		CompactGraph freeze() {
+			int n = nodeCount();
+			int[] outOffsets = new int[n + 1];
+			int[] inOffsets = new int[n + 1];
+			for (int v = 0 ; v < n ; v++) {
+				outOffsets[v + 1] = outOffsets[v] + outDegrees[v];
+				inOffsets[v + 1] = inOffsets[v] + inDegrees[v];
+			}
+			int[] outNeighborArray = new int[edgeCount];
+			int[] outLabelArray = new int[edgeCount];
+			int[] inNeighborArray = new int[edgeCount];
+			int[] inLabelArray = new int[edgeCount];
+			for (int v = 0 ; v < n ; v++) {
+				System.arraycopy(outNeighbors[v], 0, outNeighborArray, outOffsets[v], outDegrees[v]);
+				System.arraycopy(outLabels[v], 0, outLabelArray, outOffsets[v], outDegrees[v]);
+				System.arraycopy(inNeighbors[v], 0, inNeighborArray, inOffsets[v], inDegrees[v]);
+				System.arraycopy(inLabels[v], 0, inLabelArray, inOffsets[v], inDegrees[v]);
+			}
+			return CompactGraph.wrap(name, labels.clone(), outOffsets, outNeighborArray, outLabelArray,
+					inOffsets, inNeighborArray, inLabelArray);
+		}
+	}
+}
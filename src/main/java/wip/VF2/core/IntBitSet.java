@@ -0,0 +1,134 @@
+package wip.VF2.core;
+
+/**
+ * Fixed-capacity set of node ids backed by a long[] bitset.
+ * add / remove / contains / size are O(1) and nothing is boxed or allocated after construction.
+ * Iteration goes in ascending id order through nextSetBit, which stays valid
+ * while elements other than the current one are added and removed.
+ * Clearing and iterating only cover the words up to the largest element added since the last clear,
+ * so a set sized for the largest graph costs what the current graph needs.
+ */
+public class IntBitSet {
+
+	private final long[] words;
+	private final int capacity;
+	private int size = 0;	// number of elements, kept up to date by add / remove
+	private int usedWords = 0;	// words from here on are zero
+
+	/**
+	 * Create an empty set
+	 * @param capacity	Elements must lie in [0, capacity)
+	 */
+	public IntBitSet(int capacity) {
+		this.capacity = capacity;
+		this.words = new long[(capacity + 63) >>> 6];
+	}
+
+	/**
+	 * Create a copy of another set
+	 * @param other	The set to copy
+	 */
+	public IntBitSet(IntBitSet other) {
+		this.capacity = other.capacity;
+		this.words = other.words.clone();
+		this.size = other.size;
+		this.usedWords = other.usedWords;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean contains(int i) {
+		return (words[i >>> 6] & (1L << i)) != 0;
+	}
+
+	public void add(int i) {
+		int w = i >>> 6;
+		long word = words[w];
+		long bit = 1L << i;
+		if ((word & bit) == 0) {
+			words[w] = word | bit;
+			size++;
+			if (w >= usedWords)
+				usedWords = w + 1;
+		}
+	}
+
+	public void remove(int i) {
+		long word = words[i >>> 6];
+		long bit = 1L << i;
+		if ((word & bit) != 0) {
+			words[i >>> 6] = word & ~bit;
+			size--;
+		}
+	}
+
+	public void clear() {
+		for (int w = 0 ; w < usedWords ; w++)
+			words[w] = 0L;
+		size = 0;
+		usedWords = 0;
+	}
+
+	/**
+	 * Find the smallest element that is larger than or equal to from
+	 * @param from	Index to start from
+	 * @return		The element, or -1 if there is none
+	 */
+	public int nextSetBit(int from) {
+		int w = from >>> 6;
+		if (w >= usedWords)
+			return -1;
+		long word = words[w] & (-1L << from);
+		while (true) {
+			if (word != 0)
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			if (++w == usedWords)
+				return -1;
+			word = words[w];
+		}
+	}
+
+	/**
+	 * Find the smallest element that is larger than or equal to from and also in another set
+	 * @param other	Set of the same capacity
+	 * @param from	Index to start from
+	 * @return		The element, or -1 if there is none
+	 */
+	public int nextSetBit(int from, IntBitSet other) {
+		int end = Math.min(usedWords, other.usedWords);
+		int w = from >>> 6;
+		if (w >= end)
+			return -1;
+		long[] otherWords = other.words;
+		long word = words[w] & otherWords[w] & (-1L << from);
+		while (true) {
+			if (word != 0)
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			if (++w == end)
+				return -1;
+			word = words[w] & otherWords[w];
+		}
+	}
+
+	/**
+	 * Find the largest element
+	 * @return	The element, or -1 if the set is empty
+	 */
+	public int last() {
+		for (int w = usedWords - 1 ; w >= 0 ; w--) {
+			if (words[w] != 0)
+				return (w << 6) + 63 - Long.numberOfLeadingZeros(words[w]);
+		}
+		return -1;
+	}
+}
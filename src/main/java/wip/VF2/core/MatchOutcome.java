@@ -0,0 +1,22 @@
+package wip.VF2.core;
+
+/**
+ * The outcome of matching a query graph against a target graph
+ */
+public enum MatchOutcome {
+
+	/**
+	 * The target graph contains the query graph
+	 */
+	MATCHED,
+
+	/**
+	 * The target graph does not contain the query graph
+	 */
+	UNMATCHED,
+
+	/**
+	 * The search ran out of its SearchBudget before it could decide
+	 */
+	TIMED_OUT
+}
@@ -0,0 +1,17 @@
+package wip.VF2.core;
+
+/**
+ * Receives the mappings found by VF2.matchAll, one at a time, while the search is running.
+ */
+public interface MatchVisitor {
+
+	/**
+	 * Called for every full mapping of the query graph into the target graph
+	 * The mapping is state.core_2 (query node -> target node) for the first state.queryGraph.nodeCount() entries.
+	 * It is only valid during the call, since the search goes on in the same State afterwards;
+	 * copy it if it has to be kept.
+	 * @param state	The state holding the mapping
+	 * @return		true to continue the enumeration, false to stop it
+	 */
+	boolean visit(State state);
+}
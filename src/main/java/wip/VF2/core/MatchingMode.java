@@ -0,0 +1,25 @@
+package wip.VF2.core;
+
+/**
+ * The matching semantics of a VF2 search
+ */
+public enum MatchingMode {
+
+	/**
+	 * The query graph and the target graph are isomorphic: same node and edge counts,
+	 * and an edge between mapped nodes exists in one graph exactly if it exists in the other
+	 */
+	ISOMORPHISM,
+
+	/**
+	 * Induced subgraph isomorphism: an edge between mapped nodes exists in the query graph
+	 * exactly if it exists in the target graph
+	 */
+	INDUCED,
+
+	/**
+	 * Monomorphism (non-induced subgraph isomorphism): every query edge must exist in the target graph,
+	 * the target graph may have additional edges between mapped nodes
+	 */
+	MONOMORPHISM
+}
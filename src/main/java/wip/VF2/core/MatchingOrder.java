@@ -0,0 +1,143 @@
+package wip.VF2.core;
+
+import java.util.HashMap;
+
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.index.GraphIndex;
+
+/**
+ * The order in which the query nodes are matched, computed once per query graph (VF2++ style).
+ *
+ * Starting from the node with the rarest label (ties: largest degree), the query graph is traversed
+ * breadth-first. Within each BFS level the next node is the one with the most edges to already ordered
+ * nodes, then the largest degree, then the rarest label. Rare, well-connected nodes come first,
+ * and every node after the first of its component is adjacent to an earlier one, so the search
+ * stays inside the terminal sets and fails early.
+ */
+public class MatchingOrder {
+
+	private final int[] order;		// query nodes in matching order
+	private final int[] position;	// position of each query node in the order
+
+	/**
+	 * Compute the matching order of a query graph
+	 * @param queryGraph	Query graph
+	 * @param index			Index over the target graph set, providing the label frequencies;
+	 * 						null to use the label frequencies of the query graph itself
+	 */
+	public MatchingOrder(CompactGraph queryGraph, GraphIndex index) {
+		int n = queryGraph.nodeCount();
+		order = new int[n];
+		position = new int[n];
+
+		int[] frequency = new int[n];	// label frequency of each query node
+		int[] degree = new int[n];
+		HashMap<Integer, Integer> queryLabels = new HashMap<Integer, Integer>();
+		if (index == null) {
+			for (int i = 0 ; i < n ; i++) {
+				Integer count = queryLabels.get(queryGraph.label(i));
+				queryLabels.put(queryGraph.label(i), count == null ? 1 : count + 1);
+			}
+		}
+		for (int i = 0 ; i < n ; i++) {
+			frequency[i] = index == null ? queryLabels.get(queryGraph.label(i)) : index.nodeLabelFrequency(queryGraph.label(i));
+			degree[i] = queryGraph.inDegree(i) + queryGraph.outDegree(i);
+			position[i] = -1;
+		}
+
+		int[] connections = new int[n];	// number of edges to ordered nodes
+		int[] level = new int[n];		// current BFS level, then the next one
+		int[] nextLevel = new int[n];
+		boolean[] queued = new boolean[n];
+		int ordered = 0;
+
+		while (ordered < n) {
+			// root of the next component: rarest label, then largest degree
+			int root = -1;
+			for (int i = 0 ; i < n ; i++) {
+				if (position[i] == -1 && (root == -1 || frequency[i] < frequency[root]
+						|| (frequency[i] == frequency[root] && degree[i] > degree[root]))) {
+					root = i;
+				}
+			}
+			int levelSize = 1;
+			level[0] = root;
+			queued[root] = true;
+
+			while (levelSize > 0) {
+				// order the current level
+				for (int k = 0 ; k < levelSize ; k++) {
+					int best = k;
+					for (int j = k + 1 ; j < levelSize ; j++) {
+						if (better(level[j], level[best], connections, degree, frequency)) {
+							best = j;
+						}
+					}
+					int node = level[best];
+					level[best] = level[k];
+					level[k] = node;
+
+					position[node] = ordered;
+					order[ordered++] = node;
+					for (int i = queryGraph.outBegin(node) ; i < queryGraph.outEnd(node) ; i++)
+						connections[queryGraph.outNeighbor(i)]++;
+					for (int i = queryGraph.inBegin(node) ; i < queryGraph.inEnd(node) ; i++)
+						connections[queryGraph.inNeighbor(i)]++;
+				}
+
+				// collect the next level
+				int nextSize = 0;
+				for (int k = 0 ; k < levelSize ; k++) {
+					int node = level[k];
+					for (int i = queryGraph.outBegin(node) ; i < queryGraph.outEnd(node) ; i++) {
+						int neighbor = queryGraph.outNeighbor(i);
+						if (!queued[neighbor]) {
+							queued[neighbor] = true;
+							nextLevel[nextSize++] = neighbor;
+						}
+					}
+					for (int i = queryGraph.inBegin(node) ; i < queryGraph.inEnd(node) ; i++) {
+						int neighbor = queryGraph.inNeighbor(i);
+						if (!queued[neighbor]) {
+							queued[neighbor] = true;
+							nextLevel[nextSize++] = neighbor;
+						}
+					}
+				}
+				int[] tmp = level;
+				level = nextLevel;
+				nextLevel = tmp;
+				levelSize = nextSize;
+			}
+		}
+	}
+
+	// more connections to ordered nodes, then larger degree, then rarer label
+	private static boolean better(int a, int b, int[] connections, int[] degree, int[] frequency) {
+		if (connections[a] != connections[b])
+			return connections[a] > connections[b];
+		if (degree[a] != degree[b])
+			return degree[a] > degree[b];
+		return frequency[a] < frequency[b];
+	}
+
+	public int size() {
+		return order.length;
+	}
+
+	/**
+	 * @param depth	Depth in the search tree
+	 * @return		The query node matched at this depth
+	 */
+	public int nodeAt(int depth) {
+		return order[depth];
+	}
+
+	/**
+	 * @param queryNode	Query node
+	 * @return			The depth at which the node is matched
+	 */
+	public int positionOf(int queryNode) {
+		return position[queryNode];
+	}
+}
@@ -0,0 +1,199 @@
+package wip.VF2.core;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the SearchMetrics of every pair searched by the matchers it is attached to
+ * (see VF2.setMetricsCollector()), adding them up in total, per query graph and per target graph.
+ * It also keeps the pairs with the largest search trees, to find pathological query / target pairs.
+ *
+ * The searches count into their own State and hand the counters over once per pair,
+ * so the collector is locked once per pair, never inside a search.
+ */
+public class MetricsCollector {
+
+	private static final Comparator<PairMetrics> BY_STATES = new Comparator<PairMetrics>() {
+		@Override
+		public int compare(PairMetrics a, PairMetrics b) {
+			return Long.compare(a.metrics.states, b.metrics.states);
+		}
+	};
+
+	private final SearchMetrics total = new SearchMetrics();
+	private final LinkedHashMap<String, SearchMetrics> byQuery = new LinkedHashMap<String, SearchMetrics>();
+	private final LinkedHashMap<String, SearchMetrics> byTarget = new LinkedHashMap<String, SearchMetrics>();
+	private final int largestPairCount;
+	private final PriorityQueue<PairMetrics> largestPairs = new PriorityQueue<PairMetrics>(16, BY_STATES); // smallest first
+
+	public MetricsCollector() {
+		this(20);
+	}
+
+	/**
+	 * @param largestPairCount	Number of pairs with the largest search trees to keep
+	 */
+	public MetricsCollector(int largestPairCount) {
+		this.largestPairCount = largestPairCount;
+	}
+
+	/**
+	 * Add the counters of a searched pair
+	 * @param targetName	Name of the target graph
+	 * @param queryName		Name of the query graph
+	 * @param metrics		Counters of the pair, copied
+	 */
+	public synchronized void record(String targetName, String queryName, SearchMetrics metrics) {
+		total.add(metrics);
+		get(byQuery, queryName).add(metrics);
+		get(byTarget, targetName).add(metrics);
+
+		if (largestPairCount > 0 && (largestPairs.size() < largestPairCount
+				|| metrics.states > largestPairs.peek().metrics.states)) {
+			SearchMetrics copy = new SearchMetrics();
+			copy.add(metrics);
+			largestPairs.add(new PairMetrics(targetName, queryName, copy));
+			if (largestPairs.size() > largestPairCount) {
+				largestPairs.poll();
+			}
+		}
+	}
+
+	private static SearchMetrics get(Map<String, SearchMetrics> map, String name) {
+		SearchMetrics metrics = map.get(name);
+		if (metrics == null) {
+			metrics = new SearchMetrics();
+			map.put(name, metrics);
+		}
+		return metrics;
+	}
+
+	public synchronized SearchMetrics getTotal() {
+		SearchMetrics copy = new SearchMetrics();
+		copy.add(total);
+		return copy;
+	}
+
+	/**
+	 * @return	The pairs with the largest search trees, largest first
+	 */
+	public synchronized List<PairMetrics> getLargestPairs() {
+		ArrayList<PairMetrics> pairs = new ArrayList<PairMetrics>(largestPairs);
+		Collections.sort(pairs, Collections.reverseOrder(BY_STATES));
+		return pairs;
+	}
+
+	/**
+	 * Write the metrics as CSV: one row for the total, then one per query graph, target graph and largest pair
+	 * @param writer	Output writer
+	 */
+	public synchronized void writeCsv(PrintWriter writer) {
+		writer.print("scope,target,query,pairs,matched_pairs,timed_out_pairs,pruned_by_size,pruned_by_domain,states,max_depth,candidates");
+		for (SearchMetrics.Rule rule : SearchMetrics.Rule.values()) {
+			writer.print(",rejected_" + rule.name().toLowerCase());
+		}
+		writer.println(",millis");
+
+		writeCsvRow(writer, "total", "", "", total);
+		for (Map.Entry<String, SearchMetrics> entry : byQuery.entrySet()) {
+			writeCsvRow(writer, "query", "", entry.getKey(), entry.getValue());
+		}
+		for (Map.Entry<String, SearchMetrics> entry : byTarget.entrySet()) {
+			writeCsvRow(writer, "target", entry.getKey(), "", entry.getValue());
+		}
+		for (PairMetrics pair : getLargestPairs()) {
+			writeCsvRow(writer, "pair", pair.targetName, pair.queryName, pair.metrics);
+		}
+		writer.flush();
+	}
+
+	private static void writeCsvRow(PrintWriter writer, String scope, String target, String query, SearchMetrics m) {
+		writer.print(scope + "," + csv(target) + "," + csv(query) + "," + m.pairs + "," + m.matchedPairs
+				+ "," + m.timedOutPairs + "," + m.prunedBySize + "," + m.prunedByDomain + "," + m.states + "," + m.maxDepth + "," + m.candidates);
+		for (long count : m.rejected) {
+			writer.print("," + count);
+		}
+		writer.println("," + m.nanos / 1000000);
+	}
+
+	private static String csv(String value) {
+		return value.indexOf(',') < 0 && value.indexOf('"') < 0 ? value : "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * Write the metrics as one JSON object with the total, the queries, the targets and the largest pairs
+	 * @param writer	Output writer
+	 */
+	public synchronized void writeJson(PrintWriter writer) {
+		writer.println("{");
+		writer.println("  \"total\": " + json(total) + ",");
+		writeJsonMap(writer, "queries", byQuery);
+		writer.println(",");
+		writeJsonMap(writer, "targets", byTarget);
+		writer.println(",");
+		writer.println("  \"largestPairs\": [");
+		List<PairMetrics> pairs = getLargestPairs();
+		for (int i = 0 ; i < pairs.size() ; i++) {
+			PairMetrics pair = pairs.get(i);
+			writer.print("    {\"target\": " + quote(pair.targetName) + ", \"query\": " + quote(pair.queryName)
+					+ ", \"metrics\": " + json(pair.metrics) + "}");
+			writer.println(i + 1 < pairs.size() ? "," : "");
+		}
+		writer.println("  ]");
+		writer.println("}");
+		writer.flush();
+	}
+
+	private static void writeJsonMap(PrintWriter writer, String key, Map<String, SearchMetrics> map) {
+		writer.println("  \"" + key + "\": {");
+		int i = 0;
+		for (Map.Entry<String, SearchMetrics> entry : map.entrySet()) {
+			writer.print("    " + quote(entry.getKey()) + ": " + json(entry.getValue()));
+			writer.println(++i < map.size() ? "," : "");
+		}
+		writer.print("  }");
+	}
+
+	private static String json(SearchMetrics m) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\"pairs\": ").append(m.pairs)
+				.append(", \"matchedPairs\": ").append(m.matchedPairs)
+				.append(", \"timedOutPairs\": ").append(m.timedOutPairs)
+				.append(", \"prunedBySize\": ").append(m.prunedBySize)
+				.append(", \"prunedByDomain\": ").append(m.prunedByDomain)
+				.append(", \"states\": ").append(m.states)
+				.append(", \"maxDepth\": ").append(m.maxDepth)
+				.append(", \"candidates\": ").append(m.candidates)
+				.append(", \"rejected\": {");
+		for (SearchMetrics.Rule rule : SearchMetrics.Rule.values()) {
+			builder.append(rule.ordinal() == 0 ? "" : ", ").append(quote(rule.name())).append(": ").append(m.rejected(rule));
+		}
+		return builder.append("}, \"millis\": ").append(m.nanos / 1000000).append("}").toString();
+	}
+
+	private static String quote(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	/**
+	 * The counters of one query / target pair
+	 */
+	public static class PairMetrics {
+
+		public final String targetName;
+		public final String queryName;
+		public final SearchMetrics metrics;
+
+		PairMetrics(String targetName, String queryName, SearchMetrics metrics) {
+			this.targetName = targetName;
+			this.queryName = queryName;
+			this.metrics = metrics;
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package wip.VF2.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.index.GraphIndex;
+
+/**
+ * Runs VF2 on several threads, sharing one work-stealing ForkJoinPool.
+ * matchGraphSetWithQuery spreads the target graphs of a set across the threads:
+ * the set is split recursively into chunks, and each chunk reuses one State until it finds a match.
+ * Results come back in the order of the target set, exactly as from VF2.matchGraphSetWithQuery.
+ * matchGraphPair splits the search tree of a single pair instead:
+ * every feasible candidate of the first SPLIT_DEPTH levels becomes a subtree task, which copies the State
+ * when it starts running, and all subtrees stop as soon as one of them finds a match.
+ */
+public class ParallelVF2 {
+
+	private static final int CHUNK_SIZE = 64; // target graphs matched sequentially by one task
+	private static final int SPLIT_DEPTH = 2; // levels of the search tree that are split into parallel subtrees
+
+	private final VF2 vf2;
+	private final StatePool statePool = new StatePool(); // scratch states of the worker threads
+	private final ForkJoinPool pool;
+	private volatile QueryCache queryCache; // answers repeated queries, null: every query is searched
+
+	/**
+	 * Use one thread per available processor
+	 */
+	public ParallelVF2() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param parallelism	Number of worker threads
+	 */
+	public ParallelVF2(int parallelism) {
+		this(parallelism, MatchingMode.INDUCED);
+	}
+
+	/**
+	 * @param parallelism	Number of worker threads
+	 * @param mode			The matching semantics of every search
+	 */
+	public ParallelVF2(int parallelism, MatchingMode mode) {
+		this.pool = new ForkJoinPool(parallelism);
+		this.vf2 = new VF2(mode);
+	}
+
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	public MatchingMode getMode() {
+		return vf2.getMode();
+	}
+
+	/**
+	 * Count the search of every pair from now on, or stop counting
+	 * @param collector	Receives the counters of every pair, null to stop counting
+	 */
+	public void setMetricsCollector(MetricsCollector collector) {
+		vf2.setMetricsCollector(collector);
+	}
+
+	/**
+	 * Limit the work of every search from now on
+	 * @param budget	The limits, SearchBudget.UNLIMITED for none
+	 */
+	public void setBudget(SearchBudget budget) {
+		vf2.setBudget(budget);
+	}
+
+	/**
+	 * Answer repeated queries of matchQuery(GraphIndex, ...) from a cache from now on, or stop caching
+	 * @param cache	The result cache, null to search every query
+	 */
+	public void setQueryCache(QueryCache cache) {
+		this.queryCache = cache;
+	}
+
+	/**
+	 * Find matches given a query graph and a set of target graphs
+	 * @param graphSet		Target graph set
+	 * @param queryGraph	Query graph
+	 * @return				The state set containing the mappings, in the order of graphSet
+	 */
+	public ArrayList<State> matchGraphSetWithQuery(List<CompactGraph> graphSet, CompactGraph queryGraph) {
+		return matchGraphSetWithQuery(graphSet, queryGraph, new MatchingOrder(queryGraph, null));
+	}
+
+	/**
+	 * Find matches given a query graph and a set of target graphs
+	 * @param graphSet		Target graph set
+	 * @param queryGraph	Query graph
+	 * @param order			Matching order of the query graph, shared by all target graphs
+	 * @return				The state set containing the mappings, in the order of graphSet
+	 */
+	public ArrayList<State> matchGraphSetWithQuery(List<CompactGraph> graphSet, CompactGraph queryGraph, MatchingOrder order) {
+		return matchQuery(graphSet, queryGraph, order, 0).matches;
+	}
+
+	/**
+	 * Find matches given a query graph and an indexed set of target graphs
+	 * Only the target graphs that pass the index filter are searched
+	 * @param index			Index over the target graph set
+	 * @param queryGraph	Query graph
+	 * @return				The state set containing the mappings, in the order of the graph set
+	 */
+	public ArrayList<State> matchGraphSetWithQuery(GraphIndex index, CompactGraph queryGraph) {
+		return matchQuery(index, queryGraph).matches;
+	}
+
+	/**
+	 * Find matches given a query graph and a set of target graphs, reporting the target graphs that timed out
+	 * @param graphSet		Target graph set
+	 * @param queryGraph	Query graph
+	 * @param order			Matching order of the query graph, shared by all target graphs
+	 * @return				The matches and the timed out target graphs, in the order of graphSet
+	 */
+	public QueryResult matchQuery(List<CompactGraph> graphSet, CompactGraph queryGraph, MatchingOrder order) {
+		return matchQuery(graphSet, queryGraph, order, 0);
+	}
+
+	/**
+	 * Find matches given a query graph and an indexed set of target graphs, reporting the target graphs that timed out
+	 * Only the target graphs that pass the index filter are searched
+	 * @param index			Index over the target graph set
+	 * @param queryGraph	Query graph
+	 * @return				The matches and the timed out target graphs, in the order of the graph set
+	 */
+	public QueryResult matchQuery(GraphIndex index, CompactGraph queryGraph) {
+		QueryCache cache = queryCache;
+		if (cache == null) {
+			return searchQuery(index, queryGraph);
+		}
+		return cache.matchQuery(index, getMode(), queryGraph, new QueryCache.Search() {
+			@Override
+			public QueryResult matchQuery(GraphIndex index, CompactGraph queryGraph) {
+				return searchQuery(index, queryGraph);
+			}
+		});
+	}
+
+	// search the target graphs that pass the index filter
+	private QueryResult searchQuery(GraphIndex index, CompactGraph queryGraph) {
+		int[] positions = index.filterPositions(queryGraph);
+		ArrayList<CompactGraph> candidates = index.graphsAt(positions);
+		QueryResult result = matchQuery(candidates, queryGraph, new MatchingOrder(queryGraph, index), index.getMaxNodeCount());
+		result.locate(candidates, positions);	// for the query cache
+		return result;
+	}
+
+	/**
+	 * Find matches given a query graph and a set of target graphs
+	 * @param graphSet			Target graph set
+	 * @param queryGraph		Query graph
+	 * @param order				Matching order of the query graph, shared by all target graphs
+	 * @param targetCapacity	Node count of the largest target graph, if known (the pooled States grow otherwise)
+	 * @return					The matches and the timed out target graphs, in the order of graphSet
+	 */
+	private QueryResult matchQuery(List<CompactGraph> graphSet, CompactGraph queryGraph, MatchingOrder order, int targetCapacity) {
+		Query query = new Query(graphSet, queryGraph.prepare(), order, targetCapacity, vf2.startQuery());
+		pool.invoke(new MatchTask(query, 0, graphSet.size()));
+
+		QueryResult result = new QueryResult();
+		for (int i = 0 ; i < graphSet.size() ; i++) {
+			if (query.outcomes[i] == MatchOutcome.MATCHED) {
+				result.matches.add(query.results[i]);
+			} else if (query.outcomes[i] == MatchOutcome.TIMED_OUT) {
+				result.timedOut.add(graphSet.get(i));
+			}
+		}
+		result.queryBudgetExhausted = query.budgetExhausted;
+		return result;
+	}
+
+	/**
+	 * Figure out if the target graph contains query graph, searching subtrees in parallel
+	 * @param targetGraph	Big Graph
+	 * @param queryGraph	Small Graph
+	 * @return				The state storing the result mapping
+	 */
+	public State matchGraphPair(CompactGraph targetGraph, CompactGraph queryGraph) {
+		State state = new State(targetGraph, queryGraph);
+		state.stopSignal = new AtomicBoolean(false);
+		state.order = new MatchingOrder(queryGraph, null);
+		
+		State result = null;
+		if (vf2.prepareSearch(state, null)) {
+			SearchBudget.share(state);	// the subtrees search on copies of the state
+			result = pool.invoke(new SubtreeTask(state, -1, -1, state.metrics));
+		}
+		if (result == null) {
+			result = state;	// no match, return the initial state
+		}
+		vf2.finishSearch(state, result.outcome());	// matched, or timed out in one subtree
+		result.stopSignal = null;
+		return result;
+	}
+
+	/**
+	 * Stop the worker threads
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * One query matched against a target graph set, shared by its MatchTasks
+	 */
+	private static class Query {
+
+		final List<CompactGraph> graphSet;
+		final CompactGraph queryGraph;
+		final MatchingOrder order;
+		final int targetCapacity;				// node count of the largest target graph, 0 if unknown
+		final SearchBudget.Query budget;		// budget left to the query, null if it is unlimited
+		final State[] results;					// matched state of each target graph, null if there is none
+		final MatchOutcome[] outcomes;			// outcome of each target graph
+		volatile boolean budgetExhausted = false;
+
+		Query(List<CompactGraph> graphSet, CompactGraph queryGraph, MatchingOrder order, int targetCapacity, SearchBudget.Query budget) {
+			this.graphSet = graphSet;
+			this.queryGraph = queryGraph;
+			this.order = order;
+			this.targetCapacity = targetCapacity;
+			this.budget = budget;
+			this.results = new State[graphSet.size()];
+			this.outcomes = new MatchOutcome[graphSet.size()];
+		}
+	}
+
+	/**
+	 * Matches the target graphs in [from, to), splitting the range while it is larger than a chunk
+	 */
+	private class MatchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Query query;
+		private final int from;
+		private final int to;
+
+		MatchTask(Query query, int from, int to) {
+			this.query = query;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > CHUNK_SIZE) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new MatchTask(query, from, mid), new MatchTask(query, mid, to));
+				return;
+			}
+
+			// the worker threads outlive the tasks, so their pooled states are reused across chunks and queries
+			for (int i = from ; i < to ; i++) {
+				if (query.budget != null && query.budget.isExhausted()) {	// the remaining target graphs are not searched
+					query.budgetExhausted = true;
+					query.outcomes[i] = MatchOutcome.TIMED_OUT;
+					continue;
+				}
+				State state = statePool.get(query.targetCapacity, query.queryGraph.nodeCount());
+				query.outcomes[i] = vf2.matchPair(state, query.graphSet.get(i), query.queryGraph, query.order, query.budget);
+				if (query.outcomes[i] == MatchOutcome.MATCHED) {
+					query.results[i] = state.copyMapping();	// the pooled state stays with the thread
+				}
+			}
+		}
+	}
+
+	/**
+	 * Searches the subtree below a state: splits it into one task per feasible candidate above SPLIT_DEPTH,
+	 * and runs the sequential VF2 search below it
+	 * Returns the matched state, else a state that ran out of budget, else null.
+	 * A task gets the state of its parent and the pair it adds, and only copies the state once it runs,
+	 * so the subtrees waiting in the pool (or cancelled by a match) hold no copy of the State.
+	 */
+	private class SubtreeTask extends RecursiveTask<State> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final State parent; // state to extend, shared with the sibling tasks and not modified while they run
+		private final int targetNodeIndex; // pair added to the parent state, -1 for the root task, which owns the parent
+		private final int queryNodeIndex;
+		private final SearchMetrics total; // counters of the whole pair, null if it is not counted
+		private State state; // owned by this task
+
+		SubtreeTask(State parent, int targetNodeIndex, int queryNodeIndex, SearchMetrics total) {
+			this.parent = parent;
+			this.targetNodeIndex = targetNodeIndex;
+			this.queryNodeIndex = queryNodeIndex;
+			this.total = total;
+		}
+
+		@Override
+		protected State compute() {
+			if (parent.stopSignal.get()) {
+				return null;	// cancelled before it started, another subtree found a match
+			}
+			if (targetNodeIndex < 0) {
+				state = parent;
+			} else {
+				state = new State(parent);
+				state.extendMatch(targetNodeIndex, queryNodeIndex);
+			}
+			try {
+				return search();
+			} finally {
+				SearchBudget.returnStates(state);
+				if (total != null && state.metrics != total) {
+					synchronized (total) {
+						total.add(state.metrics);
+					}
+				}
+			}
+		}
+
+		private State search() {
+			if (state.stopSignal.get()) {
+				return null;	// cancelled, another subtree found a match
+			}
+
+			if (state.depth >= SPLIT_DEPTH || state.depth == state.queryGraph.nodeCount()) {
+				if (vf2.matchFrom(state)) {
+					if (state.matched) {
+						state.stopSignal.set(true);
+					}
+					return state;	// matched, or timed out: then the other subtrees go on and may still find a match
+				}
+				return null;
+			}
+
+			// a split state is counted and charged to the pair like a state of the sequential search
+			if (state.metrics != null) {
+				state.metrics.visit(state.depth);
+			}
+			if (--state.statesLeft < 0 && !SearchBudget.takeStates(state)) {
+				state.timedOut = true;
+				return state;
+			}
+			SearchBudget.returnStates(state);	// the subtrees take their own batches
+
+			CandidateCursor cursor = state.cursorAt(state.depth);
+			cursor.reset(state);
+			int queryNodeIndex = cursor.queryNode();
+			int targetNodeIndex;
+			ArrayList<SubtreeTask> subtrees = new ArrayList<SubtreeTask>();
+			while ((targetNodeIndex = cursor.nextTarget()) >= 0) {
+				if (vf2.checkFeasibility(state, targetNodeIndex, queryNodeIndex)) {
+					subtrees.add(new SubtreeTask(state, targetNodeIndex, queryNodeIndex, total));
+				}
+			}
+
+			invokeAll(subtrees);
+			State timedOut = null;
+			for (SubtreeTask subtree : subtrees) {
+				State result = subtree.join();
+				if (result != null && result.matched) {
+					return result;
+				}
+				if (result != null) {
+					timedOut = result;
+				}
+			}
+			return timedOut;	// null if the subtree has no match
+		}
+	}
+}
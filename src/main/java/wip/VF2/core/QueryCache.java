@@ -0,0 +1,217 @@
+package wip.VF2.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.graph.GraphHash;
+import wip.VF2.index.GraphIndex;
+
+/**
+ * Cache of query results, so that a repeated query is answered without searching the target graphs
+ * (see VF2.setQueryCache()).
+ *
+ * Results are keyed by the isomorphism-invariant GraphHash of the query. A hash match is confirmed
+ * by an exact isomorphism search between the new and the cached query, and the cached mappings are
+ * carried over through that isomorphism, so a query that is the same graph with its nodes numbered
+ * differently is answered from the cache as well.
+ *
+ * The results are kept in least-recently-used order within a memory budget. Results with target graphs
+ * that timed out are incomplete and not cached. An entry holds the query graph, the positions of the matched
+ * target graphs and the mappings, all charged to the budget; it refers to the target graph set only by the
+ * version of its GraphIndex (GraphIndex.getVersion()), so it keeps neither the target graphs nor an old store
+ * snapshot alive. Results of another version or mode are never returned, and entries of versions no longer
+ * queried age out of the budget.
+ */
+public class QueryCache {
+
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	private final long budgetBytes;
+	private final LinkedHashMap<Long, ArrayList<Entry>> entries = new LinkedHashMap<Long, ArrayList<Entry>>(16, 0.75f, true);
+	private final VF2 isomorphism = new VF2(MatchingMode.ISOMORPHISM); // confirms a hash match
+	private long usedBytes = 0;
+
+	// statistics, guarded by this
+	private long hits = 0;
+	private long misses = 0;
+	private long collisions = 0;	// hash matches that were not isomorphic
+	private long evictions = 0;
+
+	/**
+	 * @param budgetBytes	Memory budget of the cached results in bytes, or UNLIMITED
+	 */
+	public QueryCache(long budgetBytes) {
+		this.budgetBytes = budgetBytes;
+	}
+
+	/**
+	 * Look up the result of a query
+	 * @param index			Index over the target graph set the query is matched against
+	 * @param mode			The matching semantics
+	 * @param queryGraph	Query graph
+	 * @param hash			GraphHash of the query graph
+	 * @return				The result with the mappings of this query graph, null if it is not cached
+	 */
+	QueryResult lookup(GraphIndex index, MatchingMode mode, CompactGraph queryGraph, long hash) {
+		ArrayList<Entry> candidates;
+		synchronized (this) {
+			ArrayList<Entry> bucket = entries.get(hash);
+			candidates = bucket == null ? null : new ArrayList<Entry>(bucket);
+		}
+
+		// confirm outside the lock, the entries are immutable
+		if (candidates != null) {
+			for (Entry entry : candidates) {
+				if (entry.version != index.getVersion() || entry.mode != mode
+						|| entry.queryGraph.nodeCount() != queryGraph.nodeCount() || entry.queryGraph.edgeCount() != queryGraph.edgeCount()) {
+					continue;
+				}
+				State confirmed = isomorphism.matchGraphPair(entry.queryGraph, queryGraph);
+				if (confirmed.matched) {
+					synchronized (this) {
+						hits++;
+					}
+					return entry.translate(index, queryGraph, confirmed.core_2);
+				}
+				synchronized (this) {
+					collisions++;
+				}
+			}
+		}
+		synchronized (this) {
+			misses++;
+		}
+		return null;
+	}
+
+	/**
+	 * Add the result of a query, unless it is incomplete
+	 * @param index			Index over the target graph set the query was matched against
+	 * @param mode			The matching semantics
+	 * @param queryGraph	Query graph
+	 * @param hash			GraphHash of the query graph
+	 * @param result		The result of the query
+	 */
+	void store(GraphIndex index, MatchingMode mode, CompactGraph queryGraph, long hash, QueryResult result) {
+		if (!result.timedOut.isEmpty() || result.positions == null) {
+			return;
+		}
+		Entry entry = new Entry(index.getVersion(), mode, queryGraph, result);
+		synchronized (this) {
+			ArrayList<Entry> bucket = entries.get(hash);
+			if (bucket == null) {
+				bucket = new ArrayList<Entry>(1);
+				entries.put(hash, bucket);
+			}
+			bucket.add(entry);
+			usedBytes += entry.memoryBytes;
+			Iterator<Map.Entry<Long, ArrayList<Entry>>> eldest = entries.entrySet().iterator();
+			while (usedBytes > budgetBytes && entries.size() > 1) {
+				for (Entry evicted : eldest.next().getValue()) {
+					usedBytes -= evicted.memoryBytes;
+					evictions++;
+				}
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Find the matches of a query graph in an indexed target graph set, answering from the cache if possible
+	 * @param index			Index over the target graph set
+	 * @param mode			The matching semantics of the matcher
+	 * @param queryGraph	Query graph
+	 * @param search		Searches the target graphs on a miss
+	 * @return				The matches and the timed out target graphs
+	 */
+	QueryResult matchQuery(GraphIndex index, MatchingMode mode, CompactGraph queryGraph, Search search) {
+		long hash = GraphHash.compute(queryGraph);
+		QueryResult result = lookup(index, mode, queryGraph, hash);
+		if (result == null) {
+			result = search.matchQuery(index, queryGraph);
+			store(index, mode, queryGraph, hash, result);
+		}
+		return result;
+	}
+
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getCollisionCount() {
+		return collisions;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Print the cache statistics to console
+	 */
+	public synchronized void printStatistics() {
+		System.out.println("Query result cache: " + entries.size() + " queries, " + (usedBytes >> 10) + " KiB"
+				+ " (hits: " + hits + ", misses: " + misses + ", hash collisions: " + collisions + ", evictions: " + evictions + ")");
+	}
+
+	/**
+	 * The search run on a miss, by VF2 or ParallelVF2
+	 */
+	interface Search {
+		QueryResult matchQuery(GraphIndex index, CompactGraph queryGraph);
+	}
+
+	/**
+	 * The result of one query, as the positions of the target graphs matched and one mapping into each
+	 */
+	private static class Entry {
+
+		final long version;	// of the GraphIndex searched
+		final MatchingMode mode;
+		final CompactGraph queryGraph;
+		final int[] positions;	// in the graph set of the index
+		final int[][] mappings;	// target graph node of each query graph node, per target graph
+		final long memoryBytes;
+
+		Entry(long version, MatchingMode mode, CompactGraph queryGraph, QueryResult result) {
+			this.version = version;
+			this.mode = mode;
+			this.queryGraph = queryGraph;
+			this.positions = result.positions.clone();
+			this.mappings = new int[positions.length][];
+			int n = queryGraph.nodeCount();
+			for (int i = 0 ; i < positions.length ; i++) {
+				mappings[i] = new int[n];
+				System.arraycopy(result.matches.get(i).core_2, 0, mappings[i], 0, n);
+			}
+			this.memoryBytes = 96 + queryGraph.memoryBytes() + positions.length * (4L + 16 + 4L * n);
+		}
+
+		// the result for an isomorphic query graph, whose node i is node isomorphism[i] of the cached one
+		QueryResult translate(GraphIndex index, CompactGraph query, int[] isomorphism) {
+			QueryResult result = new QueryResult();
+			List<CompactGraph> graphSet = index.getGraphSet();
+			int[] mapping = new int[query.nodeCount()];
+			for (int i = 0 ; i < positions.length ; i++) {
+				for (int v = 0 ; v < mapping.length ; v++) {
+					mapping[v] = mappings[i][isomorphism[v]];
+				}
+				result.matches.add(State.ofMapping(graphSet.get(positions[i]), query, mapping));
+			}
+			result.positions = positions.clone();
+			return result;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package wip.VF2.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * The outcome of matching a query graph against a target graph set:
+ * the matched target graphs and the ones whose search ran out of its SearchBudget
+ */
+public class QueryResult {
+
+	public final ArrayList<State> matches = new ArrayList<State>();				// the states containing the mappings
+	public final ArrayList<CompactGraph> timedOut = new ArrayList<CompactGraph>();	// target graphs with MatchOutcome.TIMED_OUT
+	public boolean queryBudgetExhausted = false; // the query ran out of budget, so some target graphs were not searched
+	int[] positions; // position of the target graph of each match in the set of the GraphIndex searched, null if unknown
+
+	/**
+	 * Record the positions of the matched target graphs
+	 * @param candidates	The target graphs searched, in order, which the matches hold
+	 * @param positions		Position of each of them in the graph set of the index
+	 */
+	void locate(List<CompactGraph> candidates, int[] positions) {
+		this.positions = new int[matches.size()];
+		int j = 0;
+		for (int i = 0 ; i < matches.size() ; i++) {
+			while (candidates.get(j) != matches.get(i).targetGraph) {	// the matches are in the order of the candidates
+				j++;
+			}
+			this.positions[i] = positions[j++];
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package wip.VF2.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits on the work of a search (see VF2.setBudget()), so one pathological target graph
+ * cannot hold up a whole graph set.
+ *
+ * Each pair may expand at most pairStates states and run at most pairMillis milliseconds. All pairs
+ * of one query share queryStates states and queryMillis milliseconds; once those are used up, the
+ * remaining target graphs are not searched. A limit of 0 or less means no limit.
+ * A search that runs out of budget ends with MatchOutcome.TIMED_OUT.
+ *
+ * The search counts down the states it may still expand and reads the clock only every
+ * CLOCK_INTERVAL states, so a budget costs one decrement per state. The subtrees of a pair searched
+ * by ParallelVF2.matchGraphPair() share its deadline and its states: they take the states from a shared
+ * counter in batches of STATE_BATCH, and give back what is left of a batch when they finish.
+ */
+public class SearchBudget {
+
+	public static final SearchBudget UNLIMITED = new SearchBudget(0, 0, 0, 0);
+
+	static final int CLOCK_INTERVAL = 1024; // states expanded between two reads of the clock
+	static final int STATE_BATCH = 1024; // states a parallel subtree takes from the shared budget of its pair at a time
+
+	public final long pairStates;
+	public final long pairMillis;
+	public final long queryStates;
+	public final long queryMillis;
+
+	/**
+	 * @param pairStates	Maximum number of states expanded for one pair
+	 * @param pairMillis	Maximum time spent on one pair in milliseconds
+	 * @param queryStates	Maximum number of states expanded for all pairs of one query
+	 * @param queryMillis	Maximum time spent on all pairs of one query in milliseconds
+	 */
+	public SearchBudget(long pairStates, long pairMillis, long queryStates, long queryMillis) {
+		this.pairStates = pairStates;
+		this.pairMillis = pairMillis;
+		this.queryStates = queryStates;
+		this.queryMillis = queryMillis;
+	}
+
+	public boolean isUnlimited() {
+		return pairStates <= 0 && pairMillis <= 0 && queryStates <= 0 && queryMillis <= 0;
+	}
+
+	/**
+	 * Start the budget of one query
+	 * @return	The budget left to the pairs of the query
+	 */
+	Query startQuery() {
+		return new Query(queryStates > 0 ? queryStates : Long.MAX_VALUE,
+				queryMillis > 0 ? System.nanoTime() + queryMillis * 1000000 : 0, queryMillis > 0);
+	}
+
+	/**
+	 * Give a reset State the budget of one pair, within what is left of its query
+	 * @param state	VF2 State at depth 0
+	 * @param query	Budget left to the query, null if the pair is matched on its own
+	 */
+	void startPair(State state, Query query) {
+		long states = pairStates > 0 ? pairStates : Long.MAX_VALUE;
+		boolean hasDeadline = pairMillis > 0;
+		long deadline = hasDeadline ? System.nanoTime() + pairMillis * 1000000 : 0;
+		if (query != null) {
+			states = Math.min(states, query.statesLeft.get());
+			if (query.hasDeadline && (!hasDeadline || query.deadline - deadline < 0)) {
+				deadline = query.deadline;
+				hasDeadline = true;
+			}
+		}
+		state.statesLeft = states;
+		state.statesAllowed = states;
+		state.hasDeadline = hasDeadline;
+		state.deadline = deadline;
+	}
+
+	/**
+	 * Move the state budget of a pair into a counter shared by the copies of its State,
+	 * so that the subtrees searched on the copies together expand at most the budget of the pair
+	 * @param state	VF2 State at depth 0, after startPair()
+	 */
+	static void share(State state) {
+		if (state.statesLeft == Long.MAX_VALUE) {
+			return;	// no state limit
+		}
+		state.sharedStates = new AtomicLong(state.statesLeft);
+		state.statesLeft = 0;
+		state.statesAllowed = 0;
+	}
+
+	/**
+	 * Take the next batch of states from the shared budget of the pair, once a subtree has used up its batch
+	 * @param state	VF2 State of the subtree
+	 * @return		False if the pair has no states left, or its budget is not shared
+	 */
+	static boolean takeStates(State state) {
+		AtomicLong shared = state.sharedStates;
+		if (shared == null) {
+			return false;
+		}
+		while (true) {
+			long left = shared.get();
+			if (left <= 0) {
+				return false;
+			}
+			long batch = Math.min(left, STATE_BATCH);
+			if (shared.compareAndSet(left, left - batch)) {
+				state.statesLeft += batch;
+				state.statesAllowed += batch;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Give the unused rest of a subtree's batch back to the pair
+	 * @param state	VF2 State of the finished subtree
+	 */
+	static void returnStates(State state) {
+		if (state.sharedStates != null && state.statesLeft > 0) {
+			state.sharedStates.addAndGet(state.statesLeft);
+			state.statesAllowed -= state.statesLeft;
+			state.statesLeft = 0;
+		}
+	}
+
+	/**
+	 * The budget left to the pairs of one query, shared by the threads matching its target graphs
+	 */
+	static class Query {
+
+		final AtomicLong statesLeft;
+		final long deadline;		// System.nanoTime() at which the query is out of time
+		final boolean hasDeadline;
+
+		Query(long states, long deadline, boolean hasDeadline) {
+			this.statesLeft = new AtomicLong(states);
+			this.deadline = deadline;
+			this.hasDeadline = hasDeadline;
+		}
+
+		/**
+		 * Charge the states a pair expanded to the query
+		 * @param state	VF2 State after the search of the pair
+		 */
+		void charge(State state) {
+			statesLeft.addAndGet(-(state.statesAllowed - state.statesLeft));
+		}
+
+		/**
+		 * @return	Whether the query has no budget left for another pair
+		 */
+		boolean isExhausted() {
+			return statesLeft.get() <= 0 || (hasDeadline && System.nanoTime() - deadline > 0);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package wip.VF2.core;
+
+/**
+ * Counters of VF2 searches: the search tree visited, and which rule pruned it.
+ *
+ * While a pair is searched, its counters live in the State of the searching thread (State.metrics),
+ * so the hot path only increments plain fields. When the search ends they are handed to a
+ * MetricsCollector, which adds them up per query graph and per target graph.
+ */
+public class SearchMetrics {
+
+	/**
+	 * The rules of checkFeasibility, in the order they are checked
+	 * With candidate domains (queries of at least CandidateDomains.MIN_QUERY_SIZE nodes) the candidates are
+	 * taken from the domains, so LABEL and NEIGHBORHOOD reject nothing: the nodes they would reject are never candidates
+	 */
+	public enum Rule { LABEL, NEIGHBORHOOD, PRED_SUCC, IN_OUT, NEW }
+
+	public long pairs;				// pairs searched, or ruled out before the search
+	public long matchedPairs;		// pairs with a match
+	public long timedOutPairs;		// pairs that ran out of their SearchBudget
+	public long prunedBySize;		// pairs ruled out by the node / edge counts
+	public long prunedByDomain;		// pairs ruled out by an empty candidate domain
+	public long states;				// states visited, i.e. calls of matchRecursive
+	public int maxDepth;			// deepest state visited
+	public long candidates;			// candidate pairs checked for feasibility
+	public final long[] rejected = new long[Rule.values().length];	// candidate pairs rejected by each rule
+	public long nanos;				// time spent on the pairs
+
+	/**
+	 * Count a state visited by the search
+	 * @param depth	Depth of the state
+	 */
+	public void visit(int depth) {
+		states++;
+		if (depth > maxDepth) {
+			maxDepth = depth;
+		}
+	}
+
+	/**
+	 * Count a candidate pair rejected by a rule
+	 * @param rule	The rule
+	 */
+	public void reject(Rule rule) {
+		rejected[rule.ordinal()]++;
+	}
+
+	public long rejected(Rule rule) {
+		return rejected[rule.ordinal()];
+	}
+
+	/**
+	 * Add up the counters of another search, e.g. a parallel subtree or another pair
+	 * @param other	The counters to add
+	 */
+	public void add(SearchMetrics other) {
+		pairs += other.pairs;
+		matchedPairs += other.matchedPairs;
+		timedOutPairs += other.timedOutPairs;
+		prunedBySize += other.prunedBySize;
+		prunedByDomain += other.prunedByDomain;
+		states += other.states;
+		maxDepth = Math.max(maxDepth, other.maxDepth);
+		candidates += other.candidates;
+		for (int i = 0 ; i < rejected.length ; i++) {
+			rejected[i] += other.rejected[i];
+		}
+		nanos += other.nanos;
+	}
+
+	/**
+	 * Set all counters to zero, to reuse this object for the next pair
+	 */
+	public void clear() {
+		pairs = 0;
+		matchedPairs = 0;
+		timedOutPairs = 0;
+		prunedBySize = 0;
+		prunedByDomain = 0;
+		states = 0;
+		maxDepth = 0;
+		candidates = 0;
+		for (int i = 0 ; i < rejected.length ; i++) {
+			rejected[i] = 0;
+		}
+		nanos = 0;
+	}
+}
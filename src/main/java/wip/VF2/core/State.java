@@ -1,12 +1,12 @@
 package wip.VF2.core;
 
 import java.io.PrintWriter;
-import java.util.HashSet;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-import wip.VF2.graph.Edge;
+import wip.VF2.graph.CompactGraph;
 import wip.VF2.graph.Graph;
-import wip.VF2.graph.Node;
 
 public class State {
 	
@@ -18,20 +18,48 @@ public class State {
 	public int[] out_1; // stores for each target graph node the depth in the search tree at which it entered "T_1 out" or the mapping ("-1" indicates that the node is not part of the set)
 	public int[] out_2; // stores for each query graph node the depth in the search tree at which it entered "T_2 out" or the mapping ("-1" indicates that the node is not part of the set)
 	 
-	public HashSet<Integer> T1in;	// nodes that not yet in the partial mapping, that are the destination of branches start from target graph
-	public HashSet<Integer> T1out;	// nodes that not yet in the partial mapping, that are the origin of branches end into target graph
-	public HashSet<Integer> T2in;	// nodes that not yet in the partial mapping, that are the destination of branches start from query graph
-	public HashSet<Integer> T2out;	// nodes that not yet in the partial mapping, that are the origin of branches end into query graph
+	public IntBitSet T1in;	// nodes that not yet in the partial mapping, that are the destination of branches start from target graph
+	public IntBitSet T1out;	// nodes that not yet in the partial mapping, that are the origin of branches end into target graph
+	public IntBitSet T2in;	// nodes that not yet in the partial mapping, that are the destination of branches start from query graph
+	public IntBitSet T2out;	// nodes that not yet in the partial mapping, that are the origin of branches end into query graph
 	
-	public HashSet<Integer> unmapped1;	// unmapped nodes in target graph
-	public HashSet<Integer> unmapped2;	// unmapped nodes in query graph
+	public IntBitSet unmapped1;	// unmapped nodes in target graph
+	public IntBitSet unmapped2;	// unmapped nodes in query graph
 	
 	public int depth = 0; // current depth of the search tree
 	
+	// undo trail of the in/out entries stamped by extendMatch, so backtrack only touches those
+	// entries are encoded as (nodeId << 1) | 0 for in_x, (nodeId << 1) | 1 for out_x
+	private int[] trail1;		// target graph entries
+	private int[] trail2;		// query graph entries
+	private int trailSize1 = 0;
+	private int trailSize2 = 0;
+	private int[] trailMark1;	// trail1 size before the stamps of each depth
+	private int[] trailMark2;	// trail2 size before the stamps of each depth
+	
+	private CandidateCursor[] cursors;	// candidate generation of each depth, reused across the search
+	
+	IntBitSet[] domains;	// candidate target nodes of each query node, see CandidateDomains
+	boolean domainsReady;	// domains hold the current pair, set by CandidateDomains.compute()
+	
 	public boolean matched = false;
+	public boolean timedOut = false; // the search ran out of its SearchBudget before it could decide
+	
+	// budget of the current pair, see SearchBudget
+	long statesLeft = Long.MAX_VALUE;		// states the search may still expand
+	long statesAllowed = Long.MAX_VALUE;	// states it was allowed at the start
+	AtomicLong sharedStates;				// budget of a pair split across threads, taken in batches (null: statesLeft is all of it)
+	boolean hasDeadline = false;
+	long deadline;							// System.nanoTime() at which the search gives up
+	
+	public MatchingOrder order; // order in which the query nodes are matched (null: largest id of the terminal sets first)
 	
-	public Graph targetGraph;
-	public Graph queryGraph;
+	public SearchMetrics metrics; // counters of the current search, null if it is not counted
+	
+	public AtomicBoolean stopSignal; // shared by parallel searches of one pair, the search gives up once it is set (null: never)
+	
+	public CompactGraph targetGraph;
+	public CompactGraph queryGraph;
 	
 	/**
 	 * Initialize a State
@@ -39,28 +67,109 @@ public class State {
 	 * @param queryGraph	The small graph
 	 */
 	public State(Graph targetGraph, Graph queryGraph) {
+		this(targetGraph.freeze(), queryGraph.freeze());
+	}
+	
+	/**
+	 * Initialize a State
+	 * @param targetGraph	The big graph
+	 * @param queryGraph	The small graph
+	 */
+	public State(CompactGraph targetGraph, CompactGraph queryGraph) {
+		reset(targetGraph, queryGraph);
+	}
+	
+	/**
+	 * Allocate an empty State to be reset for pairs of graphs up to the given sizes
+	 * @param targetCapacity	Node count of the largest target graph
+	 * @param queryCapacity		Node count of the largest query graph
+	 */
+	public State(int targetCapacity, int queryCapacity) {
+		ensureCapacity(targetCapacity, queryCapacity);
+	}
+	
+	/**
+	 * Copy a State, so that a subtree of the search can continue on another thread
+	 * The copy shares the graphs and the stop signal, everything else is independent
+	 * @param other	The state to copy
+	 */
+	public State(State other) {
 		
-		this.targetGraph = targetGraph;
-		this.queryGraph = queryGraph;
+		this.targetGraph = other.targetGraph;
+		this.queryGraph = other.queryGraph;
+		
+		core_1 = other.core_1.clone();
+		core_2 = other.core_2.clone();
+		in_1 = other.in_1.clone();
+		in_2 = other.in_2.clone();
+		out_1 = other.out_1.clone();
+		out_2 = other.out_2.clone();
 		
-		int targetSize = targetGraph.nodes.size();
-		int querySize = queryGraph.nodes.size();
+		T1in = new IntBitSet(other.T1in);
+		T1out = new IntBitSet(other.T1out);
+		T2in = new IntBitSet(other.T2in);
+		T2out = new IntBitSet(other.T2out);
+		unmapped1 = new IntBitSet(other.unmapped1);
+		unmapped2 = new IntBitSet(other.unmapped2);
+		
+		trail1 = other.trail1.clone();
+		trail2 = other.trail2.clone();
+		trailSize1 = other.trailSize1;
+		trailSize2 = other.trailSize2;
+		trailMark1 = other.trailMark1.clone();
+		trailMark2 = other.trailMark2.clone();
+		cursors = new CandidateCursor[other.cursors.length];	// cursors belong to the search that runs on a state
+		domains = other.domains;	// read-only during the search
+		domainsReady = other.domainsReady;
+		
+		depth = other.depth;
+		matched = other.matched;
+		timedOut = other.timedOut;
+		// a copy takes its states from the shared budget of the pair, it does not get the other's again
+		sharedStates = other.sharedStates;
+		statesLeft = sharedStates == null ? other.statesLeft : 0;
+		statesAllowed = sharedStates == null ? other.statesAllowed : 0;
+		hasDeadline = other.hasDeadline;
+		deadline = other.deadline;
+		order = other.order;
+		stopSignal = other.stopSignal;
+		metrics = other.metrics == null ? null : new SearchMetrics();	// added up by the owner of the copy
+	}
+	
+	/**
+	 * Reinitialize this State for a new pair of graphs, so it can be reused
+	 * The arrays and sets are only reallocated if the graphs do not fit into them
+	 * @param targetGraph	The big graph
+	 * @param queryGraph	The small graph
+	 */
+	public void reset(CompactGraph targetGraph, CompactGraph queryGraph) {
 		
-		T1in = new HashSet<Integer>(targetSize * 2);
-		T1out = new HashSet<Integer>(targetSize * 2);
-		T2in = new HashSet<Integer>(querySize * 2);
-		T2out = new HashSet<Integer>(querySize * 2);
+		this.targetGraph = targetGraph;
+		this.queryGraph = queryGraph;
 		
-		unmapped1 = new HashSet<Integer>(targetSize * 2);
-		unmapped2 = new HashSet<Integer>(querySize * 2);
+		int targetSize = targetGraph.nodeCount();
+		int querySize = queryGraph.nodeCount();
 		
-		core_1 = new int[targetSize];
-		core_2 = new int[querySize];
+		if (!ensureCapacity(targetSize, querySize)) {
+			T1in.clear();
+			T1out.clear();
+			unmapped1.clear();
+			T2in.clear();
+			T2out.clear();
+			unmapped2.clear();
+		}
 		
-		in_1 = new int[targetSize];
-		in_2 = new int[querySize];
-		out_1 = new int[targetSize];
-		out_2 = new int[querySize];
+		order = null;
+		domainsReady = false;
+		depth = 0;
+		trailSize1 = 0;
+		trailSize2 = 0;
+		matched = false;
+		timedOut = false;
+		statesLeft = Long.MAX_VALUE;
+		statesAllowed = Long.MAX_VALUE;
+		sharedStates = null;
+		hasDeadline = false;
 		
 		// initialize values ("-1" means no mapping / not contained in the set)
 		// initially, all sets are empty and no nodes are mapped
@@ -78,46 +187,163 @@ public class State {
 		}
 	}
 		
-	public Boolean inM1(int nodeId) {
+	/**
+	 * Make room for graphs of the given sizes, growing at least to twice the current capacity
+	 * @param targetSize	Node count of the target graph
+	 * @param querySize		Node count of the query graph
+	 * @return				Whether the sets were reallocated (empty) rather than kept
+	 */
+	private boolean ensureCapacity(int targetSize, int querySize) {
+		if (core_1 != null && core_1.length >= targetSize && core_2.length >= querySize) {
+			return false;
+		}
+		if (core_1 == null || core_1.length < targetSize) {
+			int capacity = core_1 == null ? targetSize : Math.max(targetSize, core_1.length * 2);
+			core_1 = new int[capacity];
+			in_1 = new int[capacity];
+			out_1 = new int[capacity];
+			// every node enters in_x and out_x at most once
+			trail1 = new int[capacity * 2];
+		}
+		if (core_2 == null || core_2.length < querySize) {
+			int capacity = core_2 == null ? querySize : Math.max(querySize, core_2.length * 2);
+			core_2 = new int[capacity];
+			in_2 = new int[capacity];
+			out_2 = new int[capacity];
+			trail2 = new int[capacity * 2];
+			// depth never exceeds the query size
+			trailMark1 = new int[capacity + 1];
+			trailMark2 = new int[capacity + 1];
+			cursors = new CandidateCursor[capacity + 1];
+		}
+		T1in = new IntBitSet(core_1.length);
+		T1out = new IntBitSet(core_1.length);
+		unmapped1 = new IntBitSet(core_1.length);
+		T2in = new IntBitSet(core_2.length);
+		T2out = new IntBitSet(core_2.length);
+		unmapped2 = new IntBitSet(core_2.length);
+		return true;
+	}
+	
+	/**
+	 * Get the domain sets to fill, one per query node with the target capacity
+	 * They are allocated on first use and when the State has grown
+	 * @return	The domains
+	 */
+	IntBitSet[] allocateDomains() {
+		if (domains == null || domains.length < core_2.length
+				|| (domains.length > 0 && domains[0].capacity() != core_1.length)) {	// no sets to check for an empty query
+			domains = new IntBitSet[core_2.length];
+			for (int i = 0 ; i < domains.length ; i++) {
+				domains[i] = new IntBitSet(core_1.length);
+			}
+		}
+		return domains;
+	}
+	
+	/**
+	 * @return	Node count of the largest target graph this State holds without reallocating
+	 */
+	public int targetCapacity() {
+		return core_1.length;
+	}
+	
+	/**
+	 * @return	Node count of the largest query graph this State holds without reallocating
+	 */
+	public int queryCapacity() {
+		return core_2.length;
+	}
+
+	/**
+	 * Build the matched State of a complete mapping that was found without a VF2 search on it
+	 * @param targetGraph	The big graph
+	 * @param queryGraph	The small graph
+	 * @param mapping		Target graph node of each query graph node
+	 * @return				The State holding the mapping
+	 */
+	static State ofMapping(CompactGraph targetGraph, CompactGraph queryGraph, int[] mapping) {
+		State state = new State(targetGraph, queryGraph);
+		for (int i = 0 ; i < queryGraph.nodeCount() ; i++) {
+			state.core_2[i] = mapping[i];
+			state.core_1[mapping[i]] = i;
+		}
+		state.depth = queryGraph.nodeCount();
+		state.matched = true;
+		return state;
+	}
+	
+	/**
+	 * Copy the mapping of a matched State into a new one sized to its graphs, so a pooled State can be reused
+	 * @return	The matched State holding the same mapping
+	 */
+	State copyMapping() {
+		State state = ofMapping(targetGraph, queryGraph, core_2);
+		state.order = order;
+		return state;
+	}
+	
+	/**
+	 * @return	The outcome of the search run on this State
+	 */
+	public MatchOutcome outcome() {
+		if (matched) {
+			return MatchOutcome.MATCHED;
+		}
+		return timedOut ? MatchOutcome.TIMED_OUT : MatchOutcome.UNMATCHED;
+	}
+	
+	public boolean inM1(int nodeId) {
 		return (core_1[nodeId] > -1);
 	}
 	
-	public Boolean inM2(int nodeId) {
+	public boolean inM2(int nodeId) {
 		return (core_2[nodeId] > -1);
 	}
 	
-	public Boolean inT1in(int nodeId) {
+	public boolean inT1in(int nodeId) {
 		return ((core_1[nodeId] == -1) && (in_1[nodeId] > -1));
 	}
 	
-	public Boolean inT2in(int nodeId) {
+	public boolean inT2in(int nodeId) {
 		return ((core_2[nodeId] == -1) && (in_2[nodeId] > -1));
 	}
 	
-	public Boolean inT1out(int nodeId) {
+	public boolean inT1out(int nodeId) {
 		return ((core_1[nodeId] == -1) && (out_1[nodeId] > -1));
 	}
 	
-	public Boolean inT2out(int nodeId) {
+	public boolean inT2out(int nodeId) {
 		return ((core_2[nodeId] == -1) && (out_2[nodeId] > -1));
 	}
 	
-	public Boolean inT1(int nodeId) {
+	public boolean inT1(int nodeId) {
 		return (this.inT1in(nodeId) || this.inT1out(nodeId));
 	}
 	
-	public Boolean inT2(int nodeId) {
+	public boolean inT2(int nodeId) {
 		return (this.inT2in(nodeId) || this.inT2out(nodeId));
 	}
 	
-	public Boolean inN1Tilde(int nodeId) {
+	public boolean inN1Tilde(int nodeId) {
 		return ((core_1[nodeId] == -1) && (in_1[nodeId] == -1) && (out_1[nodeId] == -1));
 	}
 	
-	public Boolean inN2Tilde(int nodeId) {
+	public boolean inN2Tilde(int nodeId) {
 		return ((core_2[nodeId] == -1) && (in_2[nodeId] == -1) && (out_2[nodeId] == -1));
 	}
 	
+	/**
+	 * Get the reusable candidate cursor of a depth
+	 * @param d	Depth in the search tree
+	 * @return	The cursor
+	 */
+	public CandidateCursor cursorAt(int d) {
+		if (cursors[d] == null)
+			cursors[d] = new CandidateCursor();
+		return cursors[d];
+	}
+	
 	/**
 	 * Add a new match (targetIndex, queryIndex) to the state
 	 * @param targetIndex	Index of the node in target graph
@@ -135,39 +361,46 @@ public class State {
 		T2out.remove(queryIndex);
 		
 		depth++;	// move down one level in the search tree
+		trailMark1[depth] = trailSize1;
+		trailMark2[depth] = trailSize2;
 		
-		Node targetNode = targetGraph.nodes.get(targetIndex);
-		Node queryNode = queryGraph.nodes.get(queryIndex);
-
-		for (Edge e : targetNode.inEdges) {
-			if (in_1[e.source.id] == -1){	// if the note is not in T1in or mapping 
-				in_1[e.source.id] = depth;
-				if (!inM1(e.source.id))		// if not in M1, add into T1in
-					T1in.add(e.source.id);
+		for (int i = targetGraph.inBegin(targetIndex) ; i < targetGraph.inEnd(targetIndex) ; i++) {
+			int source = targetGraph.inNeighbor(i);
+			if (in_1[source] == -1){	// if the note is not in T1in or mapping 
+				in_1[source] = depth;
+				trail1[trailSize1++] = (source << 1) | 0;
+				if (!inM1(source))		// if not in M1, add into T1in
+					T1in.add(source);
 			}
 		}
 
-		for (Edge e : targetNode.outEdges) {
-			if (out_1[e.target.id] == -1){	// if the note is not in T1out or mapping 
-				out_1[e.target.id] = depth; 
-				if (!inM1(e.target.id))		// if not in M1, add into T1out
-					T1out.add(e.target.id); 
+		for (int i = targetGraph.outBegin(targetIndex) ; i < targetGraph.outEnd(targetIndex) ; i++) {
+			int target = targetGraph.outNeighbor(i);
+			if (out_1[target] == -1){	// if the note is not in T1out or mapping 
+				out_1[target] = depth; 
+				trail1[trailSize1++] = (target << 1) | 1;
+				if (!inM1(target))		// if not in M1, add into T1out
+					T1out.add(target); 
 			}
 		}
 
-		for (Edge e : queryNode.inEdges) {
-			if (in_2[e.source.id] == -1){	// if the note is not in T2in or mapping
-				in_2[e.source.id] = depth; 
-				if (!inM2(e.source.id))		// if not in M1, add into T2in
-					T2in.add(e.source.id); 
+		for (int i = queryGraph.inBegin(queryIndex) ; i < queryGraph.inEnd(queryIndex) ; i++) {
+			int source = queryGraph.inNeighbor(i);
+			if (in_2[source] == -1){	// if the note is not in T2in or mapping
+				in_2[source] = depth; 
+				trail2[trailSize2++] = (source << 1) | 0;
+				if (!inM2(source))		// if not in M1, add into T2in
+					T2in.add(source); 
 			}
 		}
 
-		for (Edge e : queryNode.outEdges) {
-			if (out_2[e.target.id] == -1){	// if the note is not in T2out or mapping
-				out_2[e.target.id] = depth; 
-				if (!inM2(e.target.id))		// if not in M1, add into T2out
-					T2out.add(e.target.id); 
+		for (int i = queryGraph.outBegin(queryIndex) ; i < queryGraph.outEnd(queryIndex) ; i++) {
+			int target = queryGraph.outNeighbor(i);
+			if (out_2[target] == -1){	// if the note is not in T2out or mapping
+				out_2[target] = depth; 
+				trail2[trailSize2++] = (target << 1) | 1;
+				if (!inM2(target))		// if not in M1, add into T2out
+					T2out.add(target); 
 			}
 		}
 			
@@ -185,22 +418,25 @@ public class State {
 		unmapped1.add(targetNodeIndex);
 		unmapped2.add(queryNodeIndex);
 		
-		for (int i = 0 ; i < core_1.length ; i++) {
-			if (in_1[i] == depth) {
+		// undo only what extendMatch stamped at this depth
+		while (trailSize1 > trailMark1[depth]) {
+			int entry = trail1[--trailSize1];
+			int i = entry >> 1;
+			if ((entry & 1) == 0) {
 				in_1[i] = -1;
 				T1in.remove(i);
-			}
-			if (out_1[i] == depth) {
+			} else {
 				out_1[i] = -1;
 				T1out.remove(i);
 			}
 		}
-		for (int i = 0 ; i < core_2.length ; i++) {
-			if (in_2[i] == depth) {
+		while (trailSize2 > trailMark2[depth]) {
+			int entry = trail2[--trailSize2];
+			int i = entry >> 1;
+			if ((entry & 1) == 0) {
 				in_2[i] = -1;
 				T2in.remove(i);
-			}
-			if (out_2[i] == depth) {
+			} else {
 				out_2[i] = -1;
 				T2out.remove(i);
 			}
@@ -223,7 +459,7 @@ public class State {
 	 * Print the current mapping
 	 */
 	public void printMapping() {
-		for (int i = 0 ; i < core_2.length ; i++) {
+		for (int i = 0 ; i < queryGraph.nodeCount() ; i++) {
 			System.out.print("(" + core_2[i] + "-" + i + ") ");
 		}
 		System.out.println();
@@ -233,7 +469,7 @@ public class State {
 	 * Write state to file
 	 */
 	public void writeMapping(PrintWriter writer){
-		for (int i = 0 ; i < core_2.length ; i++) {
+		for (int i = 0 ; i < queryGraph.nodeCount() ; i++) {
 			writer.write("(" + core_2[i] + "-" + i + ") ");
 		}
 		writer.write("\n");
@@ -0,0 +1,29 @@
+package wip.VF2.core;
+
+/**
+ * One reusable State per thread, so matching a graph set does not allocate a State per pair.
+ *
+ * A thread resets its State for every pair it matches. When a pair matches, its mapping is copied
+ * into a State sized to the two graphs (State.copyMapping()) and the pooled one stays with the thread,
+ * so a result does not hold arrays sized to the largest graphs, and once the pooled State has grown
+ * only matches allocate.
+ */
+public class StatePool {
+
+	private final ThreadLocal<State> states = new ThreadLocal<State>();
+
+	/**
+	 * Get the State of the calling thread, allocating it if needed
+	 * @param targetCapacity	Node count of the largest target graph it will be reset for
+	 * @param queryCapacity		Node count of the largest query graph it will be reset for
+	 * @return					The State, to be reset before use
+	 */
+	public State get(int targetCapacity, int queryCapacity) {
+		State state = states.get();
+		if (state == null || state.targetCapacity() < targetCapacity || state.queryCapacity() < queryCapacity) {
+			state = new State(targetCapacity, queryCapacity);
+			states.set(state);
+		}
+		return state;
+	}
+}
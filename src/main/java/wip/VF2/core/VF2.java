@@ -1,14 +1,11 @@
 package wip.VF2.core;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
-import org.omg.CORBA.INTERNAL;
-
-import wip.VF2.graph.Edge;
+import wip.VF2.graph.CompactGraph;
 import wip.VF2.graph.Graph;
-import wip.VF2.graph.Node;
+import wip.VF2.index.GraphIndex;
 
 /**
  * Core Class of VF2 Algorithm
@@ -16,6 +13,67 @@ import wip.VF2.graph.Node;
  */
 public class VF2 {
 	
+	private final MatchingMode mode;
+	private final StatePool statePool = new StatePool(); // scratch states of matchGraphSetWithQuery
+	private volatile MetricsCollector metricsCollector; // receives the counters of every pair, null: not counted
+	private volatile SearchBudget budget = SearchBudget.UNLIMITED;
+	private volatile QueryCache queryCache; // answers repeated queries, null: every query is searched
+	
+	/**
+	 * Create a matcher for induced subgraph isomorphism
+	 */
+	public VF2() {
+		this(MatchingMode.INDUCED);
+	}
+	
+	/**
+	 * Create a matcher
+	 * @param mode	The matching semantics of every search of this matcher
+	 */
+	public VF2(MatchingMode mode) {
+		this.mode = mode;
+	}
+	
+	public MatchingMode getMode() {
+		return mode;
+	}
+	
+	/**
+	 * Count the search of every pair from now on, or stop counting
+	 * @param collector	Receives the counters of every pair, null to stop counting
+	 */
+	public void setMetricsCollector(MetricsCollector collector) {
+		this.metricsCollector = collector;
+	}
+	
+	public MetricsCollector getMetricsCollector() {
+		return metricsCollector;
+	}
+	
+	/**
+	 * Limit the work of every search from now on
+	 * @param budget	The limits, SearchBudget.UNLIMITED for none
+	 */
+	public void setBudget(SearchBudget budget) {
+		this.budget = budget;
+	}
+	
+	public SearchBudget getBudget() {
+		return budget;
+	}
+	
+	/**
+	 * Answer repeated queries of matchQuery(GraphIndex, ...) from a cache from now on, or stop caching
+	 * @param cache	The result cache, null to search every query
+	 */
+	public void setQueryCache(QueryCache cache) {
+		this.queryCache = cache;
+	}
+	
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+	
 	/**
 	 * Find matches given a query graph and a set of target graphs
 	 * @param graphSet		Target graph set
@@ -23,136 +81,399 @@ public class VF2 {
 	 * @return				The state set containing the mappings
 	 */
 	public ArrayList<State> matchGraphSetWithQuery(ArrayList<Graph> graphSet, Graph queryGraph){
-		ArrayList<State> stateSet = new ArrayList<State>();
+		ArrayList<CompactGraph> compactSet = new ArrayList<CompactGraph>(graphSet.size());
 		for (Graph targetGraph : graphSet){
-			State resState = matchGraphPair(targetGraph, queryGraph);
-			if (resState.matched){
-				stateSet.add(resState);
+			compactSet.add(targetGraph.freeze());
+		}
+		return matchGraphSetWithQuery(compactSet, queryGraph.freeze());
+	}
+	
+	/**
+	 * Find matches given a query graph and a set of target graphs
+	 * @param graphSet		Target graph set
+	 * @param queryGraph	Query graph
+	 * @return				The state set containing the mappings
+	 */
+	public ArrayList<State> matchGraphSetWithQuery(List<CompactGraph> graphSet, CompactGraph queryGraph){
+		return matchGraphSetWithQuery(graphSet, queryGraph, new MatchingOrder(queryGraph, null));
+	}
+	
+	/**
+	 * Find matches given a query graph and a set of target graphs
+	 * @param graphSet		Target graph set
+	 * @param queryGraph	Query graph
+	 * @param order			Matching order of the query graph, shared by all target graphs
+	 * @return				The state set containing the mappings
+	 */
+	public ArrayList<State> matchGraphSetWithQuery(List<CompactGraph> graphSet, CompactGraph queryGraph, MatchingOrder order){
+		return matchQuery(graphSet, queryGraph, order, 0).matches;
+	}
+	
+	/**
+	 * Find matches given a query graph and an indexed set of target graphs
+	 * Only the target graphs that pass the index filter are searched
+	 * @param index			Index over the target graph set
+	 * @param queryGraph	Query graph
+	 * @return				The state set containing the mappings
+	 */
+	public ArrayList<State> matchGraphSetWithQuery(GraphIndex index, CompactGraph queryGraph){
+		return matchQuery(index, queryGraph).matches;
+	}
+	
+	/**
+	 * Find matches given a query graph and a set of target graphs, reporting the target graphs that timed out
+	 * @param graphSet		Target graph set
+	 * @param queryGraph	Query graph
+	 * @param order			Matching order of the query graph, shared by all target graphs
+	 * @return				The matches and the timed out target graphs
+	 */
+	public QueryResult matchQuery(List<CompactGraph> graphSet, CompactGraph queryGraph, MatchingOrder order){
+		return matchQuery(graphSet, queryGraph, order, 0);
+	}
+	
+	/**
+	 * Find matches given a query graph and an indexed set of target graphs, reporting the target graphs that timed out
+	 * Only the target graphs that pass the index filter are searched
+	 * @param index			Index over the target graph set
+	 * @param queryGraph	Query graph
+	 * @return				The matches and the timed out target graphs
+	 */
+	public QueryResult matchQuery(GraphIndex index, CompactGraph queryGraph){
+		QueryCache cache = queryCache;
+		if (cache == null) {
+			return searchQuery(index, queryGraph);
+		}
+		return cache.matchQuery(index, getMode(), queryGraph, new QueryCache.Search() {
+			@Override
+			public QueryResult matchQuery(GraphIndex index, CompactGraph queryGraph) {
+				return searchQuery(index, queryGraph);
+			}
+		});
+	}
+	
+	// search the target graphs that pass the index filter
+	private QueryResult searchQuery(GraphIndex index, CompactGraph queryGraph){
+		int[] positions = index.filterPositions(queryGraph);
+		ArrayList<CompactGraph> candidates = index.graphsAt(positions);
+		QueryResult result = matchQuery(candidates, queryGraph, new MatchingOrder(queryGraph, index), index.getMaxNodeCount());
+		result.locate(candidates, positions);	// for the query cache
+		return result;
+	}
+
+	/**
+	 * Find matches of a whole query set in one pass over an indexed set of target graphs,
+	 * sharing the search of the query prefixes in common (see BatchMatcher)
+	 * The budget and the metrics collector of this matcher are not applied
+	 * @param index		Index over the target graph set
+	 * @param querySet	Query graphs
+	 * @return			For each query, the States of its matches in the order of the target set
+	 */
+	public ArrayList<ArrayList<State>> matchBatch(GraphIndex index, List<CompactGraph> querySet){
+		return new BatchMatcher(querySet, index, mode).match();
+	}
+
+	/**
+	 * Find matches given a query graph and a set of target graphs
+	 * The pairs are matched on the calling thread's pooled State, a State sized to the pair is only allocated for a match
+	 * @param graphSet			Target graph set
+	 * @param queryGraph		Query graph
+	 * @param order				Matching order of the query graph, shared by all target graphs
+	 * @param targetCapacity	Node count of the largest target graph, if known (the State grows otherwise)
+	 * @return					The matches and the timed out target graphs
+	 */
+	private QueryResult matchQuery(List<CompactGraph> graphSet, CompactGraph queryGraph, MatchingOrder order, int targetCapacity){
+		queryGraph = queryGraph.prepare();	// signatures for the neighborhood rule, against prepared targets
+		SearchBudget.Query queryBudget = startQuery();
+		QueryResult result = new QueryResult();
+		for (CompactGraph targetGraph : graphSet){
+			if (queryBudget != null && queryBudget.isExhausted()){	// the remaining target graphs are not searched
+				result.queryBudgetExhausted = true;
+				result.timedOut.add(targetGraph);
+				continue;
+			}
+			State state = statePool.get(targetCapacity, queryGraph.nodeCount());
+			MatchOutcome outcome = matchPair(state, targetGraph, queryGraph, order, queryBudget);
+			if (outcome == MatchOutcome.MATCHED){
+				result.matches.add(state.copyMapping());	// the pooled state stays with the thread
+			} else if (outcome == MatchOutcome.TIMED_OUT){
+				result.timedOut.add(targetGraph);
 			}
 		}
 		
-		return stateSet;
+		return result;
+	}
+	
+	/**
+	 * Start the budget of a query
+	 * @return	The budget left to its pairs, null if the budget is unlimited
+	 */
+	SearchBudget.Query startQuery() {
+		SearchBudget budget = this.budget;
+		return budget.isUnlimited() ? null : budget.startQuery();
 	}
 	
 	/**
 	 * Figure out if the target graph contains query graph
 	 * @param targetGraph	Big Graph
 	 * @param queryGraph	Small Graph
-	 * @param state			The state to store the result mapping
-	 * @return				Match or not
+	 * @return				The state storing the result mapping
 	 */
 	public State matchGraphPair(Graph targetGraph, Graph queryGraph) {
+		return matchGraphPair(targetGraph.freeze(), queryGraph.freeze());
+	}
+	
+	/**
+	 * Figure out if the target graph contains query graph
+	 * @param targetGraph	Big Graph
+	 * @param queryGraph	Small Graph
+	 * @return				The state storing the result mapping
+	 */
+	public State matchGraphPair(CompactGraph targetGraph, CompactGraph queryGraph) {
+		return matchGraphPair(targetGraph, queryGraph, new MatchingOrder(queryGraph, null));
+	}
+	
+	/**
+	 * Figure out if the target graph contains query graph
+	 * @param targetGraph	Big Graph
+	 * @param queryGraph	Small Graph
+	 * @param order			Matching order of the query graph
+	 * @return				The state storing the result mapping
+	 */
+	public State matchGraphPair(CompactGraph targetGraph, CompactGraph queryGraph, MatchingOrder order) {
 		State state = new State(targetGraph, queryGraph);
+		state.order = order;
 		
-		matchRecursive(state, targetGraph, queryGraph);
+		if (prepareSearch(state, null)){
+			matchRecursive(state, targetGraph, queryGraph, null);
+		}
+		finishSearch(state, state.outcome());
 		
 		return state;
 	}
 	
 	/**
-	 * Recursively figure out if the target graph contains query graph
-	 * @param state			VF2 State
+	 * Figure out if the target graph contains query graph, reusing an existing State
+	 * @param state			The state to reset and store the result mapping in
 	 * @param targetGraph	Big Graph
 	 * @param queryGraph	Small Graph
-	 * @return	Match or not
+	 * @return				Match or not
 	 */
-	private boolean matchRecursive(State state, Graph targetGraph, Graph queryGraph){
+	public boolean matchGraphPair(State state, CompactGraph targetGraph, CompactGraph queryGraph) {
+		return matchGraphPair(state, targetGraph, queryGraph, new MatchingOrder(queryGraph, null));
+	}
+	
+	/**
+	 * Figure out if the target graph contains query graph, reusing an existing State
+	 * @param state			The state to reset and store the result mapping in
+	 * @param targetGraph	Big Graph
+	 * @param queryGraph	Small Graph
+	 * @param order			Matching order of the query graph
+	 * @return				Match or not
+	 */
+	public boolean matchGraphPair(State state, CompactGraph targetGraph, CompactGraph queryGraph, MatchingOrder order) {
+		return matchPair(state, targetGraph, queryGraph, order, null) == MatchOutcome.MATCHED;
+	}
+	
+	/**
+	 * Figure out if the target graph contains query graph, reusing an existing State
+	 * @param state			The state to reset and store the result mapping in
+	 * @param targetGraph	Big Graph
+	 * @param queryGraph	Small Graph
+	 * @param order			Matching order of the query graph
+	 * @param queryBudget	Budget left to the query of the pair, charged with the states expanded (null: no query budget)
+	 * @return				Matched, unmatched or timed out
+	 */
+	MatchOutcome matchPair(State state, CompactGraph targetGraph, CompactGraph queryGraph, MatchingOrder order, SearchBudget.Query queryBudget) {
+		state.reset(targetGraph, queryGraph);
+		state.order = order;
 		
-		if (state.depth == queryGraph.nodes.size()){	// Found a match
-			state.matched = true;
-			return true;
-		} else {	// Extend the state
-			ArrayList<Pair<Integer,Integer>> candidatePairs = genCandidatePairs(state, targetGraph, queryGraph);
-			for (Pair<Integer, Integer> entry : candidatePairs){
-				if (checkFeasibility(state, entry.getKey(), entry.getValue())){
-					state.extendMatch(entry.getKey(), entry.getValue()); // extend mapping
-					if (matchRecursive(state, targetGraph, queryGraph)){	// Found a match
-						return true;
-					}
-					state.backtrack(entry.getKey(), entry.getValue()); // remove the match added before
-				}
-			}
+		if (prepareSearch(state, queryBudget)){
+			matchRecursive(state, targetGraph, queryGraph, null);
 		}
-		return false;
+		if (queryBudget != null){
+			queryBudget.charge(state);
+		}
+		MatchOutcome outcome = state.outcome();
+		finishSearch(state, outcome);
+		return outcome;
 	}
+	
+	/**
+	 * Enumerate all mappings of the query graph into the target graph
+	 * Mappings are streamed to the visitor as they are found and never stored
+	 * @param targetGraph	Big Graph
+	 * @param queryGraph	Small Graph
+	 * @param visitor		Receives each mapping, and may stop the enumeration by returning false
+	 * @param limit			Maximum number of mappings to enumerate
+	 * @return				Number of mappings passed to the visitor
+	 */
+	public long matchAll(Graph targetGraph, Graph queryGraph, MatchVisitor visitor, long limit) {
+		return matchAll(targetGraph.freeze(), queryGraph.freeze(), visitor, limit);
+	}
+	
+	/**
+	 * Enumerate all mappings of the query graph into the target graph
+	 * Mappings are streamed to the visitor as they are found and never stored
+	 * @param targetGraph	Big Graph
+	 * @param queryGraph	Small Graph
+	 * @param visitor		Receives each mapping, and may stop the enumeration by returning false
+	 * @param limit			Maximum number of mappings to enumerate
+	 * @return				Number of mappings passed to the visitor
+	 */
+	public long matchAll(CompactGraph targetGraph, CompactGraph queryGraph, MatchVisitor visitor, long limit) {
+		if (limit <= 0) {
+			return 0;
+		}
+		State state = new State(targetGraph, queryGraph);
+		state.order = new MatchingOrder(queryGraph, null);
+		LimitedVisitor limited = new LimitedVisitor(visitor, limit);
 		
+		if (prepareSearch(state, null)){
+			matchRecursive(state, targetGraph, queryGraph, limited);
+		}
+		finishSearch(state, state.outcome());
+		
+		return limited.count;
+	}
+	
 	/**
-	 * Generate all candidate pairs given current state
-	 * @param state			VF2 State
+	 * Count all mappings of the query graph into the target graph
 	 * @param targetGraph	Big Graph
 	 * @param queryGraph	Small Graph
-	 * @return				Candidate Pairs
-	 */
-	private ArrayList<Pair<Integer,Integer>> genCandidatePairs(State state, Graph targetGraph, Graph queryGraph) {
-		ArrayList<Pair<Integer,Integer>> pairList = new ArrayList<Pair<Integer,Integer>>();
-		
-		if (!state.T1out.isEmpty() && !state.T2out.isEmpty()){
-			// Generate candidates from T1out and T2out if they are not empty
-			
-			// Faster Version
-			// Since every node should be matched in query graph
-			// Therefore we can only extend one node of query graph (with biggest id)
-			// instead of generate the whole Cartesian product of the target and query 
-			int queryNodeIndex = -1;
-			for (int i : state.T2out) {
-				queryNodeIndex = Math.max(i, queryNodeIndex);
-			}
-			for (int i : state.T1out) {
-				pairList.add(new Pair<Integer,Integer>(i, queryNodeIndex));
+	 * @return				Number of mappings
+	 */
+	public long countMatches(CompactGraph targetGraph, CompactGraph queryGraph) {
+		return matchAll(targetGraph, queryGraph, new MatchVisitor() {
+			@Override
+			public boolean visit(State state) {
+				return true;
 			}
-			
-			// Slow Version
-//			for (int i : state.T1out){
-//				for (int j : state.T2out){
-//					pairList.add(new Pair<Integer,Integer>(i, j));
-//				}
-//			}
-			return pairList;
-		} else if (!state.T1in.isEmpty() && !state.T2in.isEmpty()){
-			// Generate candidates from T1in and T2in if they are not empty
-			
-			// Faster Version
-			// Since every node should be matched in query graph
-			// Therefore we can only extend one node of query graph (with biggest id)
-			// instead of generate the whole Cartesian product of the target and query 
-			int queryNodeIndex = -1;
-			for (int i : state.T2in) {
-				queryNodeIndex = Math.max(i, queryNodeIndex);
+		}, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Rule out a pair before the search if possible, and compute the candidate domains of the query nodes
+	 * if they pay off (see CandidateDomains.paysOff())
+	 * @param state			VF2 State at depth 0
+	 * @param queryBudget	Budget left to the query of the pair, null if there is none
+	 * @return				False if the query graph cannot match the target graph
+	 */
+	boolean prepareSearch(State state, SearchBudget.Query queryBudget) {
+		startMetrics(state);
+		SearchBudget budget = this.budget;
+		if (queryBudget != null || !budget.isUnlimited()){
+			budget.startPair(state, queryBudget);
+		}
+		
+		CompactGraph target = state.targetGraph;
+		CompactGraph query = state.queryGraph;
+		boolean sizesFit = mode == MatchingMode.ISOMORPHISM
+				? target.nodeCount() == query.nodeCount() && target.edgeCount() == query.edgeCount()
+				: target.nodeCount() >= query.nodeCount() && target.edgeCount() >= query.edgeCount();
+		if (!sizesFit){
+			if (state.metrics != null){
+				state.metrics.prunedBySize = 1;
 			}
-			for (int i : state.T1in) {
-				pairList.add(new Pair<Integer,Integer>(i, queryNodeIndex));
+			return false;
+		}
+		if (CandidateDomains.paysOff(query) && !CandidateDomains.compute(state)){	// an empty domain rules the target graph out
+			if (state.metrics != null){
+				state.metrics.prunedByDomain = 1;
 			}
-			
-			// Slow Version
-//			for (int i : state.T1in){
-//				for (int j : state.T2in){
-//					pairList.add(new Pair<Integer,Integer>(i, j));
-//				}
-//			}
-			return pairList;
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Start counting the search of a pair into its State, if a collector is attached
+	 * @param state	VF2 State at depth 0
+	 */
+	private void startMetrics(State state) {
+		if (metricsCollector == null){
+			state.metrics = null;
+			return;
+		}
+		if (state.metrics == null){
+			state.metrics = new SearchMetrics();
 		} else {
-			// Generate from all unmapped nodes
-			
-			// Faster Version
-			// Since every node should be matched in query graph
-			// Therefore we can only extend one node of query graph (with biggest id)
-			// instead of generate the whole Cartesian product of the target and query 
-			int queryNodeIndex = -1;
-			for (int i : state.unmapped2) {
-				queryNodeIndex = Math.max(i, queryNodeIndex);
-			}
-			for (int i : state.unmapped1) {
-				pairList.add(new Pair<Integer,Integer>(i, queryNodeIndex));
+			state.metrics.clear();	// reused with a pooled State
+		}
+		state.metrics.pairs = 1;
+		state.metrics.nanos = -System.nanoTime();	// completed by finishSearch
+	}
+	
+	/**
+	 * Hand the counters of a finished pair to the collector
+	 * @param state		VF2 State the pair was searched on (with the counters of parallel subtrees added)
+	 * @param outcome	Outcome of the pair
+	 */
+	void finishSearch(State state, MatchOutcome outcome) {
+		MetricsCollector collector = metricsCollector;
+		if (state.metrics == null || collector == null){
+			return;
+		}
+		state.metrics.matchedPairs = outcome == MatchOutcome.MATCHED ? 1 : 0;
+		state.metrics.timedOutPairs = outcome == MatchOutcome.TIMED_OUT ? 1 : 0;
+		state.metrics.nanos += System.nanoTime();
+		collector.record(String.valueOf(state.targetGraph.name), String.valueOf(state.queryGraph.name), state.metrics);
+	}
+	
+	/**
+	 * Continue the search from the current depth of a state
+	 * @param state			VF2 State
+	 * @return				Match or not
+	 */
+	boolean matchFrom(State state) {
+		return matchRecursive(state, state.targetGraph, state.queryGraph, null);
+	}
+	
+	/**
+	 * Recursively figure out if the target graph contains query graph
+	 * @param state			VF2 State
+	 * @param targetGraph	Big Graph
+	 * @param queryGraph	Small Graph
+	 * @param visitor		Receives every mapping when enumerating, null to stop at the first one
+	 * @return	Stop the search or not: match found, the visitor ended the enumeration, or the budget is used up
+	 */
+	private boolean matchRecursive(State state, CompactGraph targetGraph, CompactGraph queryGraph, MatchVisitor visitor){
+		
+		if (state.stopSignal != null && state.stopSignal.get()){	// another thread already found a match
+			return false;
+		}
+		if (state.metrics != null){
+			state.metrics.visit(state.depth);
+		}
+		if (state.depth == queryGraph.nodeCount()){	// Found a match, before the budget: a complete mapping is never a timeout
+			state.matched = true;
+			return visitor == null || !visitor.visit(state);	// when enumerating, backtrack and go on
+		}
+		
+		// Budget
+		// One decrement per state, the clock is only read every CLOCK_INTERVAL states
+		// A parallel subtree takes the next batch of the pair's states when it has used up its own
+		if ((--state.statesLeft < 0 && !SearchBudget.takeStates(state)) || (state.hasDeadline && (state.statesLeft & (SearchBudget.CLOCK_INTERVAL - 1)) == 0
+				&& System.nanoTime() - state.deadline > 0)){	// out of budget, give up the pair
+			state.timedOut = true;
+			return true;
+		}
+		
+		// Extend the state
+		// pull candidates lazily from this level's cursor
+		CandidateCursor cursor = state.cursorAt(state.depth);
+		cursor.reset(state);
+		int queryNodeIndex = cursor.queryNode();
+		int targetNodeIndex;
+		while ((targetNodeIndex = cursor.nextTarget()) >= 0){
+			if (checkFeasibility(state, targetNodeIndex, queryNodeIndex)){
+				state.extendMatch(targetNodeIndex, queryNodeIndex); // extend mapping
+				if (matchRecursive(state, targetGraph, queryGraph, visitor)){	// Found a match
+					return true;
+				}
+				state.backtrack(targetNodeIndex, queryNodeIndex); // remove the match added before
 			}
-			
-			// Slow Version
-//			for (int i : state.unmapped1){
-//				for (int j : state.unmapped2){
-//					pairList.add(new Pair<Integer,Integer>(i, j));
-//				}
-//			}
-			return pairList;
 		}
+		return false;
 	}
 		
 	/**
@@ -162,32 +483,73 @@ public class VF2 {
 	 * @param queryNodeIndex	Query Graph Node Index
 	 * @return					Feasible or not
 	 */
-	private Boolean checkFeasibility(State state , int targetNodeIndex , int queryNodeIndex) {
+	boolean checkFeasibility(State state , int targetNodeIndex , int queryNodeIndex) {
+		if (state.metrics != null){
+			state.metrics.candidates++;
+		}
+		
 		// Node Label Rule
 		// The two nodes must have the same label
-		if (state.targetGraph.nodes.get(targetNodeIndex).label !=
-				state.queryGraph.nodes.get(queryNodeIndex).label){
-			return false;
+		if (state.targetGraph.label(targetNodeIndex) !=
+				state.queryGraph.label(queryNodeIndex)){
+			return reject(state, SearchMetrics.Rule.LABEL);
+		}
+		
+		// Neighborhood Rule
+		// Checked in O(1) before any edge is visited
+		if (!checkNeighborhood(state, targetNodeIndex, queryNodeIndex)){
+			return reject(state, SearchMetrics.Rule.NEIGHBORHOOD);
 		}
 		
 		// Predecessor Rule and Successor Rule
 		if (!checkPredAndSucc(state, targetNodeIndex, queryNodeIndex)){
-			return false;
+			return reject(state, SearchMetrics.Rule.PRED_SUCC);
 		}
 		
 		// In Rule and Out Rule
 		if (!checkInAndOut(state, targetNodeIndex, queryNodeIndex)){
-			return false;
+			return reject(state, SearchMetrics.Rule.IN_OUT);
 		}
 
 		// New Rule
-		if (!checkNew(state, targetNodeIndex, queryNodeIndex)){
-			return false;
+		// Not valid for monomorphism: an unmapped query neighbor outside T2 may map to a target node in T1
+		if (mode != MatchingMode.MONOMORPHISM && !checkNew(state, targetNodeIndex, queryNodeIndex)){
+			return reject(state, SearchMetrics.Rule.NEW);
 		}
 				
 		return true; 
 	}
 	
+	/**
+	 * Count a rejected candidate pair, if the search is counted
+	 * @param state	VF2 State
+	 * @param rule	The rule that rejected the pair
+	 * @return		False, the pair is not feasible
+	 */
+	private static boolean reject(State state, SearchMetrics.Rule rule) {
+		if (state.metrics != null){
+			state.metrics.reject(rule);
+		}
+		return false;
+	}
+	
+	/**
+	 * Check the neighborhood rule
+	 * The target node must have at least the in/out degree of the query node, and every label of
+	 * a neighbor or incident edge of the query node must occur at the target node in the same direction.
+	 * The labels are compared by the signatures of prepared graphs (see CompactGraph.prepare())
+	 * @param state				VF2 State
+	 * @param targetNodeIndex	Target Graph Node Index
+	 * @param queryNodeIndex	Query Graph Node Index
+	 * @return					Feasible or not
+	 */
+	private boolean checkNeighborhood(State state, int targetNodeIndex , int queryNodeIndex) {
+		if (state.domainsReady){
+			return true;	// the candidates are taken from the domains, which only hold compatible nodes (see CandidateDomains.paysOff())
+		}
+		return CandidateDomains.compatible(state.targetGraph, targetNodeIndex, state.queryGraph, queryNodeIndex);
+	}
+	
 	/**
 	 * Check the predecessor rule and successor rule
 	 * It ensures the consistency of the partial matching
@@ -196,33 +558,32 @@ public class VF2 {
 	 * @param queryNodeIndex	Query Graph Node Index
 	 * @return					Feasible or not
 	 */
-	private Boolean checkPredAndSucc(State state, int targetNodeIndex , int queryNodeIndex) {
+	private boolean checkPredAndSucc(State state, int targetNodeIndex , int queryNodeIndex) {
 		
-		Node targetNode = state.targetGraph.nodes.get(targetNodeIndex);
-		Node queryNode = state.queryGraph.nodes.get(queryNodeIndex);
-		int[][] targetAdjacency = state.targetGraph.getAdjacencyMatrix();
-		int[][] queryAdjacency = state.queryGraph.getAdjacencyMatrix();
+		CompactGraph target = state.targetGraph;
+		CompactGraph query = state.queryGraph;
 		
 		// Predecessor Rule
 		// For all mapped predecessors of the query node, 
 		// there must exist corresponding predecessors of target node.
-		// Vice Versa
-		for (Edge e : targetNode.inEdges) {
-			if (state.core_1[e.source.id] > -1) {
-				if (queryAdjacency[state.core_1[e.source.id]][queryNodeIndex] == -1){
-					return false;	// not such edge in target graph
-				} else if (queryAdjacency[state.core_1[e.source.id]][queryNodeIndex] != e.label) {
-					return false;	// label doesn't match
+		// Vice Versa, except for monomorphism
+		// Edges are looked up by binary search in the sorted CSR rows (-1: no such edge)
+		if (mode != MatchingMode.MONOMORPHISM) {
+			for (int i = target.inBegin(targetNodeIndex) ; i < target.inEnd(targetNodeIndex) ; i++) {
+				int source = target.inNeighbor(i);
+				if (state.core_1[source] > -1) {
+					if (query.edgeLabel(state.core_1[source], queryNodeIndex) != target.inLabel(i)){
+						return false;	// no such edge in query graph, or label doesn't match
+					}
 				}
 			}
 		}
 		
-		for (Edge e : queryNode.inEdges) {
-			if (state.core_2[e.source.id] > -1) {
-				if (targetAdjacency[state.core_2[e.source.id]][targetNodeIndex] == -1){
-					return false;	// not such edge in target graph
-				} else if (targetAdjacency[state.core_2[e.source.id]][targetNodeIndex] != e.label){
-					return false;	// label doesn't match
+		for (int i = query.inBegin(queryNodeIndex) ; i < query.inEnd(queryNodeIndex) ; i++) {
+			int source = query.inNeighbor(i);
+			if (state.core_2[source] > -1) {
+				if (target.edgeLabel(state.core_2[source], targetNodeIndex) != query.inLabel(i)){
+					return false;	// no such edge in target graph, or label doesn't match
 				}
 			}
 		}
@@ -230,23 +591,23 @@ public class VF2 {
 		// Successsor Rule
 		// For all mapped successors of the query node,
 		// there must exist corresponding successors of the target node
-		// Vice Versa
-		for (Edge e : targetNode.outEdges) {
-			if (state.core_1[e.target.id] > -1) {
-				if (queryAdjacency[queryNodeIndex][state.core_1[e.target.id]] == -1){
-					return false;	// not such edge in target graph
-				} else if (queryAdjacency[queryNodeIndex][state.core_1[e.target.id]] != e.label) {
-					return false;	// label doesn't match
+		// Vice Versa, except for monomorphism
+		if (mode != MatchingMode.MONOMORPHISM) {
+			for (int i = target.outBegin(targetNodeIndex) ; i < target.outEnd(targetNodeIndex) ; i++) {
+				int dest = target.outNeighbor(i);
+				if (state.core_1[dest] > -1) {
+					if (query.edgeLabel(queryNodeIndex, state.core_1[dest]) != target.outLabel(i)){
+						return false;	// no such edge in query graph, or label doesn't match
+					}
 				}
 			}
 		}
 		
-		for (Edge e : queryNode.outEdges) {
-			if (state.core_2[e.target.id] > -1) {
-				if (targetAdjacency[targetNodeIndex][state.core_2[e.target.id]] == -1){
-					return false;	// not such edge in target graph
-				} else if (targetAdjacency[targetNodeIndex][state.core_2[e.target.id]] != e.label) {
-					return false;	// label doesn't match
+		for (int i = query.outBegin(queryNodeIndex) ; i < query.outEnd(queryNodeIndex) ; i++) {
+			int dest = query.outNeighbor(i);
+			if (state.core_2[dest] > -1) {
+				if (target.edgeLabel(targetNodeIndex, state.core_2[dest]) != query.outLabel(i)){
+					return false;	// no such edge in target graph, or label doesn't match
 				}
 			}
 		}
@@ -264,63 +625,65 @@ public class VF2 {
 	 */
 	private boolean checkInAndOut(State state, int targetNodeIndex , int queryNodeIndex) {
 		
-		Node targetNode = state.targetGraph.nodes.get(targetNodeIndex);
-		Node queryNode = state.queryGraph.nodes.get(queryNodeIndex);
+		CompactGraph target = state.targetGraph;
+		CompactGraph query = state.queryGraph;
 		
 		int targetPredCnt = 0, targetSucCnt = 0;
 		int queryPredCnt = 0, querySucCnt = 0;
 		
 		// In Rule
 		// The number predecessors/successors of the target node that are in T1in 
-		// must be larger than or equal to those of the query node that are in T2in
-		for (Edge e : targetNode.inEdges){
-			if (state.inT1in(e.source.id)){
+		// must be larger than or equal to (for isomorphism: equal to) those of the query node that are in T2in
+		for (int i = target.inBegin(targetNodeIndex) ; i < target.inEnd(targetNodeIndex) ; i++){
+			if (state.inT1in(target.inNeighbor(i))){
 				targetPredCnt++;
 			}
 		}
-		for (Edge e : targetNode.outEdges){
-			if (state.inT1in(e.target.id)){
+		for (int i = target.outBegin(targetNodeIndex) ; i < target.outEnd(targetNodeIndex) ; i++){
+			if (state.inT1in(target.outNeighbor(i))){
 				targetSucCnt++;
 			}
 		}
-		for (Edge e : queryNode.inEdges){
-			if (state.inT2in(e.source.id)){
+		for (int i = query.inBegin(queryNodeIndex) ; i < query.inEnd(queryNodeIndex) ; i++){
+			if (state.inT2in(query.inNeighbor(i))){
 				queryPredCnt++;
 			}
 		}
-		for (Edge e : queryNode.outEdges){
-			if (state.inT2in(e.target.id)){
-				queryPredCnt++;
+		for (int i = query.outBegin(queryNodeIndex) ; i < query.outEnd(queryNodeIndex) ; i++){
+			if (state.inT2in(query.outNeighbor(i))){
+				querySucCnt++;
 			}
 		}
-		if (targetPredCnt < queryPredCnt || targetSucCnt < querySucCnt){
+		if (!covers(targetPredCnt, queryPredCnt) || !covers(targetSucCnt, querySucCnt)){
 			return false;
 		}
 
 		// Out Rule
 		// The number predecessors/successors of the target node that are in T1out 
-		// must be larger than or equal to those of the query node that are in T2out
-		for (Edge e : targetNode.inEdges){
-			if (state.inT1out(e.source.id)){
+		// must be larger than or equal to (for isomorphism: equal to) those of the query node that are in T2out
+		targetPredCnt = 0; targetSucCnt = 0;
+		queryPredCnt = 0; querySucCnt = 0;
+		for (int i = target.inBegin(targetNodeIndex) ; i < target.inEnd(targetNodeIndex) ; i++){
+			if (state.inT1out(target.inNeighbor(i))){
 				targetPredCnt++;
 			}
 		}
-		for (Edge e : targetNode.outEdges){
-			if (state.inT1out(e.target.id)){
+		for (int i = target.outBegin(targetNodeIndex) ; i < target.outEnd(targetNodeIndex) ; i++){
+			if (state.inT1out(target.outNeighbor(i))){
 				targetSucCnt++;
 			}
 		}
-		for (Edge e : queryNode.inEdges){
-			if (state.inT2out(e.source.id)){
+		for (int i = query.inBegin(queryNodeIndex) ; i < query.inEnd(queryNodeIndex) ; i++){
+			if (state.inT2out(query.inNeighbor(i))){
 				queryPredCnt++;
 			}
 		}
-		for (Edge e : queryNode.outEdges){
-			if (state.inT2out(e.target.id)){
-				queryPredCnt++;
+		for (int i = query.outBegin(queryNodeIndex) ; i < query.outEnd(queryNodeIndex) ; i++){
+			if (state.inT2out(query.outNeighbor(i))){
+				querySucCnt++;
 			}
 		}
-		if (targetPredCnt < queryPredCnt || targetSucCnt < querySucCnt){
+		if (!covers(targetPredCnt, queryPredCnt) || !covers(targetSucCnt, querySucCnt)){
 			return false;
 		}		
 		
@@ -337,39 +700,71 @@ public class VF2 {
 	 */
 	private boolean checkNew(State state, int targetNodeIndex , int queryNodeIndex){
 		
-		Node targetNode = state.targetGraph.nodes.get(targetNodeIndex);
-		Node queryNode = state.queryGraph.nodes.get(queryNodeIndex);
+		CompactGraph target = state.targetGraph;
+		CompactGraph query = state.queryGraph;
 		
 		int targetPredCnt = 0, targetSucCnt = 0;
 		int queryPredCnt = 0, querySucCnt = 0;
 		
 		// In Rule
 		// The number predecessors/successors of the target node that are in T1in 
-		// must be larger than or equal to those of the query node that are in T2in
-		for (Edge e : targetNode.inEdges){
-			if (state.inN1Tilde(e.source.id)){
+		// must be larger than or equal to (for isomorphism: equal to) those of the query node that are in T2in
+		for (int i = target.inBegin(targetNodeIndex) ; i < target.inEnd(targetNodeIndex) ; i++){
+			if (state.inN1Tilde(target.inNeighbor(i))){
 				targetPredCnt++;
 			}
 		}
-		for (Edge e : targetNode.outEdges){
-			if (state.inN1Tilde(e.target.id)){
+		for (int i = target.outBegin(targetNodeIndex) ; i < target.outEnd(targetNodeIndex) ; i++){
+			if (state.inN1Tilde(target.outNeighbor(i))){
 				targetSucCnt++;
 			}
 		}
-		for (Edge e : queryNode.inEdges){
-			if (state.inN2Tilde(e.source.id)){
+		for (int i = query.inBegin(queryNodeIndex) ; i < query.inEnd(queryNodeIndex) ; i++){
+			if (state.inN2Tilde(query.inNeighbor(i))){
 				queryPredCnt++;
 			}
 		}
-		for (Edge e : queryNode.outEdges){
-			if (state.inN2Tilde(e.target.id)){
-				queryPredCnt++;
+		for (int i = query.outBegin(queryNodeIndex) ; i < query.outEnd(queryNodeIndex) ; i++){
+			if (state.inN2Tilde(query.outNeighbor(i))){
+				querySucCnt++;
 			}
 		}
-		if (targetPredCnt < queryPredCnt || targetSucCnt < querySucCnt){
+		if (!covers(targetPredCnt, queryPredCnt) || !covers(targetSucCnt, querySucCnt)){
 			return false;
 		}
 		
 		return true;
 	}
+
+	/**
+	 * Compare a look-ahead count of the target node with the one of the query node
+	 * For isomorphism the counts must be equal, otherwise the target node needs at least as many
+	 * @param targetCnt	Count of the target node
+	 * @param queryCnt	Count of the query node
+	 * @return			Feasible or not
+	 */
+	private boolean covers(int targetCnt, int queryCnt) {
+		return mode == MatchingMode.ISOMORPHISM ? targetCnt == queryCnt : targetCnt >= queryCnt;
+	}
+	
+	/**
+	 * Counts the mappings passed to a visitor and ends the enumeration at the limit
+	 */
+	private static class LimitedVisitor implements MatchVisitor {
+		
+		private final MatchVisitor visitor;
+		private final long limit;
+		private long count = 0;
+		
+		LimitedVisitor(MatchVisitor visitor, long limit) {
+			this.visitor = visitor;
+			this.limit = limit;
+		}
+		
+		@Override
+		public boolean visit(State state) {
+			count++;
+			return visitor.visit(state) && count < limit;
+		}
+	}
 }
@@ -0,0 +1,394 @@
+package wip.VF2.graph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable compressed sparse row (CSR) form of a graph.
+ *
+ * Out-edges of node v are stored in outNeighbors/outLabels at [outBegin(v), outEnd(v)),
+ * in-edges in inNeighbors/inLabels at [inBegin(v), inEnd(v)) (the CSC half).
+ * Both rows are sorted by neighbor id, so a single edge is looked up by binary search.
+ * No Node/Edge objects and no adjacency matrix are kept, only primitive arrays.
+ *
+ * A prepared graph (see prepare()) additionally carries a neighborhood signature per node.
+ */
+public class CompactGraph {
+
+	public final String name; // name of the graph
+
+	private final int[] labels; 		// node labels, indexed by node id
+
+	private final int[] outOffsets;		// row offsets of the out-edges, length nodeCount + 1
+	private final int[] outNeighbors; 	// edge targets, sorted within each row
+	private final int[] outLabels; 		// edge labels, parallel to outNeighbors
+
+	private final int[] inOffsets;		// row offsets of the in-edges, length nodeCount + 1
+	private final int[] inNeighbors;	// edge sources, sorted within each row
+	private final int[] inLabels;		// edge labels, parallel to inNeighbors
+
+	// per node bitmask of the labels around it, null if the graph is not prepared
+	// bits 0-15: out-neighbor node labels, 16-31: in-neighbor node labels, 32-47: out-edge labels, 48-63: in-edge labels
+	private final long[] signatures;
+
+	CompactGraph(String name, int[] labels, int[] outOffsets, int[] outNeighbors, int[] outLabels,
+			int[] inOffsets, int[] inNeighbors, int[] inLabels) {
+		this(name, labels, outOffsets, outNeighbors, outLabels, inOffsets, inNeighbors, inLabels, null);
+	}
+
+	private CompactGraph(String name, int[] labels, int[] outOffsets, int[] outNeighbors, int[] outLabels,
+			int[] inOffsets, int[] inNeighbors, int[] inLabels, long[] signatures) {
+		this.name = name;
+		this.labels = labels;
+		this.outOffsets = outOffsets;
+		this.outNeighbors = outNeighbors;
+		this.outLabels = outLabels;
+		this.inOffsets = inOffsets;
+		this.inNeighbors = inNeighbors;
+		this.inLabels = inLabels;
+		this.signatures = signatures;
+	}
+
+	/**
+	 * Wrap arrays that are already in CSR layout, without copying or checking them
+	 * The arrays must not be modified afterwards
+	 * @return	The graph
+	 */
+	public static CompactGraph wrap(String name, int[] labels, int[] outOffsets, int[] outNeighbors, int[] outLabels,
+			int[] inOffsets, int[] inNeighbors, int[] inLabels) {
+		return new CompactGraph(name, labels, outOffsets, outNeighbors, outLabels, inOffsets, inNeighbors, inLabels);
+	}
+
+	public int nodeCount() {
+		return labels.length;
+	}
+
+	public int edgeCount() {
+		return outNeighbors.length;
+	}
+
+	public int label(int node) {
+		return labels[node];
+	}
+
+	public int outDegree(int node) {
+		return outOffsets[node + 1] - outOffsets[node];
+	}
+
+	public int inDegree(int node) {
+		return inOffsets[node + 1] - inOffsets[node];
+	}
+
+	public int outBegin(int node) {
+		return outOffsets[node];
+	}
+
+	public int outEnd(int node) {
+		return outOffsets[node + 1];
+	}
+
+	public int outNeighbor(int edge) {
+		return outNeighbors[edge];
+	}
+
+	public int outLabel(int edge) {
+		return outLabels[edge];
+	}
+
+	public int inBegin(int node) {
+		return inOffsets[node];
+	}
+
+	public int inEnd(int node) {
+		return inOffsets[node + 1];
+	}
+
+	public int inNeighbor(int edge) {
+		return inNeighbors[edge];
+	}
+
+	public int inLabel(int edge) {
+		return inLabels[edge];
+	}
+
+	/**
+	 * Look up the edge (source, target) by binary search in the out-row of source
+	 * @param source	Source node id
+	 * @param target	Target node id
+	 * @return			The edge label, or -1 if there is no such edge
+	 */
+	public int edgeLabel(int source, int target) {
+		int i = Arrays.binarySearch(outNeighbors, outOffsets[source], outOffsets[source + 1], target);
+		return i < 0 ? -1 : outLabels[i];
+	}
+
+	/**
+	 * Get a copy of this graph with one more edge, or with the label of an existing edge changed
+	 * Only this graph is rebuilt, in O(nodes + edges); a prepared graph gives a prepared copy
+	 * @param source	Source node id
+	 * @param target	Target node id
+	 * @param label		Edge label
+	 * @return			The new graph
+	 */
+	public CompactGraph withEdge(int source, int target, int label) {
+		return withEdges(new int[] { source }, new int[] { target }, new int[] { label });
+	}
+
+	/**
+	 * Get a copy of this graph without the edge (source, target)
+	 * @param source	Source node id
+	 * @param target	Target node id
+	 * @return			The new graph, or this graph if there is no such edge
+	 */
+	public CompactGraph withoutEdge(int source, int target) {
+		return withEdges(new int[] { source }, new int[] { target }, new int[] { -1 });
+	}
+
+	/**
+	 * Get a copy of this graph with a batch of edges set, rebuilt once in O(nodes + edges + k log k) for k edits
+	 * A prepared graph gives a prepared copy
+	 * @param sources	Source node id of each edit
+	 * @param targets	Target node id of each edit
+	 * @param labels	Edge label of each edit, -1 removes the edge; the last edit of an edge wins
+	 * @return			The new graph, or this graph if the edits change nothing
+	 */
+	public CompactGraph withEdges(int[] sources, int[] targets, int[] labels) {
+		int k = sources.length;
+		HashMap<Long, Integer> edits = new HashMap<Long, Integer>(k * 2);
+		boolean changes = false;
+		for (int i = 0 ; i < k ; i++) {
+			checkNodes(sources[i], targets[i]);
+			edits.put(edgeKey(sources[i], targets[i]), labels[i]);
+		}
+		long[] keys = new long[edits.size()];
+		int size = 0;
+		for (Map.Entry<Long, Integer> edit : edits.entrySet()) {
+			long key = edit.getKey();
+			keys[size++] = key;
+			changes |= edgeLabel((int) (key >>> 32), (int) key) != edit.getValue();
+		}
+		if (!changes) {
+			return this;
+		}
+		Arrays.sort(keys);
+
+		// merge the sorted edits into the rows
+		int n = nodeCount();
+		Builder builder = new Builder(name);
+		for (int v = 0 ; v < n ; v++) {
+			builder.addNode(v, this.labels[v]);
+		}
+		int next = 0;
+		for (int v = 0 ; v < n ; v++) {
+			for (int i = outOffsets[v] ; i < outOffsets[v + 1] ; i++) {
+				long key = edgeKey(v, outNeighbors[i]);
+				while (next < keys.length && keys[next] < key) {
+					addEdit(builder, keys[next++], edits);
+				}
+				if (next < keys.length && keys[next] == key) {
+					addEdit(builder, keys[next++], edits);
+				} else {
+					builder.addEdge(v, outNeighbors[i], outLabels[i]);
+				}
+			}
+			while (next < keys.length && keys[next] < edgeKey(v + 1, 0)) {
+				addEdit(builder, keys[next++], edits);
+			}
+		}
+		CompactGraph graph = builder.build();
+		return signatures == null ? graph : graph.prepare();
+	}
+
+	private static long edgeKey(int source, int target) {
+		return ((long) source << 32) | target;
+	}
+
+	private static void addEdit(Builder builder, long key, HashMap<Long, Integer> edits) {
+		int label = edits.get(key);
+		if (label != -1) {
+			builder.addEdge((int) (key >>> 32), (int) key, label);
+		}
+	}
+
+	private void checkNodes(int source, int target) {
+		int n = nodeCount();
+		if (source < 0 || source >= n || target < 0 || target >= n) {
+			throw new IllegalArgumentException("no edge (" + source + ", " + target + ") in a graph of " + n + " nodes");
+		}
+	}
+
+	/**
+	 * Get the prepared form of this graph, which shares the arrays and adds the node signatures
+	 * @return	The prepared graph (this graph, if it is already prepared)
+	 */
+	public CompactGraph prepare() {
+		if (signatures != null) {
+			return this;
+		}
+		int n = nodeCount();
+		long[] prepared = new long[n];
+		for (int v = 0 ; v < n ; v++) {
+			long signature = 0L;
+			for (int i = outOffsets[v] ; i < outOffsets[v + 1] ; i++) {
+				signature |= labelBit(labels[outNeighbors[i]]);
+				signature |= labelBit(outLabels[i]) << 32;
+			}
+			for (int i = inOffsets[v] ; i < inOffsets[v + 1] ; i++) {
+				signature |= labelBit(labels[inNeighbors[i]]) << 16;
+				signature |= labelBit(inLabels[i]) << 48;
+			}
+			prepared[v] = signature;
+		}
+		return new CompactGraph(name, labels, outOffsets, outNeighbors, outLabels, inOffsets, inNeighbors, inLabels, prepared);
+	}
+
+	// one of 16 bits for a label
+	private static long labelBit(int label) {
+		return 1L << ((label * 0x9E3779B9) >>> 28);
+	}
+
+	public boolean isPrepared() {
+		return signatures != null;
+	}
+
+	/**
+	 * Get the neighborhood signature of a node of a prepared graph
+	 * If a query node maps to a target node, the signature of the query node is a subset of the target node's
+	 * @param node	Node id
+	 * @return		Bitmask of the labels of the neighbors and incident edges, per direction
+	 */
+	public long signature(int node) {
+		return signatures[node];
+	}
+
+	/**
+	 * Estimate the heap used by this graph
+	 * @return	Size in bytes
+	 */
+	public long memoryBytes() {
+		long ints = labels.length + outOffsets.length + inOffsets.length + 4L * outNeighbors.length;
+		return 4 * ints + (signatures == null ? 0 : 8L * signatures.length) + 8 * 16 + 128;
+	}
+
+	/**
+	 * Estimate the heap used by the prepared form beyond the graph it was prepared from, which shares the other arrays
+	 * @return	Size in bytes, 0 if the graph is not prepared
+	 */
+	public long preparedBytes() {
+		return signatures == null ? 0 : 8L * signatures.length + 16 + 64;
+	}
+
+	/**
+	 * Builds a CompactGraph from a stream of nodes and edges.
+	 * Node ids must be the running numbers 0 .. n-1, as in the data files.
+	 * A builder can be reset and reused, keeping its buffers.
+	 */
+	public static class Builder {
+
+		private String name;
+
+		private int[] labels = new int[16];
+		private int nodeCount = 0;
+
+		private int[] sources = new int[16];
+		private int[] targets = new int[16];
+		private int[] edgeLabels = new int[16];
+		private int edgeCount = 0;
+
+		public Builder(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Discard all nodes and edges, to build the next graph with the same buffers
+		 * @param name	Name of the next graph
+		 * @return		This builder
+		 */
+		public Builder reset(String name) {
+			this.name = name;
+			this.nodeCount = 0;
+			this.edgeCount = 0;
+			return this;
+		}
+
+		public Builder addNode(int id, int label) {
+			if (id >= labels.length)
+				labels = Arrays.copyOf(labels, Math.max(id + 1, labels.length * 2));
+			labels[id] = label;
+			nodeCount = Math.max(nodeCount, id + 1);
+			return this;
+		}
+
+		public Builder addEdge(int source, int target, int label) {
+			if (edgeCount == sources.length) {
+				sources = Arrays.copyOf(sources, edgeCount * 2);
+				targets = Arrays.copyOf(targets, edgeCount * 2);
+				edgeLabels = Arrays.copyOf(edgeLabels, edgeCount * 2);
+			}
+			sources[edgeCount] = source;
+			targets[edgeCount] = target;
+			edgeLabels[edgeCount] = label;
+			edgeCount++;
+			return this;
+		}
+
+		/**
+		 * Freeze the nodes and edges added so far
+		 * @return	The immutable graph
+		 */
+		public CompactGraph build() {
+			int n = nodeCount;
+			int m = edgeCount;
+
+			// two stable counting sorts give rows sorted by neighbor id:
+			// sort by target and then by source for the out-rows, the other way round for the in-rows
+			int[] byTarget = countingSort(identity(m), targets, n);
+			int[] bySource = countingSort(identity(m), sources, n);
+			int[] outOrder = countingSort(byTarget, sources, n);
+			int[] inOrder = countingSort(bySource, targets, n);
+
+			int[] outOffsets = offsets(sources, n, m);
+			int[] inOffsets = offsets(targets, n, m);
+			int[] outNeighbors = new int[m];
+			int[] outLabels = new int[m];
+			int[] inNeighbors = new int[m];
+			int[] inLabels = new int[m];
+			for (int i = 0 ; i < m ; i++) {
+				outNeighbors[i] = targets[outOrder[i]];
+				outLabels[i] = edgeLabels[outOrder[i]];
+				inNeighbors[i] = sources[inOrder[i]];
+				inLabels[i] = edgeLabels[inOrder[i]];
+			}
+
+			return new CompactGraph(name, Arrays.copyOf(labels, n), outOffsets, outNeighbors, outLabels,
+					inOffsets, inNeighbors, inLabels);
+		}
+
+		private static int[] identity(int m) {
+			int[] order = new int[m];
+			for (int i = 0 ; i < m ; i++)
+				order[i] = i;
+			return order;
+		}
+
+		private static int[] offsets(int[] keys, int n, int m) {
+			int[] offsets = new int[n + 1];
+			for (int i = 0 ; i < m ; i++)
+				offsets[keys[i] + 1]++;
+			for (int i = 0 ; i < n ; i++)
+				offsets[i + 1] += offsets[i];
+			return offsets;
+		}
+
+		// stable counting sort of the edge indices in order by keys[edge]
+		private int[] countingSort(int[] order, int[] keys, int n) {
+			int m = order.length;
+			int[] next = offsets(keys, n, m);
+			int[] sorted = new int[m];
+			for (int i = 0 ; i < m ; i++)
+				sorted[next[keys[order[i]]]++] = order[i];
+			return sorted;
+		}
+	}
+}
@@ -16,6 +16,8 @@ public class Graph {
 	private int[][] adjacencyMatrix; // stores graph structure as adjacency matrix (-1: not adjacent, >=0: the edge label)
 	private boolean adjacencyMatrixUpdateNeeded = true; // indicates if the adjacency matrix needs an update
 	
+	private CompactGraph compactGraph; // frozen CSR form of this graph, null if it needs a rebuild
+	
 	public Graph(String name) {
 		this.name = name;
 	}
@@ -23,11 +25,13 @@ public class Graph {
 	public void addNode(int id, int label) {
 		nodes.add(new Node(this, id, label));
 		this.adjacencyMatrixUpdateNeeded = true;
+		this.compactGraph = null;
 	}
 	
 	public void addEdge(Node source, Node target, int label) {
 		edges.add(new Edge(this, source, target, label));
 		this.adjacencyMatrixUpdateNeeded = true;
+		this.compactGraph = null;
 	}
 	
 	public void addEdge(int sourceId, int targetId, int label) {
@@ -58,6 +62,24 @@ public class Graph {
 		return this.adjacencyMatrix;
 	}
 	
+	/**
+	 * Get the immutable CSR form of this graph, which is what the matcher runs on
+	 * Rebuild it if nodes or edges were added since the last call
+	 * @return Compact Graph
+	 */
+	public CompactGraph freeze() {
+		
+		if (this.compactGraph == null) {
+			CompactGraph.Builder builder = new CompactGraph.Builder(this.name);
+			for (Node n : this.nodes)
+				builder.addNode(n.id, n.label);
+			for (Edge e : this.edges)
+				builder.addEdge(e.source.id, e.target.id, e.label);
+			this.compactGraph = builder.build();
+		}
+		return this.compactGraph;
+	}
+	
 	// prints adjacency matrix to console
 	public void printGraph() {
 		int[][] a = this.getAdjacencyMatrix();
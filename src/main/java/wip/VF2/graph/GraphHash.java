@@ -0,0 +1,88 @@
+package wip.VF2.graph;
+
+import java.util.Arrays;
+
+/**
+ * Isomorphism-invariant hash of a labeled graph by Weisfeiler-Lehman color refinement.
+ *
+ * Every node starts with a color from its label and degrees. In each round the color of a node
+ * is combined with the sorted colors of its neighbors, together with the edge labels and directions,
+ * until the number of distinct colors stops growing. The hash combines the sorted final colors.
+ * Isomorphic graphs, whatever the numbering of their nodes, get the same hash; graphs with the same
+ * hash are not necessarily isomorphic, so a hash match has to be confirmed by an exact check.
+ */
+public class GraphHash {
+
+	private GraphHash() {
+	}
+
+	/**
+	 * Compute the hash of a graph
+	 * @param graph	The graph
+	 * @return		The hash, equal for isomorphic graphs
+	 */
+	public static long compute(CompactGraph graph) {
+		int n = graph.nodeCount();
+		long[] colors = new long[n];
+		for (int v = 0 ; v < n ; v++) {
+			colors[v] = combine(combine(mix(graph.label(v)), graph.outDegree(v)), graph.inDegree(v));
+		}
+
+		long[] next = new long[n];
+		long[] terms = new long[16];
+		int distinct = distinct(colors);
+		for (int round = 0 ; round < n ; round++) {
+			for (int v = 0 ; v < n ; v++) {
+				int size = graph.outDegree(v) + graph.inDegree(v);
+				if (terms.length < size)
+					terms = new long[Math.max(size, terms.length * 2)];
+				int k = 0;
+				for (int i = graph.outBegin(v) ; i < graph.outEnd(v) ; i++)
+					terms[k++] = combine(combine(1, graph.outLabel(i)), colors[graph.outNeighbor(i)]);
+				for (int i = graph.inBegin(v) ; i < graph.inEnd(v) ; i++)
+					terms[k++] = combine(combine(2, graph.inLabel(i)), colors[graph.inNeighbor(i)]);
+				Arrays.sort(terms, 0, k);	// the multiset of neighbor terms, independent of the numbering
+				long color = colors[v];
+				for (int i = 0 ; i < k ; i++)
+					color = combine(color, terms[i]);
+				next[v] = color;
+			}
+			long[] tmp = colors;
+			colors = next;
+			next = tmp;
+			int refined = distinct(colors);
+			if (refined == distinct) {	// stable partition, further rounds only rename the colors
+				break;
+			}
+			distinct = refined;
+		}
+
+		Arrays.sort(colors);
+		long hash = combine(n, graph.edgeCount());
+		for (long color : colors)
+			hash = combine(hash, color);
+		return hash;
+	}
+
+	private static int distinct(long[] colors) {
+		long[] sorted = colors.clone();
+		Arrays.sort(sorted);
+		int count = 0;
+		for (int i = 0 ; i < sorted.length ; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1])
+				count++;
+		}
+		return count;
+	}
+
+	private static long combine(long hash, long value) {
+		return mix(hash * 0x9E3779B97F4A7C15L + value);
+	}
+
+	// finalizer of SplitMix64
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
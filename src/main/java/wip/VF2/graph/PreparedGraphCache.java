@@ -0,0 +1,178 @@
+package wip.VF2.graph;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Target graph set view that hands out prepared graphs (see CompactGraph.prepare()),
+ * so the derived structures of a target are built once and reused by every query.
+ *
+ * The prepared graphs are kept within a memory budget. When the budget is exceeded graphs are dropped
+ * in approximately least-recently-used order and prepared again from the source list when next requested.
+ * With a source that decodes on demand (BinaryGraphFile.asList()), a cached graph is charged in full,
+ * and this bounds the memory used by a database that does not fit in the heap. With a source that keeps
+ * its graphs in memory anyway (a list read from a text file), dropping a graph frees only what prepare()
+ * added, so only that is charged.
+ *
+ * The matchers of every thread read the targets through get(), so a hit takes no lock: the graphs are kept
+ * in one slot per index and a hit only marks its slot as referenced. The order is the CLOCK approximation
+ * of LRU: the cached indices wait in a queue in the order they were prepared, and the eviction passes over it,
+ * giving a referenced graph a second chance (clearing the mark and requeueing it) and dropping the first graph
+ * that was not referenced since the last pass. Only the eviction, after a miss over the budget, is serialized.
+ */
+public class PreparedGraphCache extends AbstractList<CompactGraph> implements RandomAccess {
+
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	private final List<CompactGraph> source;
+	private final long budgetBytes;
+	private final boolean sourceResident; // the source keeps its graphs, only the prepared data is charged
+	private final AtomicReferenceArray<Entry> prepared;	// cached graph of each index, null if it is not cached
+	private final ConcurrentLinkedQueue<Integer> clock = new ConcurrentLinkedQueue<Integer>();	// cached indices, the next to check first
+	private final Object evictionLock = new Object();
+	private final AtomicLong usedBytes = new AtomicLong();
+	private final AtomicInteger cachedCount = new AtomicInteger();
+
+	// statistics
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Cache the graphs of a source that decodes them on demand
+	 * @param source		Target graph set
+	 * @param budgetBytes	Memory budget of the prepared graphs in bytes, or UNLIMITED
+	 */
+	public PreparedGraphCache(List<CompactGraph> source, long budgetBytes) {
+		this(source, budgetBytes, false);
+	}
+
+	/**
+	 * @param source			Target graph set
+	 * @param budgetBytes		Memory budget of the prepared graphs in bytes, or UNLIMITED
+	 * @param sourceResident	Whether the source keeps its graphs in memory (e.g. an ArrayList), so only the prepared data is charged
+	 */
+	public PreparedGraphCache(List<CompactGraph> source, long budgetBytes, boolean sourceResident) {
+		this.source = source;
+		this.budgetBytes = budgetBytes;
+		this.sourceResident = sourceResident;
+		this.prepared = new AtomicReferenceArray<Entry>(source.size());
+	}
+
+	/**
+	 * Get the prepared form of a target graph, preparing it if it is not cached
+	 * @param i	Index of the graph in the set
+	 * @return	The prepared graph
+	 */
+	@Override
+	public CompactGraph get(int i) {
+		Entry entry = prepared.get(i);
+		if (entry != null) {
+			if (!entry.referenced) {
+				entry.referenced = true;	// written only once per pass of the clock, so hits do not contend on it
+			}
+			hits.increment();
+			return entry.graph;
+		}
+		misses.increment();
+
+		// two threads may prepare the same graph, and the first result is kept
+		CompactGraph graph = source.get(i).prepare();
+		entry = new Entry(graph, sourceResident ? graph.preparedBytes() : graph.memoryBytes());
+		if (!prepared.compareAndSet(i, null, entry)) {
+			Entry other = prepared.get(i);
+			return other == null ? graph : other.graph;
+		}
+		usedBytes.addAndGet(entry.bytes);
+		cachedCount.incrementAndGet();
+		clock.add(i);
+		if (usedBytes.get() > budgetBytes) {
+			evict();
+		}
+		return graph;
+	}
+
+	// drop graphs until the cache fits into the budget again, keeping at least one
+	private void evict() {
+		synchronized (evictionLock) {
+			int chances = cachedCount.get();	// each graph gets one second chance per call at most
+			while (usedBytes.get() > budgetBytes && cachedCount.get() > 1) {
+				Integer i = clock.poll();
+				if (i == null) {
+					return;
+				}
+				Entry entry = prepared.get(i);
+				if (entry == null) {
+					continue;
+				}
+				if (entry.referenced && chances > 0) {
+					entry.referenced = false;
+					chances--;
+					clock.add(i);
+					continue;
+				}
+				prepared.set(i, null);
+				usedBytes.addAndGet(-entry.bytes);
+				cachedCount.decrementAndGet();
+				evictions.increment();
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return source.size();
+	}
+
+	public long getUsedBytes() {
+		return usedBytes.get();
+	}
+
+	/**
+	 * @return	Number of graphs in the cache
+	 */
+	public int getCachedCount() {
+		return cachedCount.get();
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Print the cache statistics to console
+	 */
+	public void printStatistics() {
+		System.out.println("Prepared graph cache: " + cachedCount.get() + " graphs, " + (usedBytes.get() >> 10) + " KiB"
+				+ " (hits: " + hits.sum() + ", misses: " + misses.sum() + ", evictions: " + evictions.sum() + ")");
+	}
+
+	/**
+	 * A cached graph and the bytes it is charged
+	 */
+	private static class Entry {
+
+		final CompactGraph graph;
+		final long bytes;
+		volatile boolean referenced = false;	// requested since the clock last passed it
+
+		Entry(CompactGraph graph, long bytes) {
+			this.graph = graph;
+			this.bytes = bytes;
+		}
+	}
+}
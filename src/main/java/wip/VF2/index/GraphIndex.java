@@ -0,0 +1,303 @@
+package wip.VF2.index;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Index over a target graph set, built once at load time.
+ * It keeps a GraphSummary per target graph and prunes the targets that cannot contain a query
+ * before VF2 runs, counting how many graphs each condition filtered out.
+ * An optional PathIndex narrows the targets down by their labeled paths before the summaries are compared.
+ */
+public class GraphIndex {
+
+	private static final AtomicLong VERSIONS = new AtomicLong();
+
+	private final List<CompactGraph> graphSet;
+	private final GraphSummary[] summaries;
+	private int maxNodeCount = 0;
+	private final HashMap<Integer, Integer> nodeLabelFrequencies; // over the whole set
+	private final GraphStore.Snapshot snapshot; // graphs, summaries and path index keys of a store, null: the fields above
+	private final long version = VERSIONS.incrementAndGet(); // see getVersion()
+
+	// filter statistics, accumulated over all queries
+	private final AtomicLong checked = new AtomicLong();
+	private final AtomicLong[] filtered = new AtomicLong[GraphSummary.Check.values().length];
+	private final AtomicLong filteredByPaths = new AtomicLong();
+
+	private volatile PathIndex pathIndex; // null: every target graph is compared by its summary
+
+	/**
+	 * Build the index
+	 * @param graphSet	Target graph set
+	 */
+	public GraphIndex(List<CompactGraph> graphSet) {
+		this.graphSet = graphSet;
+		this.summaries = new GraphSummary[graphSet.size()];
+		this.nodeLabelFrequencies = new HashMap<Integer, Integer>();
+		this.snapshot = null;
+		for (int i = 0 ; i < graphSet.size() ; i++) {
+			CompactGraph graph = graphSet.get(i);
+			summaries[i] = new GraphSummary(graph);
+			maxNodeCount = Math.max(maxNodeCount, graph.nodeCount());
+			countLabels(nodeLabelFrequencies, graph, 1);
+		}
+		for (int i = 0 ; i < filtered.length ; i++) {
+			filtered[i] = new AtomicLong();
+		}
+	}
+
+	/**
+	 * Build the index from summaries computed before, e.g. stored in a binary graph file,
+	 * so the graphs are not read
+	 * @param graphSet	Target graph set
+	 * @param summaries	Summary of each graph, in the order of the set
+	 */
+	public GraphIndex(List<CompactGraph> graphSet, GraphSummary[] summaries) {
+		if (summaries.length != graphSet.size()) {
+			throw new IllegalArgumentException(summaries.length + " summaries for " + graphSet.size() + " graphs");
+		}
+		this.graphSet = graphSet;
+		this.summaries = summaries;
+		this.nodeLabelFrequencies = new HashMap<Integer, Integer>();
+		this.snapshot = null;
+		for (GraphSummary summary : summaries) {
+			maxNodeCount = Math.max(maxNodeCount, summary.nodeCount);
+			summary.addNodeLabels(nodeLabelFrequencies);
+		}
+		for (int i = 0 ; i < filtered.length ; i++) {
+			filtered[i] = new AtomicLong();
+		}
+	}
+
+	/**
+	 * Index the graphs of a store snapshot, reading them and their summaries from it
+	 * @param snapshot	The snapshot
+	 * @param pathIndex	Path index keyed by graph ids, null for none
+	 */
+	GraphIndex(final GraphStore.Snapshot snapshot, PathIndex pathIndex) {
+		this.graphSet = new AbstractList<CompactGraph>() {
+			@Override
+			public CompactGraph get(int index) {
+				if (index < 0 || index >= snapshot.size()) {
+					throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + snapshot.size());
+				}
+				return snapshot.graph(index);
+			}
+
+			@Override
+			public int size() {
+				return snapshot.size();
+			}
+		};
+		this.summaries = null;
+		this.nodeLabelFrequencies = null;
+		this.snapshot = snapshot;
+		this.pathIndex = pathIndex;
+		this.maxNodeCount = snapshot.getMaxNodeCount();
+		for (int i = 0 ; i < filtered.length ; i++) {
+			filtered[i] = new AtomicLong();
+		}
+	}
+
+	// add the node labels of a graph to the counts, or subtract them for sign -1
+	static void countLabels(HashMap<Integer, Integer> counts, CompactGraph graph, int sign) {
+		for (int v = 0 ; v < graph.nodeCount() ; v++) {
+			Integer count = counts.get(graph.label(v));
+			int updated = (count == null ? 0 : count) + sign;
+			if (updated == 0) {
+				counts.remove(graph.label(v));
+			} else {
+				counts.put(graph.label(v), updated);
+			}
+		}
+	}
+
+	public List<CompactGraph> getGraphSet() {
+		return graphSet;
+	}
+
+	/**
+	 * Identify the version of the target graph set this index is over without holding on to it, e.g. to key cached results
+	 * @return	A number no other index of this process has; every store snapshot gets a new one
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Filter by the paths of the target graphs from now on, or stop doing so
+	 * @param pathIndex	Path index built over the graph set of this index, null to stop
+	 */
+	public void setPathIndex(PathIndex pathIndex) {
+		if (pathIndex != null && (snapshot != null || !pathIndex.covers(graphSet))) {
+			throw new IllegalArgumentException("path index built over another graph set");
+		}
+		this.pathIndex = pathIndex;
+	}
+
+	public PathIndex getPathIndex() {
+		return pathIndex;
+	}
+
+	/**
+	 * Get the target graphs that contain every path of the query, if there is a path index
+	 * @param queryGraph	Query graph
+	 * @return				Positions of the candidate graphs in the graph set, ascending; null if the paths do not restrict them
+	 */
+	public int[] pathCandidates(CompactGraph queryGraph) {
+		PathIndex paths = pathIndex;
+		int[] candidates = paths == null ? null : paths.candidates(queryGraph);
+		if (candidates != null && snapshot != null) {
+			for (int i = 0 ; i < candidates.length ; i++) {
+				candidates[i] = snapshot.positionOf(candidates[i]);
+			}
+		}
+		return candidates;
+	}
+
+	public GraphSummary getSummary(int i) {
+		return snapshot == null ? summaries[i] : snapshot.summary(i);
+	}
+
+	/**
+	 * @return	Node count of the largest target graph, or more after graphs of a store were removed
+	 */
+	public int getMaxNodeCount() {
+		return maxNodeCount;
+	}
+
+	/**
+	 * Get the number of nodes with a label in the whole target graph set
+	 * @param label	Node label
+	 * @return		Node count
+	 */
+	public int nodeLabelFrequency(int label) {
+		if (snapshot != null) {
+			return snapshot.nodeLabelFrequency(label);
+		}
+		Integer count = nodeLabelFrequencies.get(label);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * Get the target graphs that pass the necessary conditions for containing the query
+	 * @param queryGraph	Query graph
+	 * @return				Candidate target graphs, in the order of the graph set
+	 */
+	public ArrayList<CompactGraph> filter(CompactGraph queryGraph) {
+		return graphsAt(filterPositions(queryGraph));
+	}
+
+	/**
+	 * @param positions	Positions in the graph set
+	 * @return			The graphs at these positions, in the same order
+	 */
+	public ArrayList<CompactGraph> graphsAt(int[] positions) {
+		ArrayList<CompactGraph> graphs = new ArrayList<CompactGraph>(positions.length);
+		for (int i : positions) {
+			graphs.add(graphSet.get(i));
+		}
+		return graphs;
+	}
+
+	/**
+	 * Get the positions of the target graphs that pass the necessary conditions for containing the query
+	 * @param queryGraph	Query graph
+	 * @return				Positions in the graph set of the candidate target graphs, ascending
+	 */
+	public int[] filterPositions(CompactGraph queryGraph) {
+		GraphSummary query = new GraphSummary(queryGraph);
+		int[] pathCandidates = pathCandidates(queryGraph);
+		int total = pathCandidates != null ? pathCandidates.length : graphSet.size();
+		int[] candidates = new int[total];
+		int size = 0;
+		long[] counts = new long[filtered.length];
+		for (int k = 0 ; k < total ; k++) {
+			int i = pathCandidates != null ? pathCandidates[k] : k;
+			GraphSummary.Check result = getSummary(i).check(query);
+			if (result == GraphSummary.Check.PASSED) {
+				candidates[size++] = i;
+			} else {
+				counts[result.ordinal()]++;
+			}
+		}
+		if (pathCandidates != null) {
+			filteredByPaths.addAndGet(graphSet.size() - pathCandidates.length);
+		}
+
+		checked.addAndGet(graphSet.size());
+		for (int i = 0 ; i < counts.length ; i++) {
+			filtered[i].addAndGet(counts[i]);
+		}
+		return Arrays.copyOf(candidates, size);
+	}
+
+	/**
+	 * Check whether one target graph passes the summary conditions for containing a query,
+	 * counted in the filter statistics like filter(); the path index is not consulted
+	 * @param i		Index of the target graph in the set
+	 * @param query	Summary of the query graph
+	 * @return		Whether the target graph passed
+	 */
+	public boolean passes(int i, GraphSummary query) {
+		GraphSummary.Check result = getSummary(i).check(query);
+		checked.incrementAndGet();
+		if (result != GraphSummary.Check.PASSED) {
+			filtered[result.ordinal()].incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return	Number of target graphs checked so far
+	 */
+	public long getCheckedCount() {
+		return checked.get();
+	}
+
+	/**
+	 * @return	Number of target graphs filtered out so far
+	 */
+	public long getFilteredCount() {
+		long sum = filteredByPaths.get();
+		for (AtomicLong count : filtered) {
+			sum += count.get();
+		}
+		return sum;
+	}
+
+	/**
+	 * @param reason	The failed condition
+	 * @return			Number of target graphs filtered out so far by this condition
+	 */
+	public long getFilteredCount(GraphSummary.Check reason) {
+		return filtered[reason.ordinal()].get();
+	}
+
+	/**
+	 * @return	Number of target graphs filtered out so far by the path index
+	 */
+	public long getFilteredByPathsCount() {
+		return filteredByPaths.get();
+	}
+
+	/**
+	 * Print the filter statistics to console
+	 */
+	public void printStatistics() {
+		System.out.println("Filtered " + getFilteredCount() + " of " + getCheckedCount() + " target graphs"
+				+ " (paths: " + getFilteredByPathsCount()
+				+ ", size: " + getFilteredCount(GraphSummary.Check.SIZE)
+				+ ", node labels: " + getFilteredCount(GraphSummary.Check.NODE_LABELS)
+				+ ", edge labels: " + getFilteredCount(GraphSummary.Check.EDGE_LABELS)
+				+ ", degrees: " + getFilteredCount(GraphSummary.Check.DEGREES) + ")");
+	}
+}
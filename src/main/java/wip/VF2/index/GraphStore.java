@@ -0,0 +1,551 @@
+package wip.VF2.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Target graph set that changes while it is being matched against.
+ *
+ * Every graph gets a stable id, ascending in the order the graphs were added. Writers append and remove
+ * graphs and add and remove edges; the changes of an Update are applied together and published as a new
+ * Snapshot. A snapshot is immutable: matchers take the current one with snapshot() and match against
+ * its GraphIndex, and keep seeing that version however the store changes meanwhile.
+ *
+ * A change only does work for the graphs it touches. The edge edits of a batch are grouped by graph and
+ * each edited graph is rebuilt on its own once per commit (CompactGraph.withEdges()), and its summary and
+ * paths are recomputed once. A snapshot shares the graphs,
+ * summaries and path lists of the last merge and keeps the changes since in a small overlay; the overlay
+ * is merged into a new base once it holds more than MIN_OVERLAY plus the square root of the graph count
+ * graphs, so a change costs the size of the overlay and, amortized, a share of one merge.
+ * A batch that is not valid throws before anything is published and takes no ids.
+ */
+public class GraphStore {
+
+	private static final int MIN_OVERLAY = 64;
+
+	private final Object writeLock = new Object();
+	private volatile Snapshot current;
+	private int nextId;	// guarded by writeLock
+
+	/**
+	 * Create a store without a path index
+	 * @param graphSet	The initial graphs, with ids 0 .. n-1
+	 */
+	public GraphStore(List<CompactGraph> graphSet) {
+		this(graphSet, null);
+	}
+
+	/**
+	 * Create a store
+	 * @param graphSet	The initial graphs, with ids 0 .. n-1
+	 * @param pathIndex	Path index built over graphSet (see PathIndex.loadOrBuild()), kept up to date by the store; null for none
+	 */
+	public GraphStore(List<CompactGraph> graphSet, PathIndex pathIndex) {
+		if (pathIndex != null && !pathIndex.covers(graphSet)) {
+			throw new IllegalArgumentException("path index built over another graph set");
+		}
+		int n = graphSet.size();
+		CompactGraph[] graphs = new CompactGraph[n];
+		GraphSummary[] summaries = new GraphSummary[n];
+		int[] ids = new int[n];
+		HashMap<Integer, Integer> labels = new HashMap<Integer, Integer>();
+		int maxNodeCount = 0;
+		for (int i = 0 ; i < n ; i++) {
+			graphs[i] = graphSet.get(i);
+			summaries[i] = new GraphSummary(graphs[i]);
+			ids[i] = i;
+			GraphIndex.countLabels(labels, graphs[i], 1);
+			maxNodeCount = Math.max(maxNodeCount, graphs[i].nodeCount());
+		}
+		this.nextId = n;
+		this.current = new Snapshot(0, new Segment(graphs, summaries, ids), labels, new int[0], Segment.EMPTY, Segment.EMPTY,
+				new HashMap<Integer, Integer>(), maxNodeCount, pathIndex);
+	}
+
+	/**
+	 * @return	The current version of the graph set
+	 */
+	public Snapshot snapshot() {
+		return current;
+	}
+
+	/**
+	 * Start a batch of changes, applied when it is committed
+	 * @return	The empty batch
+	 */
+	public Update update() {
+		return new Update();
+	}
+
+	/**
+	 * Append a graph
+	 * @param graph	The graph
+	 * @return		Its id
+	 */
+	public int addGraph(CompactGraph graph) {
+		Snapshot snapshot = update().addGraph(graph).commit();
+		return snapshot.idOf(snapshot.size() - 1);
+	}
+
+	public Snapshot removeGraph(int id) {
+		return update().removeGraph(id).commit();
+	}
+
+	public Snapshot addEdge(int id, int source, int target, int label) {
+		return update().addEdge(id, source, target, label).commit();
+	}
+
+	public Snapshot removeEdge(int id, int source, int target) {
+		return update().removeEdge(id, source, target).commit();
+	}
+
+	/**
+	 * Apply a batch of changes to the current snapshot and publish the result
+	 * @param operations	The changes, in order
+	 * @return				The new snapshot
+	 */
+	private Snapshot apply(List<Operation> operations) {
+		synchronized (writeLock) {
+			Snapshot base = current;
+			// latest version of each touched graph by id before its edge edits, null if removed
+			LinkedHashMap<Integer, CompactGraph> changed = new LinkedHashMap<Integer, CompactGraph>();
+			HashMap<Integer, Edits> edits = new HashMap<Integer, Edits>();	// edge edits of each graph, applied at once
+			int id = nextId;	// taken only once the whole batch is valid
+			for (Operation operation : operations) {
+				if (operation.kind == Operation.ADD_GRAPH) {
+					changed.put(id++, operation.graph);
+					continue;
+				}
+				CompactGraph graph = changed.containsKey(operation.id) ? changed.get(operation.id) : base.get(operation.id);
+				if (graph == null) {
+					throw new IllegalArgumentException("no graph with id " + operation.id);
+				}
+				if (operation.kind == Operation.REMOVE_GRAPH) {
+					graph = null;
+					edits.remove(operation.id);
+				} else {
+					int n = graph.nodeCount();
+					if (operation.source < 0 || operation.source >= n || operation.target < 0 || operation.target >= n) {
+						throw new IllegalArgumentException("no edge (" + operation.source + ", " + operation.target
+								+ ") in graph " + operation.id + " of " + n + " nodes");
+					}
+					Edits graphEdits = edits.get(operation.id);
+					if (graphEdits == null) {
+						graphEdits = new Edits();
+						edits.put(operation.id, graphEdits);
+					}
+					graphEdits.add(operation.source, operation.target, operation.kind == Operation.ADD_EDGE ? operation.label : -1);
+				}
+				changed.put(operation.id, graph);
+			}
+			nextId = id;
+			for (Map.Entry<Integer, Edits> entry : edits.entrySet()) {
+				Edits graphEdits = entry.getValue();
+				CompactGraph graph = changed.get(entry.getKey()).withEdges(graphEdits.sources(), graphEdits.targets(), graphEdits.labels());
+				if (graph == base.get(entry.getKey())) {
+					changed.remove(entry.getKey());	// the edits changed nothing
+				} else {
+					changed.put(entry.getKey(), graph);
+				}
+			}
+
+			// graphs as indexed in the base, and as they are to be indexed now
+			HashMap<Integer, CompactGraph> removed = new HashMap<Integer, CompactGraph>();
+			HashMap<Integer, CompactGraph> added = new HashMap<Integer, CompactGraph>();
+			HashMap<Integer, Integer> labelChanges = new HashMap<Integer, Integer>(base.labelChanges);
+			int[] removedPositions = base.removed;
+			Segment replaced = base.replaced;
+			Segment appended = base.appended;
+			int maxNodeCount = base.maxNodeCount;
+			for (Map.Entry<Integer, CompactGraph> entry : changed.entrySet()) {
+				CompactGraph old = base.get(entry.getKey());
+				CompactGraph graph = entry.getValue();
+				if (old != null) {
+					removed.put(entry.getKey(), old);
+					GraphIndex.countLabels(labelChanges, old, -1);
+				}
+				if (graph != null) {
+					added.put(entry.getKey(), graph);
+					GraphIndex.countLabels(labelChanges, graph, 1);
+					maxNodeCount = Math.max(maxNodeCount, graph.nodeCount());
+				}
+
+				// ids of the base keep their base position, new ids are the largest and go to the appended graphs
+				int b = base.base.find(entry.getKey());
+				if (b < 0) {
+					appended = graph == null ? appended.without(entry.getKey())
+							: appended.with(entry.getKey(), graph, new GraphSummary(graph));
+				} else if (graph == null) {
+					int r = Arrays.binarySearch(removedPositions, b);
+					int[] updated = new int[removedPositions.length + 1];
+					System.arraycopy(removedPositions, 0, updated, 0, -r - 1);
+					updated[-r - 1] = b;
+					System.arraycopy(removedPositions, -r - 1, updated, -r, removedPositions.length + r + 1);
+					removedPositions = updated;
+					replaced = replaced.without(b);
+				} else {
+					replaced = replaced.with(b, graph, new GraphSummary(graph));
+				}
+			}
+
+			PathIndex pathIndex = base.index.getPathIndex();
+			if (pathIndex != null) {
+				pathIndex = pathIndex.update(removed, added);
+			}
+			Snapshot snapshot = new Snapshot(base.version + 1, base.base, base.baseLabels, removedPositions, replaced, appended,
+					labelChanges, maxNodeCount, pathIndex);
+			if (removedPositions.length + replaced.size() + appended.size() > MIN_OVERLAY + Math.sqrt(base.base.size())) {
+				snapshot = snapshot.merged();
+			}
+			current = snapshot;
+			return snapshot;
+		}
+	}
+
+	/**
+	 * One immutable version of the graph set
+	 *
+	 * The graphs as of the last merge form the base, shared by every snapshot since; the graphs removed,
+	 * replaced or appended after it are kept in an overlay, so publishing a change copies only the overlay.
+	 * Positions count the graphs that are left of the base, then the appended ones.
+	 */
+	public static class Snapshot {
+
+		private final long version;
+		private final Segment base;			// keyed by id
+		private final HashMap<Integer, Integer> baseLabels;	// node label counts of the base, not changed
+		private final int[] removed;		// base positions of the removed graphs, ascending
+		private final Segment replaced;		// edited graphs of the base, keyed by base position
+		private final Segment appended;		// keyed by id, all larger than those of the base
+		private final HashMap<Integer, Integer> labelChanges;	// node label counts since the base
+		private final int maxNodeCount;		// at least that of the largest graph
+		private final GraphIndex index;
+
+		private Snapshot(long version, Segment base, HashMap<Integer, Integer> baseLabels, int[] removed, Segment replaced,
+				Segment appended, HashMap<Integer, Integer> labelChanges, int maxNodeCount, PathIndex pathIndex) {
+			this.version = version;
+			this.base = base;
+			this.baseLabels = baseLabels;
+			this.removed = removed;
+			this.replaced = replaced;
+			this.appended = appended;
+			this.labelChanges = labelChanges;
+			this.maxNodeCount = maxNodeCount;
+			this.index = new GraphIndex(this, pathIndex);
+		}
+
+		// the same graphs with the overlay merged into a new base
+		private Snapshot merged() {
+			int n = size();
+			CompactGraph[] graphs = new CompactGraph[n];
+			GraphSummary[] summaries = new GraphSummary[n];
+			int[] ids = new int[n];
+			int maxNodeCount = 0;
+			for (int i = 0 ; i < n ; i++) {
+				graphs[i] = graph(i);
+				summaries[i] = summary(i);
+				ids[i] = idOf(i);
+				maxNodeCount = Math.max(maxNodeCount, graphs[i].nodeCount());
+			}
+			HashMap<Integer, Integer> labels = new HashMap<Integer, Integer>(baseLabels);
+			for (Map.Entry<Integer, Integer> change : labelChanges.entrySet()) {
+				int count = nodeLabelFrequency(change.getKey());
+				if (count == 0) {
+					labels.remove(change.getKey());
+				} else {
+					labels.put(change.getKey(), count);
+				}
+			}
+			return new Snapshot(version, new Segment(graphs, summaries, ids), labels, new int[0], Segment.EMPTY, Segment.EMPTY,
+					new HashMap<Integer, Integer>(), maxNodeCount, index.getPathIndex());
+		}
+
+		/**
+		 * @return	Number of changes published before this snapshot
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return	Index over the graphs of this snapshot, to match against
+		 */
+		public GraphIndex getIndex() {
+			return index;
+		}
+
+		public List<CompactGraph> getGraphSet() {
+			return index.getGraphSet();
+		}
+
+		public int size() {
+			return base.size() - removed.length + appended.size();
+		}
+
+		/**
+		 * @param position	Position of a graph in the graph set
+		 * @return			Its id
+		 */
+		public int idOf(int position) {
+			int b = basePosition(position);
+			return b < 0 ? appended.keys[position - base.size() + removed.length] : base.keys[b];
+		}
+
+		/**
+		 * @param id	Graph id
+		 * @return		Its position in the graph set, -1 if there is no graph with this id
+		 */
+		public int positionOf(int id) {
+			int b = base.find(id);
+			if (b >= 0) {
+				int r = Arrays.binarySearch(removed, b);
+				return r >= 0 ? -1 : b + r + 1;
+			}
+			int a = appended.find(id);
+			return a < 0 ? -1 : base.size() - removed.length + a;
+		}
+
+		/**
+		 * @param id	Graph id
+		 * @return		The graph, null if there is no graph with this id
+		 */
+		public CompactGraph get(int id) {
+			int i = positionOf(id);
+			return i < 0 ? null : graph(i);
+		}
+
+		CompactGraph graph(int position) {
+			int b = basePosition(position);
+			if (b < 0) {
+				return appended.graphs[position - base.size() + removed.length];
+			}
+			int r = replaced.find(b);
+			return r < 0 ? base.graphs[b] : replaced.graphs[r];
+		}
+
+		GraphSummary summary(int position) {
+			int b = basePosition(position);
+			if (b < 0) {
+				return appended.summaries[position - base.size() + removed.length];
+			}
+			int r = replaced.find(b);
+			return r < 0 ? base.summaries[b] : replaced.summaries[r];
+		}
+
+		int nodeLabelFrequency(int label) {
+			Integer count = baseLabels.get(label);
+			Integer change = labelChanges.get(label);
+			return (count == null ? 0 : count) + (change == null ? 0 : change);
+		}
+
+		int getMaxNodeCount() {
+			return maxNodeCount;
+		}
+
+		// position in the base of the graph at a position, -1 if it is appended
+		private int basePosition(int position) {
+			if (position >= base.size() - removed.length) {
+				return -1;
+			}
+			// removed[j] - j graphs of the base are left before removed[j]
+			int low = 0;
+			int high = removed.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (removed[mid] - mid <= position) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return position + low;
+		}
+	}
+
+	/**
+	 * Graphs with their summaries, sorted by an int key
+	 */
+	private static class Segment {
+
+		static final Segment EMPTY = new Segment(new CompactGraph[0], new GraphSummary[0], new int[0]);
+
+		final CompactGraph[] graphs;
+		final GraphSummary[] summaries;
+		final int[] keys;	// ascending
+
+		Segment(CompactGraph[] graphs, GraphSummary[] summaries, int[] keys) {
+			this.graphs = graphs;
+			this.summaries = summaries;
+			this.keys = keys;
+		}
+
+		int size() {
+			return keys.length;
+		}
+
+		int find(int key) {
+			return Arrays.binarySearch(keys, key);
+		}
+
+		// copy with the graph of a key put in, in order
+		Segment with(int key, CompactGraph graph, GraphSummary summary) {
+			int i = find(key);
+			if (i >= 0) {
+				CompactGraph[] updatedGraphs = graphs.clone();
+				GraphSummary[] updatedSummaries = summaries.clone();
+				updatedGraphs[i] = graph;
+				updatedSummaries[i] = summary;
+				return new Segment(updatedGraphs, updatedSummaries, keys);
+			}
+			i = -i - 1;
+			int n = keys.length;
+			CompactGraph[] updatedGraphs = new CompactGraph[n + 1];
+			GraphSummary[] updatedSummaries = new GraphSummary[n + 1];
+			int[] updatedKeys = new int[n + 1];
+			System.arraycopy(graphs, 0, updatedGraphs, 0, i);
+			System.arraycopy(summaries, 0, updatedSummaries, 0, i);
+			System.arraycopy(keys, 0, updatedKeys, 0, i);
+			updatedGraphs[i] = graph;
+			updatedSummaries[i] = summary;
+			updatedKeys[i] = key;
+			System.arraycopy(graphs, i, updatedGraphs, i + 1, n - i);
+			System.arraycopy(summaries, i, updatedSummaries, i + 1, n - i);
+			System.arraycopy(keys, i, updatedKeys, i + 1, n - i);
+			return new Segment(updatedGraphs, updatedSummaries, updatedKeys);
+		}
+
+		// copy without the graph of a key
+		Segment without(int key) {
+			int i = find(key);
+			if (i < 0) {
+				return this;
+			}
+			int n = keys.length;
+			CompactGraph[] updatedGraphs = new CompactGraph[n - 1];
+			GraphSummary[] updatedSummaries = new GraphSummary[n - 1];
+			int[] updatedKeys = new int[n - 1];
+			System.arraycopy(graphs, 0, updatedGraphs, 0, i);
+			System.arraycopy(summaries, 0, updatedSummaries, 0, i);
+			System.arraycopy(keys, 0, updatedKeys, 0, i);
+			System.arraycopy(graphs, i + 1, updatedGraphs, i, n - i - 1);
+			System.arraycopy(summaries, i + 1, updatedSummaries, i, n - i - 1);
+			System.arraycopy(keys, i + 1, updatedKeys, i, n - i - 1);
+			return new Segment(updatedGraphs, updatedSummaries, updatedKeys);
+		}
+	}
+
+	/**
+	 * A batch of changes, published as one new snapshot by commit()
+	 * Graphs added by a batch get the next free ids, in the order they were added
+	 */
+	public class Update {
+
+		private final ArrayList<Operation> operations = new ArrayList<Operation>();
+
+		private Update() {
+		}
+
+		public Update addGraph(CompactGraph graph) {
+			operations.add(new Operation(Operation.ADD_GRAPH, -1, graph, -1, -1, -1));
+			return this;
+		}
+
+		public Update removeGraph(int id) {
+			operations.add(new Operation(Operation.REMOVE_GRAPH, id, null, -1, -1, -1));
+			return this;
+		}
+
+		/**
+		 * Add an edge to a graph, or change the label of an existing one
+		 * @param id		Graph id
+		 * @param source	Source node id
+		 * @param target	Target node id
+		 * @param label		Edge label
+		 * @return			This batch
+		 */
+		public Update addEdge(int id, int source, int target, int label) {
+			operations.add(new Operation(Operation.ADD_EDGE, id, null, source, target, label));
+			return this;
+		}
+
+		public Update removeEdge(int id, int source, int target) {
+			operations.add(new Operation(Operation.REMOVE_EDGE, id, null, source, target, -1));
+			return this;
+		}
+
+		/**
+		 * Apply the changes and publish them; matches that have already taken a snapshot are not affected
+		 * @return	The new snapshot
+		 * @throws IllegalArgumentException	If a change refers to a graph or node that does not exist, nothing is applied then
+		 */
+		public Snapshot commit() {
+			return apply(operations);
+		}
+	}
+
+	/**
+	 * The edge edits of one graph in a batch, in order
+	 */
+	private static class Edits {
+
+		private int[] sources = new int[4];
+		private int[] targets = new int[4];
+		private int[] labels = new int[4];
+		private int size = 0;
+
+		void add(int source, int target, int label) {
+			if (size == sources.length) {
+				sources = Arrays.copyOf(sources, size * 2);
+				targets = Arrays.copyOf(targets, size * 2);
+				labels = Arrays.copyOf(labels, size * 2);
+			}
+			sources[size] = source;
+			targets[size] = target;
+			labels[size] = label;
+			size++;
+		}
+
+		int[] sources() {
+			return Arrays.copyOf(sources, size);
+		}
+
+		int[] targets() {
+			return Arrays.copyOf(targets, size);
+		}
+
+		int[] labels() {
+			return Arrays.copyOf(labels, size);
+		}
+	}
+
+	private static class Operation {
+
+		static final int ADD_GRAPH = 0;
+		static final int REMOVE_GRAPH = 1;
+		static final int ADD_EDGE = 2;
+		static final int REMOVE_EDGE = 3;
+
+		final int kind;
+		final int id;
+		final CompactGraph graph;
+		final int source;
+		final int target;
+		final int label;
+
+		Operation(int kind, int id, CompactGraph graph, int source, int target, int label) {
+			this.kind = kind;
+			this.id = id;
+			this.graph = graph;
+			this.source = source;
+			this.target = target;
+			this.label = label;
+		}
+	}
+}
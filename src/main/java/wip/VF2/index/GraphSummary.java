@@ -0,0 +1,220 @@
+package wip.VF2.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Cheap invariants of a graph that every graph containing it must dominate:
+ * node and edge counts, node label and edge label histograms, and the in/out degree sequences.
+ * Comparing two summaries is a necessary condition for a match and takes no search at all.
+ */
+public class GraphSummary {
+
+	/**
+	 * Outcome of a containment check, telling which condition failed
+	 */
+	public enum Check {
+		PASSED, SIZE, NODE_LABELS, EDGE_LABELS, DEGREES
+	}
+
+	public final int nodeCount;
+	public final int edgeCount;
+
+	// label histograms as parallel arrays, sorted by label
+	private final int[] nodeLabels;
+	private final int[] nodeLabelCounts;
+	private final int[] edgeLabels;
+	private final int[] edgeLabelCounts;
+
+	// degree sequences, sorted in descending order
+	private final int[] outDegrees;
+	private final int[] inDegrees;
+
+	public GraphSummary(CompactGraph graph) {
+		nodeCount = graph.nodeCount();
+		edgeCount = graph.edgeCount();
+
+		int[] labels = new int[nodeCount];
+		outDegrees = new int[nodeCount];
+		inDegrees = new int[nodeCount];
+		for (int i = 0 ; i < nodeCount ; i++) {
+			labels[i] = graph.label(i);
+			outDegrees[i] = graph.outDegree(i);
+			inDegrees[i] = graph.inDegree(i);
+		}
+		sortDescending(outDegrees);
+		sortDescending(inDegrees);
+
+		int[] labelsOfEdges = new int[edgeCount];
+		for (int i = 0 ; i < edgeCount ; i++) {
+			labelsOfEdges[i] = graph.outLabel(i);
+		}
+
+		int[][] nodeHistogram = histogram(labels);
+		nodeLabels = nodeHistogram[0];
+		nodeLabelCounts = nodeHistogram[1];
+		int[][] edgeHistogram = histogram(labelsOfEdges);
+		edgeLabels = edgeHistogram[0];
+		edgeLabelCounts = edgeHistogram[1];
+	}
+
+	private GraphSummary(int nodeCount, int edgeCount, int[] nodeLabels, int[] nodeLabelCounts, int[] edgeLabels,
+			int[] edgeLabelCounts, int[] outDegrees, int[] inDegrees) {
+		this.nodeCount = nodeCount;
+		this.edgeCount = edgeCount;
+		this.nodeLabels = nodeLabels;
+		this.nodeLabelCounts = nodeLabelCounts;
+		this.edgeLabels = edgeLabels;
+		this.edgeLabelCounts = edgeLabelCounts;
+		this.outDegrees = outDegrees;
+		this.inDegrees = inDegrees;
+	}
+
+	/**
+	 * Read a summary written by write()
+	 * @param in	Input positioned at the summary
+	 * @return		The summary
+	 * @throws IOException
+	 */
+	public static GraphSummary read(DataInput in) throws IOException {
+		int nodeCount = in.readInt();
+		int edgeCount = in.readInt();
+		int[] nodeLabels = readInts(in, in.readInt());
+		int[] nodeLabelCounts = readInts(in, nodeLabels.length);
+		int[] edgeLabels = readInts(in, in.readInt());
+		int[] edgeLabelCounts = readInts(in, edgeLabels.length);
+		int[] outDegrees = readInts(in, nodeCount);
+		int[] inDegrees = readInts(in, nodeCount);
+		return new GraphSummary(nodeCount, edgeCount, nodeLabels, nodeLabelCounts, edgeLabels, edgeLabelCounts, outDegrees, inDegrees);
+	}
+
+	/**
+	 * Write the summary, e.g. next to the graph in a binary graph file, so it need not be computed from the graph again
+	 * @param out	Output
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(nodeCount);
+		out.writeInt(edgeCount);
+		out.writeInt(nodeLabels.length);
+		writeInts(out, nodeLabels);
+		writeInts(out, nodeLabelCounts);
+		out.writeInt(edgeLabels.length);
+		writeInts(out, edgeLabels);
+		writeInts(out, edgeLabelCounts);
+		writeInts(out, outDegrees);
+		writeInts(out, inDegrees);
+	}
+
+	private static int[] readInts(DataInput in, int length) throws IOException {
+		int[] values = new int[length];
+		for (int i = 0 ; i < length ; i++)
+			values[i] = in.readInt();
+		return values;
+	}
+
+	private static void writeInts(DataOutput out, int[] values) throws IOException {
+		for (int value : values)
+			out.writeInt(value);
+	}
+
+	/**
+	 * Get the number of nodes with a label
+	 * @param label	Node label
+	 * @return		Node count
+	 */
+	public int nodeLabelCount(int label) {
+		int i = Arrays.binarySearch(nodeLabels, label);
+		return i < 0 ? 0 : nodeLabelCounts[i];
+	}
+
+	// add the node label histogram to label counts over a graph set
+	void addNodeLabels(HashMap<Integer, Integer> counts) {
+		for (int i = 0 ; i < nodeLabels.length ; i++) {
+			Integer count = counts.get(nodeLabels[i]);
+			counts.put(nodeLabels[i], (count == null ? 0 : count) + nodeLabelCounts[i]);
+		}
+	}
+
+	/**
+	 * Get the number of edges with a label
+	 * @param label	Edge label
+	 * @return		Edge count
+	 */
+	public int edgeLabelCount(int label) {
+		int i = Arrays.binarySearch(edgeLabels, label);
+		return i < 0 ? 0 : edgeLabelCounts[i];
+	}
+
+	/**
+	 * Check the necessary conditions for the graph of this summary to contain the query graph
+	 * @param query	Summary of the query graph
+	 * @return		PASSED, or the first condition that fails
+	 */
+	public Check check(GraphSummary query) {
+		if (query.nodeCount > nodeCount || query.edgeCount > edgeCount) {
+			return Check.SIZE;
+		}
+		if (!dominates(nodeLabels, nodeLabelCounts, query.nodeLabels, query.nodeLabelCounts)) {
+			return Check.NODE_LABELS;
+		}
+		if (!dominates(edgeLabels, edgeLabelCounts, query.edgeLabels, query.edgeLabelCounts)) {
+			return Check.EDGE_LABELS;
+		}
+		// the k-th largest degree of the query cannot exceed the k-th largest degree of the target
+		for (int k = 0 ; k < query.nodeCount ; k++) {
+			if (query.outDegrees[k] > outDegrees[k] || query.inDegrees[k] > inDegrees[k]) {
+				return Check.DEGREES;
+			}
+		}
+		return Check.PASSED;
+	}
+
+	// every label of the query histogram occurs at least as often in the target histogram
+	private static boolean dominates(int[] labels, int[] counts, int[] queryLabels, int[] queryCounts) {
+		int j = 0;
+		for (int i = 0 ; i < queryLabels.length ; i++) {
+			while (j < labels.length && labels[j] < queryLabels[i]) {
+				j++;
+			}
+			if (j == labels.length || labels[j] != queryLabels[i] || counts[j] < queryCounts[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// distinct values and their counts of an array
+	private static int[][] histogram(int[] values) {
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for (int i = 0 ; i < sorted.length ; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1])
+				distinct++;
+		}
+		int[] keys = new int[distinct];
+		int[] counts = new int[distinct];
+		int k = -1;
+		for (int i = 0 ; i < sorted.length ; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1])
+				keys[++k] = sorted[i];
+			counts[k]++;
+		}
+		return new int[][] {keys, counts};
+	}
+
+	private static void sortDescending(int[] values) {
+		Arrays.sort(values);
+		for (int i = 0, j = values.length - 1 ; i < j ; i++, j--) {
+			int tmp = values[i];
+			values[i] = values[j];
+			values[j] = tmp;
+		}
+	}
+}
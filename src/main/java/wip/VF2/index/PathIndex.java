@@ -0,0 +1,539 @@
+package wip.VF2.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Inverted index of the labeled paths of the target graph set (GraphGrepSX style), built offline
+ * and stored in an index file.
+ *
+ * A feature is a simple path of up to maxLength edges: the labels of its nodes and edges, and the
+ * direction of each edge. A path and its reverse are the same feature. For every feature the index keeps
+ * the target graphs that contain it and how often. A match maps the simple paths of the query one-to-one
+ * onto simple paths of the target with the same labels and directions, in every MatchingMode, so a target
+ * graph is a candidate only if it contains every feature of the query at least as often as the query.
+ * Features are kept as 64-bit hashes; two features that collide are counted together, which can only
+ * keep more candidates, never drop a match.
+ *
+ * An index that is updated (see update()) keeps the lists it was built with and an overlay of the
+ * entries changed since, so an update costs the paths of the graphs it touches rather than the whole
+ * index. The overlay is merged into new lists once it outgrows MERGE_FACTOR times the square root of
+ * the entries of the lists.
+ */
+public class PathIndex {
+
+	public static final int DEFAULT_MAX_LENGTH = 4;
+
+	private static final int MAGIC = 0x56463250; // "VF2P"
+	private static final int VERSION = 1;
+	private static final long P = 0x9E3779B97F4A7C15L; // base of the polynomial path hash
+	private static final long NO_FINGERPRINT = 0L; // of an index changed by update()
+	private static final int MERGE_FACTOR = 64;
+
+	private final int maxLength;
+	private final int graphCount;
+	private final long fingerprint;	// of the target graph set, see fingerprint()
+	private final HashMap<Long, Postings> postings;	// shared by the versions updated from this one
+	private final long entryCount;	// in postings
+	private final HashMap<Long, Postings> changes;	// entries added or recounted since postings, count 0 for removed
+	private final long changeCount;	// in changes
+
+	private PathIndex(int maxLength, int graphCount, long fingerprint, HashMap<Long, Postings> postings) {
+		this(maxLength, graphCount, fingerprint, postings, entryCount(postings), new HashMap<Long, Postings>(), 0);
+	}
+
+	private PathIndex(int maxLength, int graphCount, long fingerprint, HashMap<Long, Postings> postings, long entryCount,
+			HashMap<Long, Postings> changes, long changeCount) {
+		this.maxLength = maxLength;
+		this.graphCount = graphCount;
+		this.fingerprint = fingerprint;
+		this.postings = postings;
+		this.entryCount = entryCount;
+		this.changes = changes;
+		this.changeCount = changeCount;
+	}
+
+	/**
+	 * Enumerate the paths of every target graph
+	 * @param graphSet	Target graph set
+	 * @param maxLength	Number of edges of the longest paths
+	 * @return			The index
+	 */
+	public static PathIndex build(List<CompactGraph> graphSet, int maxLength) {
+		HashMap<Long, PostingsBuilder> builders = new HashMap<Long, PostingsBuilder>();
+		for (int i = 0 ; i < graphSet.size() ; i++) {
+			for (Map.Entry<Long, int[]> feature : features(graphSet.get(i), maxLength).entrySet()) {
+				PostingsBuilder builder = builders.get(feature.getKey());
+				if (builder == null) {
+					builder = new PostingsBuilder();
+					builders.put(feature.getKey(), builder);
+				}
+				builder.add(i, feature.getValue()[0]);
+			}
+		}
+		HashMap<Long, Postings> postings = new HashMap<Long, Postings>(builders.size() * 2);
+		for (Map.Entry<Long, PostingsBuilder> entry : builders.entrySet()) {
+			PostingsBuilder builder = entry.getValue();
+			postings.put(entry.getKey(), new Postings(Arrays.copyOf(builder.graphs, builder.size), Arrays.copyOf(builder.counts, builder.size)));
+		}
+		return new PathIndex(maxLength, graphSet.size(), fingerprint(graphSet), postings);
+	}
+
+	/**
+	 * Load the index of a target graph set from an index file, or build it and write the file
+	 * if there is none, it was built for another graph set or path length, or it cannot be read
+	 * @param file		Index file
+	 * @param graphSet	Target graph set
+	 * @param maxLength	Number of edges of the longest paths
+	 * @return			The index
+	 * @throws IOException
+	 */
+	public static PathIndex loadOrBuild(Path file, List<CompactGraph> graphSet, int maxLength) throws IOException {
+		if (Files.exists(file)) {
+			PathIndex index;
+			try {
+				index = load(file);
+			} catch (IOException e) {
+				index = null;	// truncated or unreadable, rebuild it
+			} catch (RuntimeException e) {
+				index = null;	// corrupt
+			}
+			if (index != null && index.maxLength == maxLength && index.graphCount == graphSet.size()
+					&& index.fingerprint == fingerprint(graphSet)) {
+				return index;
+			}
+		}
+		PathIndex index = build(graphSet, maxLength);
+		index.save(file);
+		return index;
+	}
+
+	/**
+	 * Read an index file
+	 * @param file	Index file
+	 * @return		The index, null if the file is not an index file of this version or its lists are out of range
+	 * @throws IOException
+	 */
+	public static PathIndex load(Path file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			int maxLength = in.readInt();
+			int graphCount = in.readInt();
+			long fingerprint = in.readLong();
+			int featureCount = in.readInt();
+			HashMap<Long, Postings> postings = new HashMap<Long, Postings>(featureCount * 2);
+			for (int f = 0 ; f < featureCount ; f++) {
+				long feature = in.readLong();
+				int size = in.readInt();
+				if (size < 0 || size > graphCount) {
+					return null;
+				}
+				int[] graphs = new int[size];
+				int[] counts = new int[size];
+				for (int i = 0 ; i < size ; i++) {
+					graphs[i] = in.readInt();
+					counts[i] = in.readInt();
+				}
+				postings.put(feature, new Postings(graphs, counts));
+			}
+			return new PathIndex(maxLength, graphCount, fingerprint, postings);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write the index file. It is written to a temporary file next to it and renamed over it,
+	 * so a crash while writing leaves the old file or none, never a truncated one.
+	 * @param file	Output path
+	 * @throws IOException
+	 */
+	public void save(Path file) throws IOException {
+		HashMap<Long, Postings> postings = merged();
+		Path dir = file.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		boolean written = false;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(maxLength);
+			out.writeInt(graphCount);
+			out.writeLong(fingerprint);
+			out.writeInt(postings.size());
+			for (Map.Entry<Long, Postings> entry : postings.entrySet()) {
+				Postings list = entry.getValue();
+				out.writeLong(entry.getKey());
+				out.writeInt(list.graphs.length);
+				for (int i = 0 ; i < list.graphs.length ; i++) {
+					out.writeInt(list.graphs[i]);
+					out.writeInt(list.counts[i]);
+				}
+			}
+			out.close();
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			written = true;
+		} finally {
+			if (!written) {
+				out.close();
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+
+	/**
+	 * Get the target graphs that contain every path of the query at least as often
+	 * @param queryGraph	Query graph
+	 * @return				Indices of the candidate target graphs (their keys, see update()), ascending;
+	 * 						null for a query without nodes, which every graph contains
+	 */
+	public int[] candidates(CompactGraph queryGraph) {
+		HashMap<Long, int[]> features = features(queryGraph, maxLength);
+		if (features.isEmpty()) {
+			return null;
+		}
+
+		// intersect the shortest lists first
+		ArrayList<Postings> lists = new ArrayList<Postings>(features.size());
+		for (Map.Entry<Long, int[]> feature : features.entrySet()) {
+			Postings list = lookup(feature.getKey());
+			if (list == null) {
+				return new int[0];
+			}
+			lists.add(list.withNeeded(feature.getValue()[0]));
+		}
+		Collections.sort(lists, BY_SIZE);
+
+		Postings first = lists.get(0);
+		int[] candidates = new int[first.graphs.length];
+		int size = 0;
+		for (int i = 0 ; i < first.graphs.length ; i++) {
+			if (first.counts[i] >= first.needed)
+				candidates[size++] = first.graphs[i];
+		}
+		for (int l = 1 ; l < lists.size() && size > 0 ; l++) {
+			Postings list = lists.get(l);
+			int kept = 0;
+			int j = 0;
+			for (int i = 0 ; i < size ; i++) {
+				int graph = candidates[i];
+				while (j < list.graphs.length && list.graphs[j] < graph)
+					j++;
+				if (j < list.graphs.length && list.graphs[j] == graph && list.counts[j] >= list.needed)
+					candidates[kept++] = graph;
+			}
+			size = kept;
+		}
+		return Arrays.copyOf(candidates, size);
+	}
+
+	/**
+	 * Get an index with the paths of some graphs replaced, sharing the lists of this one and recording the changes in the overlay
+	 * The graphs are keyed by stable ids rather than positions from then on, see GraphStore;
+	 * a graph that is edited is removed with its old version and added with its new one under the same key
+	 * @param removed	Graphs to take out by key, as they were indexed
+	 * @param added		Graphs to put in by key
+	 * @return			The updated index, which no longer matches an index file
+	 */
+	PathIndex update(Map<Integer, CompactGraph> removed, Map<Integer, CompactGraph> added) {
+		HashMap<Long, Postings> updated = new HashMap<Long, Postings>(changes);
+		long updatedCount = changeCount;
+		for (Map.Entry<Integer, CompactGraph> graph : removed.entrySet()) {
+			for (Long feature : features(graph.getValue(), maxLength).keySet()) {
+				updatedCount += change(updated, feature, graph.getKey(), 0);
+			}
+		}
+		for (Map.Entry<Integer, CompactGraph> graph : added.entrySet()) {
+			for (Map.Entry<Long, int[]> feature : features(graph.getValue(), maxLength).entrySet()) {
+				updatedCount += change(updated, feature.getKey(), graph.getKey(), feature.getValue()[0]);
+			}
+		}
+		int updatedGraphCount = graphCount - removed.size() + added.size();
+		if (updatedCount > MERGE_FACTOR * Math.sqrt(entryCount)) {
+			return new PathIndex(maxLength, updatedGraphCount, NO_FINGERPRINT, merged(postings, updated));
+		}
+		return new PathIndex(maxLength, updatedGraphCount, NO_FINGERPRINT, postings, entryCount, updated, updatedCount);
+	}
+
+	// set the count of a graph in the overlay list of a feature, returning the number of entries added
+	private static int change(HashMap<Long, Postings> changes, Long feature, int graph, int count) {
+		Postings list = changes.get(feature);
+		if (list == null) {
+			changes.put(feature, new Postings(new int[] {graph}, new int[] {count}));
+			return 1;
+		}
+		Postings updated = list.with(graph, count);
+		changes.put(feature, updated);
+		return updated.graphs.length - list.graphs.length;
+	}
+
+	// the list of a feature with its changes applied, null if no graph has it
+	private Postings lookup(Long feature) {
+		Postings list = postings.get(feature);
+		Postings changed = changes.get(feature);
+		return changed == null ? list : Postings.merge(list, changed);
+	}
+
+	// the lists with the changes applied
+	private HashMap<Long, Postings> merged() {
+		return changes.isEmpty() ? postings : merged(postings, changes);
+	}
+
+	private static HashMap<Long, Postings> merged(HashMap<Long, Postings> postings, HashMap<Long, Postings> changes) {
+		HashMap<Long, Postings> merged = new HashMap<Long, Postings>(postings);
+		for (Map.Entry<Long, Postings> entry : changes.entrySet()) {
+			Postings list = Postings.merge(postings.get(entry.getKey()), entry.getValue());
+			if (list == null) {
+				merged.remove(entry.getKey());
+			} else {
+				merged.put(entry.getKey(), list);
+			}
+		}
+		return merged;
+	}
+
+	private static long entryCount(HashMap<Long, Postings> postings) {
+		long count = 0;
+		for (Postings list : postings.values()) {
+			count += list.graphs.length;
+		}
+		return count;
+	}
+
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	public int getGraphCount() {
+		return graphCount;
+	}
+
+	public int getFeatureCount() {
+		int count = postings.size();
+		for (Map.Entry<Long, Postings> entry : changes.entrySet()) {
+			boolean before = postings.containsKey(entry.getKey());
+			boolean after = lookup(entry.getKey()) != null;
+			count += (after ? 1 : 0) - (before ? 1 : 0);
+		}
+		return count;
+	}
+
+	/**
+	 * Get every list with the overlay applied
+	 * @return	For each feature, the keys of the graphs that have it, ascending, and how often
+	 */
+	Map<Long, int[][]> lists() {
+		HashMap<Long, int[][]> lists = new HashMap<Long, int[][]>();
+		for (Map.Entry<Long, Postings> entry : merged().entrySet()) {
+			lists.put(entry.getKey(), new int[][] {entry.getValue().graphs, entry.getValue().counts});
+		}
+		return lists;
+	}
+
+	/**
+	 * @return	Entries in the overlay, 0 after a build, a load or a merge
+	 */
+	long getOverlayCount() {
+		return changeCount;
+	}
+
+	/**
+	 * Whether this index was built over a target graph set
+	 * @param graphSet	Target graph set
+	 * @return			True if the set has the same graphs as the one indexed
+	 */
+	public boolean covers(List<CompactGraph> graphSet) {
+		return fingerprint != NO_FINGERPRINT && graphSet.size() == graphCount && fingerprint(graphSet) == fingerprint;
+	}
+
+	private static final Comparator<Postings> BY_SIZE = new Comparator<Postings>() {
+		@Override
+		public int compare(Postings a, Postings b) {
+			return Integer.compare(a.graphs.length, b.graphs.length);
+		}
+	};
+
+	/**
+	 * Count the paths of a graph
+	 * @param graph		The graph
+	 * @param maxLength	Number of edges of the longest paths
+	 * @return			Occurrences of each feature, as a one-element array
+	 */
+	static HashMap<Long, int[]> features(CompactGraph graph, int maxLength) {
+		HashMap<Long, int[]> counts = new HashMap<Long, int[]>();
+		boolean[] onPath = new boolean[graph.nodeCount()];
+		for (int v = 0 ; v < graph.nodeCount() ; v++) {
+			long token = nodeToken(graph.label(v));
+			onPath[v] = true;
+			extend(graph, v, maxLength, token, token, P, onPath, counts);
+			onPath[v] = false;
+		}
+		return counts;
+	}
+
+	// count the path ending in v, then extend it by every edge to a node not on it
+	// forward: hash of the path, reverse: hash of the path read backwards, power: P to the number of tokens
+	private static void extend(CompactGraph graph, int v, int left, long forward, long reverse, long power,
+			boolean[] onPath, HashMap<Long, int[]> counts) {
+		// a path is found once from each end, and both count under the smaller hash
+		Long feature = Math.min(forward, reverse);
+		int[] count = counts.get(feature);
+		if (count == null) {
+			counts.put(feature, new int[] {1});
+		} else {
+			count[0]++;
+		}
+		if (left == 0) {
+			return;
+		}
+		for (int i = graph.outBegin(v) ; i < graph.outEnd(v) ; i++) {
+			int u = graph.outNeighbor(i);
+			if (!onPath[u]) {
+				long node = nodeToken(graph.label(u));
+				onPath[u] = true;
+				extend(graph, u, left - 1, (forward * P + edgeToken(graph.outLabel(i), 0)) * P + node,
+						node * power * P + edgeToken(graph.outLabel(i), 1) * power + reverse, power * P * P, onPath, counts);
+				onPath[u] = false;
+			}
+		}
+		for (int i = graph.inBegin(v) ; i < graph.inEnd(v) ; i++) {
+			int u = graph.inNeighbor(i);
+			if (!onPath[u]) {
+				long node = nodeToken(graph.label(u));
+				onPath[u] = true;
+				extend(graph, u, left - 1, (forward * P + edgeToken(graph.inLabel(i), 1)) * P + node,
+						node * power * P + edgeToken(graph.inLabel(i), 0) * power + reverse, power * P * P, onPath, counts);
+				onPath[u] = false;
+			}
+		}
+	}
+
+	private static long nodeToken(int label) {
+		return 4L * label + 1;
+	}
+
+	// direction 0: along the edge, 1: against it
+	private static long edgeToken(int label, int direction) {
+		return 4L * label + 2 + direction;
+	}
+
+	// cheap hash of the labels and edges of a graph set, to tell whether an index file belongs to it
+	private static long fingerprint(List<CompactGraph> graphSet) {
+		long hash = graphSet.size();
+		for (CompactGraph graph : graphSet) {
+			hash = hash * P + graph.nodeCount();
+			for (int v = 0 ; v < graph.nodeCount() ; v++) {
+				hash = hash * P + graph.label(v);
+				for (int i = graph.outBegin(v) ; i < graph.outEnd(v) ; i++) {
+					hash = (hash * P + graph.outNeighbor(i)) * P + graph.outLabel(i);
+				}
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * The target graphs containing a feature, ascending, and the occurrences in each
+	 */
+	private static class Postings {
+
+		final int[] graphs;
+		final int[] counts;
+		final int needed;	// occurrences in the query, when used in candidates()
+
+		Postings(int[] graphs, int[] counts) {
+			this(graphs, counts, 0);
+		}
+
+		private Postings(int[] graphs, int[] counts, int needed) {
+			this.graphs = graphs;
+			this.counts = counts;
+			this.needed = needed;
+		}
+
+		Postings withNeeded(int needed) {
+			return new Postings(graphs, counts, needed);
+		}
+
+		// copy with the graph inserted in order
+		Postings with(int graph, int count) {
+			int i = Arrays.binarySearch(graphs, graph);
+			if (i >= 0) {
+				int[] updatedCounts = counts.clone();
+				updatedCounts[i] = count;
+				return new Postings(graphs, updatedCounts);
+			}
+			i = -i - 1;
+			int[] updatedGraphs = new int[graphs.length + 1];
+			int[] updatedCounts = new int[graphs.length + 1];
+			System.arraycopy(graphs, 0, updatedGraphs, 0, i);
+			System.arraycopy(counts, 0, updatedCounts, 0, i);
+			updatedGraphs[i] = graph;
+			updatedCounts[i] = count;
+			System.arraycopy(graphs, i, updatedGraphs, i + 1, graphs.length - i);
+			System.arraycopy(counts, i, updatedCounts, i + 1, graphs.length - i);
+			return new Postings(updatedGraphs, updatedCounts);
+		}
+
+		// the entries of base with those of an overlay list put over them, null if none is left
+		static Postings merge(Postings base, Postings changes) {
+			int baseLength = base == null ? 0 : base.graphs.length;
+			int[] graphs = new int[baseLength + changes.graphs.length];
+			int[] counts = new int[graphs.length];
+			int size = 0;
+			int i = 0;
+			int j = 0;
+			while (i < baseLength || j < changes.graphs.length) {
+				if (j == changes.graphs.length || (i < baseLength && base.graphs[i] < changes.graphs[j])) {
+					graphs[size] = base.graphs[i];
+					counts[size++] = base.counts[i++];
+				} else {
+					if (i < baseLength && base.graphs[i] == changes.graphs[j]) {
+						i++;
+					}
+					if (changes.counts[j] > 0) {
+						graphs[size] = changes.graphs[j];
+						counts[size++] = changes.counts[j];
+					}
+					j++;
+				}
+			}
+			return size == 0 ? null : new Postings(Arrays.copyOf(graphs, size), Arrays.copyOf(counts, size));
+		}
+	}
+
+	private static class PostingsBuilder {
+
+		int[] graphs = new int[4];
+		int[] counts = new int[4];
+		int size = 0;
+
+		void add(int graph, int count) {
+			if (size == graphs.length) {
+				graphs = Arrays.copyOf(graphs, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+			}
+			graphs[size] = graph;
+			counts[size] = count;
+			size++;
+		}
+	}
+}
@@ -0,0 +1,341 @@
+package wip.VF2.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.index.GraphSummary;
+
+/**
+ * Binary graph database, memory-mapped for reading.
+ *
+ * Layout (big-endian):
+ *   header:	int magic "VF2B", int version, int graphCount, long tableOffset, long summaryOffset
+ *   graphs:	int nameLength, name bytes (UTF-8, padded to 4 bytes), int nodeCount, int edgeCount,
+ *   			int[n] labels, int[n + 1] outOffsets, int[m] outNeighbors, int[m] outLabels,
+ *   			int[n + 1] inOffsets, int[m] inNeighbors, int[m] inLabels
+ *   summaries:	the GraphSummary of each graph (see GraphSummary.write())
+ *   table:		long[graphCount + 1] offset of each graph record, and the end of the last one
+ * A file of another version is rejected; convert the text file again.
+ *
+ * Opening a file only maps it and reads the offset table, so it takes the same time for any database size.
+ * A graph is decoded when it is requested: its arrays are bulk-copied out of the mapping.
+ * The summaries are read in one sequential pass by readSummaries(), so indexing the file decodes no graph.
+ * That pass still reads every summary, since a GraphIndex compares each of them against every query;
+ * it costs about one small record per graph at startup.
+ *
+ * close() releases the file channel only. The mappings stay valid, so the graphs can still be decoded
+ * after the file is closed, but the summaries cannot be read any more.
+ */
+public class BinaryGraphFile implements Closeable {
+
+	public static final int MAGIC = 0x56463242; // "VF2B"
+	public static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 28;
+	private static final long MAX_SEGMENT = 1L << 30; // a mapping holds whole graph records up to 1 GiB
+
+	private final FileChannel channel;
+	private final long summaryOffset;
+	private final long[] recordOffsets;			// offset of each graph record, plus the end
+	private final MappedByteBuffer[] segments;	// the mapped graph records
+	private final long[] segmentStarts;			// file offset of each segment
+	private final int[] recordSegments;			// segment of each graph record
+
+	private BinaryGraphFile(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		if (channel.size() < HEADER_SIZE) {
+			channel.close();
+			throw new IOException(path + " is not a binary graph file");
+		}
+
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		int magic = header.getInt();
+		int version = header.getInt();
+		if (magic != MAGIC || version != VERSION) {
+			channel.close();
+			throw new IOException(path + (magic != MAGIC ? " is not a binary graph file" : " has unsupported version " + version));
+		}
+		int graphCount = header.getInt();
+		long tableOffset = header.getLong();
+		summaryOffset = header.getLong();
+
+		recordOffsets = new long[graphCount + 1];
+		channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, (graphCount + 1) * 8L).asLongBuffer().get(recordOffsets);
+
+		// cut the records into segments of at most MAX_SEGMENT bytes, at record boundaries
+		recordSegments = new int[graphCount];
+		ArrayList<Long> starts = new ArrayList<Long>();
+		ArrayList<Long> ends = new ArrayList<Long>();
+		for (int i = 0 ; i < graphCount ; i++) {
+			if (starts.isEmpty() || recordOffsets[i + 1] - starts.get(starts.size() - 1) > MAX_SEGMENT) {
+				starts.add(recordOffsets[i]);
+				ends.add(recordOffsets[i]);
+			}
+			ends.set(ends.size() - 1, recordOffsets[i + 1]);
+			recordSegments[i] = starts.size() - 1;
+		}
+		segments = new MappedByteBuffer[starts.size()];
+		segmentStarts = new long[starts.size()];
+		for (int s = 0 ; s < segments.length ; s++) {
+			segmentStarts[s] = starts.get(s);
+			segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, starts.get(s), ends.get(s) - starts.get(s));
+		}
+	}
+
+	/**
+	 * Open a binary graph file
+	 * @param path	Input path
+	 * @return		The opened file
+	 * @throws IOException
+	 */
+	public static BinaryGraphFile open(Path path) throws IOException {
+		return new BinaryGraphFile(path);
+	}
+
+	/**
+	 * Check whether a file starts with the binary graph file magic
+	 * @param path	Input path
+	 * @return		Binary graph file or not
+	 * @throws IOException
+	 */
+	public static boolean isBinaryGraphFile(Path path) throws IOException {
+		if (Files.size(path) < HEADER_SIZE) {
+			return false;
+		}
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			channel.read(magic, 0);
+			magic.flip();
+			return magic.getInt() == MAGIC;
+		} finally {
+			channel.close();
+		}
+	}
+
+	public int size() {
+		return recordSegments.length;
+	}
+
+	/**
+	 * Decode a graph from the mapping
+	 * @param i	Index of the graph in the file
+	 * @return	The graph
+	 */
+	public CompactGraph get(int i) {
+		ByteBuffer record = segments[recordSegments[i]].duplicate();
+		record.position((int) (recordOffsets[i] - segmentStarts[recordSegments[i]]));
+
+		int nameLength = record.getInt();
+		byte[] nameBytes = new byte[nameLength];
+		record.get(nameBytes);
+		record.position(record.position() + padding(nameLength));
+		String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+		int n = record.getInt();
+		int m = record.getInt();
+		IntBuffer ints = record.asIntBuffer();
+		int[] labels = read(ints, n);
+		int[] outOffsets = read(ints, n + 1);
+		int[] outNeighbors = read(ints, m);
+		int[] outLabels = read(ints, m);
+		int[] inOffsets = read(ints, n + 1);
+		int[] inNeighbors = read(ints, m);
+		int[] inLabels = read(ints, m);
+		return CompactGraph.wrap(name, labels, outOffsets, outNeighbors, outLabels, inOffsets, inNeighbors, inLabels);
+	}
+
+	/**
+	 * Read the summaries stored with the graphs, to build a GraphIndex without decoding them
+	 * @return	The summary of each graph
+	 * @throws IOException
+	 */
+	public synchronized GraphSummary[] readSummaries() throws IOException {
+		// not closed, that would close the channel
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(summaryOffset)), 1 << 16));
+		GraphSummary[] summaries = new GraphSummary[size()];
+		for (int i = 0 ; i < summaries.length ; i++) {
+			summaries[i] = GraphSummary.read(in);
+		}
+		return summaries;
+	}
+
+	/**
+	 * Get the graphs as a list that decodes a graph on every access and keeps nothing
+	 * Wrap it in a PreparedGraphCache to keep decoded graphs within a memory budget
+	 * @return	Graph Set
+	 */
+	public List<CompactGraph> asList() {
+		return new GraphList();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Write graphs to a binary graph file
+	 * @param graphs	The graphs, e.g. a GraphReader to convert a text file
+	 * @param path		Output path
+	 * @return			Number of graphs written
+	 * @throws IOException
+	 */
+	public static int write(Iterator<CompactGraph> graphs, Path path) throws IOException {
+		ArrayList<Long> offsets = new ArrayList<Long>();
+		ArrayList<GraphSummary> summaries = new ArrayList<GraphSummary>();
+		long summaryOffset;
+		long tableOffset;
+		CountingOutputStream counter = new CountingOutputStream(Files.newOutputStream(path));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(counter, 1 << 16));
+		try {
+			// header, the offsets are filled in at the end
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(0);
+			out.writeLong(0L);
+			out.writeLong(0L);
+
+			while (graphs.hasNext()) {
+				CompactGraph graph = graphs.next();
+				out.flush();
+				offsets.add(counter.count);
+
+				byte[] name = graph.name == null ? new byte[0] : graph.name.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(name.length);
+				out.write(name);
+				for (int p = 0 ; p < padding(name.length) ; p++) {
+					out.writeByte(0);
+				}
+
+				int n = graph.nodeCount();
+				int m = graph.edgeCount();
+				out.writeInt(n);
+				out.writeInt(m);
+				for (int v = 0 ; v < n ; v++)
+					out.writeInt(graph.label(v));
+				for (int v = 0 ; v < n ; v++)
+					out.writeInt(graph.outBegin(v));
+				out.writeInt(m);
+				for (int e = 0 ; e < m ; e++)
+					out.writeInt(graph.outNeighbor(e));
+				for (int e = 0 ; e < m ; e++)
+					out.writeInt(graph.outLabel(e));
+				for (int v = 0 ; v < n ; v++)
+					out.writeInt(graph.inBegin(v));
+				out.writeInt(m);
+				for (int e = 0 ; e < m ; e++)
+					out.writeInt(graph.inNeighbor(e));
+				for (int e = 0 ; e < m ; e++)
+					out.writeInt(graph.inLabel(e));
+				summaries.add(new GraphSummary(graph));
+			}
+			out.flush();
+			summaryOffset = counter.count;
+			offsets.add(summaryOffset);	// end of the last record
+			for (GraphSummary summary : summaries) {
+				summary.write(out);
+			}
+			out.flush();
+			tableOffset = counter.count;
+			for (long offset : offsets) {
+				out.writeLong(offset);
+			}
+		} finally {
+			out.close();
+		}
+
+		RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+		try {
+			file.seek(8);
+			file.writeInt(offsets.size() - 1);
+			file.writeLong(tableOffset);
+			file.writeLong(summaryOffset);
+		} finally {
+			file.close();
+		}
+		return offsets.size() - 1;
+	}
+
+	private static int padding(int length) {
+		return (4 - (length & 3)) & 3;
+	}
+
+	private static int[] read(IntBuffer ints, int length) {
+		int[] values = new int[length];
+		ints.get(values);
+		return values;
+	}
+
+	/**
+	 * List view over the file
+	 */
+	private class GraphList extends AbstractList<CompactGraph> implements RandomAccess {
+
+		@Override
+		public CompactGraph get(int i) {
+			return BinaryGraphFile.this.get(i);
+		}
+
+		@Override
+		public int size() {
+			return BinaryGraphFile.this.size();
+		}
+	}
+
+	/**
+	 * Counts the bytes written, to record the graph offsets
+	 */
+	private static class CountingOutputStream extends OutputStream {
+
+		private final OutputStream out;
+		private long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package wip.VF2.io;
+
+import java.io.IOException;
+
+/**
+ * Malformed text graph input, as opposed to a failure of the input itself (e.g. a broken connection)
+ */
+public class GraphFormatException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public GraphFormatException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,274 @@
+package wip.VF2.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Streaming reader of the text graph format (see data/graphDB/readme.txt):
+ * "t # N" starts graph N, "v M L" adds node M with label L, "e P Q L" adds an edge from P to Q with label L,
+ * and "t # -1" ends the file (or a batch, when reading queries from a pipe or socket, see nextBatch()).
+ *
+ * The file is read through a FileChannel into one reusable buffer and the records are parsed
+ * straight from the bytes, so no String is created per line. Graphs are built into CompactGraphs
+ * with one reused builder and handed out one at a time, so a database can be streamed
+ * instead of loaded as a whole.
+ * Malformed records raise a GraphFormatException, which hasNext() and next() wrap in an UncheckedIOException
+ * like any other failure of the input.
+ */
+public class GraphReader implements Iterator<CompactGraph>, Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final byte[] bytes = buffer.array();
+	private int position = 0;	// next byte to parse
+	private int limit = 0;		// end of the valid bytes in the buffer
+	private boolean eof = false;	// end of the input
+	private boolean terminated = false;	// "t # -1" has been read, the bytes after it belong to the next batch
+
+	private final String namePrefix;
+	private final CompactGraph.Builder builder = new CompactGraph.Builder(null);
+	private boolean building = false;	// a graph header has been read
+	private int nodeCount = 0;			// of the graph being built
+	private int maxEdgeNode = -1;		// largest node id an edge of the graph being built refers to
+	private CompactGraph next;			// graph parsed ahead by hasNext
+
+	/**
+	 * Open a graph file
+	 * @param path			Input path
+	 * @param namePrefix	The prefix of the names of graphs
+	 * @throws IOException
+	 */
+	public GraphReader(Path path, String namePrefix) throws IOException {
+		this(FileChannel.open(path, StandardOpenOption.READ), namePrefix);
+	}
+
+	/**
+	 * Read graphs from a channel, e.g. stdin or a socket
+	 * A graph is complete when the next "t" record or the end of the stream arrives
+	 * @param channel		Input channel, closed by close()
+	 * @param namePrefix	The prefix of the names of graphs
+	 */
+	public GraphReader(ReadableByteChannel channel, String namePrefix) {
+		this.channel = channel;
+		this.namePrefix = namePrefix;
+	}
+
+	/**
+	 * Read a whole graph file
+	 * @param path			Input path
+	 * @param namePrefix	The prefix of the names of graphs
+	 * @return				Graph Set
+	 * @throws IOException
+	 */
+	public static ArrayList<CompactGraph> readAll(Path path, String namePrefix) throws IOException {
+		ArrayList<CompactGraph> graphSet = new ArrayList<CompactGraph>();
+		GraphReader reader = new GraphReader(path, namePrefix);
+		try {
+			while (reader.hasNext()) {
+				graphSet.add(reader.next());
+			}
+		} finally {
+			reader.close();
+		}
+		return graphSet;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !terminated) {
+			try {
+				next = parseGraph();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public CompactGraph next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		CompactGraph graph = next;
+		next = null;
+		return graph;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Go on after the "t # -1" that ended a batch, on a stream that carries several batches (e.g. a socket session)
+	 * Blocks until the next batch starts or the stream ends
+	 * @return	False at the end of the stream
+	 * @throws IOException
+	 */
+	public boolean nextBatch() throws IOException {
+		terminated = false;
+		while (fill()) {
+			byte b = bytes[position];
+			if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+				return true;
+			}
+			position++;
+		}
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Parse records until a graph is complete
+	 * @return	The graph, or null at the end of the file
+	 * @throws IOException
+	 */
+	private CompactGraph parseGraph() throws IOException {
+		while (true) {
+			int record = nextRecord();
+			if (record == -1) {	// end of file, hand out the last graph if the terminator is missing
+				return finishGraph();
+			}
+			if (record == 't') {
+				skipToken();	// "#"
+				int id = nextInt();
+				skipLine();
+				CompactGraph graph = finishGraph();
+				if (id != -1) {
+					builder.reset(namePrefix + id);
+					nodeCount = 0;
+					maxEdgeNode = -1;
+					building = true;
+				} else {
+					terminated = true;	// the rest is not read unless nextBatch() is called
+				}
+				if (graph != null || terminated) {
+					return graph;
+				}
+			} else if (record == 'v') {
+				int nodeId = nextInt();
+				int nodeLabel = nextInt();
+				skipLine();
+				if (nodeId < 0) {
+					throw new GraphFormatException("malformed graph file: negative node id " + nodeId);
+				}
+				builder.addNode(nodeId, nodeLabel);
+				nodeCount = Math.max(nodeCount, nodeId + 1);
+			} else if (record == 'e') {
+				int sourceId = nextInt();
+				int targetId = nextInt();
+				int edgeLabel = nextInt();
+				skipLine();
+				if (sourceId < 0 || targetId < 0) {
+					throw new GraphFormatException("malformed graph file: negative node id in edge (" + sourceId + ", " + targetId + ")");
+				}
+				builder.addEdge(sourceId, targetId, edgeLabel);
+				maxEdgeNode = Math.max(maxEdgeNode, Math.max(sourceId, targetId));
+			} else {
+				skipLine();
+			}
+		}
+	}
+
+	private CompactGraph finishGraph() throws GraphFormatException {
+		if (!building) {
+			return null;
+		}
+		building = false;
+		if (maxEdgeNode >= nodeCount) {
+			throw new GraphFormatException("malformed graph file: edge to node " + maxEdgeNode + " of a graph of " + nodeCount + " nodes");
+		}
+		return builder.build();
+	}
+
+	// make sure there is a byte at position, return false at the end of the file
+	private boolean fill() throws IOException {
+		if (position < limit) {
+			return true;
+		}
+		if (eof) {
+			return false;
+		}
+		buffer.clear();
+		int read;
+		do {
+			read = channel.read(buffer);
+		} while (read == 0);
+		if (read < 0) {
+			eof = true;
+			return false;
+		}
+		position = 0;
+		limit = read;
+		return true;
+	}
+
+	// skip blank lines and return the first character of the next record, or -1 at the end of the file
+	private int nextRecord() throws IOException {
+		while (fill()) {
+			byte b = bytes[position++];
+			if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+				return b;
+			}
+		}
+		return -1;
+	}
+
+	private void skipSpaces() throws IOException {
+		while (fill() && (bytes[position] == ' ' || bytes[position] == '\t')) {
+			position++;
+		}
+	}
+
+	private void skipToken() throws IOException {
+		skipSpaces();
+		while (fill() && bytes[position] > ' ') {
+			position++;
+		}
+	}
+
+	private void skipLine() throws IOException {
+		while (fill()) {
+			if (bytes[position++] == '\n') {
+				return;
+			}
+		}
+	}
+
+	private int nextInt() throws IOException {
+		skipSpaces();
+		boolean negative = false;
+		if (fill() && bytes[position] == '-') {
+			negative = true;
+			position++;
+		}
+		int value = 0;
+		int digits = 0;
+		while (fill() && bytes[position] >= '0' && bytes[position] <= '9') {
+			value = value * 10 + (bytes[position++] - '0');
+			digits++;
+		}
+		if (digits == 0) {
+			throw new GraphFormatException("malformed graph file: number expected");
+		}
+		return negative ? -value : value;
+	}
+}
@@ -1,24 +1,50 @@
 package wip.VF2.runner;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
+import wip.VF2.core.BatchMatcher;
+import wip.VF2.core.MatchingMode;
+import wip.VF2.core.MetricsCollector;
+import wip.VF2.core.ParallelVF2;
+import wip.VF2.core.QueryCache;
+import wip.VF2.core.QueryResult;
+import wip.VF2.core.SearchBudget;
+import wip.VF2.core.SearchMetrics;
 import wip.VF2.core.State;
 import wip.VF2.core.VF2;
+import wip.VF2.graph.CompactGraph;
 import wip.VF2.graph.Graph;
+import wip.VF2.graph.PreparedGraphCache;
+import wip.VF2.index.GraphIndex;
+import wip.VF2.index.PathIndex;
+import wip.VF2.io.BinaryGraphFile;
+import wip.VF2.io.GraphReader;
 
 
 public class App {
 
-	public static void main(String[] args) throws FileNotFoundException {
+	public static void main(String[] args) throws IOException {
 		
 		Path graphPath = Paths.get("/Users/luo123n/Projects/VF2/data/graphDB", "mygraphdb.data");
 		Path queryPath = Paths.get("/Users/luo123n/Projects/VF2/data/graphDB", "Q20.my");
 		Path outPath = Paths.get("/Users/luo123n/Projects/VF2/data/graphDB", "res_Q20.my");
+		int parallelism = 1; // number of matching threads, 1 runs the plain sequential VF2
+		long cacheBytes = PreparedGraphCache.UNLIMITED; // memory budget of the prepared target graphs
+		MatchingMode mode = MatchingMode.INDUCED;
+		Path metricsPath = null; // search metrics output, .json for JSON, CSV otherwise (null: not collected)
+		long[] millisBudget = {0, 0}; // per pair, per query (0: no limit)
+		long[] statesBudget = {0, 0}; // per pair, per query (0: no limit)
+		long resultCacheBytes = -1; // memory budget of the query result cache (-1: no cache)
+		Path pathIndexPath = null; // path index file, built if missing (null: no path index)
+		int pathLength = PathIndex.DEFAULT_MAX_LENGTH;
+		boolean batch = false; // match the whole query set in one pass over the targets
 		
 		if (args.length == 0) {
 			printUsage();
@@ -37,6 +63,35 @@ public class App {
 			} else if (args[i].equals("-o")) {
 				outPath = Paths.get(args[i+1]);
 				i++;
+			} else if (args[i].equals("-p")) {
+				parallelism = Integer.parseInt(args[i+1]);
+				i++;
+			} else if (args[i].equals("-m")) {
+				cacheBytes = Long.parseLong(args[i+1]) << 20;
+				i++;
+			} else if (args[i].equals("-M")) {
+				metricsPath = Paths.get(args[i+1]);
+				i++;
+			} else if (args[i].equals("-d")) {
+				millisBudget = parseBudget(args[i+1]);
+				i++;
+			} else if (args[i].equals("-e")) {
+				statesBudget = parseBudget(args[i+1]);
+				i++;
+			} else if (args[i].equals("-s")) {
+				mode = MatchingMode.valueOf(args[i+1].toUpperCase());
+				i++;
+			} else if (args[i].equals("-r")) {
+				resultCacheBytes = Long.parseLong(args[i+1]) << 20;
+				i++;
+			} else if (args[i].equals("-x")) {
+				pathIndexPath = Paths.get(args[i+1]);
+				i++;
+			} else if (args[i].equals("-k")) {
+				pathLength = Integer.parseInt(args[i+1]);
+				i++;
+			} else if (args[i].equals("-b")) {
+				batch = true;
 			} else {
 				printUsage();
 				System.exit(1);
@@ -46,6 +101,28 @@ public class App {
 		System.out.println("Target Graph Path: " + graphPath.toString());
 		System.out.println("Query Graph Path: " + queryPath.toString());
 		System.out.println("Output Path: " + outPath.toString());
+		System.out.println("Parallelism: " + parallelism);
+		System.out.println("Matching Mode: " + mode);
+		if (batch) {
+			System.out.println("Batch Matching: parallelism, budget and metrics are not applied");
+		}
+		if (metricsPath != null) {
+			System.out.println("Metrics Path: " + metricsPath.toString());
+		}
+		if (cacheBytes != PreparedGraphCache.UNLIMITED) {
+			System.out.println("Prepared Graph Cache: " + (cacheBytes >> 20) + " MiB");
+		}
+		if (pathIndexPath != null) {
+			System.out.println("Path Index: " + pathIndexPath.toString() + " (paths of up to " + pathLength + " edges)");
+		}
+		if (resultCacheBytes >= 0) {
+			System.out.println("Query Result Cache: " + (resultCacheBytes >> 20) + " MiB");
+		}
+		SearchBudget budget = new SearchBudget(statesBudget[0], millisBudget[0], statesBudget[1], millisBudget[1]);
+		if (!budget.isUnlimited()) {
+			System.out.println("Budget: " + millisBudget[0] + " ms, " + statesBudget[0] + " states per pair; "
+					+ millisBudget[1] + " ms, " + statesBudget[1] + " states per query (0: no limit)");
+		}
 		System.out.println();
 		
 		
@@ -53,46 +130,202 @@ public class App {
 	
 		PrintWriter writer = new PrintWriter(outPath.toFile());
 
-		ArrayList<Graph> graphSet = loadGraphSetFromFile(graphPath, "Graph ");
-		ArrayList<Graph> querySet = loadGraphSetFromFile(queryPath, "Query ");
+		TargetSet targets = loadTargetSet(graphPath, cacheBytes);
+		PreparedGraphCache targetSet = targets.cache;
+		GraphIndex targetIndex = targets.index;
+		List<CompactGraph> querySet = loadCompactGraphSet(queryPath, "Query ");
 
-		VF2 vf2= new VF2();
+		if (pathIndexPath != null) {
+			targetIndex.setPathIndex(PathIndex.loadOrBuild(pathIndexPath, targetSet, pathLength));
+		}
+
+		VF2 vf2= new VF2(mode);
+		ParallelVF2 parallelVF2 = parallelism > 1 ? new ParallelVF2(parallelism, mode) : null;
+		MetricsCollector metrics = metricsPath != null ? new MetricsCollector() : null;
+		QueryCache resultCache = resultCacheBytes >= 0 ? new QueryCache(resultCacheBytes) : null;
+		vf2.setMetricsCollector(metrics);
+		vf2.setBudget(budget);
+		vf2.setQueryCache(resultCache);
+		if (parallelVF2 != null) {
+			parallelVF2.setMetricsCollector(metrics);
+			parallelVF2.setBudget(budget);
+			parallelVF2.setQueryCache(resultCache);
+		}
 		
 		System.out.println("Loading Done!");
 		printTimeFlapse(startMilli);
 		startMilli = System.currentTimeMillis();
 		System.out.println();
 		
-		int queryCnt = 0;
-		for (Graph queryGraph : querySet){
-			queryCnt++;
-			ArrayList<State> stateSet = vf2.matchGraphSetWithQuery(graphSet, queryGraph);
-			if (stateSet.isEmpty()){
-				System.out.println("Cannot find a map for: " + queryGraph.name);
-				printTimeFlapse(startMilli);
-				printAverageMatchingTime(startMilli, queryCnt);
-				System.out.println();
-				
-				writer.write("Cannot find a map for: " + queryGraph.name + "\n\n");
-				writer.flush();
-			} else {
-				System.out.println("Found " + stateSet.size() + " maps for: " + queryGraph.name);
+		if (batch) {
+			BatchMatcher batchMatcher = new BatchMatcher(querySet, targetIndex, mode);
+			ArrayList<ArrayList<State>> results = batchMatcher.match();
+			for (int i = 0 ; i < querySet.size() ; i++){
+				CompactGraph queryGraph = querySet.get(i);
+				if (results.get(i).isEmpty()){
+					System.out.println("Cannot find a map for: " + queryGraph.name);
+				} else {
+					System.out.println("Found " + results.get(i).size() + " maps for: " + queryGraph.name);
+				}
+				writeResult(writer, queryGraph, results.get(i));
+			}
+			printAverageMatchingTime(startMilli, Math.max(querySet.size(), 1));
+			batchMatcher.printStatistics();
+		} else {
+			int queryCnt = 0;
+			for (CompactGraph queryGraph : querySet){
+				queryCnt++;
+				QueryResult result = parallelVF2 != null
+						? parallelVF2.matchQuery(targetIndex, queryGraph)
+						: vf2.matchQuery(targetIndex, queryGraph);
+				if (result.matches.isEmpty()){
+					System.out.println("Cannot find a map for: " + queryGraph.name);
+				} else {
+					System.out.println("Found " + result.matches.size() + " maps for: " + queryGraph.name);
+				}
+				if (!result.timedOut.isEmpty()){
+					System.out.println("Timed out in " + result.timedOut.size() + " target graphs"
+							+ (result.queryBudgetExhausted ? " (query budget used up)" : ""));
+				}
 				printTimeFlapse(startMilli);
 				printAverageMatchingTime(startMilli, queryCnt);
 				System.out.println();
-				
-				writer.write("Maps for: " + queryGraph.name + "\n");
-				for (State state : stateSet){
-					writer.write("In: " + state.targetGraph.name + "\n");
-					// state.printMapping();
-					state.writeMapping(writer);
-				}		
-				writer.write("\n");
-				writer.flush();
+				writeResult(writer, queryGraph, result);
 			}
 		}
 		
 		printTimeFlapse(startMilli);
+		targetIndex.printStatistics();
+		targetSet.printStatistics();
+		if (resultCache != null) {
+			resultCache.printStatistics();
+		}
+		
+		if (metrics != null) {
+			writeMetrics(metrics, metricsPath);
+		}
+		
+		if (parallelVF2 != null){
+			parallelVF2.shutdown();
+		}
+	}
+	
+	/**
+	 * Write the matches of a query to the output
+	 * @param writer		Output writer
+	 * @param queryGraph	Query graph
+	 * @param stateSet		The states containing the mappings
+	 */
+	public static void writeResult(PrintWriter writer, CompactGraph queryGraph, List<State> stateSet){
+		if (stateSet.isEmpty()){
+			writer.write("Cannot find a map for: " + queryGraph.name + "\n\n");
+		} else {
+			writer.write("Maps for: " + queryGraph.name + "\n");
+			for (State state : stateSet){
+				writer.write("In: " + state.targetGraph.name + "\n");
+				// state.printMapping();
+				state.writeMapping(writer);
+			}
+			writer.write("\n");
+		}
+		writer.flush();
+	}
+	
+	/**
+	 * Write the matches of a query to the output, followed by the target graphs that timed out
+	 * Without time outs the output is the same as for the states alone
+	 * @param writer		Output writer
+	 * @param queryGraph	Query graph
+	 * @param result		The matches and the timed out target graphs
+	 */
+	public static void writeResult(PrintWriter writer, CompactGraph queryGraph, QueryResult result){
+		if (result.timedOut.isEmpty()){
+			writeResult(writer, queryGraph, result.matches);
+			return;
+		}
+		if (result.matches.isEmpty()){
+			writer.write("Cannot find a map for: " + queryGraph.name + "\n");
+		} else {
+			writer.write("Maps for: " + queryGraph.name + "\n");
+			for (State state : result.matches){
+				writer.write("In: " + state.targetGraph.name + "\n");
+				state.writeMapping(writer);
+			}
+		}
+		for (CompactGraph targetGraph : result.timedOut){
+			writer.write("Timed out in: " + targetGraph.name + "\n");
+		}
+		writer.write("\n");
+		writer.flush();
+	}
+	
+	// "per_pair[,per_query]", 0 for no limit
+	static long[] parseBudget(String value){
+		String[] parts = value.split(",");
+		return new long[] {Long.parseLong(parts[0]), parts.length > 1 ? Long.parseLong(parts[1]) : 0};
+	}
+	
+	/**
+	 * Write the search metrics to a file
+	 * @param metrics		The collected metrics
+	 * @param metricsPath	Output path, JSON if it ends with .json, CSV otherwise
+	 * @throws FileNotFoundException
+	 */
+	private static void writeMetrics(MetricsCollector metrics, Path metricsPath) throws FileNotFoundException{
+		SearchMetrics total = metrics.getTotal();
+		System.out.println("Searched " + total.pairs + " pairs: " + total.states + " states, "
+				+ total.candidates + " candidates, " + (total.prunedBySize + total.prunedByDomain) + " pairs pruned before the search");
+		PrintWriter metricsWriter = new PrintWriter(metricsPath.toFile());
+		if (metricsPath.toString().endsWith(".json")) {
+			metrics.writeJson(metricsWriter);
+		} else {
+			metrics.writeCsv(metricsWriter);
+		}
+		metricsWriter.close();
+	}
+	
+	/**
+	 * Load the target graph set behind a PreparedGraphCache and index it
+	 * The graphs of a text file stay in memory, so only their prepared data is charged to the budget;
+	 * the graphs of a binary file are decoded on demand and charged in full, and the index is built from
+	 * the summaries stored in the file, so the graphs are not all decoded at startup
+	 * @param inpath		Input path, a text or binary graph file
+	 * @param budgetBytes	Memory budget of the cache in bytes, or PreparedGraphCache.UNLIMITED
+	 * @return				The cached and indexed target graph set
+	 * @throws IOException
+	 */
+	static TargetSet loadTargetSet(Path inpath, long budgetBytes) throws IOException{
+		if (BinaryGraphFile.isBinaryGraphFile(inpath)){
+			BinaryGraphFile file = BinaryGraphFile.open(inpath);
+			try {
+				PreparedGraphCache cache = new PreparedGraphCache(file.asList(), budgetBytes, false);
+				return new TargetSet(cache, new GraphIndex(cache, file.readSummaries()));
+			} finally {
+				file.close(); // the mapping outlives the channel
+			}
+		}
+		PreparedGraphCache cache = new PreparedGraphCache(GraphReader.readAll(inpath, "Graph "), budgetBytes, true);
+		return new TargetSet(cache, new GraphIndex(cache));
+	}
+	
+	/**
+	 * Load graph set from a text graph file, or map it from a binary graph file (see Convert)
+	 * Graphs of a binary file keep the names given at conversion
+	 * @param inpath	Input path
+	 * @param namePrefix	The prefix of the names of graphs
+	 * @return	Graph Set
+	 * @throws IOException
+	 */
+	public static List<CompactGraph> loadCompactGraphSet(Path inpath, String namePrefix) throws IOException{
+		if (BinaryGraphFile.isBinaryGraphFile(inpath)){
+			BinaryGraphFile file = BinaryGraphFile.open(inpath);
+			try {
+				return file.asList();
+			} finally {
+				file.close(); // the mapping outlives the channel
+			}
+		}
+		return GraphReader.readAll(inpath, namePrefix);
 	}
 	
 	/**
@@ -102,7 +335,7 @@ public class App {
 	 * @return	Graph Set
 	 * @throws FileNotFoundException
 	 */
-	private static ArrayList<Graph> loadGraphSetFromFile(Path inpath, String namePrefix) throws FileNotFoundException{
+	public static ArrayList<Graph> loadGraphSetFromFile(Path inpath, String namePrefix) throws FileNotFoundException{
 		ArrayList<Graph> graphSet = new ArrayList<Graph>();
 		Scanner scanner = new Scanner(inpath.toFile());
 		Graph graph = null;
@@ -144,6 +377,21 @@ public class App {
 	}
 	
 	private static void printUsage(){
-		System.out.println("Usage: -t target_graph_path -q query_graph_path -o output_path");
+		System.out.println("Usage: -t target_graph_path -q query_graph_path -o output_path [-p parallelism] [-m cache_MiB] [-s isomorphism|induced|monomorphism] [-M metrics_path]");
+		System.out.println("       [-d pair_millis[,query_millis]] [-e pair_states[,query_states]] [-r result_cache_MiB] [-x path_index_path [-k path_length]] [-b]");
+	}
+	
+	/**
+	 * A target graph set and its index, loaded together so a binary file is opened once
+	 */
+	static final class TargetSet {
+		
+		final PreparedGraphCache cache;
+		final GraphIndex index;
+		
+		TargetSet(PreparedGraphCache cache, GraphIndex index) {
+			this.cache = cache;
+			this.index = index;
+		}
 	}
-}
\ No newline at end of file
+}
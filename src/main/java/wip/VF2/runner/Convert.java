@@ -0,0 +1,55 @@
+package wip.VF2.runner;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import wip.VF2.io.BinaryGraphFile;
+import wip.VF2.io.GraphReader;
+
+/**
+ * Converts a text graph file into the memory-mapped binary format, which App loads without parsing
+ */
+public class Convert {
+
+	public static void main(String[] args) throws IOException {
+		
+		Path inPath = null;
+		Path outPath = null;
+		String namePrefix = "Graph ";
+		
+		for (int i = 0; i < args.length; i++){
+			if (args[i].equals("-i") && i + 1 < args.length) {
+				inPath = Paths.get(args[i+1]);
+				i++;
+			} else if (args[i].equals("-o") && i + 1 < args.length) {
+				outPath = Paths.get(args[i+1]);
+				i++;
+			} else if (args[i].equals("-n") && i + 1 < args.length) {
+				namePrefix = args[i+1];
+				i++;
+			} else {
+				printUsage();
+				System.exit(1);
+			}
+		}
+		if (inPath == null || outPath == null) {
+			printUsage();
+			System.exit(1);
+		}
+		
+		long startMilli = System.currentTimeMillis();
+		GraphReader reader = new GraphReader(inPath, namePrefix);
+		int graphCount;
+		try {
+			graphCount = BinaryGraphFile.write(reader, outPath);
+		} finally {
+			reader.close();
+		}
+		System.out.println("Converted " + graphCount + " graphs in " + (System.currentTimeMillis() - startMilli) + " milliseconds");
+	}
+	
+	private static void printUsage(){
+		System.out.println("Usage: -i text_graph_path -o binary_graph_path [-n graph_name_prefix]");
+	}
+}
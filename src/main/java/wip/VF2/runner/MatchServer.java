@@ -0,0 +1,352 @@
+package wip.VF2.runner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import wip.VF2.core.MatchingMode;
+import wip.VF2.core.QueryCache;
+import wip.VF2.core.QueryResult;
+import wip.VF2.core.SearchBudget;
+import wip.VF2.core.VF2;
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.graph.PreparedGraphCache;
+import wip.VF2.index.GraphIndex;
+import wip.VF2.index.GraphStore;
+import wip.VF2.index.PathIndex;
+import wip.VF2.io.GraphFormatException;
+import wip.VF2.io.GraphReader;
+
+/**
+ * Long-running matcher: loads and indexes the target graph set once, then answers query graphs
+ * sent on stdin or on a local socket in the text graph format.
+ *
+ * Each session streams the result of every query back in App's output format, in query order.
+ * The text format completes a query when the next "t" record arrives, so a client ends each batch
+ * with "t # -1" and can send the next batch on the same session; closing its output ends the session.
+ * Queries of all sessions are matched on one bounded pool of worker threads; when it is saturated,
+ * the sessions wait.
+ */
+public class MatchServer {
+
+	private final GraphIndex targetIndex; // fixed target graph set, null if the targets are in a store
+	private final GraphStore store; // target graph set that changes while serving, null if fixed
+	private final VF2 vf2;
+	private final ExecutorService workers;
+	private final Semaphore slots; // queries submitted and not yet matched, of all sessions
+	private final int window; // queries of a session in flight at a time
+
+	/**
+	 * @param targetSet		Target graph set, e.g. a PreparedGraphCache
+	 * @param workerCount	Number of threads matching queries
+	 * @param mode			The matching semantics
+	 * @param budget		Limits on the work of each query, so one query cannot hold up its session
+	 * @param resultCache	Answers repeated queries of all sessions, null to search every query
+	 * @param pathIndex		Path index over the target graph set, null for none
+	 */
+	public MatchServer(List<CompactGraph> targetSet, int workerCount, MatchingMode mode, SearchBudget budget, QueryCache resultCache,
+			PathIndex pathIndex) {
+		this(new GraphIndex(targetSet), null, workerCount, mode, budget, resultCache);
+		this.targetIndex.setPathIndex(pathIndex);
+	}
+
+	/**
+	 * @param targetIndex	Index over the target graph set, with its path index if any
+	 * @param workerCount	Number of threads matching queries
+	 * @param mode			The matching semantics
+	 * @param budget		Limits on the work of each query, so one query cannot hold up its session
+	 * @param resultCache	Answers repeated queries of all sessions, null to search every query
+	 */
+	public MatchServer(GraphIndex targetIndex, int workerCount, MatchingMode mode, SearchBudget budget, QueryCache resultCache) {
+		this(targetIndex, null, workerCount, mode, budget, resultCache);
+	}
+
+	/**
+	 * Serve queries against a target graph set that is updated meanwhile
+	 * Each query is matched against the snapshot of the store that is current when its matching starts
+	 * @param store			Target graph store, updated by the caller
+	 * @param workerCount	Number of threads matching queries
+	 * @param mode			The matching semantics
+	 * @param budget		Limits on the work of each query, so one query cannot hold up its session
+	 * @param resultCache	Answers repeated queries of all sessions against the same snapshot, null to search every query
+	 */
+	public MatchServer(GraphStore store, int workerCount, MatchingMode mode, SearchBudget budget, QueryCache resultCache) {
+		this(null, store, workerCount, mode, budget, resultCache);
+	}
+
+	private MatchServer(GraphIndex targetIndex, GraphStore store, int workerCount, MatchingMode mode, SearchBudget budget,
+			QueryCache resultCache) {
+		this.targetIndex = targetIndex;
+		this.store = store;
+		this.vf2 = new VF2(mode);
+		this.vf2.setBudget(budget);
+		this.vf2.setQueryCache(resultCache);
+		this.workers = Executors.newFixedThreadPool(workerCount);	// its queue is bounded by the slots
+		this.slots = new Semaphore(workerCount * 5);
+		this.window = workerCount * 2;
+	}
+
+	/**
+	 * Serve one session: answer batches of queries, each ended by "t # -1", until the end of the input
+	 * The results of each batch are written in query order. The channels are left open.
+	 * Malformed input is reported to the client as an error line and ends the session
+	 * @param in	Query input
+	 * @param out	Result output
+	 * @throws IOException	if reading the queries or writing the results failed
+	 * @throws RejectedExecutionException	if the server was shut down
+	 */
+	public void serve(ReadableByteChannel in, OutputStream out) throws IOException {
+		GraphReader reader = new GraphReader(in, "Query ");
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		try {
+			while (serveBatch(reader, writer) && reader.nextBatch()) {
+				// the client keeps the session for its next batch
+			}
+		} finally {
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Answer the queries up to "t # -1" or the end of the input
+	 * A failure to read the queries or to write the results ends the session, and the results still pending are dropped
+	 * @return	False if the input was malformed, the session cannot go on then
+	 * @throws IOException	if the input or the output failed
+	 */
+	private boolean serveBatch(GraphReader reader, PrintWriter writer) throws IOException {
+		ArrayDeque<Future<String>> pending = new ArrayDeque<Future<String>>();
+		String error = null;
+		try {
+			while (reader.hasNext()) {
+				pending.add(submit(reader.next()));
+				while (pending.size() >= window || (!pending.isEmpty() && pending.peek().isDone())) {
+					writeNext(writer, pending);
+				}
+			}
+		} catch (UncheckedIOException e) {
+			if (!(e.getCause() instanceof GraphFormatException)) {
+				throw e.getCause();
+			}
+			error = e.getCause().getMessage();
+		}
+		while (!pending.isEmpty()) {
+			writeNext(writer, pending);
+		}
+		if (error != null) {	// malformed input, reported to the client after the results of the queries before it
+			writer.write("Error: " + error + "\n");
+			flush(writer);
+		}
+		return error == null;
+	}
+
+	/**
+	 * Hand a query to the workers, waiting while as many queries as they can queue are not matched yet
+	 * The session thread only waits and never matches itself, so at most workerCount queries run at a time
+	 * @param queryGraph	The query
+	 * @return				Its formatted result
+	 */
+	private Future<String> submit(CompactGraph queryGraph) {
+		slots.acquireUninterruptibly();
+		try {
+			return workers.submit(new QueryTask(queryGraph));
+		} catch (RejectedExecutionException e) {	// shut down
+			slots.release();
+			throw e;
+		}
+	}
+
+	private void writeNext(PrintWriter writer, ArrayDeque<Future<String>> pending) throws IOException {
+		try {
+			writer.write(pending.poll().get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			writer.write("Error: interrupted\n");
+		} catch (ExecutionException e) {
+			writer.write("Error: " + e.getCause() + "\n");
+		}
+		flush(writer);
+	}
+
+	// a PrintWriter only records that a write failed
+	private static void flush(PrintWriter writer) throws IOException {
+		writer.flush();
+		if (writer.checkError()) {
+			throw new IOException("result output failed");
+		}
+	}
+
+	/**
+	 * Accept sessions on a local port until the process is stopped
+	 * @param port			Port on the loopback interface
+	 * @param maxSessions	Number of sessions served at the same time
+	 * @throws IOException
+	 */
+	public void listen(int port, int maxSessions) throws IOException {
+		ExecutorService sessions = Executors.newFixedThreadPool(maxSessions);
+		ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		System.err.println("Listening on " + serverSocket.getLocalSocketAddress());
+		try {
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				sessions.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							serve(Channels.newChannel(socket.getInputStream()), socket.getOutputStream());
+						} catch (IOException e) {
+							System.err.println("Session failed: " + e.getMessage());
+						} catch (RejectedExecutionException e) {
+							System.err.println("Session ended: the server is shutting down");
+						} finally {
+							try {
+								socket.close();
+							} catch (IOException e) {
+								// already closed
+							}
+						}
+					}
+				});
+			}
+		} finally {
+			serverSocket.close();
+			sessions.shutdown();
+		}
+	}
+
+	/**
+	 * Stop the worker threads
+	 */
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+	/**
+	 * Matches one query against the target set and formats the result
+	 */
+	private class QueryTask implements Callable<String> {
+
+		private final CompactGraph queryGraph;
+
+		QueryTask(CompactGraph queryGraph) {
+			this.queryGraph = queryGraph;
+		}
+
+		@Override
+		public String call() {
+			try {
+				GraphIndex index = store != null ? store.snapshot().getIndex() : targetIndex;
+				QueryResult result = vf2.matchQuery(index, queryGraph);
+				StringWriter output = new StringWriter();
+				App.writeResult(new PrintWriter(output), queryGraph, result);
+				return output.toString();
+			} finally {
+				slots.release();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		Path graphPath = null;
+		int port = -1; // -1: serve stdin / stdout
+		int workerCount = Runtime.getRuntime().availableProcessors();
+		int maxSessions = 16;
+		long cacheBytes = PreparedGraphCache.UNLIMITED;
+		MatchingMode mode = MatchingMode.INDUCED;
+		long[] millisBudget = {0, 0}; // per pair, per query (0: no limit)
+		long[] statesBudget = {0, 0};
+		long resultCacheBytes = -1; // -1: no result cache
+		Path pathIndexPath = null; // null: no path index
+		int pathLength = PathIndex.DEFAULT_MAX_LENGTH;
+
+		for (int i = 0; i < args.length; i++){
+			if (args[i].equals("-t") && i + 1 < args.length) {
+				graphPath = Paths.get(args[i+1]);
+				i++;
+			} else if (args[i].equals("-l") && i + 1 < args.length) {
+				port = Integer.parseInt(args[i+1]);
+				i++;
+			} else if (args[i].equals("-w") && i + 1 < args.length) {
+				workerCount = Integer.parseInt(args[i+1]);
+				i++;
+			} else if (args[i].equals("-c") && i + 1 < args.length) {
+				maxSessions = Integer.parseInt(args[i+1]);
+				i++;
+			} else if (args[i].equals("-m") && i + 1 < args.length) {
+				cacheBytes = Long.parseLong(args[i+1]) << 20;
+				i++;
+			} else if (args[i].equals("-d") && i + 1 < args.length) {
+				millisBudget = App.parseBudget(args[i+1]);
+				i++;
+			} else if (args[i].equals("-e") && i + 1 < args.length) {
+				statesBudget = App.parseBudget(args[i+1]);
+				i++;
+			} else if (args[i].equals("-r") && i + 1 < args.length) {
+				resultCacheBytes = Long.parseLong(args[i+1]) << 20;
+				i++;
+			} else if (args[i].equals("-x") && i + 1 < args.length) {
+				pathIndexPath = Paths.get(args[i+1]);
+				i++;
+			} else if (args[i].equals("-k") && i + 1 < args.length) {
+				pathLength = Integer.parseInt(args[i+1]);
+				i++;
+			} else if (args[i].equals("-s") && i + 1 < args.length) {
+				mode = MatchingMode.valueOf(args[i+1].toUpperCase());
+				i++;
+			} else {
+				printUsage();
+				System.exit(1);
+			}
+		}
+		if (graphPath == null) {
+			printUsage();
+			System.exit(1);
+		}
+
+		// stdout may carry the results, so progress goes to stderr
+		long startMilli = System.currentTimeMillis();
+		App.TargetSet targets = App.loadTargetSet(graphPath, cacheBytes);
+		GraphIndex targetIndex = targets.index;
+		if (pathIndexPath != null) {
+			targetIndex.setPathIndex(PathIndex.loadOrBuild(pathIndexPath, targets.cache, pathLength));
+		}
+		MatchServer server = new MatchServer(targetIndex, workerCount, mode,
+				new SearchBudget(statesBudget[0], millisBudget[0], statesBudget[1], millisBudget[1]),
+				resultCacheBytes >= 0 ? new QueryCache(resultCacheBytes) : null);
+		System.err.println("Loaded and indexed " + graphPath + " in " + (System.currentTimeMillis() - startMilli) + " milliseconds");
+
+		if (port < 0) {
+			server.serve(Channels.newChannel(System.in), System.out);
+			server.shutdown();
+		} else {
+			server.listen(port, maxSessions);
+		}
+	}
+
+	private static void printUsage(){
+		System.err.println("Usage: -t target_graph_path [-l port] [-w worker_threads] [-c max_sessions] [-m cache_MiB] [-s isomorphism|induced|monomorphism]");
+		System.err.println("       [-d pair_millis[,query_millis]] [-e pair_states[,query_states]] [-r result_cache_MiB]");
+		System.err.println("       [-x path_index_path [-k path_length]]");
+		System.err.println("Without -l, queries are read from stdin and results written to stdout");
+	}
+}
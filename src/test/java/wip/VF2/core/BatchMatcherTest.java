@@ -0,0 +1,77 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.index.GraphIndex;
+
+/**
+ * Compares BatchMatcher in every MatchingMode with BruteForce on query sets that share prefixes
+ */
+public class BatchMatcherTest {
+
+	@Test
+	public void matchFindsEveryMatchingTarget() {
+		Random random = new Random(21);
+		for (MatchingMode mode : MatchingMode.values()) {
+			for (int b = 0 ; b < 10 ; b++) {
+				ArrayList<CompactGraph> targetSet = new ArrayList<CompactGraph>();
+				for (int t = 0 ; t < 30 ; t++) {
+					targetSet.add(BruteForce.randomGraph(random, "t" + t, 1 + random.nextInt(7),
+							0.1 + 0.4 * random.nextDouble(), 2, 2).prepare());
+				}
+				ArrayList<CompactGraph> querySet = randomQuerySet(random, mode, targetSet);
+				GraphIndex index = new GraphIndex(targetSet);
+
+				ArrayList<ArrayList<State>> results = new BatchMatcher(querySet, index, mode).match();
+				assertEquals(querySet.size(), results.size());
+				for (int q = 0 ; q < querySet.size() ; q++) {
+					TreeSet<String> expected = new TreeSet<String>();
+					for (CompactGraph targetGraph : targetSet) {
+						if (!BruteForce.mappings(targetGraph, querySet.get(q), mode).isEmpty()) {
+							expected.add(targetGraph.name);
+						}
+					}
+					assertEquals(mode + " batch " + b + " query " + q, expected, VF2Test.matchedTargets(results.get(q), mode));
+				}
+			}
+		}
+	}
+
+	// the subgraphs induced by the first k nodes of a few base graphs, so the queries share trie prefixes, plus repeats
+	private static ArrayList<CompactGraph> randomQuerySet(Random random, MatchingMode mode, ArrayList<CompactGraph> targetSet) {
+		ArrayList<CompactGraph> querySet = new ArrayList<CompactGraph>();
+		for (int g = 0 ; g < 3 ; g++) {
+			CompactGraph base = mode == MatchingMode.ISOMORPHISM
+					? BruteForce.permuted(random, "q", targetSet.get(random.nextInt(targetSet.size())))
+					: BruteForce.randomGraph(random, "q", 4, 0.2 + 0.4 * random.nextDouble(), 2, 2);
+			for (int k = 1 ; k <= base.nodeCount() ; k++) {
+				querySet.add(prefix(base, k).prepare());
+			}
+		}
+		querySet.add(querySet.get(random.nextInt(querySet.size())));
+		return querySet;
+	}
+
+	// subgraph induced by the nodes 0 to k - 1
+	private static CompactGraph prefix(CompactGraph graph, int k) {
+		CompactGraph.Builder builder = new CompactGraph.Builder(graph.name + k);
+		for (int i = 0 ; i < k ; i++) {
+			builder.addNode(i, graph.label(i));
+		}
+		for (int i = 0 ; i < k ; i++) {
+			for (int e = graph.outBegin(i) ; e < graph.outEnd(i) ; e++) {
+				if (graph.outNeighbor(e) < k) {
+					builder.addEdge(i, graph.outNeighbor(e), graph.outLabel(e));
+				}
+			}
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,164 @@
+package wip.VF2.core;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Small random graphs, and the mappings between them found by trying every injective node mapping
+ */
+public final class BruteForce {
+
+	private BruteForce() {
+	}
+
+	/**
+	 * Generate a graph without self-loops
+	 * @param random		Source of randomness
+	 * @param name			Name of the graph
+	 * @param nodeCount		Number of nodes
+	 * @param density		Probability of each ordered node pair to be an edge
+	 * @param nodeLabels	Number of node labels
+	 * @param edgeLabels	Number of edge labels
+	 * @return				The graph
+	 */
+	public static CompactGraph randomGraph(Random random, String name, int nodeCount, double density, int nodeLabels, int edgeLabels) {
+		CompactGraph.Builder builder = new CompactGraph.Builder(name);
+		for (int i = 0 ; i < nodeCount ; i++) {
+			builder.addNode(i, random.nextInt(nodeLabels));
+		}
+		for (int i = 0 ; i < nodeCount ; i++) {
+			for (int j = 0 ; j < nodeCount ; j++) {
+				if (i != j && random.nextDouble() < density) {
+					builder.addEdge(i, j, random.nextInt(edgeLabels));
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Renumber the nodes of a graph at random
+	 * @param random	Source of randomness
+	 * @param name		Name of the new graph
+	 * @param graph		The graph
+	 * @return			An isomorphic graph
+	 */
+	public static CompactGraph permuted(Random random, String name, CompactGraph graph) {
+		int n = graph.nodeCount();
+		int[] permutation = new int[n];
+		for (int i = 0 ; i < n ; i++) {
+			permutation[i] = i;
+		}
+		for (int i = n - 1 ; i > 0 ; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = permutation[i];
+			permutation[i] = permutation[j];
+			permutation[j] = swap;
+		}
+		int[] labels = new int[n];
+		for (int i = 0 ; i < n ; i++) {
+			labels[permutation[i]] = graph.label(i);
+		}
+		CompactGraph.Builder builder = new CompactGraph.Builder(name);
+		for (int i = 0 ; i < n ; i++) {
+			builder.addNode(i, labels[i]);
+		}
+		for (int i = 0 ; i < n ; i++) {
+			for (int e = graph.outBegin(i) ; e < graph.outEnd(i) ; e++) {
+				builder.addEdge(permutation[i], permutation[graph.outNeighbor(e)], graph.outLabel(e));
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Describe the labels and edges of a graph, equal for two graphs exactly if they have the same node numbering
+	 * @param graph	The graph
+	 * @return		Node labels, then the out-edges of each node with their labels
+	 */
+	public static String describe(CompactGraph graph) {
+		StringBuilder description = new StringBuilder();
+		for (int v = 0 ; v < graph.nodeCount() ; v++) {
+			description.append(graph.label(v)).append(' ');
+		}
+		for (int v = 0 ; v < graph.nodeCount() ; v++) {
+			description.append('|');
+			for (int e = graph.outBegin(v) ; e < graph.outEnd(v) ; e++) {
+				description.append(' ').append(graph.outNeighbor(e)).append(':').append(graph.outLabel(e));
+			}
+		}
+		return description.toString();
+	}
+
+	/**
+	 * Check a mapping against the definition of a matching mode
+	 * @param targetGraph	Big Graph
+	 * @param queryGraph	Small Graph
+	 * @param mode			The matching semantics
+	 * @param mapping		Target graph node of each query graph node
+	 * @return				True if the mapping is an embedding
+	 */
+	public static boolean isEmbedding(CompactGraph targetGraph, CompactGraph queryGraph, MatchingMode mode, int[] mapping) {
+		int n = queryGraph.nodeCount();
+		if (mode == MatchingMode.ISOMORPHISM
+				&& (targetGraph.nodeCount() != n || targetGraph.edgeCount() != queryGraph.edgeCount())) {
+			return false;
+		}
+		boolean[] used = new boolean[targetGraph.nodeCount()];
+		for (int u = 0 ; u < n ; u++) {
+			if (mapping[u] < 0 || mapping[u] >= targetGraph.nodeCount() || used[mapping[u]]
+					|| targetGraph.label(mapping[u]) != queryGraph.label(u)) {
+				return false;
+			}
+			used[mapping[u]] = true;
+		}
+		for (int u = 0 ; u < n ; u++) {
+			for (int w = 0 ; w < n ; w++) {
+				if (u == w) {
+					continue;
+				}
+				int queryLabel = queryGraph.edgeLabel(u, w);
+				int targetLabel = targetGraph.edgeLabel(mapping[u], mapping[w]);
+				if (queryLabel >= 0 ? targetLabel != queryLabel : mode != MatchingMode.MONOMORPHISM && targetLabel >= 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find every embedding by trying all injective mappings
+	 * @param targetGraph	Big Graph
+	 * @param queryGraph	Small Graph
+	 * @param mode			The matching semantics
+	 * @return				The embeddings, each as Arrays.toString() of its mapping
+	 */
+	public static TreeSet<String> mappings(CompactGraph targetGraph, CompactGraph queryGraph, MatchingMode mode) {
+		TreeSet<String> mappings = new TreeSet<String>();
+		int[] mapping = new int[queryGraph.nodeCount()];
+		enumerate(targetGraph, queryGraph, mode, mapping, new boolean[targetGraph.nodeCount()], 0, mappings);
+		return mappings;
+	}
+
+	private static void enumerate(CompactGraph targetGraph, CompactGraph queryGraph, MatchingMode mode,
+			int[] mapping, boolean[] used, int depth, TreeSet<String> mappings) {
+		if (depth == mapping.length) {
+			if (isEmbedding(targetGraph, queryGraph, mode, mapping)) {
+				mappings.add(Arrays.toString(mapping));
+			}
+			return;
+		}
+		for (int v = 0 ; v < used.length ; v++) {
+			if (!used[v]) {
+				used[v] = true;
+				mapping[depth] = v;
+				enumerate(targetGraph, queryGraph, mode, mapping, used, depth + 1, mappings);
+				used[v] = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Pulls the candidates of random search states from a CandidateCursor, extending and backtracking each one
+ * in between as the search does, and compares them with the pairs the terminal sets give
+ */
+public class CandidateCursorTest {
+
+	@Test
+	public void cursorPullsTheCandidatePairs() {
+		Random random = new Random(4);
+		for (int p = 0 ; p < 400 ; p++) {
+			CompactGraph targetGraph = BruteForce.randomGraph(random, "t", 1 + random.nextInt(10), random.nextDouble() * 0.5, 2, 2);
+			CompactGraph queryGraph = BruteForce.randomGraph(random, "q", 1 + random.nextInt(targetGraph.nodeCount()),
+					random.nextDouble() * 0.6, 2, 2);
+			State state = new State(targetGraph, queryGraph);
+			if (p % 3 == 1) {
+				state.order = new MatchingOrder(queryGraph, null);
+			} else if (p % 3 == 2) {
+				randomDomains(random, state);
+			}
+
+			// a partial mapping in the matching order if there is one, so the next query node is free
+			int depth = random.nextInt(queryGraph.nodeCount());
+			for (int d = 0 ; d < depth ; d++) {
+				int query = state.order != null ? state.order.nodeAt(d) : state.unmapped2.last();
+				state.extendMatch(pick(random, state.unmapped1), query);
+			}
+
+			int expectedQuery = expectedQueryNode(state);
+			ArrayList<Integer> expected = new ArrayList<Integer>();
+			IntBitSet targetSet = expectedTargetSet(state);
+			for (int t = targetSet.nextSetBit(0) ; t >= 0 ; t = targetSet.nextSetBit(t + 1)) {
+				if (!state.domainsReady || state.domains[expectedQuery].contains(t)) {
+					expected.add(t);
+				}
+			}
+
+			CandidateCursor cursor = state.cursorAt(state.depth);
+			cursor.reset(state);
+			assertEquals("pair " + p, expectedQuery, cursor.queryNode());
+			ArrayList<Integer> pulled = new ArrayList<Integer>();
+			for (int t = cursor.nextTarget() ; t >= 0 ; t = cursor.nextTarget()) {
+				pulled.add(t);
+				state.extendMatch(t, expectedQuery);
+				state.backtrack(t, expectedQuery);
+			}
+			assertEquals("pair " + p, expected, pulled);
+			assertEquals(-1, cursor.nextTarget());
+		}
+	}
+
+	// the query node VF2 extends: the next in the order, else the largest of T2out, T2in or the unmapped nodes
+	private static int expectedQueryNode(State state) {
+		if (state.order != null) {
+			return state.order.nodeAt(state.depth);
+		}
+		if (!state.T1out.isEmpty() && !state.T2out.isEmpty()) {
+			return state.T2out.last();
+		}
+		if (!state.T1in.isEmpty() && !state.T2in.isEmpty()) {
+			return state.T2in.last();
+		}
+		return state.unmapped2.last();
+	}
+
+	private static IntBitSet expectedTargetSet(State state) {
+		int query = expectedQueryNode(state);
+		if (state.order != null) {
+			return state.inT2out(query) ? state.T1out : state.inT2in(query) ? state.T1in : state.unmapped1;
+		}
+		if (!state.T1out.isEmpty() && !state.T2out.isEmpty()) {
+			return state.T1out;
+		}
+		if (!state.T1in.isEmpty() && !state.T2in.isEmpty()) {
+			return state.T1in;
+		}
+		return state.unmapped1;
+	}
+
+	private static void randomDomains(Random random, State state) {
+		IntBitSet[] domains = state.allocateDomains();
+		for (int q = 0 ; q < state.queryGraph.nodeCount() ; q++) {
+			domains[q].clear();
+			for (int t = 0 ; t < state.targetGraph.nodeCount() ; t++) {
+				if (random.nextBoolean()) {
+					domains[q].add(t);
+				}
+			}
+		}
+		state.domainsReady = true;
+	}
+
+	private static int pick(Random random, IntBitSet set) {
+		int skip = random.nextInt(set.size());
+		int i = set.nextSetBit(0);
+		for (int k = 0 ; k < skip ; k++) {
+			i = set.nextSetBit(i + 1);
+		}
+		return i;
+	}
+}
@@ -0,0 +1,109 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Checks that the candidate domains keep every node of every embedding and are arc consistent,
+ * and that the neighborhood rule is checked, and counted, by the searches that run without domains
+ */
+public class CandidateDomainsTest {
+
+	@Test
+	public void domainsHoldEveryEmbedding() {
+		Random random = new Random(17);
+		VF2 vf2 = new VF2(MatchingMode.MONOMORPHISM);
+		int computed = 0;
+		for (int p = 0 ; p < 500 ; p++) {
+			CompactGraph[] pair = VF2Test.randomPair(random, MatchingMode.MONOMORPHISM, "t");
+			CompactGraph target = pair[0];
+			CompactGraph query = pair[1];
+			State state = new State(target, query);
+			boolean feasible = vf2.prepareSearch(state, null);
+			TreeSet<String> embeddings = BruteForce.mappings(target, query, MatchingMode.MONOMORPHISM);
+			if (!feasible) {
+				assertTrue("pair " + p, embeddings.isEmpty());
+				continue;
+			}
+			assertEquals("pair " + p, CandidateDomains.paysOff(query), state.domainsReady);
+			if (!state.domainsReady) {
+				continue;
+			}
+			computed++;
+			for (String embedding : embeddings) {
+				String[] nodes = embedding.substring(1, embedding.length() - 1).split(", ");
+				for (int q = 0 ; q < nodes.length ; q++) {
+					assertTrue("pair " + p, state.domains[q].contains(Integer.parseInt(nodes[q])));
+				}
+			}
+			for (int q = 0 ; q < query.nodeCount() ; q++) {
+				for (int t = state.domains[q].nextSetBit(0) ; t >= 0 ; t = state.domains[q].nextSetBit(t + 1)) {
+					assertEquals(query.label(q), target.label(t));
+					assertTrue("pair " + p, CandidateDomains.compatible(target, t, query, q));
+					assertTrue("pair " + p, supported(state, t, q));
+				}
+			}
+		}
+		assertTrue(computed > 20);
+	}
+
+	@Test
+	public void neighborhoodRuleRunsWithoutDomains() {
+		Random random = new Random(16);
+		for (int querySize = 1 ; querySize <= 4 ; querySize++) {
+			VF2 vf2 = new VF2(MatchingMode.MONOMORPHISM);
+			MetricsCollector collector = new MetricsCollector();
+			vf2.setMetricsCollector(collector);
+			for (int p = 0 ; p < 200 ; p++) {
+				CompactGraph target = BruteForce.randomGraph(random, "t", 8, 0.5, 2, 2).prepare();
+				CompactGraph query = BruteForce.randomGraph(random, "q", querySize, 0.4, 2, 2).prepare();
+				vf2.matchGraphPair(target, query);
+			}
+			SearchMetrics total = collector.getTotal();
+			assertTrue(total.candidates > 0);
+			if (querySize < CandidateDomains.MIN_QUERY_SIZE) {
+				assertEquals(0, total.prunedByDomain);
+				assertTrue("query size " + querySize, total.rejected(SearchMetrics.Rule.LABEL) > 0);
+				if (querySize > 1) {
+					assertTrue("query size " + querySize, total.rejected(SearchMetrics.Rule.NEIGHBORHOOD) > 0);
+				}
+			} else {
+				assertTrue("query size " + querySize, total.prunedByDomain > 0);
+				assertEquals(0, total.rejected(SearchMetrics.Rule.LABEL));
+				assertEquals(0, total.rejected(SearchMetrics.Rule.NEIGHBORHOOD));
+			}
+		}
+	}
+
+	// every edge of q has a counterpart at t leading into the domain of the neighbor
+	private static boolean supported(State state, int t, int q) {
+		CompactGraph target = state.targetGraph;
+		CompactGraph query = state.queryGraph;
+		for (int i = query.outBegin(q) ; i < query.outEnd(q) ; i++) {
+			boolean found = false;
+			for (int j = target.outBegin(t) ; j < target.outEnd(t) ; j++) {
+				found |= target.outLabel(j) == query.outLabel(i) && state.domains[query.outNeighbor(i)].contains(target.outNeighbor(j));
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		for (int i = query.inBegin(q) ; i < query.inEnd(q) ; i++) {
+			boolean found = false;
+			for (int j = target.inBegin(t) ; j < target.inEnd(t) ; j++) {
+				found |= target.inLabel(j) == query.inLabel(i) && state.domains[query.inNeighbor(i)].contains(target.inNeighbor(j));
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,128 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Applies random edge updates to a target graph and compares the embeddings IncrementalMatcher reports
+ * with the difference of the BruteForce embeddings before and after each update
+ */
+public class IncrementalMatcherTest {
+
+	@Test
+	public void updatesReportEveryChangedEmbedding() {
+		Random random = new Random(25);
+		for (MatchingMode mode : MatchingMode.values()) {
+			for (int run = 0 ; run < 10 ; run++) {
+				int n = 3 + random.nextInt(5);
+				int[][] edges = toMatrix(BruteForce.randomGraph(random, "t", n, 0.1 + 0.3 * random.nextDouble(), 2, 2));
+				CompactGraph target = fromMatrix(edges, n);
+				IncrementalMatcher matcher = new IncrementalMatcher(target, mode);
+
+				ArrayList<CompactGraph> querySet = new ArrayList<CompactGraph>();
+				for (int q = 0 ; q < 4 ; q++) {
+					CompactGraph queryGraph = mode == MatchingMode.ISOMORPHISM
+							? BruteForce.permuted(random, "q", target)
+							: BruteForce.randomGraph(random, "q", 2 + random.nextInt(Math.min(n, 4) - 1), 0.2 + 0.4 * random.nextDouble(), 2, 2);
+					querySet.add(queryGraph);
+					assertEquals(q, matcher.register(queryGraph));
+				}
+
+				for (int u = 0 ; u < 40 ; u++) {
+					int source = random.nextInt(n);
+					int dest = (source + 1 + random.nextInt(n - 1)) % n;	// no self-loops
+					int label = random.nextInt(3) == 0 ? -1 : random.nextInt(2);
+
+					TreeSet<String> before = embeddings(target, querySet, mode);
+					edges[source][dest] = label;
+					target = fromMatrix(edges, n);
+					TreeSet<String> after = embeddings(target, querySet, mode);
+
+					Collector collector = new Collector();
+					if (label < 0) {
+						matcher.removeEdge(source, dest, collector);
+					} else {
+						matcher.addEdge(source, dest, label, collector);
+					}
+					String update = mode + " run " + run + " update " + u + " (" + source + ", " + dest + ") = " + label;
+					TreeSet<String> expired = new TreeSet<String>(before);
+					expired.removeAll(after);
+					TreeSet<String> added = new TreeSet<String>(after);
+					added.removeAll(before);
+					assertEquals(update, 0, collector.duplicates);
+					assertEquals(update, expired, collector.expired);
+					assertEquals(update, added, collector.added);
+					assertArrayEquals(update, toMatrix(target), toMatrix(matcher.getTarget()));
+				}
+			}
+		}
+	}
+
+	private static class Collector implements IncrementalMatcher.Listener {
+
+		final TreeSet<String> added = new TreeSet<String>();
+		final TreeSet<String> expired = new TreeSet<String>();
+		int duplicates = 0;
+
+		@Override
+		public void added(int query, int[] mapping) {
+			if (!added.add(query + " " + Arrays.toString(mapping))) {
+				duplicates++;
+			}
+		}
+
+		@Override
+		public void expired(int query, int[] mapping) {
+			if (!expired.add(query + " " + Arrays.toString(mapping))) {
+				duplicates++;
+			}
+		}
+	}
+
+	private static TreeSet<String> embeddings(CompactGraph target, ArrayList<CompactGraph> querySet, MatchingMode mode) {
+		TreeSet<String> embeddings = new TreeSet<String>();
+		for (int q = 0 ; q < querySet.size() ; q++) {
+			for (String mapping : BruteForce.mappings(target, querySet.get(q), mode)) {
+				embeddings.add(q + " " + mapping);
+			}
+		}
+		return embeddings;
+	}
+
+	// edge label of each node pair, -1 where there is no edge
+	private static int[][] toMatrix(CompactGraph graph) {
+		int n = graph.nodeCount();
+		int[][] edges = new int[n][n];
+		for (int i = 0 ; i < n ; i++) {
+			for (int j = 0 ; j < n ; j++) {
+				edges[i][j] = graph.edgeLabel(i, j);
+			}
+		}
+		return edges;
+	}
+
+	// the graph with the labels of the nodes given by the node id modulo 2
+	private static CompactGraph fromMatrix(int[][] edges, int n) {
+		CompactGraph.Builder builder = new CompactGraph.Builder("t");
+		for (int i = 0 ; i < n ; i++) {
+			builder.addNode(i, i % 2);
+		}
+		for (int i = 0 ; i < n ; i++) {
+			for (int j = 0 ; j < n ; j++) {
+				if (edges[i][j] >= 0) {
+					builder.addEdge(i, j, edges[i][j]);
+				}
+			}
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,112 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * Applies random operations to an IntBitSet and a TreeSet side by side and compares them after each one,
+ * across word boundaries and clears
+ */
+public class IntBitSetTest {
+
+	@Test
+	public void followsATreeSet() {
+		Random random = new Random(3);
+		for (int round = 0 ; round < 200 ; round++) {
+			int capacity = 1 + random.nextInt(300);
+			IntBitSet set = new IntBitSet(capacity);
+			IntBitSet other = new IntBitSet(capacity);
+			TreeSet<Integer> model = new TreeSet<Integer>();
+			TreeSet<Integer> otherModel = new TreeSet<Integer>();
+			for (int op = 0 ; op < 500 ; op++) {
+				int i = random.nextInt(capacity);
+				switch (random.nextInt(10)) {
+				case 0:
+					if (random.nextInt(20) == 0) {
+						set.clear();
+						model.clear();
+					}
+					break;
+				case 1:
+				case 2:
+					other.add(i);
+					otherModel.add(i);
+					break;
+				case 3:
+					other.remove(i);
+					otherModel.remove(i);
+					break;
+				case 4:
+				case 5:
+				case 6:
+					set.add(i);
+					model.add(i);
+					break;
+				default:
+					set.remove(i);
+					model.remove(i);
+				}
+				check(set, model, random);
+				assertEquals(next(model, otherModel, i), set.nextSetBit(i, other));
+				assertEquals(next(model, otherModel, 0), set.nextSetBit(0, other));
+			}
+
+			// a copy is independent
+			IntBitSet copy = new IntBitSet(set);
+			check(copy, model, random);
+			copy.clear();
+			check(set, model, random);
+		}
+	}
+
+	@Test
+	public void iterationSurvivesChangesBehindTheCursor() {
+		IntBitSet set = new IntBitSet(200);
+		for (int i = 0 ; i < 200 ; i += 3) {
+			set.add(i);
+		}
+		int visited = 0;
+		for (int i = set.nextSetBit(0) ; i >= 0 ; i = set.nextSetBit(i + 1)) {
+			set.remove(i);	// as the search does with the node it maps
+			if (i >= 3) {
+				set.add(i - 3);	// and with nodes it puts back
+			}
+			visited++;
+		}
+		assertEquals(67, visited);
+	}
+
+	private static void check(IntBitSet set, TreeSet<Integer> model, Random random) {
+		assertEquals(model.size(), set.size());
+		assertEquals(model.isEmpty(), set.isEmpty());
+		assertEquals(model.isEmpty() ? -1 : (int) model.last(), set.last());
+		for (int k = 0 ; k < 5 ; k++) {
+			int i = random.nextInt(set.capacity());
+			assertEquals(model.contains(i), set.contains(i));
+			Integer next = model.ceiling(i);
+			assertEquals(next == null ? -1 : (int) next, set.nextSetBit(i));
+		}
+		StringBuilder iterated = new StringBuilder();
+		for (int i = set.nextSetBit(0) ; i >= 0 ; i = set.nextSetBit(i + 1)) {
+			iterated.append(i).append(' ');
+		}
+		StringBuilder expected = new StringBuilder();
+		for (int i : model) {
+			expected.append(i).append(' ');
+		}
+		assertEquals(expected.toString(), iterated.toString());
+	}
+
+	private static int next(TreeSet<Integer> model, TreeSet<Integer> other, int from) {
+		for (Integer i = model.ceiling(from) ; i != null ; i = model.higher(i)) {
+			if (other.contains(i)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,54 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Checks that matchAll streams the mappings BruteForce counts, and that a limit or a visitor
+ * returning false ends the enumeration after a prefix of the full one
+ */
+public class MatchAllTest {
+
+	@Test
+	public void limitsAndStopsEndTheEnumerationEarly() {
+		Random random = new Random(7);
+		for (MatchingMode mode : MatchingMode.values()) {
+			VF2 vf2 = new VF2(mode);
+			for (int p = 0 ; p < 300 ; p++) {
+				CompactGraph[] pair = VF2Test.randomPair(random, mode, "t");
+				String name = mode + " pair " + p;
+				List<String> all = enumerate(vf2, pair, Long.MAX_VALUE, Integer.MAX_VALUE);
+				assertEquals(name, BruteForce.mappings(pair[0], pair[1], mode).size(), all.size());
+				assertEquals(name, all.size(), vf2.countMatches(pair[0], pair[1]));
+				assertEquals(name, 0, enumerate(vf2, pair, 0, Integer.MAX_VALUE).size());
+
+				int limit = 1 + random.nextInt(all.size() + 2);
+				assertEquals(name, all.subList(0, Math.min(limit, all.size())), enumerate(vf2, pair, limit, Integer.MAX_VALUE));
+				int stop = 1 + random.nextInt(all.size() + 2);
+				assertEquals(name, all.subList(0, Math.min(stop, all.size())), enumerate(vf2, pair, Long.MAX_VALUE, stop));
+			}
+		}
+	}
+
+	// the mappings passed to a visitor that stops after the given number of them
+	private static List<String> enumerate(VF2 vf2, CompactGraph[] pair, long limit, final int stop) {
+		final ArrayList<String> found = new ArrayList<String>();
+		long count = vf2.matchAll(pair[0], pair[1], new MatchVisitor() {
+			@Override
+			public boolean visit(State state) {
+				found.add(Arrays.toString(VF2Test.mapping(state)));
+				return found.size() < stop;
+			}
+		}, limit);
+		assertEquals(found.size(), count);
+		return found;
+	}
+}
@@ -0,0 +1,109 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.index.GraphIndex;
+
+/**
+ * Computes the matching order of random query graphs and checks that it is a permutation, starts each
+ * component at its rarest label and then stays connected, visiting the component breadth-first
+ */
+public class MatchingOrderTest {
+
+	@Test
+	public void orderIsAConnectedBreadthFirstPermutation() {
+		Random random = new Random(9);
+		List<CompactGraph> graphSet = new ArrayList<CompactGraph>();
+		for (int t = 0 ; t < 50 ; t++) {
+			graphSet.add(BruteForce.randomGraph(random, "t" + t, 1 + random.nextInt(8), 0.3, 4, 2));
+		}
+		GraphIndex index = new GraphIndex(graphSet);
+		for (int q = 0 ; q < 500 ; q++) {
+			// sparse enough for several components
+			CompactGraph queryGraph = BruteForce.randomGraph(random, "q", 1 + random.nextInt(12), random.nextDouble() * 0.3, 4, 2);
+			boolean indexed = q % 2 == 1;
+			check("query " + q, queryGraph, new MatchingOrder(queryGraph, indexed ? index : null), indexed ? index : null);
+		}
+	}
+
+	private static void check(String name, CompactGraph queryGraph, MatchingOrder order, GraphIndex index) {
+		int n = queryGraph.nodeCount();
+		assertEquals(name, n, order.size());
+		int[] frequency = new int[n];
+		for (int v = 0 ; v < n ; v++) {
+			for (int u = 0 ; u < n ; u++) {
+				frequency[v] += queryGraph.label(u) == queryGraph.label(v) ? 1 : 0;
+			}
+			if (index != null) {
+				frequency[v] = index.nodeLabelFrequency(queryGraph.label(v));
+			}
+		}
+
+		boolean[] ordered = new boolean[n];
+		int[] distance = new int[n];	// BFS distance from the root of the component
+		for (int depth = 0 ; depth < n ; depth++) {
+			int node = order.nodeAt(depth);
+			assertTrue(name, !ordered[node]);
+			assertEquals(name, depth, order.positionOf(node));
+
+			int nearest = -1;
+			for (int u = 0 ; u < n ; u++) {
+				if (ordered[u] && adjacent(queryGraph, node, u) && (nearest == -1 || distance[u] < distance[nearest])) {
+					nearest = u;
+				}
+			}
+			if (nearest == -1) {
+				// a new component starts only once the earlier ones are complete, at the rarest label left
+				for (int u = 0 ; u < n ; u++) {
+					for (int w = 0 ; w < n ; w++) {
+						assertTrue(name, !ordered[u] || ordered[w] || !adjacent(queryGraph, u, w));
+					}
+					if (!ordered[u]) {
+						assertTrue(name, frequency[node] < frequency[u] || (frequency[node] == frequency[u]
+								&& degree(queryGraph, node) >= degree(queryGraph, u)));
+					}
+				}
+				distance[node] = 0;
+			} else {
+				distance[node] = distance[nearest] + 1;
+				assertTrue(name, distance[node] >= distance[order.nodeAt(depth - 1)]);
+			}
+			ordered[node] = true;
+		}
+		int[] sorted = new int[n];
+		for (int depth = 0 ; depth < n ; depth++) {
+			sorted[depth] = order.nodeAt(depth);
+		}
+		Arrays.sort(sorted);
+		for (int v = 0 ; v < n ; v++) {
+			assertEquals(name, v, sorted[v]);
+		}
+	}
+
+	private static boolean adjacent(CompactGraph graph, int u, int v) {
+		for (int i = graph.outBegin(u) ; i < graph.outEnd(u) ; i++) {
+			if (graph.outNeighbor(i) == v) {
+				return true;
+			}
+		}
+		for (int i = graph.inBegin(u) ; i < graph.inEnd(u) ; i++) {
+			if (graph.inNeighbor(i) == v) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int degree(CompactGraph graph, int v) {
+		return graph.inDegree(v) + graph.outDegree(v);
+	}
+}
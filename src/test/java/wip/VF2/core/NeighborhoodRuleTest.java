@@ -0,0 +1,104 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Checks that the neighborhood rule never rejects a pair of an embedding, that edited prepared graphs carry
+ * the signatures a fresh prepare() gives, and that the signatures prune candidates without changing the results
+ */
+public class NeighborhoodRuleTest {
+
+	@Test
+	public void embeddedPairsAreCompatible() {
+		Random random = new Random(16);
+		for (int p = 0 ; p < 300 ; p++) {
+			CompactGraph[] pair = VF2Test.randomPair(random, MatchingMode.MONOMORPHISM, "t");
+			CompactGraph targetGraph = pair[0].prepare();
+			CompactGraph queryGraph = pair[1].prepare();
+			// monomorphism is the weakest mode, its embeddings include those of the others
+			for (String mapping : BruteForce.mappings(targetGraph, queryGraph, MatchingMode.MONOMORPHISM)) {
+				String[] targets = mapping.substring(1, mapping.length() - 1).split(", ");
+				for (int q = 0 ; q < queryGraph.nodeCount() ; q++) {
+					int t = Integer.parseInt(targets[q]);
+					assertEquals("pair " + p, 0, queryGraph.signature(q) & ~targetGraph.signature(t));
+					assertTrue("pair " + p, CandidateDomains.compatible(targetGraph, t, queryGraph, q));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void editedGraphsStayPrepared() {
+		Random random = new Random(17);
+		for (int i = 0 ; i < 300 ; i++) {
+			CompactGraph graph = BruteForce.randomGraph(random, "g", 1 + random.nextInt(10), random.nextDouble() * 0.5, 5, 5).prepare();
+			int n = graph.nodeCount();
+			int source = random.nextInt(n);
+			int target = random.nextInt(n);
+			CompactGraph edited = random.nextBoolean()
+					? graph.withEdge(source, target, random.nextInt(5))
+					: graph.withoutEdge(source, target);
+			assertTrue(edited.isPrepared());
+			assertArrayEquals(signatures(rebuild(edited).prepare()), signatures(edited));
+		}
+	}
+
+	@Test
+	public void signaturesPruneWithoutChangingResults() {
+		Random random = new Random(18);
+		for (MatchingMode mode : MatchingMode.values()) {
+			VF2 plain = new VF2(mode);
+			VF2 prepared = new VF2(mode);
+			MetricsCollector plainMetrics = new MetricsCollector();
+			MetricsCollector preparedMetrics = new MetricsCollector();
+			plain.setMetricsCollector(plainMetrics);
+			prepared.setMetricsCollector(preparedMetrics);
+			for (int p = 0 ; p < 300 ; p++) {
+				// two node queries have no candidate domains, so the rule is applied to every candidate
+				CompactGraph targetGraph = BruteForce.randomGraph(random, "t", 2 + random.nextInt(8), 0.2 + 0.4 * random.nextDouble(), 4, 4);
+				CompactGraph queryGraph = BruteForce.randomGraph(random, "q", 2, 0.5 + 0.5 * random.nextDouble(), 4, 4);
+				State expected = plain.matchGraphPair(targetGraph, queryGraph);
+				State actual = prepared.matchGraphPair(targetGraph.prepare(), queryGraph.prepare());
+				assertEquals(mode + " pair " + p, expected.outcome(), actual.outcome());
+				if (expected.matched) {
+					assertArrayEquals(mode + " pair " + p, VF2Test.mapping(expected), VF2Test.mapping(actual));
+				}
+			}
+			SearchMetrics plainTotal = plainMetrics.getTotal();
+			SearchMetrics preparedTotal = preparedMetrics.getTotal();
+			assertTrue(mode.toString(), preparedTotal.rejected(SearchMetrics.Rule.NEIGHBORHOOD) > plainTotal.rejected(SearchMetrics.Rule.NEIGHBORHOOD));
+			assertTrue(mode.toString(), preparedTotal.candidates <= plainTotal.candidates);
+			assertTrue(mode.toString(), preparedTotal.states <= plainTotal.states);
+		}
+	}
+
+	// the same graph built anew, unprepared
+	private static CompactGraph rebuild(CompactGraph graph) {
+		CompactGraph.Builder builder = new CompactGraph.Builder(graph.name);
+		for (int v = 0 ; v < graph.nodeCount() ; v++) {
+			builder.addNode(v, graph.label(v));
+		}
+		for (int v = 0 ; v < graph.nodeCount() ; v++) {
+			for (int i = graph.outBegin(v) ; i < graph.outEnd(v) ; i++) {
+				builder.addEdge(v, graph.outNeighbor(i), graph.outLabel(i));
+			}
+		}
+		return builder.build();
+	}
+
+	private static long[] signatures(CompactGraph graph) {
+		long[] signatures = new long[graph.nodeCount()];
+		for (int v = 0 ; v < signatures.length ; v++) {
+			signatures[v] = graph.signature(v);
+		}
+		return signatures;
+	}
+}
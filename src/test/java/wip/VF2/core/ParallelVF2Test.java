@@ -0,0 +1,93 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Compares ParallelVF2 with the sequential VF2 and BruteForce on random target sets and pairs
+ */
+public class ParallelVF2Test {
+
+	@Test
+	public void graphSetResultsFollowTheSequentialOrder() {
+		Random random = new Random(5);
+		for (MatchingMode mode : MatchingMode.values()) {
+			VF2 vf2 = new VF2(mode);
+			ParallelVF2 parallel = new ParallelVF2(4, mode);
+			try {
+				for (int q = 0 ; q < 10 ; q++) {
+					// several chunks, so the set is split across the threads
+					List<CompactGraph> targetSet = new ArrayList<CompactGraph>();
+					for (int t = 0 ; t < 300 ; t++) {
+						targetSet.add(BruteForce.randomGraph(random, "t" + t, 1 + random.nextInt(7), 0.1 + 0.4 * random.nextDouble(), 2, 2));
+					}
+					CompactGraph queryGraph = mode == MatchingMode.ISOMORPHISM
+							? BruteForce.permuted(random, "q", targetSet.get(random.nextInt(targetSet.size())))
+							: BruteForce.randomGraph(random, "q", 1 + random.nextInt(4), 0.2 + 0.4 * random.nextDouble(), 2, 2);
+					MatchingOrder order = new MatchingOrder(queryGraph, null);
+
+					ArrayList<State> expected = vf2.matchGraphSetWithQuery(targetSet, queryGraph, order);
+					ArrayList<State> actual = parallel.matchGraphSetWithQuery(targetSet, queryGraph, order);
+					String query = mode + " query " + q;
+					assertEquals(query, expected.size(), actual.size());
+					for (int i = 0 ; i < expected.size() ; i++) {
+						assertSame(query, expected.get(i).targetGraph, actual.get(i).targetGraph);
+						assertArrayEquals(query, VF2Test.mapping(expected.get(i)), VF2Test.mapping(actual.get(i)));
+					}
+					TreeSet<String> matched = new TreeSet<String>();
+					for (CompactGraph targetGraph : targetSet) {
+						if (!BruteForce.mappings(targetGraph, queryGraph, mode).isEmpty()) {
+							matched.add(targetGraph.name);
+						}
+					}
+					assertEquals(query, matched, VF2Test.matchedTargets(actual, mode));
+				}
+			} finally {
+				parallel.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void splitSearchTreeDecidesEveryPair() {
+		Random random = new Random(6);
+		for (MatchingMode mode : MatchingMode.values()) {
+			ParallelVF2 parallel = new ParallelVF2(4, mode);
+			try {
+				for (int p = 0 ; p < 200 ; p++) {
+					// deep enough for the first levels to be split into subtrees
+					CompactGraph targetGraph = BruteForce.randomGraph(random, "t", 4 + random.nextInt(5), 0.2 + 0.4 * random.nextDouble(), 2, 2);
+					CompactGraph queryGraph = mode == MatchingMode.ISOMORPHISM && random.nextInt(4) != 0
+							? BruteForce.permuted(random, "q", targetGraph)
+							: BruteForce.randomGraph(random, "q", 3 + random.nextInt(3), 0.2 + 0.4 * random.nextDouble(), 2, 2);
+					targetGraph = targetGraph.prepare();
+					queryGraph = queryGraph.prepare();
+					boolean expected = !BruteForce.mappings(targetGraph, queryGraph, mode).isEmpty();
+					State state = parallel.matchGraphPair(targetGraph, queryGraph);
+					String pair = mode + " pair " + p;
+					assertEquals(pair, expected, state.matched);
+					assertEquals(pair, expected ? MatchOutcome.MATCHED : MatchOutcome.UNMATCHED, state.outcome());
+					assertNull(pair, state.stopSignal);
+					if (expected) {
+						assertEquals(pair, queryGraph.nodeCount(), state.depth);
+						assertTrue(pair, BruteForce.isEmbedding(targetGraph, queryGraph, mode, VF2Test.mapping(state)));
+					}
+				}
+			} finally {
+				parallel.shutdown();
+			}
+		}
+	}
+}
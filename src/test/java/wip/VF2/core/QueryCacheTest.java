@@ -0,0 +1,70 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.index.GraphIndex;
+
+/**
+ * Answers renumbered copies of random queries from a QueryCache, and checks that the translated mappings
+ * are embeddings of the copy and the matched targets are the ones BruteForce finds
+ */
+public class QueryCacheTest {
+
+	@Test
+	public void renumberedQueriesAreAnsweredFromTheCache() {
+		Random random = new Random(22);
+		for (MatchingMode mode : MatchingMode.values()) {
+			ArrayList<CompactGraph> targetSet = new ArrayList<CompactGraph>();
+			for (int t = 0 ; t < 40 ; t++) {
+				targetSet.add(BruteForce.randomGraph(random, "t" + t, 1 + random.nextInt(7),
+						0.1 + 0.4 * random.nextDouble(), 2, 2).prepare());
+			}
+			GraphIndex index = new GraphIndex(targetSet);
+			QueryCache cache = new QueryCache(QueryCache.UNLIMITED);
+			VF2 vf2 = new VF2(mode);
+			vf2.setQueryCache(cache);
+			ParallelVF2 parallel = new ParallelVF2(4, mode);
+			parallel.setQueryCache(cache);
+			try {
+				for (int q = 0 ; q < 20 ; q++) {
+					CompactGraph queryGraph = mode == MatchingMode.ISOMORPHISM
+							? BruteForce.permuted(random, "q", targetSet.get(random.nextInt(targetSet.size())))
+							: BruteForce.randomGraph(random, "q", 1 + random.nextInt(4), 0.2 + 0.4 * random.nextDouble(), 2, 2);
+					queryGraph = queryGraph.prepare();
+					TreeSet<String> expected = new TreeSet<String>();
+					for (CompactGraph targetGraph : targetSet) {
+						if (!BruteForce.mappings(targetGraph, queryGraph, mode).isEmpty()) {
+							expected.add(targetGraph.name);
+						}
+					}
+					String query = mode + " query " + q;
+
+					assertEquals(query, expected, VF2Test.matchedTargets(vf2.matchQuery(index, queryGraph), mode));
+					long hits = cache.getHitCount();	// the query itself may repeat an earlier one
+					CompactGraph copy = BruteForce.permuted(random, "copy", queryGraph).prepare();
+					assertEquals(query, expected, VF2Test.matchedTargets(vf2.matchQuery(index, copy), mode));
+					copy = BruteForce.permuted(random, "copy", queryGraph).prepare();
+					assertEquals(query, expected, VF2Test.matchedTargets(parallel.matchQuery(index, copy), mode));
+					assertEquals(query, hits + 2, cache.getHitCount());
+				}
+
+				// a new index is a new version, its results are not taken from the old one
+				GraphIndex rebuilt = new GraphIndex(targetSet);
+				long misses = cache.getMissCount();
+				CompactGraph queryGraph = BruteForce.randomGraph(random, "q", 2, 0.5, 2, 2).prepare();
+				vf2.matchQuery(index, queryGraph);
+				vf2.matchQuery(rebuilt, queryGraph);
+				assertEquals(mode.toString(), misses + 2, cache.getMissCount());
+			} finally {
+				parallel.shutdown();
+			}
+		}
+	}
+}
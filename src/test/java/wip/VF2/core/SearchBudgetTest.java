@@ -0,0 +1,213 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Runs searches under state and time budgets and checks that they stop within the budget, give
+ * MatchOutcome.TIMED_OUT only where the unlimited search needs more, and decide every other pair correctly,
+ * also when the subtrees of a parallel search share the budget of their pair
+ */
+public class SearchBudgetTest {
+
+	@Test
+	public void pairStateBudgetCutsTheSearch() {
+		Random random = new Random(20);
+		for (MatchingMode mode : MatchingMode.values()) {
+			VF2 unlimited = new VF2(mode);
+			VF2 limited = new VF2(mode);
+			MetricsCollector unlimitedMetrics = new MetricsCollector(0);
+			MetricsCollector limitedMetrics = new MetricsCollector(0);
+			unlimited.setMetricsCollector(unlimitedMetrics);
+			limited.setMetricsCollector(limitedMetrics);
+			int timedOut = 0;
+			for (int p = 0 ; p < 300 ; p++) {
+				CompactGraph[] pair = VF2Test.randomPair(random, mode, "t");
+				int budget = 1 + random.nextInt(12);
+				limited.setBudget(new SearchBudget(budget, 0, 0, 0));
+				State expected = unlimited.matchGraphPair(pair[0], pair[1]);
+				State actual = limited.matchGraphPair(pair[0], pair[1]);
+				String name = mode + " pair " + p;
+				assertTrue(name, actual.metrics.states <= budget + 1);	// the state that finds the budget used up
+				if (expected.metrics.states <= budget) {
+					assertEquals(name, expected.outcome(), actual.outcome());
+				}
+				if (actual.outcome() == MatchOutcome.TIMED_OUT) {
+					timedOut++;
+					assertTrue(name, expected.metrics.states > budget);
+				} else {
+					assertEquals(name, expected.outcome(), actual.outcome());
+				}
+			}
+			assertTrue(mode.toString(), timedOut > 0);
+			assertEquals(mode.toString(), timedOut, limitedMetrics.getTotal().timedOutPairs);
+			assertEquals(mode.toString(), 0, unlimitedMetrics.getTotal().timedOutPairs);
+		}
+	}
+
+	@Test
+	public void timeBudgetsEndAHardSearch() {
+		Random random = new Random(22);
+		// an odd cycle never embeds into a bipartite graph, but only closing the cycle shows it
+		CompactGraph queryGraph = cycle(9);
+		VF2 vf2 = new VF2(MatchingMode.MONOMORPHISM);
+		vf2.setBudget(new SearchBudget(0, 20, 0, 0));
+		long start = System.nanoTime();
+		State state = vf2.matchGraphPair(completeBipartite(10), queryGraph);
+		assertEquals(MatchOutcome.TIMED_OUT, state.outcome());
+		assertTrue((System.nanoTime() - start) / 1000000 < 5000);
+
+		// the first target graph uses up the time of the query, the others are not searched
+		vf2.setBudget(new SearchBudget(0, 0, 0, 20));
+		ArrayList<CompactGraph> targetSet = new ArrayList<CompactGraph>();
+		targetSet.add(completeBipartite(10));
+		for (int t = 0 ; t < 50 ; t++) {
+			targetSet.add(BruteForce.randomGraph(random, "t" + t, 9 + random.nextInt(3), 0.5, 1, 1));
+		}
+		QueryResult result = vf2.matchQuery(targetSet, queryGraph, new MatchingOrder(queryGraph, null));
+		assertTrue(result.queryBudgetExhausted);
+		assertEquals(targetSet, result.timedOut);
+		assertTrue(result.matches.isEmpty());
+	}
+
+	@Test
+	public void queryBudgetSkipsTheRemainingTargets() {
+		Random random = new Random(21);
+		for (MatchingMode mode : MatchingMode.values()) {
+			// one label, so few targets are ruled out before the search; for isomorphism, half of them have the size of the query
+			CompactGraph base = BruteForce.randomGraph(random, "base", 6, 0.4, 2, 2);
+			List<CompactGraph> targetSet = new ArrayList<CompactGraph>();
+			for (int t = 0 ; t < 200 ; t++) {
+				targetSet.add(mode == MatchingMode.ISOMORPHISM && t % 2 == 0
+						? BruteForce.permuted(random, "t" + t, base)
+						: BruteForce.randomGraph(random, "t" + t, 1 + random.nextInt(9), 0.2 + 0.4 * random.nextDouble(), 1, 1));
+			}
+			CompactGraph queryGraph = mode == MatchingMode.ISOMORPHISM
+					? BruteForce.permuted(random, "q", base)
+					: BruteForce.randomGraph(random, "q", 4, 0.3, 1, 1);
+			TreeSet<String> matched = new TreeSet<String>();
+			for (CompactGraph targetGraph : targetSet) {
+				if (!BruteForce.mappings(targetGraph, queryGraph, mode).isEmpty()) {
+					matched.add(targetGraph.name);
+				}
+			}
+
+			VF2 vf2 = new VF2(mode);
+			ParallelVF2 parallel = new ParallelVF2(4, mode);
+			try {
+				// half of the states the whole query needs
+				MetricsCollector metrics = new MetricsCollector(0);
+				vf2.setMetricsCollector(metrics);
+				vf2.matchQuery(targetSet, queryGraph, new MatchingOrder(queryGraph, null));
+				long budget = metrics.getTotal().states / 2;
+				assertTrue(mode.toString(), budget > 10);
+
+				metrics = new MetricsCollector(0);
+				vf2.setMetricsCollector(metrics);
+				vf2.setBudget(new SearchBudget(0, 0, budget, 0));
+				QueryResult result = vf2.matchQuery(targetSet, queryGraph, new MatchingOrder(queryGraph, null));
+				checkDecided(mode.toString(), result, targetSet, matched);
+				assertTrue(mode.toString(), result.queryBudgetExhausted);
+				// each pair may start with the states left and find them used up one state later
+				assertTrue(mode.toString(), metrics.getTotal().states <= budget + targetSet.size());
+
+				parallel.setBudget(new SearchBudget(0, 0, budget, 0));
+				QueryResult parallelResult = parallel.matchQuery(targetSet, queryGraph, new MatchingOrder(queryGraph, null));
+				checkDecided(mode.toString(), parallelResult, targetSet, matched);
+				assertTrue(mode.toString(), parallelResult.queryBudgetExhausted);
+			} finally {
+				parallel.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void parallelSubtreesShareThePairBudget() {
+		ParallelVF2 parallel = new ParallelVF2(4, MatchingMode.MONOMORPHISM);
+		VF2 vf2 = new VF2(MatchingMode.MONOMORPHISM);
+		try {
+			MetricsCollector parallelMetrics = new MetricsCollector(0);
+			MetricsCollector sequentialMetrics = new MetricsCollector(0);
+			parallel.setMetricsCollector(parallelMetrics);
+			vf2.setMetricsCollector(sequentialMetrics);
+			CompactGraph targetGraph = completeBipartite(10);
+			CompactGraph queryGraph = cycle(9);
+			int n = targetGraph.nodeCount();
+			for (long budget = 10 ; budget <= 1000000 ; budget *= 10) {
+				parallel.setBudget(new SearchBudget(budget, 0, 0, 0));
+				vf2.setBudget(new SearchBudget(budget, 0, 0, 0));
+				State parallelState = parallel.matchGraphPair(targetGraph, queryGraph);
+				State sequentialState = vf2.matchGraphPair(targetGraph, queryGraph);
+				assertEquals(MatchOutcome.TIMED_OUT, parallelState.outcome());
+				assertEquals(MatchOutcome.TIMED_OUT, sequentialState.outcome());
+				assertTrue(sequentialState.metrics.states <= budget + 1);
+			}
+			// every subtree task may overrun the shared budget by the one state that finds it used up
+			SearchMetrics total = parallelMetrics.getTotal();
+			long tasks = 1 + n + n * n;
+			long budgets = 10 + 100 + 1000 + 10000 + 100000 + 1000000;
+			assertTrue(total.states + " states", total.states <= budgets + 6 * tasks);
+			assertTrue(total.states + " states", total.states >= budgets);
+			assertEquals(6, total.timedOutPairs);
+		} finally {
+			parallel.shutdown();
+		}
+	}
+
+	// every target graph is matched, timed out, or has no match; all matches are right
+	private static void checkDecided(String name, QueryResult result, List<CompactGraph> targetSet, TreeSet<String> matched) {
+		TreeSet<String> found = new TreeSet<String>();
+		for (State state : result.matches) {
+			found.add(state.targetGraph.name);
+		}
+		TreeSet<String> timedOut = new TreeSet<String>();
+		for (CompactGraph targetGraph : result.timedOut) {
+			timedOut.add(targetGraph.name);
+		}
+		assertFalse(name, timedOut.isEmpty());
+		for (CompactGraph targetGraph : targetSet) {
+			if (!timedOut.contains(targetGraph.name)) {
+				assertEquals(name + " " + targetGraph.name, matched.contains(targetGraph.name), found.contains(targetGraph.name));
+			} else {
+				assertFalse(name, found.contains(targetGraph.name));
+			}
+		}
+	}
+
+	// edges both ways between the two sides, so every cycle has an even length
+	private static CompactGraph completeBipartite(int side) {
+		CompactGraph.Builder builder = new CompactGraph.Builder("bipartite");
+		for (int v = 0 ; v < 2 * side ; v++) {
+			builder.addNode(v, 0);
+		}
+		for (int u = 0 ; u < side ; u++) {
+			for (int v = side ; v < 2 * side ; v++) {
+				builder.addEdge(u, v, 0);
+				builder.addEdge(v, u, 0);
+			}
+		}
+		return builder.build();
+	}
+
+	private static CompactGraph cycle(int length) {
+		CompactGraph.Builder builder = new CompactGraph.Builder("cycle");
+		for (int v = 0 ; v < length ; v++) {
+			builder.addNode(v, 0);
+		}
+		for (int v = 0 ; v < length ; v++) {
+			builder.addEdge(v, (v + 1) % length, 0);
+			builder.addEdge((v + 1) % length, v, 0);
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,149 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Counts the search of random graph sets and pairs and checks that the counters add up: every accepted
+ * candidate is one more state, the query and target rows sum to the total, the largest pairs are the
+ * largest search trees, and a parallel search of a pair without a match counts what the sequential one does
+ */
+public class SearchMetricsTest {
+
+	@Test
+	public void countersAddUp() {
+		Random random = new Random(19);
+		for (MatchingMode mode : MatchingMode.values()) {
+			VF2 vf2 = new VF2(mode);
+			MetricsCollector collector = new MetricsCollector(5);
+			vf2.setMetricsCollector(collector);
+			List<CompactGraph> targetSet = new ArrayList<CompactGraph>();
+			for (int t = 0 ; t < 100 ; t++) {
+				targetSet.add(BruteForce.randomGraph(random, "t" + t, 1 + random.nextInt(8), 0.2 + 0.4 * random.nextDouble(), 2, 2));
+			}
+			long matches = 0;
+			for (int q = 0 ; q < 10 ; q++) {
+				CompactGraph queryGraph = mode == MatchingMode.ISOMORPHISM
+						? BruteForce.permuted(random, "q" + q, targetSet.get(random.nextInt(targetSet.size())))
+						: BruteForce.randomGraph(random, "q" + q, 1 + random.nextInt(5), 0.3, 2, 2);
+				matches += vf2.matchGraphSetWithQuery(targetSet, queryGraph).size();
+			}
+
+			SearchMetrics total = collector.getTotal();
+			assertEquals(mode.toString(), 10 * targetSet.size(), total.pairs);
+			assertEquals(mode.toString(), matches, total.matchedPairs);
+			assertEquals(mode.toString(), 0, total.timedOutPairs);
+			assertStatesFollowCandidates(mode.toString(), total);
+			assertTrue(mode.toString(), total.prunedBySize > 0);
+
+			// the query rows and the target rows each add up to the total
+			long[] queries = new long[16];
+			long[] targets = new long[16];
+			ArrayList<Long> largest = new ArrayList<Long>();
+			StringWriter csv = new StringWriter();
+			collector.writeCsv(new PrintWriter(csv));
+			String[] rows = csv.toString().split("\n");
+			for (int r = 2 ; r < rows.length ; r++) {
+				String[] cells = rows[r].trim().split(",");
+				if (cells[0].equals("pair")) {
+					largest.add(Long.parseLong(cells[8]));
+					continue;
+				}
+				for (int c = 3 ; c < cells.length - 1 ; c++) {
+					(cells[0].equals("query") ? queries : targets)[c] += Long.parseLong(cells[c]);
+				}
+			}
+			String[] totalCells = rows[1].trim().split(",");
+			for (int c = 3 ; c < totalCells.length - 1 ; c++) {
+				if (c != 9) {	// the max depth is a maximum, not a sum
+					assertEquals(mode + " column " + c, Long.parseLong(totalCells[c]), queries[c]);
+					assertEquals(mode + " column " + c, Long.parseLong(totalCells[c]), targets[c]);
+				}
+			}
+			assertEquals(5, largest.size());
+			ArrayList<Long> sorted = new ArrayList<Long>(largest);
+			Collections.sort(sorted, Collections.reverseOrder());
+			assertEquals(sorted, largest);
+		}
+	}
+
+	@Test
+	public void largestPairsAreTheLargestSearchTrees() {
+		Random random = new Random(20);
+		VF2 vf2 = new VF2();
+		MetricsCollector collector = new MetricsCollector(10);
+		vf2.setMetricsCollector(collector);
+		ArrayList<Long> states = new ArrayList<Long>();
+		for (int p = 0 ; p < 200 ; p++) {
+			CompactGraph[] pair = VF2Test.randomPair(random, MatchingMode.ISOMORPHISM, "t" + p);
+			State state = vf2.matchGraphPair(pair[0], pair[1]);
+			assertEquals(1, state.metrics.pairs);
+			assertStatesFollowCandidates("pair " + p, state.metrics);
+			states.add(state.metrics.states);
+		}
+		Collections.sort(states, Collections.reverseOrder());
+		List<MetricsCollector.PairMetrics> largest = collector.getLargestPairs();
+		assertEquals(10, largest.size());
+		for (int i = 0 ; i < largest.size() ; i++) {
+			assertEquals((long) states.get(i), largest.get(i).metrics.states);
+		}
+	}
+
+	@Test
+	public void parallelSearchCountsLikeTheSequentialOne() {
+		Random random = new Random(21);
+		for (MatchingMode mode : MatchingMode.values()) {
+			VF2 vf2 = new VF2(mode);
+			VF2 uncounted = new VF2(mode);
+			ParallelVF2 parallel = new ParallelVF2(4, mode);
+			try {
+				MetricsCollector sequentialMetrics = new MetricsCollector();
+				MetricsCollector parallelMetrics = new MetricsCollector();
+				vf2.setMetricsCollector(sequentialMetrics);
+				parallel.setMetricsCollector(parallelMetrics);
+				int unmatched = 0;
+				for (int p = 0 ; p < 200 ; p++) {
+					CompactGraph targetGraph = BruteForce.randomGraph(random, "t", 4 + random.nextInt(5), 0.2 + 0.4 * random.nextDouble(), 2, 2);
+					CompactGraph queryGraph = BruteForce.randomGraph(random, "q", 3 + random.nextInt(3), 0.2 + 0.4 * random.nextDouble(), 2, 2);
+					if (uncounted.matchGraphPair(targetGraph, queryGraph).matched) {
+						continue;	// the subtrees stop wherever they are when one finds a match
+					}
+					unmatched++;
+					assertEquals(MatchOutcome.UNMATCHED, vf2.matchGraphPair(targetGraph, queryGraph).outcome());
+					assertEquals(MatchOutcome.UNMATCHED, parallel.matchGraphPair(targetGraph, queryGraph).outcome());
+				}
+				assertTrue(mode.toString(), unmatched > 50);
+				SearchMetrics expected = sequentialMetrics.getTotal();
+				SearchMetrics actual = parallelMetrics.getTotal();
+				assertEquals(mode.toString(), expected.states, actual.states);
+				assertEquals(mode.toString(), expected.candidates, actual.candidates);
+				for (SearchMetrics.Rule rule : SearchMetrics.Rule.values()) {
+					assertEquals(mode + " " + rule, expected.rejected(rule), actual.rejected(rule));
+				}
+			} finally {
+				parallel.shutdown();
+			}
+		}
+	}
+
+	// each searched pair visits its root state, and each accepted candidate one more state
+	private static void assertStatesFollowCandidates(String name, SearchMetrics metrics) {
+		long rejected = 0;
+		for (SearchMetrics.Rule rule : SearchMetrics.Rule.values()) {
+			rejected += metrics.rejected(rule);
+		}
+		long searched = metrics.pairs - metrics.prunedBySize - metrics.prunedByDomain;
+		assertEquals(name, searched + metrics.candidates - rejected, metrics.states);
+	}
+}
@@ -0,0 +1,99 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Checks that a StatePool keeps one State per thread that only grows, and that matching graph sets of
+ * mixed sizes on pooled States gives results sized to their pairs that later queries leave intact
+ */
+public class StatePoolTest {
+
+	@Test
+	public void stateIsReusedUntilItIsTooSmall() throws InterruptedException {
+		final StatePool pool = new StatePool();
+		State state = pool.get(5, 3);
+		assertSame(state, pool.get(5, 3));
+		assertSame(state, pool.get(1, 1));
+		State grown = pool.get(8, 2);
+		assertNotSame(state, grown);
+		assertEquals(8, grown.targetCapacity());
+		assertSame(grown, pool.get(3, 2));
+		State grownAgain = pool.get(4, 6);
+		assertNotSame(grown, grownAgain);
+		assertEquals(6, grownAgain.queryCapacity());
+
+		// another thread gets its own
+		final State[] other = new State[1];
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				other[0] = pool.get(1, 1);
+			}
+		});
+		thread.start();
+		thread.join();
+		assertNotSame(grownAgain, other[0]);
+		assertSame(grownAgain, pool.get(1, 1));
+	}
+
+	@Test
+	public void resultsAreSizedToTheirPairs() {
+		Random random = new Random(15);
+		for (MatchingMode mode : MatchingMode.values()) {
+			VF2 vf2 = new VF2(mode);
+			ArrayList<List<State>> earlier = new ArrayList<List<State>>();
+			ArrayList<List<String>> earlierMappings = new ArrayList<List<String>>();
+			for (int q = 0 ; q < 20 ; q++) {
+				// sizes up and down, so the pooled State is reset for smaller pairs after growing
+				List<CompactGraph> targetSet = new ArrayList<CompactGraph>();
+				for (int t = 0 ; t < 60 ; t++) {
+					targetSet.add(BruteForce.randomGraph(random, "t" + t, 1 + random.nextInt(3 + q % 7), 0.2 + 0.4 * random.nextDouble(), 2, 2));
+				}
+				CompactGraph queryGraph = mode == MatchingMode.ISOMORPHISM
+						? BruteForce.permuted(random, "q", targetSet.get(random.nextInt(targetSet.size())))
+						: BruteForce.randomGraph(random, "q", 1 + random.nextInt(4), 0.3, 2, 2);
+				ArrayList<State> results = vf2.matchGraphSetWithQuery(targetSet, queryGraph, new MatchingOrder(queryGraph, null));
+				ArrayList<String> mappings = new ArrayList<String>();
+				for (State state : results) {
+					String pair = mode + " query " + q + " " + state.targetGraph.name;
+					assertEquals(pair, state.targetGraph.nodeCount(), state.targetCapacity());
+					assertEquals(pair, queryGraph.nodeCount(), state.queryCapacity());
+					assertTrue(pair, BruteForce.isEmbedding(state.targetGraph, queryGraph, mode, VF2Test.mapping(state)));
+					mappings.add(state.targetGraph.name + Arrays.toString(VF2Test.mapping(state)));
+				}
+				TreeSet<String> matched = new TreeSet<String>();
+				for (CompactGraph targetGraph : targetSet) {
+					if (!BruteForce.mappings(targetGraph, queryGraph, mode).isEmpty()) {
+						matched.add(targetGraph.name);
+					}
+				}
+				assertEquals(mode + " query " + q, matched, VF2Test.matchedTargets(results, mode));
+				assertEquals(mode + " query " + q, matched.size(), results.size());
+				earlier.add(results);
+				earlierMappings.add(mappings);
+			}
+
+			// the results of every query survive the queries after it
+			for (int q = 0 ; q < earlier.size() ; q++) {
+				ArrayList<String> mappings = new ArrayList<String>();
+				for (State state : earlier.get(q)) {
+					mappings.add(state.targetGraph.name + Arrays.toString(VF2Test.mapping(state)));
+				}
+				assertEquals(mode + " query " + q, earlierMappings.get(q), mappings);
+			}
+		}
+	}
+}
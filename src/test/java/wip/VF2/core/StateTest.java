@@ -0,0 +1,148 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Walks random sequences of extendMatch and backtrack, and checks after every step that the State
+ * holds what a recomputation from the current mapping gives, so backtrack restores exactly what it undid
+ */
+public class StateTest {
+
+	@Test
+	public void backtrackRestoresTheTerminalSets() {
+		Random random = new Random(2);
+		for (int p = 0 ; p < 300 ; p++) {
+			CompactGraph targetGraph = BruteForce.randomGraph(random, "t", 1 + random.nextInt(10), random.nextDouble() * 0.5, 2, 2);
+			CompactGraph queryGraph = BruteForce.randomGraph(random, "q", 1 + random.nextInt(targetGraph.nodeCount()),
+					random.nextDouble() * 0.5, 2, 2);
+			State state = new State(targetGraph, queryGraph);
+			ArrayList<int[]> mapped = new ArrayList<int[]>();
+			walk(random, state, mapped);
+
+			// a copy goes on independently of its original, and backtracks the pairs it was copied with
+			State copy = new State(state);
+			String before = describe(state);
+			walk(random, copy, new ArrayList<int[]>(mapped));
+			assertEquals(before, describe(state));
+			walk(random, state, mapped);
+		}
+	}
+
+	@Test
+	public void resetStateEqualsAFreshOne() {
+		Random random = new Random(3);
+		State state = new State(1, 1);
+		for (int p = 0 ; p < 300 ; p++) {
+			CompactGraph targetGraph = BruteForce.randomGraph(random, "t", 1 + random.nextInt(12), random.nextDouble() * 0.5, 2, 2);
+			CompactGraph queryGraph = BruteForce.randomGraph(random, "q", 1 + random.nextInt(targetGraph.nodeCount()),
+					random.nextDouble() * 0.5, 2, 2);
+			state.reset(targetGraph, queryGraph);
+			assertEquals(describe(new State(targetGraph, queryGraph)), describe(state));
+			walk(random, state, new ArrayList<int[]>());	// leaves a partial mapping for the next reset
+		}
+	}
+
+	// extend and backtrack at random, checking every step
+	private static void walk(Random random, State state, ArrayList<int[]> mapped) {
+		int steps = random.nextInt(4 * state.queryGraph.nodeCount() + 1);
+		for (int s = 0 ; s < steps ; s++) {
+			if (!state.unmapped2.isEmpty() && (mapped.isEmpty() || random.nextInt(3) != 0)) {
+				int target = pick(random, state.unmapped1);
+				int query = pick(random, state.unmapped2);
+				state.extendMatch(target, query);
+				mapped.add(new int[] {target, query});
+			} else if (!mapped.isEmpty()) {
+				int[] pair = mapped.remove(mapped.size() - 1);
+				state.backtrack(pair[0], pair[1]);
+			}
+			check(state, mapped);
+		}
+	}
+
+	private static int pick(Random random, IntBitSet set) {
+		int skip = random.nextInt(set.size());
+		int i = set.nextSetBit(0);
+		for (int k = 0 ; k < skip ; k++) {
+			i = set.nextSetBit(i + 1);
+		}
+		return i;
+	}
+
+	// compare with the stamps and sets recomputed from the pairs in depth order
+	private static void check(State state, ArrayList<int[]> mapped) {
+		assertEquals(mapped.size(), state.depth);
+		check(state.targetGraph, mapped, 0, state.core_1, state.in_1, state.out_1, state.T1in, state.T1out, state.unmapped1);
+		check(state.queryGraph, mapped, 1, state.core_2, state.in_2, state.out_2, state.T2in, state.T2out, state.unmapped2);
+	}
+
+	private static void check(CompactGraph graph, ArrayList<int[]> mapped, int side, int[] core, int[] in, int[] out,
+			IntBitSet tIn, IntBitSet tOut, IntBitSet unmapped) {
+		int n = graph.nodeCount();
+		int[] expectedCore = new int[n];
+		int[] expectedIn = new int[n];
+		int[] expectedOut = new int[n];
+		Arrays.fill(expectedCore, -1);
+		Arrays.fill(expectedIn, -1);
+		Arrays.fill(expectedOut, -1);
+		for (int d = 1 ; d <= mapped.size() ; d++) {
+			int v = mapped.get(d - 1)[side];
+			expectedCore[v] = mapped.get(d - 1)[1 - side];
+			for (int i = graph.inBegin(v) ; i < graph.inEnd(v) ; i++) {
+				if (expectedIn[graph.inNeighbor(i)] == -1) {
+					expectedIn[graph.inNeighbor(i)] = d;
+				}
+			}
+			for (int i = graph.outBegin(v) ; i < graph.outEnd(v) ; i++) {
+				if (expectedOut[graph.outNeighbor(i)] == -1) {
+					expectedOut[graph.outNeighbor(i)] = d;
+				}
+			}
+		}
+		int inSize = 0;
+		int outSize = 0;
+		int unmappedSize = 0;
+		for (int v = 0 ; v < n ; v++) {
+			assertEquals(expectedCore[v], core[v]);
+			assertEquals(expectedIn[v], in[v]);
+			assertEquals(expectedOut[v], out[v]);
+			boolean free = expectedCore[v] == -1;
+			assertEquals(free && expectedIn[v] != -1, tIn.contains(v));
+			assertEquals(free && expectedOut[v] != -1, tOut.contains(v));
+			assertEquals(free, unmapped.contains(v));
+			inSize += tIn.contains(v) ? 1 : 0;
+			outSize += tOut.contains(v) ? 1 : 0;
+			unmappedSize += free ? 1 : 0;
+		}
+		assertEquals(inSize, tIn.size());
+		assertEquals(outSize, tOut.size());
+		assertEquals(unmappedSize, unmapped.size());
+	}
+
+	private static String describe(State state) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(state.depth).append(' ').append(state.matched).append('\n');
+		int n1 = state.targetGraph.nodeCount();
+		int n2 = state.queryGraph.nodeCount();
+		for (int t = 0 ; t < n1 ; t++) {
+			builder.append(state.core_1[t]).append(',').append(state.in_1[t]).append(',').append(state.out_1[t])
+					.append(state.T1in.contains(t) ? " in" : "").append(state.T1out.contains(t) ? " out" : "")
+					.append(state.unmapped1.contains(t) ? " free" : "").append('\n');
+		}
+		for (int q = 0 ; q < n2 ; q++) {
+			builder.append(state.core_2[q]).append(',').append(state.in_2[q]).append(',').append(state.out_2[q])
+					.append(state.T2in.contains(q) ? " in" : "").append(state.T2out.contains(q) ? " out" : "")
+					.append(state.unmapped2.contains(q) ? " free" : "").append('\n');
+		}
+		builder.append(state.T1in.size()).append(' ').append(state.T1out.size()).append(' ').append(state.unmapped1.size())
+				.append(' ').append(state.T2in.size()).append(' ').append(state.T2out.size()).append(' ').append(state.unmapped2.size());
+		return builder.toString();
+	}
+}
@@ -0,0 +1,142 @@
+package wip.VF2.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.index.GraphIndex;
+
+/**
+ * Compares VF2 in every MatchingMode with BruteForce on small random graphs
+ */
+public class VF2Test {
+
+	private static final int PAIRS = 300;
+
+	@Test
+	public void matchAllFindsEveryMonomorphism() {
+		checkMatchAll(MatchingMode.MONOMORPHISM, 1);
+	}
+
+	@Test
+	public void matchAllFindsEveryInducedEmbedding() {
+		checkMatchAll(MatchingMode.INDUCED, 2);
+	}
+
+	@Test
+	public void matchAllFindsEveryIsomorphism() {
+		checkMatchAll(MatchingMode.ISOMORPHISM, 3);
+	}
+
+	@Test
+	public void matchGraphPairDecidesEveryMode() {
+		Random random = new Random(4);
+		for (MatchingMode mode : MatchingMode.values()) {
+			VF2 vf2 = new VF2(mode);
+			for (int p = 0 ; p < PAIRS ; p++) {
+				CompactGraph[] pair = randomPair(random, mode, "t");
+				boolean expected = !BruteForce.mappings(pair[0], pair[1], mode).isEmpty();
+				State state = vf2.matchGraphPair(pair[0], pair[1]);
+				assertEquals(mode + " pair " + p, expected, state.matched);
+				if (state.matched) {
+					assertTrue(mode + " pair " + p, BruteForce.isEmbedding(pair[0], pair[1], mode, mapping(state)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void matchQueryFindsEveryMatchingTarget() {
+		Random random = new Random(5);
+		for (MatchingMode mode : MatchingMode.values()) {
+			VF2 vf2 = new VF2(mode);
+			ParallelVF2 parallel = new ParallelVF2(4, mode);
+			try {
+				for (int q = 0 ; q < 20 ; q++) {
+					ArrayList<CompactGraph> targetSet = new ArrayList<CompactGraph>();
+					CompactGraph queryGraph = null;
+					for (int t = 0 ; t < 30 ; t++) {
+						CompactGraph[] pair = randomPair(random, mode, "t" + t);
+						targetSet.add(pair[0]);
+						if (queryGraph == null) {
+							queryGraph = pair[1];
+						}
+					}
+					TreeSet<String> expected = new TreeSet<String>();
+					for (CompactGraph targetGraph : targetSet) {
+						if (!BruteForce.mappings(targetGraph, queryGraph, mode).isEmpty()) {
+							expected.add(targetGraph.name);
+						}
+					}
+					GraphIndex index = new GraphIndex(targetSet);
+					assertEquals(mode + " query " + q, expected, matchedTargets(vf2.matchQuery(index, queryGraph), mode));
+					assertEquals(mode + " query " + q, expected, matchedTargets(parallel.matchQuery(index, queryGraph), mode));
+				}
+			} finally {
+				parallel.shutdown();
+			}
+		}
+	}
+
+	private static void checkMatchAll(MatchingMode mode, long seed) {
+		Random random = new Random(seed);
+		VF2 vf2 = new VF2(mode);
+		for (int p = 0 ; p < PAIRS ; p++) {
+			CompactGraph[] pair = randomPair(random, mode, "t");
+			final CompactGraph queryGraph = pair[1];
+			final TreeSet<String> found = new TreeSet<String>();
+			final int[] duplicates = new int[1];
+			vf2.matchAll(pair[0], queryGraph, new MatchVisitor() {
+				@Override
+				public boolean visit(State state) {
+					if (!found.add(Arrays.toString(mapping(state)))) {
+						duplicates[0]++;
+					}
+					return true;
+				}
+			}, Long.MAX_VALUE);
+			assertEquals(mode + " pair " + p, 0, duplicates[0]);
+			assertEquals(mode + " pair " + p, BruteForce.mappings(pair[0], queryGraph, mode), found);
+		}
+	}
+
+	// a target graph and a query graph; for isomorphism the query is usually the target renumbered
+	static CompactGraph[] randomPair(Random random, MatchingMode mode, String name) {
+		int targetSize = 1 + random.nextInt(7);
+		CompactGraph targetGraph = BruteForce.randomGraph(random, name, targetSize,
+				0.1 + 0.4 * random.nextDouble(), 2, 2);
+		CompactGraph queryGraph;
+		if (mode == MatchingMode.ISOMORPHISM && random.nextInt(4) != 0) {
+			queryGraph = BruteForce.permuted(random, "q", targetGraph);
+		} else {
+			int querySize = 1 + random.nextInt(Math.min(targetSize, 4));
+			queryGraph = BruteForce.randomGraph(random, "q", querySize, 0.1 + 0.5 * random.nextDouble(), 2, 2);
+		}
+		return new CompactGraph[] { targetGraph.prepare(), queryGraph.prepare() };
+	}
+
+	static int[] mapping(State state) {
+		return Arrays.copyOf(state.core_2, state.queryGraph.nodeCount());
+	}
+
+	static TreeSet<String> matchedTargets(QueryResult result, MatchingMode mode) {
+		return matchedTargets(result.matches, mode);
+	}
+
+	static TreeSet<String> matchedTargets(List<State> matches, MatchingMode mode) {
+		TreeSet<String> names = new TreeSet<String>();
+		for (State state : matches) {
+			assertTrue(BruteForce.isEmbedding(state.targetGraph, state.queryGraph, mode, mapping(state)));
+			names.add(state.targetGraph.name);
+		}
+		return names;
+	}
+}
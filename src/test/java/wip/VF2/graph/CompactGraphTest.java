@@ -0,0 +1,182 @@
+package wip.VF2.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wip.VF2.core.BruteForce;
+
+/**
+ * Builds CompactGraphs from edge matrices given in random order, and checks the rows, the edge lookup
+ * and the batch edits against the matrices
+ */
+public class CompactGraphTest {
+
+	@Test
+	public void rowsFollowTheEdgeMatrix() {
+		Random random = new Random(1);
+		CompactGraph.Builder builder = new CompactGraph.Builder(null);
+		CompactGraph previous = null;
+		String previousDescription = null;
+		for (int g = 0 ; g < 300 ; g++) {
+			int[][] matrix = randomMatrix(random, random.nextInt(9), random.nextDouble());
+			int[] labels = randomLabels(random, matrix.length);
+			CompactGraph graph = build(random, builder.reset("g" + g), labels, matrix);
+			assertEquals("g" + g, graph.name);
+			check(graph, labels, matrix);
+
+			// the reused builder does not touch the graphs it built before
+			if (previous != null) {
+				assertEquals(previousDescription, BruteForce.describe(previous));
+			}
+			previous = graph;
+			previousDescription = BruteForce.describe(graph);
+		}
+	}
+
+	@Test
+	public void batchEditsFollowTheEdgeMatrix() {
+		Random random = new Random(2);
+		for (int g = 0 ; g < 300 ; g++) {
+			int n = 1 + random.nextInt(8);
+			int[][] matrix = randomMatrix(random, n, random.nextDouble() * 0.6);
+			int[] labels = randomLabels(random, n);
+			CompactGraph graph = build(random, new CompactGraph.Builder("g"), labels, matrix);
+			if (random.nextBoolean()) {
+				graph = graph.prepare();
+			}
+			String before = BruteForce.describe(graph);
+
+			int k = random.nextInt(2 * n);
+			int[] sources = new int[k];
+			int[] targets = new int[k];
+			int[] edgeLabels = new int[k];
+			int[][] edited = new int[n][];
+			for (int v = 0 ; v < n ; v++) {
+				edited[v] = matrix[v].clone();
+			}
+			for (int i = 0 ; i < k ; i++) {
+				sources[i] = random.nextInt(n);
+				targets[i] = random.nextInt(n);
+				edgeLabels[i] = random.nextInt(4) - 1;	// the last edit of an edge wins
+				edited[sources[i]][targets[i]] = edgeLabels[i];
+			}
+			CompactGraph result = graph.withEdges(sources, targets, edgeLabels);
+			check(result, labels, edited);
+			assertEquals(graph.isPrepared(), result.isPrepared());
+			assertEquals(before, BruteForce.describe(graph));
+			boolean changed = false;
+			for (int v = 0 ; v < n ; v++) {
+				for (int w = 0 ; w < n ; w++) {
+					changed |= matrix[v][w] != edited[v][w];
+				}
+			}
+			if (!changed) {
+				assertSame(graph, result);
+			}
+
+			int source = random.nextInt(n);
+			int target = random.nextInt(n);
+			edited[source][target] = 1;
+			check(result.withEdge(source, target, 1), labels, edited);
+			edited[source][target] = -1;
+			check(result.withoutEdge(source, target), labels, edited);
+		}
+	}
+
+	@Test
+	public void editsOutsideTheGraphAreRejected() {
+		CompactGraph graph = new CompactGraph.Builder("g").addNode(0, 0).addNode(1, 0).addEdge(0, 1, 0).build();
+		int[][] edits = {{2, 0}, {0, 2}, {-1, 0}};
+		for (int[] edit : edits) {
+			try {
+				graph.withEdge(edit[0], edit[1], 0);
+				fail(edit[0] + " -> " + edit[1]);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	// the graph has exactly the edges of the matrix, in rows sorted by neighbor
+	private static void check(CompactGraph graph, int[] labels, int[][] matrix) {
+		int n = labels.length;
+		assertEquals(n, graph.nodeCount());
+		int m = 0;
+		for (int v = 0 ; v < n ; v++) {
+			assertEquals(labels[v], graph.label(v));
+			int outDegree = 0;
+			int inDegree = 0;
+			for (int w = 0 ; w < n ; w++) {
+				assertEquals(matrix[v][w], graph.edgeLabel(v, w));
+				outDegree += matrix[v][w] >= 0 ? 1 : 0;
+				inDegree += matrix[w][v] >= 0 ? 1 : 0;
+			}
+			assertEquals(outDegree, graph.outDegree(v));
+			assertEquals(inDegree, graph.inDegree(v));
+			m += outDegree;
+
+			int last = -1;
+			for (int i = graph.outBegin(v) ; i < graph.outEnd(v) ; i++) {
+				assertTrue(graph.outNeighbor(i) > last);
+				last = graph.outNeighbor(i);
+				assertEquals(matrix[v][last], graph.outLabel(i));
+			}
+			last = -1;
+			for (int i = graph.inBegin(v) ; i < graph.inEnd(v) ; i++) {
+				assertTrue(graph.inNeighbor(i) > last);
+				last = graph.inNeighbor(i);
+				assertEquals(matrix[last][v], graph.inLabel(i));
+			}
+		}
+		assertEquals(m, graph.edgeCount());
+	}
+
+	// nodes and edges are added in random order
+	private static CompactGraph build(Random random, CompactGraph.Builder builder, int[] labels, int[][] matrix) {
+		ArrayList<int[]> items = new ArrayList<int[]>();
+		for (int v = 0 ; v < labels.length ; v++) {
+			items.add(new int[] {v});
+			for (int w = 0 ; w < labels.length ; w++) {
+				if (matrix[v][w] >= 0) {
+					items.add(new int[] {v, w});
+				}
+			}
+		}
+		Collections.shuffle(items, random);
+		for (int[] item : items) {
+			if (item.length == 1) {
+				builder.addNode(item[0], labels[item[0]]);
+			} else {
+				builder.addEdge(item[0], item[1], matrix[item[0]][item[1]]);
+			}
+		}
+		return builder.build();
+	}
+
+	// edge labels, -1 for no edge; self loops included
+	private static int[][] randomMatrix(Random random, int n, double density) {
+		int[][] matrix = new int[n][n];
+		for (int v = 0 ; v < n ; v++) {
+			for (int w = 0 ; w < n ; w++) {
+				matrix[v][w] = random.nextDouble() < density ? random.nextInt(3) : -1;
+			}
+		}
+		return matrix;
+	}
+
+	private static int[] randomLabels(Random random, int n) {
+		int[] labels = new int[n];
+		for (int v = 0 ; v < n ; v++) {
+			labels[v] = random.nextInt(5);
+		}
+		return labels;
+	}
+}
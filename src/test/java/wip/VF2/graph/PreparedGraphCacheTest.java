@@ -0,0 +1,148 @@
+package wip.VF2.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import wip.VF2.core.BruteForce;
+import wip.VF2.io.BinaryGraphFile;
+
+/**
+ * Checks the memory budget, the hits and the eviction order of PreparedGraphCache, alone and under concurrent readers
+ */
+public class PreparedGraphCacheTest {
+
+	@Test
+	public void staysWithinTheBudget() {
+		Random random = new Random(14);
+		List<CompactGraph> source = randomGraphs(random, 200);
+		long budget = 20 * source.get(0).prepare().memoryBytes();
+		PreparedGraphCache cache = new PreparedGraphCache(source, budget);
+		for (int k = 0 ; k < 5000 ; k++) {
+			int i = random.nextInt(source.size());
+			CompactGraph graph = cache.get(i);
+			assertTrue(graph.isPrepared());
+			assertEquals(BruteForce.describe(source.get(i)), BruteForce.describe(graph));
+			assertTrue(cache.getUsedBytes() <= budget || cache.getCachedCount() == 1);
+		}
+		assertEquals(5000, cache.getHitCount() + cache.getMissCount());
+		assertEquals(cache.getMissCount() - cache.getCachedCount(), cache.getEvictionCount());
+		assertTrue(cache.getEvictionCount() > 0);
+	}
+
+	@Test
+	public void keepsHitGraphsAndPreparesEvictedOnesAgain() {
+		Random random = new Random(15);
+		List<CompactGraph> source = randomGraphs(random, 100);
+		long budget = 10 * source.get(0).prepare().memoryBytes();
+		PreparedGraphCache cache = new PreparedGraphCache(source, budget);
+
+		CompactGraph hot = cache.get(0);
+		assertSame(hot, cache.get(0));
+		assertEquals(1, cache.getHitCount());
+		for (int i = 1 ; i < source.size() ; i++) {
+			cache.get(i);
+			assertSame("graph 0 is requested between the others and never evicted", hot, cache.get(0));
+		}
+
+		// graph 1 was evicted long ago
+		long misses = cache.getMissCount();
+		CompactGraph again = cache.get(1);
+		assertEquals(misses + 1, cache.getMissCount());
+		assertSame(again, cache.get(1));
+	}
+
+	@Test
+	public void onlyPreparedDataIsChargedForAResidentSource() {
+		Random random = new Random(16);
+		List<CompactGraph> source = randomGraphs(random, 50);
+		PreparedGraphCache resident = new PreparedGraphCache(source, PreparedGraphCache.UNLIMITED, true);
+		PreparedGraphCache decoded = new PreparedGraphCache(source, PreparedGraphCache.UNLIMITED, false);
+		long preparedBytes = 0;
+		long memoryBytes = 0;
+		for (int i = 0 ; i < source.size() ; i++) {
+			preparedBytes += resident.get(i).preparedBytes();
+			memoryBytes += decoded.get(i).memoryBytes();
+		}
+		assertEquals(preparedBytes, resident.getUsedBytes());
+		assertEquals(memoryBytes, decoded.getUsedBytes());
+		assertEquals(0, resident.getEvictionCount());
+	}
+
+	@Test
+	public void concurrentReadersSeeTheirGraphsWithinTheBudget() throws InterruptedException {
+		Random random = new Random(17);
+		final List<CompactGraph> source = randomGraphs(random, 300);
+		final String[] descriptions = new String[source.size()];
+		for (int i = 0 ; i < source.size() ; i++) {
+			descriptions[i] = BruteForce.describe(source.get(i));
+		}
+		final long budget = 30 * source.get(0).prepare().memoryBytes();
+		final PreparedGraphCache cache = new PreparedGraphCache(source, budget);
+		final AtomicInteger wrong = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int t = 0 ; t < threads.length ; t++) {
+			final long seed = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random(seed);
+					for (int k = 0 ; k < 20000 ; k++) {
+						int i = random.nextInt(10) < 7 ? random.nextInt(20) : random.nextInt(source.size());
+						if (!descriptions[i].equals(BruteForce.describe(cache.get(i)))) {
+							wrong.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, wrong.get());
+		assertEquals(8 * 20000, cache.getHitCount() + cache.getMissCount());
+		assertTrue(cache.getUsedBytes() <= budget);
+		assertTrue(cache.getHitCount() > cache.getMissCount());
+	}
+
+	@Test
+	public void binaryFileListKeepsNoGraphs() throws Exception {
+		Random random = new Random(18);
+		List<CompactGraph> graphs = randomGraphs(random, 20);
+		Path path = Files.createTempFile("prepared", ".bin");
+		try {
+			BinaryGraphFile.write(graphs.iterator(), path);
+			BinaryGraphFile file = BinaryGraphFile.open(path);
+			try {
+				List<CompactGraph> list = file.asList();
+				assertNotSame(list.get(3), list.get(3));
+				PreparedGraphCache cache = new PreparedGraphCache(list, PreparedGraphCache.UNLIMITED);
+				assertSame(cache.get(3), cache.get(3));
+				assertEquals(cache.get(3).memoryBytes(), cache.getUsedBytes());
+			} finally {
+				file.close();
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	private static List<CompactGraph> randomGraphs(Random random, int count) {
+		ArrayList<CompactGraph> graphs = new ArrayList<CompactGraph>();
+		for (int i = 0 ; i < count ; i++) {
+			graphs.add(BruteForce.randomGraph(random, "g" + i, 6, 0.3, 3, 2));
+		}
+		return graphs;
+	}
+}
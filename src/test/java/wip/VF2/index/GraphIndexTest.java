@@ -0,0 +1,163 @@
+package wip.VF2.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wip.VF2.core.BruteForce;
+import wip.VF2.core.MatchingMode;
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Filters random target sets with random queries and checks that no graph BruteForce matches is dropped,
+ * that each dropped graph fails the condition it is counted under, and that the statistics add up
+ */
+public class GraphIndexTest {
+
+	@Test
+	public void filterKeepsEveryMatchingTarget() {
+		Random random = new Random(8);
+		List<CompactGraph> graphSet = new ArrayList<CompactGraph>();
+		for (int t = 0 ; t < 200 ; t++) {
+			graphSet.add(BruteForce.randomGraph(random, "t" + t, 1 + random.nextInt(7), 0.1 + 0.4 * random.nextDouble(), 3, 2));
+		}
+		GraphIndex index = new GraphIndex(graphSet);
+		long[] expectedCounts = new long[GraphSummary.Check.values().length];
+		long checked = 0;
+		for (int q = 0 ; q < 40 ; q++) {
+			CompactGraph queryGraph = q % 4 == 0
+					? BruteForce.permuted(random, "q", graphSet.get(random.nextInt(graphSet.size())))
+					: BruteForce.randomGraph(random, "q", 1 + random.nextInt(4), 0.2 + 0.4 * random.nextDouble(), 3, 2);
+			int[] positions = index.filterPositions(queryGraph);
+			checked += graphSet.size();
+
+			GraphSummary query = new GraphSummary(queryGraph);
+			ArrayList<Integer> expected = new ArrayList<Integer>();
+			for (int i = 0 ; i < graphSet.size() ; i++) {
+				GraphSummary.Check reason = expectedCheck(graphSet.get(i), queryGraph);
+				expectedCounts[reason.ordinal()]++;
+				if (reason == GraphSummary.Check.PASSED) {
+					expected.add(i);
+				} else {
+					// monomorphism is the weakest mode, so nothing any mode matches is dropped
+					assertTrue("query " + q, BruteForce.mappings(graphSet.get(i), queryGraph, MatchingMode.MONOMORPHISM).isEmpty());
+				}
+				assertEquals("query " + q, reason, index.getSummary(i).check(query));
+			}
+			assertEquals("query " + q, expected.toString(), Arrays.toString(positions));
+			assertEquals(positions.length, index.filter(queryGraph).size());
+			checked += graphSet.size();
+		}
+
+		// every query was filtered twice, through filterPositions and filter
+		long filtered = 0;
+		for (GraphSummary.Check reason : GraphSummary.Check.values()) {
+			if (reason != GraphSummary.Check.PASSED) {
+				assertEquals(reason.toString(), 2 * expectedCounts[reason.ordinal()], index.getFilteredCount(reason));
+				assertTrue(reason.toString(), index.getFilteredCount(reason) > 0);
+				filtered += index.getFilteredCount(reason);
+			}
+		}
+		assertEquals(checked, index.getCheckedCount());
+		assertEquals(filtered, index.getFilteredCount());
+		assertEquals(0, index.getFilteredByPathsCount());
+	}
+
+	@Test
+	public void passesCountsLikeFilter() {
+		Random random = new Random(9);
+		List<CompactGraph> graphSet = new ArrayList<CompactGraph>();
+		for (int t = 0 ; t < 100 ; t++) {
+			graphSet.add(BruteForce.randomGraph(random, "t" + t, 1 + random.nextInt(6), 0.3, 3, 2));
+		}
+		GraphIndex byFilter = new GraphIndex(graphSet);
+		GraphIndex byPasses = new GraphIndex(graphSet);
+		for (int q = 0 ; q < 20 ; q++) {
+			CompactGraph queryGraph = BruteForce.randomGraph(random, "q", 1 + random.nextInt(4), 0.3, 3, 2);
+			GraphSummary query = new GraphSummary(queryGraph);
+			int[] positions = byFilter.filterPositions(queryGraph);
+			int[] passed = new int[graphSet.size()];
+			int size = 0;
+			for (int i = 0 ; i < graphSet.size() ; i++) {
+				if (byPasses.passes(i, query)) {
+					passed[size++] = i;
+				}
+			}
+			assertArrayEquals(positions, Arrays.copyOf(passed, size));
+		}
+		assertEquals(byFilter.getCheckedCount(), byPasses.getCheckedCount());
+		for (GraphSummary.Check reason : GraphSummary.Check.values()) {
+			assertEquals(byFilter.getFilteredCount(reason), byPasses.getFilteredCount(reason));
+		}
+	}
+
+	// the first failed condition, recomputed from the graphs directly
+	private static GraphSummary.Check expectedCheck(CompactGraph targetGraph, CompactGraph queryGraph) {
+		if (queryGraph.nodeCount() > targetGraph.nodeCount() || queryGraph.edgeCount() > targetGraph.edgeCount()) {
+			return GraphSummary.Check.SIZE;
+		}
+		HashMap<Integer, Integer> nodeLabels = new HashMap<Integer, Integer>();
+		HashMap<Integer, Integer> edgeLabels = new HashMap<Integer, Integer>();
+		for (int v = 0 ; v < targetGraph.nodeCount() ; v++) {
+			add(nodeLabels, targetGraph.label(v), 1);
+		}
+		for (int v = 0 ; v < queryGraph.nodeCount() ; v++) {
+			add(nodeLabels, queryGraph.label(v), -1);
+		}
+		for (int i = 0 ; i < targetGraph.edgeCount() ; i++) {
+			add(edgeLabels, targetGraph.outLabel(i), 1);
+		}
+		for (int i = 0 ; i < queryGraph.edgeCount() ; i++) {
+			add(edgeLabels, queryGraph.outLabel(i), -1);
+		}
+		if (negative(nodeLabels)) {
+			return GraphSummary.Check.NODE_LABELS;
+		}
+		if (negative(edgeLabels)) {
+			return GraphSummary.Check.EDGE_LABELS;
+		}
+		Integer[][] target = degrees(targetGraph);
+		Integer[][] query = degrees(queryGraph);
+		for (int k = 0 ; k < queryGraph.nodeCount() ; k++) {
+			if (query[0][k] > target[0][k] || query[1][k] > target[1][k]) {
+				return GraphSummary.Check.DEGREES;
+			}
+		}
+		return GraphSummary.Check.PASSED;
+	}
+
+	private static void add(HashMap<Integer, Integer> counts, int label, int delta) {
+		Integer count = counts.get(label);
+		counts.put(label, (count == null ? 0 : count) + delta);
+	}
+
+	private static boolean negative(HashMap<Integer, Integer> counts) {
+		for (int count : counts.values()) {
+			if (count < 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// out and in degrees, each sorted descending
+	private static Integer[][] degrees(CompactGraph graph) {
+		Integer[][] degrees = new Integer[2][graph.nodeCount()];
+		for (int v = 0 ; v < graph.nodeCount() ; v++) {
+			degrees[0][v] = graph.outDegree(v);
+			degrees[1][v] = graph.inDegree(v);
+		}
+		Arrays.sort(degrees[0], Collections.reverseOrder());
+		Arrays.sort(degrees[1], Collections.reverseOrder());
+		return degrees;
+	}
+}
@@ -0,0 +1,230 @@
+package wip.VF2.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wip.VF2.core.BruteForce;
+import wip.VF2.graph.CompactGraph;
+
+/**
+ * Replays random batches of graph and edge changes against a GraphStore and a plain list model,
+ * and checks every snapshot, old and new, against the model through the overlay
+ */
+public class GraphStoreTest {
+
+	private static final int PATH_LENGTH = 3;
+
+	@Test
+	public void snapshotsFollowTheModel() {
+		Random random = new Random(24);
+		Model model = new Model();
+		for (int i = 0 ; i < 30 ; i++) {
+			model.add(randomGraph(random));
+		}
+		GraphStore store = new GraphStore(model.graphs(), PathIndex.build(model.graphs(), PATH_LENGTH));
+		check(store.snapshot(), model, random);
+
+		ArrayList<GraphStore.Snapshot> oldSnapshots = new ArrayList<GraphStore.Snapshot>();
+		ArrayList<Model> oldModels = new ArrayList<Model>();
+		for (int round = 0 ; round < 400 ; round++) {
+			Model next = model.copy();
+			GraphStore.Update update = store.update();
+			boolean valid = true;
+			int operations = 1 + random.nextInt(6);
+			for (int o = 0 ; o < operations ; o++) {
+				int kind = random.nextInt(10);
+				if (kind == 0) {
+					valid = false;
+					invalid(random, update, next);
+				} else if (kind <= 2 || next.size() < 5) {
+					CompactGraph graph = randomGraph(random);
+					update.addGraph(graph);
+					next.add(graph);
+				} else if (kind == 3) {
+					int position = random.nextInt(next.size());
+					update.removeGraph(next.ids.get(position));
+					next.remove(position);
+				} else {
+					int position = random.nextInt(next.size());
+					int n = next.labels.get(position).length;
+					int source = random.nextInt(n);
+					int target = random.nextInt(n);
+					int label = kind <= 6 ? random.nextInt(2) : -1;
+					if (label < 0) {
+						update.removeEdge(next.ids.get(position), source, target);
+					} else {
+						update.addEdge(next.ids.get(position), source, target, label);
+					}
+					next.edges.get(position)[source][target] = label;
+				}
+			}
+
+			GraphStore.Snapshot before = store.snapshot();
+			if (valid) {
+				GraphStore.Snapshot snapshot = update.commit();
+				assertSame(snapshot, store.snapshot());
+				model = next;
+			} else {
+				try {
+					update.commit();
+					fail("round " + round + ": invalid batch committed");
+				} catch (IllegalArgumentException e) {
+					assertSame("round " + round + ": invalid batch published", before, store.snapshot());
+				}
+			}
+			check(store.snapshot(), model, random);
+
+			// the ids of an invalid batch are not taken
+			if (!valid) {
+				CompactGraph graph = randomGraph(random);
+				assertEquals("round " + round, model.nextId, store.addGraph(graph));
+				model.add(graph);
+				check(store.snapshot(), model, random);
+			}
+
+			if (round % 50 == 0) {
+				oldSnapshots.add(store.snapshot());
+				oldModels.add(model.copy());
+			}
+		}
+		for (int i = 0 ; i < oldSnapshots.size() ; i++) {
+			check(oldSnapshots.get(i), oldModels.get(i), random);
+		}
+	}
+
+	// an operation that makes the batch invalid
+	private static void invalid(Random random, GraphStore.Update update, Model model) {
+		int position = random.nextInt(model.size());
+		switch (random.nextInt(3)) {
+		case 0:
+			update.removeGraph(model.nextId + 1000);
+			break;
+		case 1:
+			update.addEdge(model.ids.get(position), model.labels.get(position).length, 0, 0);
+			break;
+		default:
+			update.removeGraph(model.ids.get(position));
+			update.removeEdge(model.ids.get(position), 0, 0);	// the graph is gone
+		}
+	}
+
+	private static void check(GraphStore.Snapshot snapshot, Model model, Random random) {
+		List<CompactGraph> graphs = model.graphs();
+		assertEquals(model.size(), snapshot.size());
+		List<CompactGraph> graphSet = snapshot.getGraphSet();
+		assertEquals(model.size(), graphSet.size());
+		int maxNodeCount = 0;
+		for (int p = 0 ; p < model.size() ; p++) {
+			int id = model.ids.get(p);
+			assertEquals(id, snapshot.idOf(p));
+			assertEquals(p, snapshot.positionOf(id));
+			assertEquals(BruteForce.describe(graphs.get(p)), BruteForce.describe(snapshot.get(id)));
+			assertSame(snapshot.get(id), graphSet.get(p));
+			maxNodeCount = Math.max(maxNodeCount, graphs.get(p).nodeCount());
+		}
+		for (int id : model.removed) {
+			assertEquals(-1, snapshot.positionOf(id));
+		}
+
+		GraphIndex index = snapshot.getIndex();
+		GraphIndex fresh = new GraphIndex(graphs);
+		assertTrue(index.getMaxNodeCount() >= maxNodeCount);
+		for (int label = 0 ; label < 3 ; label++) {
+			assertEquals(fresh.nodeLabelFrequency(label), index.nodeLabelFrequency(label));
+		}
+		PathIndex paths = PathIndex.build(graphs, PATH_LENGTH);
+		fresh.setPathIndex(paths);
+		for (int q = 0 ; q < 5 ; q++) {
+			CompactGraph queryGraph = BruteForce.randomGraph(random, "q", 1 + random.nextInt(3), 0.4, 2, 2);
+			assertArrayEquals(paths.candidates(queryGraph), index.pathCandidates(queryGraph));
+			assertArrayEquals(fresh.filterPositions(queryGraph), index.filterPositions(queryGraph));
+		}
+	}
+
+	private static CompactGraph randomGraph(Random random) {
+		return BruteForce.randomGraph(random, "g", 1 + random.nextInt(5), 0.3, 2, 2).prepare();
+	}
+
+	/**
+	 * The graph set as lists of ids, node labels and edge label matrices
+	 */
+	private static class Model {
+
+		final ArrayList<Integer> ids = new ArrayList<Integer>();
+		final ArrayList<int[]> labels = new ArrayList<int[]>();
+		final ArrayList<int[][]> edges = new ArrayList<int[][]>();
+		final ArrayList<Integer> removed = new ArrayList<Integer>();
+		int nextId = 0;
+
+		int size() {
+			return ids.size();
+		}
+
+		void add(CompactGraph graph) {
+			int n = graph.nodeCount();
+			int[] nodeLabels = new int[n];
+			int[][] matrix = new int[n][n];
+			for (int v = 0 ; v < n ; v++) {
+				nodeLabels[v] = graph.label(v);
+				for (int w = 0 ; w < n ; w++) {
+					matrix[v][w] = graph.edgeLabel(v, w);
+				}
+			}
+			ids.add(nextId++);
+			labels.add(nodeLabels);
+			edges.add(matrix);
+		}
+
+		void remove(int position) {
+			removed.add(ids.remove(position));
+			labels.remove(position);
+			edges.remove(position);
+		}
+
+		List<CompactGraph> graphs() {
+			ArrayList<CompactGraph> graphs = new ArrayList<CompactGraph>();
+			for (int p = 0 ; p < size() ; p++) {
+				int[] nodeLabels = labels.get(p);
+				int[][] matrix = edges.get(p);
+				CompactGraph.Builder builder = new CompactGraph.Builder("g");
+				for (int v = 0 ; v < nodeLabels.length ; v++) {
+					builder.addNode(v, nodeLabels[v]);
+				}
+				for (int v = 0 ; v < nodeLabels.length ; v++) {
+					for (int w = 0 ; w < nodeLabels.length ; w++) {
+						if (matrix[v][w] >= 0) {
+							builder.addEdge(v, w, matrix[v][w]);
+						}
+					}
+				}
+				graphs.add(builder.build().prepare());
+			}
+			return graphs;
+		}
+
+		Model copy() {
+			Model copy = new Model();
+			for (int p = 0 ; p < size() ; p++) {
+				copy.ids.add(ids.get(p));
+				copy.labels.add(labels.get(p));
+				int[][] matrix = new int[edges.get(p).length][];
+				for (int v = 0 ; v < matrix.length ; v++) {
+					matrix[v] = edges.get(p)[v].clone();
+				}
+				copy.edges.add(matrix);
+			}
+			copy.removed.addAll(removed);
+			copy.nextId = nextId;
+			return copy;
+		}
+	}
+}
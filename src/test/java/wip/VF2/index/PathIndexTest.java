@@ -0,0 +1,186 @@
+package wip.VF2.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wip.VF2.core.BruteForce;
+import wip.VF2.core.MatchingMode;
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.io.BinaryGraphFile;
+
+/**
+ * Checks that the path index never drops a target that BruteForce matches, that its file round-trips
+ * and is rebuilt when it cannot be used, and that updates give the lists a fresh build would
+ */
+public class PathIndexTest {
+
+	@Test
+	public void candidatesHoldEveryMatchedTarget() {
+		Random random = new Random(23);
+		for (MatchingMode mode : MatchingMode.values()) {
+			List<CompactGraph> targetSet = randomGraphs(random, 40, 7);
+			for (int maxLength = 1 ; maxLength <= 3 ; maxLength++) {
+				PathIndex index = PathIndex.build(targetSet, maxLength);
+				int pruned = 0;
+				for (int q = 0 ; q < 40 ; q++) {
+					CompactGraph queryGraph = mode == MatchingMode.ISOMORPHISM && q % 2 == 0
+							? BruteForce.permuted(random, "q", targetSet.get(random.nextInt(targetSet.size())))
+							: BruteForce.randomGraph(random, "q", 1 + random.nextInt(4), 0.2 + 0.4 * random.nextDouble(), 2, 2);
+					int[] candidates = index.candidates(queryGraph);
+					assertNotNull(candidates);
+					pruned += targetSet.size() - candidates.length;
+					for (int t = 0 ; t < targetSet.size() ; t++) {
+						if (!BruteForce.mappings(targetSet.get(t), queryGraph, mode).isEmpty()) {
+							assertTrue(mode + " query " + q + " target " + t, Arrays.binarySearch(candidates, t) >= 0);
+						}
+					}
+				}
+				assertTrue(mode + " length " + maxLength, pruned > 0);
+			}
+		}
+		PathIndex index = PathIndex.build(randomGraphs(random, 5, 4), 2);
+		assertNull(index.candidates(new CompactGraph.Builder("empty").build()));
+	}
+
+	@Test
+	public void fileRoundTrips() throws IOException {
+		Random random = new Random(24);
+		List<CompactGraph> targetSet = randomGraphs(random, 30, 6);
+		PathIndex index = PathIndex.build(targetSet, 3);
+		Path file = Files.createTempFile("paths", ".idx");
+		try {
+			index.save(file);
+			PathIndex loaded = PathIndex.load(file);
+			assertEquals(3, loaded.getMaxLength());
+			assertEquals(targetSet.size(), loaded.getGraphCount());
+			assertEquals(index.getFeatureCount(), loaded.getFeatureCount());
+			assertTrue(loaded.covers(targetSet));
+			assertSameLists(index.lists(), loaded.lists());
+
+			// another graph set or path length is not served from the file
+			List<CompactGraph> otherSet = new ArrayList<CompactGraph>(targetSet);
+			otherSet.set(7, BruteForce.randomGraph(random, "other", 5, 0.5, 2, 2));
+			assertFalse(loaded.covers(otherSet));
+			assertSameLists(PathIndex.build(otherSet, 3).lists(), PathIndex.loadOrBuild(file, otherSet, 3).lists());
+			assertSameLists(PathIndex.build(otherSet, 2).lists(), PathIndex.loadOrBuild(file, otherSet, 2).lists());
+			assertEquals(2, PathIndex.load(file).getMaxLength());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void unusableFilesAreRebuilt() throws IOException {
+		Random random = new Random(25);
+		List<CompactGraph> targetSet = randomGraphs(random, 30, 6);
+		Map<Long, int[][]> expected = PathIndex.build(targetSet, 3).lists();
+		Path file = Files.createTempFile("paths", ".idx");
+		try {
+			PathIndex.build(targetSet, 3).save(file);
+			byte[] content = Files.readAllBytes(file);
+			int[] lengths = {0, 6, 30, content.length / 2, content.length - 1};
+			for (int length : lengths) {
+				Files.write(file, Arrays.copyOf(content, length));
+				assertSameLists(expected, PathIndex.loadOrBuild(file, targetSet, 3).lists());
+				assertEquals("cut at " + length, content.length, Files.size(file));
+				assertTrue(PathIndex.load(file).covers(targetSet));
+			}
+
+			// a file of another kind
+			BinaryGraphFile.write(targetSet.iterator(), file);
+			assertNull(PathIndex.load(file));
+			assertSameLists(expected, PathIndex.loadOrBuild(file, targetSet, 3).lists());
+			assertTrue(PathIndex.load(file).covers(targetSet));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void updatesGiveTheListsOfAFreshBuild() {
+		Random random = new Random(26);
+		CompactGraph removed = new CompactGraph.Builder("removed").build();	// has no paths
+		List<CompactGraph> graphs = randomGraphs(random, 40, 6);	// by key, removed graphs stay as empty ones
+		int liveCount = graphs.size();
+		PathIndex index = PathIndex.build(graphs, 3);
+		int merges = 0;
+		for (int round = 0 ; round < 300 ; round++) {
+			HashMap<Integer, CompactGraph> removedGraphs = new HashMap<Integer, CompactGraph>();
+			HashMap<Integer, CompactGraph> addedGraphs = new HashMap<Integer, CompactGraph>();
+			int changes = 1 + random.nextInt(3);
+			for (int c = 0 ; c < changes ; c++) {
+				int kind = random.nextInt(4);
+				int key = random.nextInt(graphs.size());
+				if (kind == 0) {	// add
+					key = graphs.size();
+					CompactGraph graph = randomGraph(random, 6);
+					graphs.add(graph);
+					addedGraphs.put(key, graph);
+					liveCount++;
+				} else if (graphs.get(key) == removed || removedGraphs.containsKey(key) || addedGraphs.containsKey(key)) {
+					continue;
+				} else if (kind == 1) {	// remove
+					removedGraphs.put(key, graphs.get(key));
+					graphs.set(key, removed);
+					liveCount--;
+				} else {	// edit
+					CompactGraph graph = randomGraph(random, 6);
+					removedGraphs.put(key, graphs.get(key));
+					addedGraphs.put(key, graph);
+					graphs.set(key, graph);
+				}
+			}
+			long overlay = index.getOverlayCount();
+			index = index.update(removedGraphs, addedGraphs);
+			if (index.getOverlayCount() < overlay) {
+				merges++;
+			}
+
+			PathIndex fresh = PathIndex.build(graphs, 3);
+			assertEquals(liveCount, index.getGraphCount());
+			assertEquals("round " + round, fresh.getFeatureCount(), index.getFeatureCount());
+			assertSameLists(fresh.lists(), index.lists());
+			for (int q = 0 ; q < 3 ; q++) {
+				CompactGraph queryGraph = BruteForce.randomGraph(random, "q", 1 + random.nextInt(3), 0.4, 2, 2);
+				assertArrayEquals("round " + round, fresh.candidates(queryGraph), index.candidates(queryGraph));
+			}
+		}
+		assertTrue(merges > 0);
+		assertTrue(index.getOverlayCount() > 0);
+	}
+
+	private static void assertSameLists(Map<Long, int[][]> expected, Map<Long, int[][]> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<Long, int[][]> entry : expected.entrySet()) {
+			assertArrayEquals("feature " + entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+		}
+	}
+
+	private static List<CompactGraph> randomGraphs(Random random, int count, int maxNodeCount) {
+		ArrayList<CompactGraph> graphs = new ArrayList<CompactGraph>();
+		for (int i = 0 ; i < count ; i++) {
+			graphs.add(randomGraph(random, maxNodeCount));
+		}
+		return graphs;
+	}
+
+	private static CompactGraph randomGraph(Random random, int maxNodeCount) {
+		return BruteForce.randomGraph(random, "g", 1 + random.nextInt(maxNodeCount), 0.1 + 0.4 * random.nextDouble(), 2, 2);
+	}
+}
@@ -0,0 +1,145 @@
+package wip.VF2.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wip.VF2.core.BruteForce;
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.index.GraphSummary;
+
+/**
+ * Writes random graphs to a binary graph file and reads them back, with their summaries,
+ * and checks that files of another format are rejected
+ */
+public class BinaryGraphFileTest {
+
+	@Test
+	public void graphsAndSummariesRoundTrip() throws IOException {
+		Random random = new Random(12);
+		List<CompactGraph> graphs = new ArrayList<CompactGraph>();
+		graphs.add(new CompactGraph.Builder("empty").build());
+		for (int i = 0 ; i < 200 ; i++) {
+			// names of every length modulo 4, to cover the padding
+			String name = "graph \u00e9" + "xyz".substring(0, i % 4) + i;
+			graphs.add(BruteForce.randomGraph(random, name, 1 + random.nextInt(12), random.nextDouble() * 0.6, 3, 3));
+		}
+		Path path = Files.createTempFile("graphs", ".bin");
+		try {
+			assertEquals(graphs.size(), BinaryGraphFile.write(graphs.iterator(), path));
+			assertTrue(BinaryGraphFile.isBinaryGraphFile(path));
+
+			BinaryGraphFile file = BinaryGraphFile.open(path);
+			GraphSummary[] summaries;
+			List<CompactGraph> list;
+			try {
+				assertEquals(graphs.size(), file.size());
+				summaries = file.readSummaries();
+				GraphSummary[] again = file.readSummaries();	// a second pass starts over
+				for (int i = 0 ; i < graphs.size() ; i++) {
+					assertArrayEquals(bytes(summaries[i]), bytes(again[i]));
+				}
+				list = file.asList();
+				assertEquals(graphs.size(), list.size());
+			} finally {
+				file.close();
+			}
+
+			// the mapping outlives the channel
+			for (int i = 0 ; i < graphs.size() ; i++) {
+				CompactGraph expected = graphs.get(i);
+				CompactGraph graph = list.get(i);
+				assertEquals(expected.name, graph.name);
+				assertEquals(BruteForce.describe(expected), BruteForce.describe(graph));
+				assertEquals(inEdges(expected), inEdges(graph));
+				assertArrayEquals("graph " + i, bytes(new GraphSummary(expected)), bytes(summaries[i]));
+			}
+			try {
+				file.readSummaries();
+				fail("summaries read from a closed file");
+			} catch (IOException e) {
+				// expected
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void otherFormatsAreRejected() throws IOException {
+		List<CompactGraph> graphs = new ArrayList<CompactGraph>();
+		graphs.add(BruteForce.randomGraph(new Random(13), "g", 5, 0.4, 2, 2));
+		Path path = Files.createTempFile("graphs", ".bin");
+		try {
+			// a text graph file
+			Files.write(path, "t # 0\nv 0 1\nv 1 2\ne 0 1 0\n".getBytes("UTF-8"));
+			assertFalse(BinaryGraphFile.isBinaryGraphFile(path));
+			assertRejected(path);
+
+			// a file cut inside the header
+			BinaryGraphFile.write(graphs.iterator(), path);
+			byte[] content = Files.readAllBytes(path);
+			Files.write(path, Arrays.copyOf(content, 12));
+			assertFalse(BinaryGraphFile.isBinaryGraphFile(path));
+			assertRejected(path);
+
+			// another version, e.g. a file without summaries
+			Files.write(path, content);
+			RandomAccessFile raw = new RandomAccessFile(path.toFile(), "rw");
+			try {
+				raw.seek(4);
+				raw.writeInt(1);
+			} finally {
+				raw.close();
+			}
+			assertTrue(BinaryGraphFile.isBinaryGraphFile(path));
+			assertRejected(path);
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	private static void assertRejected(Path path) {
+		try {
+			BinaryGraphFile.open(path).close();
+			fail(path + " opened");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static String inEdges(CompactGraph graph) {
+		StringBuilder builder = new StringBuilder();
+		for (int v = 0 ; v < graph.nodeCount() ; v++) {
+			builder.append(v).append(':');
+			for (int i = graph.inBegin(v) ; i < graph.inEnd(v) ; i++) {
+				builder.append(' ').append(graph.inNeighbor(i)).append('/').append(graph.inLabel(i));
+			}
+			builder.append('\n');
+		}
+		return builder.toString();
+	}
+
+	private static byte[] bytes(GraphSummary summary) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		summary.write(out);
+		out.close();
+		return bytes.toByteArray();
+	}
+}
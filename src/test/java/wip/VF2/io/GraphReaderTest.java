@@ -0,0 +1,167 @@
+package wip.VF2.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wip.VF2.core.BruteForce;
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.graph.Graph;
+import wip.VF2.runner.App;
+
+/**
+ * Writes random graphs in the text format and checks that GraphReader reads what the Scanner based
+ * App.loadGraphSetFromFile reads, from a file larger than its buffer and from a channel that delivers
+ * a few bytes at a time, batch by batch
+ */
+public class GraphReaderTest {
+
+	@Test
+	public void readsWhatTheScannerParserReads() throws IOException {
+		Random random = new Random(11);
+		List<CompactGraph> graphs = new ArrayList<CompactGraph>();
+		for (int i = 0 ; i < 2000 ; i++) {
+			graphs.add(BruteForce.randomGraph(random, String.valueOf(i), random.nextInt(12), random.nextDouble() * 0.5, 4, 3));
+		}
+		Path path = Files.createTempFile("graphs", ".my");
+		try {
+			String text = format(random, graphs, false);
+			assertTrue(text.length() > 2 * (1 << 16));	// records cross the buffer boundaries
+			Files.write(path, text.getBytes(StandardCharsets.US_ASCII));
+
+			ArrayList<Graph> expected = App.loadGraphSetFromFile(path, "Graph ");
+			ArrayList<CompactGraph> actual = GraphReader.readAll(path, "Graph ");
+			assertEquals(graphs.size(), expected.size());
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0 ; i < expected.size() ; i++) {
+				CompactGraph graph = expected.get(i).freeze();
+				assertEquals(graph.name, actual.get(i).name);
+				assertEquals(graph.name, BruteForce.describe(graph), BruteForce.describe(actual.get(i)));
+			}
+
+			// streamed one at a time, the same graphs come out
+			GraphReader reader = new GraphReader(path, "Graph ");
+			try {
+				for (int i = 0 ; i < expected.size() ; i++) {
+					assertTrue(reader.hasNext());
+					assertEquals(BruteForce.describe(actual.get(i)), BruteForce.describe(reader.next()));
+				}
+				assertFalse(reader.hasNext());
+			} finally {
+				reader.close();
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void readsBatchesFromATricklingChannel() throws IOException {
+		Random random = new Random(12);
+		List<List<CompactGraph>> batches = new ArrayList<List<CompactGraph>>();
+		StringBuilder text = new StringBuilder();
+		for (int b = 0 ; b < 20 ; b++) {
+			List<CompactGraph> batch = new ArrayList<CompactGraph>();
+			for (int i = random.nextInt(6) ; i > 0 ; i--) {
+				batch.add(BruteForce.randomGraph(random, String.valueOf(i), random.nextInt(8), random.nextDouble() * 0.5, 3, 3));
+			}
+			batches.add(batch);
+			text.append(format(random, batch, true));
+		}
+
+		GraphReader reader = new GraphReader(new TricklingChannel(random, text.toString()), "Query ");
+		try {
+			for (int b = 0 ; b < batches.size() ; b++) {
+				if (b > 0) {
+					assertTrue(reader.nextBatch());
+				}
+				for (CompactGraph graph : batches.get(b)) {
+					assertTrue(reader.hasNext());
+					CompactGraph read = reader.next();
+					assertEquals("Query " + graph.name, read.name);
+					assertEquals(BruteForce.describe(graph), BruteForce.describe(read));
+				}
+				assertFalse(reader.hasNext());	// the batch ended, the next one is not read yet
+			}
+			assertFalse(reader.nextBatch());
+		} finally {
+			reader.close();
+		}
+	}
+
+	// the text format, nodes in id order and edges shuffled, with blank lines, CRLF and, if messy, extra blanks
+	private static String format(Random random, List<CompactGraph> graphs, boolean messy) {
+		StringBuilder text = new StringBuilder();
+		String space = messy ? " \t " : " ";
+		for (CompactGraph graph : graphs) {
+			ArrayList<String> edges = new ArrayList<String>();
+			for (int v = 0 ; v < graph.nodeCount() ; v++) {
+				for (int e = graph.outBegin(v) ; e < graph.outEnd(v) ; e++) {
+					edges.add("e" + space + v + space + graph.outNeighbor(e) + space + graph.outLabel(e));
+				}
+			}
+			Collections.shuffle(edges, random);
+			ArrayList<String> lines = new ArrayList<String>();
+			lines.add("t # " + graph.name);
+			for (int v = 0 ; v < graph.nodeCount() ; v++) {
+				lines.add("v" + space + v + space + graph.label(v));
+			}
+			lines.addAll(edges);
+			for (String line : lines) {
+				text.append(line).append(random.nextInt(4) == 0 ? "\r\n" : "\n");
+				if (random.nextInt(10) == 0) {
+					text.append('\n');
+				}
+			}
+		}
+		return text.append("t # -1\n").toString();
+	}
+
+	// delivers the text a few bytes per read, sometimes none
+	private static class TricklingChannel implements ReadableByteChannel {
+
+		private final Random random;
+		private final byte[] bytes;
+		private int position = 0;
+		private boolean open = true;
+
+		TricklingChannel(Random random, String text) {
+			this.random = random;
+			this.bytes = text.getBytes(StandardCharsets.US_ASCII);
+		}
+
+		@Override
+		public int read(ByteBuffer dst) {
+			if (position == bytes.length) {
+				return -1;
+			}
+			int length = Math.min(Math.min(random.nextInt(6), dst.remaining()), bytes.length - position);
+			dst.put(bytes, position, length);
+			position += length;
+			return length;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+	}
+}
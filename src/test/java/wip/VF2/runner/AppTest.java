@@ -0,0 +1,91 @@
+package wip.VF2.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import wip.VF2.core.MatchingOrder;
+import wip.VF2.core.VF2;
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.graph.Graph;
+import wip.VF2.index.GraphIndex;
+
+/**
+ * Loads the bundled query files the benchmarks run on, and checks that each one loads completely
+ * and gives the matching and the non-matching pairs MatchBenchmark times
+ */
+public class AppTest {
+
+	private static final Path DATA_DIR = Paths.get("data", "graphDB");
+	private static final String[] QUERY_FILES = {"Q4.my", "Q8.my", "Q12.my", "Q16.my", "Q20.my", "Q24.my"};
+
+	@Test
+	public void bundledFilesLoadCompletely() throws IOException {
+		for (String file : QUERY_FILES) {
+			Path path = DATA_DIR.resolve(file);
+			ArrayList<Graph> graphSet = App.loadGraphSetFromFile(path, "Query ");
+
+			// count the records of each graph, the closing "t # -1" starts none
+			ArrayList<int[]> records = new ArrayList<int[]>();
+			for (String line : Files.readAllLines(path, StandardCharsets.US_ASCII)) {
+				line = line.trim();
+				if (line.startsWith("t")) {
+					records.add(new int[] {Integer.parseInt(line.split(" ")[2]), 0, 0});
+				} else if (line.startsWith("v")) {
+					records.get(records.size() - 1)[1]++;
+				} else if (line.startsWith("e")) {
+					records.get(records.size() - 1)[2]++;
+				}
+			}
+			assertEquals(file, -1, records.remove(records.size() - 1)[0]);
+			assertEquals(file, records.size(), graphSet.size());
+			for (int i = 0 ; i < graphSet.size() ; i++) {
+				CompactGraph graph = graphSet.get(i).freeze();
+				assertEquals(file, "Query " + records.get(i)[0], graph.name);
+				assertEquals(file, records.get(i)[1], graph.nodeCount());
+				assertEquals(file, records.get(i)[2], graph.edgeCount());
+			}
+		}
+	}
+
+	@Test
+	public void bundledFilesGiveRepresentativePairs() throws IOException {
+		VF2 vf2 = new VF2();
+		GraphIndex index = new GraphIndex(freeze(App.loadGraphSetFromFile(DATA_DIR.resolve("Q24.my"), "Graph ")));
+		for (String file : QUERY_FILES) {
+			List<CompactGraph> querySet = freeze(App.loadGraphSetFromFile(DATA_DIR.resolve(file), "Query "));
+			boolean foundMatch = false;
+			boolean foundMismatch = false;
+			for (int q = 0 ; q < Math.min(100, querySet.size()) && !(foundMatch && foundMismatch) ; q++) {
+				CompactGraph queryGraph = querySet.get(q);
+				MatchingOrder order = new MatchingOrder(queryGraph, index);
+				for (CompactGraph targetGraph : index.filter(queryGraph)) {
+					if (vf2.matchGraphPair(targetGraph, queryGraph, order).matched) {
+						foundMatch = true;
+					} else {
+						foundMismatch = true;
+					}
+				}
+			}
+			assertTrue(file, foundMatch);
+			assertTrue(file, foundMismatch);
+		}
+	}
+
+	private static List<CompactGraph> freeze(ArrayList<Graph> graphSet) {
+		ArrayList<CompactGraph> compactSet = new ArrayList<CompactGraph>(graphSet.size());
+		for (Graph graph : graphSet) {
+			compactSet.add(graph.freeze());
+		}
+		return compactSet;
+	}
+}
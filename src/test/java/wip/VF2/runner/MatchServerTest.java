@@ -0,0 +1,180 @@
+package wip.VF2.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import wip.VF2.core.BruteForce;
+import wip.VF2.core.MatchingMode;
+import wip.VF2.core.SearchBudget;
+import wip.VF2.core.VF2;
+import wip.VF2.graph.CompactGraph;
+import wip.VF2.index.GraphIndex;
+
+/**
+ * Serves sessions from byte streams, and checks that malformed queries are reported to the client
+ * while a failing input or output ends the session with an IOException
+ */
+public class MatchServerTest {
+
+	private List<CompactGraph> targetSet;
+	private List<CompactGraph> querySet;
+	private MatchServer server;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(13);
+		targetSet = new ArrayList<CompactGraph>();
+		for (int t = 0 ; t < 30 ; t++) {
+			targetSet.add(BruteForce.randomGraph(random, "t" + t, 1 + random.nextInt(7), 0.3, 2, 2).prepare());
+		}
+		querySet = new ArrayList<CompactGraph>();
+		for (int q = 0 ; q < 40 ; q++) {
+			querySet.add(BruteForce.randomGraph(random, "Query " + q, 1 + random.nextInt(3), 0.4, 2, 2));
+		}
+		server = new MatchServer(new GraphIndex(targetSet), 2, MatchingMode.MONOMORPHISM, SearchBudget.UNLIMITED, null);
+	}
+
+	@After
+	public void tearDown() {
+		server.shutdown();
+	}
+
+	@Test
+	public void batchesAreAnsweredInQueryOrder() throws IOException {
+		String input = text(querySet.subList(0, 25)) + "t # -1\n" + text(querySet.subList(25, 40)) + "t # -1\n";
+		assertEquals(expected(querySet.size()), serve(input));
+	}
+
+	@Test
+	public void malformedInputIsReportedAfterTheQueriesBeforeIt() throws IOException {
+		String[] malformed = {"v x 1\n", "v -1 0\n", "v 0 0\ne 0 3 0\n"};
+		for (String record : malformed) {
+			String input = text(querySet.subList(0, 5)) + "t # 5\n" + record + text(querySet.subList(6, 10)) + "t # -1\n";
+			String output = serve(input);
+			assertTrue(record, output.startsWith(expected(5) + "Error: malformed graph file"));
+			assertFalse(record, output.contains("Query 6"));
+		}
+	}
+
+	@Test
+	public void failedReadEndsTheSession() {
+		final byte[] input = text(querySet).getBytes(StandardCharsets.UTF_8);
+		ReadableByteChannel failing = new ReadableByteChannel() {
+			private int position = 0;
+
+			@Override
+			public int read(ByteBuffer buffer) throws IOException {
+				if (position >= input.length / 2) {
+					throw new IOException("connection reset");
+				}
+				int length = Math.min(buffer.remaining(), Math.min(100, input.length / 2 - position));
+				buffer.put(input, position, length);
+				position += length;
+				return length;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			server.serve(failing, out);
+			fail("the session went on after a failed read");
+		} catch (IOException e) {
+			assertEquals("connection reset", e.getMessage());
+		}
+		assertFalse(new String(out.toByteArray(), StandardCharsets.UTF_8).contains("Error:"));
+	}
+
+	@Test
+	public void failedWriteEndsTheSession() {
+		final int[] written = {0};
+		OutputStream failing = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				if (++written[0] > 200) {
+					throw new IOException("broken pipe");
+				}
+			}
+		};
+		try {
+			server.serve(channel(text(querySet) + "t # -1\n" + text(querySet)), failing);
+			fail("the session went on after a failed write");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void shutdownEndsTheSession() throws IOException {
+		server.shutdown();
+		server.serve(channel(text(querySet)), new ByteArrayOutputStream());
+	}
+
+	private String serve(String input) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		server.serve(channel(input), out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	// the results of the first count queries, as App writes them
+	private String expected(int count) {
+		VF2 vf2 = new VF2(MatchingMode.MONOMORPHISM);
+		GraphIndex index = new GraphIndex(targetSet);
+		StringWriter output = new StringWriter();
+		PrintWriter writer = new PrintWriter(output);
+		for (int q = 0 ; q < count ; q++) {
+			App.writeResult(writer, querySet.get(q), vf2.matchQuery(index, querySet.get(q)));
+		}
+		writer.flush();
+		return output.toString();
+	}
+
+	private static ReadableByteChannel channel(String input) {
+		return Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	// the text format of the graphs, with the ids of their names
+	private static String text(List<CompactGraph> graphs) {
+		StringBuilder builder = new StringBuilder();
+		for (CompactGraph graph : graphs) {
+			builder.append("t # ").append(graph.name.substring("Query ".length())).append('\n');
+			for (int v = 0 ; v < graph.nodeCount() ; v++) {
+				builder.append("v ").append(v).append(' ').append(graph.label(v)).append('\n');
+			}
+			for (int v = 0 ; v < graph.nodeCount() ; v++) {
+				for (int i = graph.outBegin(v) ; i < graph.outEnd(v) ; i++) {
+					builder.append("e ").append(v).append(' ').append(graph.outNeighbor(i)).append(' ').append(graph.outLabel(i)).append('\n');
+				}
+			}
+		}
+		return builder.toString();
+	}
+}